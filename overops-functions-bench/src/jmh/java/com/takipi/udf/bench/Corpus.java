@@ -0,0 +1,132 @@
+package com.takipi.udf.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.collect.Lists;
+import com.takipi.api.client.data.event.Location;
+import com.takipi.api.client.data.event.Stats;
+import com.takipi.api.client.data.transaction.TransactionGraph;
+import com.takipi.api.client.result.event.EventResult;
+
+// Synthetic, seeded data shaped like what the functions get back from the api. The same size
+// always produces the same corpus, so runs are comparable across builds.
+//
+public class Corpus {
+	private static final long SEED = 0x0DDBA11L;
+
+	private static final String[] EXCEPTION_TYPES = { "NullPointerException", "IllegalStateException",
+			"IllegalArgumentException", "IndexOutOfBoundsException", "SocketTimeoutException", "Logged Error",
+			"Logged Warning", "Swallowed Exception", "HTTP Error", "Timer" };
+
+	private final Random random;
+	private final int packageCount;
+	private final int classCount;
+
+	private Corpus(int size) {
+		this.random = new Random(SEED + size);
+		this.packageCount = Math.max(10, (int) Math.sqrt(size) / 10);
+		this.classCount = Math.max(100, (int) Math.sqrt(size));
+	}
+
+	public List<EventResult> events(int count) {
+		List<EventResult> result = Lists.newArrayListWithCapacity(count);
+
+		for (int i = 0; i < count; i++) {
+			result.add(event(i));
+		}
+
+		return result;
+	}
+
+	public List<TransactionGraph> transactions(int count) {
+		List<TransactionGraph> result = Lists.newArrayListWithCapacity(count);
+
+		for (int i = 0; i < count; i++) {
+			TransactionGraph transaction = new TransactionGraph();
+
+			transaction.class_name = internalClassName(random.nextInt(classCount));
+			transaction.method_name = (random.nextInt(4) == 0) ? null : methodName(random.nextInt(20));
+			transaction.name = transaction.class_name + "." + transaction.method_name;
+
+			result.add(transaction);
+		}
+
+		return result;
+	}
+
+	public String packageName(int index) {
+		return "com.acme.service" + (index % packageCount) + ".module" + (index % 7);
+	}
+
+	public String className(int index) {
+		return packageName(index) + ".Handler" + index;
+	}
+
+	public String issueKey(int index) {
+		return "OO-" + (10000 + index);
+	}
+
+	private EventResult event(int index) {
+		EventResult event = new EventResult();
+
+		event.id = String.valueOf(index + 1);
+		event.type = EXCEPTION_TYPES[random.nextInt(EXCEPTION_TYPES.length)];
+		event.name = event.type;
+		event.summary = event.type + " in " + methodName(index % 20);
+		event.labels = Lists.newArrayList();
+
+		// Hits are long tailed, a handful of events account for most of the volume.
+		//
+		event.stats = new Stats();
+		event.stats.hits = (long) Math.exp(random.nextDouble() * 12);
+		event.stats.invocations = event.stats.hits * (1 + random.nextInt(1000));
+
+		event.error_location = location(random.nextInt(classCount), random.nextInt(20));
+		event.entry_point = location(random.nextInt(classCount), random.nextInt(20));
+
+		return event;
+	}
+
+	private Location location(int classIndex, int methodIndex) {
+		Location location = new Location();
+
+		location.class_name = className(classIndex);
+		location.method_name = methodName(methodIndex);
+		location.prettified_name = "Handler" + classIndex + "." + location.method_name;
+		location.original_line_number = String.valueOf(10 + methodIndex * 7);
+
+		return location;
+	}
+
+	private String internalClassName(int index) {
+		return className(index).replace('.', '/');
+	}
+
+	private static String methodName(int index) {
+		return "handle" + index;
+	}
+
+	public static Corpus of(int size) {
+		return new Corpus(size);
+	}
+
+	// Several of the measured paths print per event, which would otherwise measure the
+	// console rather than the code.
+	//
+	public static PrintStream discardingStream() {
+		return new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+
+			}
+		});
+	}
+}
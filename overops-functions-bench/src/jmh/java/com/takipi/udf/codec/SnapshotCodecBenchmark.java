@@ -0,0 +1,62 @@
+package com.takipi.udf.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.takipi.api.client.result.event.EventsResult;
+import com.takipi.udf.bench.Corpus;
+import com.takipi.udf.util.GsonUtil;
+
+// Snapshot codec against the Gson json it replaces, on an events volume of the given size.
+//
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SnapshotCodecBenchmark {
+	@Param({ "100", "1000", "10000", "100000" })
+	public int size;
+
+	private EventsResult eventsResult;
+	private ByteBuffer encoded;
+	private byte[] json;
+
+	@Setup(Level.Trial)
+	public void setupTrial() {
+		eventsResult = new EventsResult();
+		eventsResult.events = Corpus.of(size).events(size);
+
+		encoded = ByteBuffer.wrap(SnapshotCodec.encode(eventsResult));
+		json = GsonUtil.gson().toJson(eventsResult).getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public byte[] encode() {
+		return SnapshotCodec.encode(eventsResult);
+	}
+
+	@Benchmark
+	public EventsResult decode() {
+		return SnapshotCodec.decode(encoded, EventsResult.class);
+	}
+
+	@Benchmark
+	public byte[] encodeJson() {
+		return GsonUtil.gson().toJson(eventsResult).getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public EventsResult decodeJson() {
+		return GsonUtil.gson().fromJson(new String(json, StandardCharsets.UTF_8), EventsResult.class);
+	}
+}
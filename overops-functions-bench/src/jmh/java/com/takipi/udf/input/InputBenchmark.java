@@ -0,0 +1,93 @@
+package com.takipi.udf.input;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.common.collect.Lists;
+
+// Parses a corpus of distinct raw inputs, once through Input (and InputBinder) and once through
+// the old reflective binding, so the two can be compared on the same data.
+//
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class InputBenchmark {
+	@Param({ "100", "1000", "10000", "100000", "1000000" })
+	public int size;
+
+	private List<String> rawInputs;
+
+	@Setup(Level.Trial)
+	public void setupTrial() {
+		rawInputs = Lists.newArrayListWithCapacity(size);
+
+		for (int i = 0; i < size; i++) {
+			rawInputs.add(rawInput(i));
+		}
+	}
+
+	@Benchmark
+	public void bind(Blackhole blackhole) {
+		for (String rawInput : rawInputs) {
+			BenchInput input = new BenchInput();
+			input.initFields(rawInput);
+			blackhole.consume(input);
+		}
+	}
+
+	@Benchmark
+	public void reflectiveBind(Blackhole blackhole) {
+		for (String rawInput : rawInputs) {
+			BenchInput input = new BenchInput();
+			ReflectiveInputBinder.initFields(input, rawInput);
+			blackhole.consume(input);
+		}
+	}
+
+	// Shaped like the severity / threshold inputs, covering every supported field type.
+	//
+	private static String rawInput(int index) {
+		StringBuilder builder = new StringBuilder();
+
+		builder.append("# synthetic input ").append(index).append('\n');
+		builder.append("label=Label-").append(index).append('\n');
+		builder.append("view=View ").append(index % 50).append('\n');
+		builder.append("activeTimespan=").append(60 + index % 1440).append('\n');
+		builder.append("threshold=").append(1000L + index).append('\n');
+		builder.append("minErrorRateThreshold=0.").append(index % 100).append('\n');
+		builder.append("applySeasonality=").append(index % 2 == 0).append('\n');
+		builder.append("timespan=").append(1 + index % 7).append('d').append('\n');
+		builder.append("criticalExceptionTypes=NullPointerException;IndexOutOfBoundsException;InvalidCastException")
+				.append('\n');
+		builder.append("window=").append(Window.values()[index % Window.values().length]).append('\n');
+
+		return builder.toString();
+	}
+
+	public enum Window {
+		HOUR, DAY, WEEK
+	}
+
+	public static class BenchInput extends Input {
+		public String label;
+		public String view;
+		public int activeTimespan;
+		public long threshold;
+		public double minErrorRateThreshold;
+		public boolean applySeasonality;
+		public TimeInterval timespan;
+		public List<String> criticalExceptionTypes;
+		public Window window;
+	}
+}
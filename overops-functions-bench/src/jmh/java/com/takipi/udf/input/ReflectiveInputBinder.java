@@ -0,0 +1,186 @@
+package com.takipi.udf.input;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+// The reflective field binding Input used before InputBinder, kept verbatim as the baseline
+// InputBenchmark compares against.
+//
+class ReflectiveInputBinder {
+	private static final String COMMENT_LINE = "#";
+
+	static void initFields(Input target, String raw) {
+		reflectiveSetFields(target, getPropertyMap(raw));
+	}
+
+	private static void reflectiveSetFields(Input target, Map<String, String> properties) {
+		for (Map.Entry<String, String> entry : properties.entrySet()) {
+			String key = entry.getKey();
+			String value = entry.getValue();
+
+			try {
+				Field fld = target.getClass().getField(key);
+				fld.setAccessible(true);
+
+				final Class<?> type = fld.getType();
+
+				if (type == String.class) {
+					fld.set(target, value);
+				} else if ((type == Boolean.class) || (type == boolean.class)) {
+					fld.set(target, getBoolean(value));
+				} else if ((type == Integer.class) || (type == int.class)) {
+					fld.set(target, getInt(value));
+				} else if ((type == Long.class) || (type == long.class)) {
+					fld.set(target, getLong(value));
+				} else if ((type == Double.class) || (type == double.class)) {
+					fld.set(target, getDouble(value));
+				} else if (type == TimeInterval.class) {
+					try {
+						fld.set(target, getTimeInterval(value));
+					} catch (NumberFormatException e) {
+						throw new IllegalArgumentException("Invalid value for " + key + " - " + value);
+					}
+				} else if (type == List.class) {
+					Type genericType = getGenericType(fld);
+
+					if (genericType == String.class) {
+						fld.set(target, getStringList(value));
+					} else {
+						throw new IllegalArgumentException("Invalid value for " + key + " - " + value);
+					}
+				} else if (type.isEnum()) {
+					boolean enumTypeFound = false;
+
+					for (Object enumeration : type.getEnumConstants()) {
+						if (enumeration.toString().equals(value)) {
+							fld.set(target, enumeration);
+							enumTypeFound = true;
+							break;
+						}
+					}
+
+					if (!enumTypeFound) {
+						throw new IllegalArgumentException("Invalid value for " + key + " - " + value);
+					}
+				} else {
+					throw new UnsupportedOperationException("No support for type - " + type);
+				}
+			} catch (NoSuchFieldException e) {
+				throw new IllegalArgumentException("No field called " + key, e);
+			} catch (IllegalAccessException e) {
+				throw new IllegalStateException("Failed setting field - " + key, e);
+			}
+		}
+	}
+
+	private static boolean getBoolean(String value) {
+		if (StringUtils.isEmpty(value)) {
+			return false;
+		}
+
+		return Boolean.parseBoolean(value.trim());
+	}
+
+	private static int getInt(String value) {
+		if (StringUtils.isEmpty(value)) {
+			return 0;
+		}
+
+		return Integer.parseInt(value.trim());
+	}
+
+	private static long getLong(String value) {
+		if (StringUtils.isEmpty(value)) {
+			return 0l;
+		}
+
+		return Long.parseLong(value.trim());
+	}
+
+	private static double getDouble(String value) {
+		if (StringUtils.isEmpty(value)) {
+			return 0.0;
+		}
+
+		return Double.parseDouble(value.trim());
+	}
+
+	private static TimeInterval getTimeInterval(String value) {
+		return TimeInterval.parse(value.trim());
+	}
+
+	private static List<String> getStringList(String value) {
+		if ((value == null) || (value.isEmpty())) {
+			return Collections.emptyList();
+		}
+
+		String[] split = value.split(";");
+
+		List<String> result = new ArrayList<>(split.length);
+
+		Collections.addAll(result, split);
+
+		return result;
+	}
+
+	private static Type getGenericType(Field fld) {
+		Type[] genericTypes = getGenericTypes(fld);
+
+		if (genericTypes == null) {
+			return null;
+		}
+
+		return genericTypes[0];
+	}
+
+	private static Type[] getGenericTypes(Field fld) {
+		Type type = fld.getGenericType();
+
+		if (type instanceof ParameterizedType) {
+			ParameterizedType genericType = (ParameterizedType) type;
+
+			return genericType.getActualTypeArguments();
+		} else {
+			return null;
+		}
+	}
+
+	private static Map<String, String> getPropertyMap(String rawInput) {
+		Map<String, String> result = new HashMap<>();
+
+		String lines[] = rawInput.split("\\r?\\n");
+
+		for (String line : lines) {
+			String actualLine = StringUtils.trimToEmpty(line);
+
+			if ((actualLine.startsWith(COMMENT_LINE)) || (actualLine.isEmpty())) {
+				continue;
+			}
+
+			int index = actualLine.indexOf('=');
+
+			if ((index <= 0) || (index > actualLine.length() - 1)) {
+				throw new IllegalArgumentException("Invalid input line - " + actualLine);
+			}
+
+			String key = StringUtils.trim(actualLine.substring(0, index));
+			String value = StringUtils.trim(actualLine.substring(index + 1, actualLine.length()));
+
+			if (key.isEmpty()) {
+				throw new IllegalArgumentException("Invalid input line - " + actualLine);
+			}
+
+			result.put(key, value);
+		}
+
+		return result;
+	}
+}
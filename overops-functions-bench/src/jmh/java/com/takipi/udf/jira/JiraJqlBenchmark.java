@@ -0,0 +1,48 @@
+package com.takipi.udf.jira;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.google.common.collect.Lists;
+import com.takipi.udf.bench.Corpus;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JiraJqlBenchmark {
+	@Param({ "100", "1000", "10000", "100000", "1000000" })
+	public int size;
+
+	private List<String> keys;
+
+	@Setup(Level.Trial)
+	public void setupTrial() {
+		Corpus corpus = Corpus.of(size);
+
+		keys = Lists.newArrayListWithCapacity(size);
+
+		for (int i = 0; i < size; i++) {
+			keys.add(corpus.issueKey(i));
+		}
+	}
+
+	@Benchmark
+	public String issueKeysJql() {
+		return JiraEventList.buildIssueKeysJql(null, null, keys);
+	}
+
+	@Benchmark
+	public String statusIssueKeysJql() {
+		return JiraEventList.buildIssueKeysJql("status", "Resolved", keys);
+	}
+}
@@ -0,0 +1,58 @@
+package com.takipi.udf.microsoftteams;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.google.common.collect.Lists;
+import com.takipi.api.client.result.event.EventResult;
+import com.takipi.udf.bench.Corpus;
+import com.takipi.udf.microsoftteams.card.MicrosoftTextBuilder;
+import com.takipi.udf.microsoftteams.card.MicrosoftTextSection;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MicrosoftTeamsAnomalyRequestBenchmark {
+	@Param({ "100", "1000", "10000", "100000", "1000000" })
+	public int size;
+
+	private MicrosoftTeamsAnomalyRequest request;
+
+	// Builds the same sections as Builder.setEventsVolume, with a synthetic link in place of
+	// the api lookup.
+	//
+	@Setup(Level.Trial)
+	public void setupTrial() {
+		List<EventResult> events = Corpus.of(size).events(size);
+		List<MicrosoftTextSection> eventSections = Lists.newArrayListWithCapacity(size);
+
+		for (EventResult event : events) {
+			String link = "https://app.overops.com/tale.html?snapshot=" + event.id;
+
+			eventSections.add(new MicrosoftTextSection(new MicrosoftTextBuilder().addBoldLink(link, event.name)
+					.add(" at ").add(event.error_location.prettified_name).add("| ")
+					.addBold(String.valueOf(event.stats.hits)).addBold(event.stats.hits > 1 ? " times" : " time")
+					.build()));
+		}
+
+		request = new MicrosoftTeamsAnomalyRequest("https://outlook.office.com/webhook/bench",
+				"https://app.overops.com/index.html?view=bench", "All Exceptions", "1000", String.valueOf(size),
+				"10:00 - 11:00", "Production", "bench", "https://app.overops.com/index.html?nav=alertm",
+				eventSections);
+	}
+
+	@Benchmark
+	public String postData() {
+		return request.postData();
+	}
+}
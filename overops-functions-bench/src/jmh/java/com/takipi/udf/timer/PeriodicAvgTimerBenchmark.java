@@ -0,0 +1,68 @@
+package com.takipi.udf.timer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.common.collect.Lists;
+import com.takipi.api.client.data.transaction.TransactionGraph;
+import com.takipi.api.client.result.event.EventResult;
+import com.takipi.api.client.result.redaction.CodeRedactionElements;
+import com.takipi.udf.bench.Corpus;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PeriodicAvgTimerBenchmark {
+	@Param({ "100", "1000", "10000", "100000", "1000000" })
+	public int size;
+
+	// Number of active transactions each event is matched against.
+	//
+	@Param({ "100" })
+	public int transactionCount;
+
+	private List<EventResult> events;
+	private List<TransactionGraph> transactions;
+	private CodeRedactionElements redactionElements;
+
+	@Setup(Level.Trial)
+	public void setupTrial() {
+		Corpus corpus = Corpus.of(size);
+
+		events = corpus.events(size);
+		transactions = corpus.transactions(transactionCount);
+
+		redactionElements = new CodeRedactionElements();
+		redactionElements.packages = Lists.newArrayList();
+		redactionElements.classes = Lists.newArrayList();
+
+		for (int i = 0; i < 20; i++) {
+			redactionElements.packages.add(corpus.packageName(i * 31).replace('.', '/'));
+			redactionElements.classes.add(corpus.className(i * 17));
+		}
+	}
+
+	@Benchmark
+	public Map<TransactionGraph, List<EventResult>> buildTransactionEvents() {
+		return PeriodicAvgTimerFunction.buildTransactionEvents(transactions, events);
+	}
+
+	@Benchmark
+	public void isExcludedTransaction(Blackhole blackhole) {
+		for (TransactionGraph transaction : transactions) {
+			blackhole.consume(PeriodicAvgTimerFunction.isExcludedTransaction(transaction, redactionElements));
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package com.takipi.udf.volume;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.takipi.api.client.result.event.EventResult;
+import com.takipi.udf.bench.Corpus;
+
+// The frame counterparts of ThresholdUtilBenchmark, over the same corpus.
+//
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventVolumeFrameBenchmark {
+	@Param({ "100", "1000", "10000", "100000", "1000000" })
+	public int size;
+
+	private List<EventResult> events;
+	private EventVolumeFrame frame;
+
+	@Setup(Level.Trial)
+	public void setupTrial() {
+		events = Corpus.of(size).events(size);
+		frame = EventVolumeFrame.of(events);
+	}
+
+	@Benchmark
+	public EventVolumeFrame of() {
+		return EventVolumeFrame.of(events);
+	}
+
+	@Benchmark
+	public List<EventResult> topByHits() {
+		return frame.topByHits(AnomalyUtil.MAX_ANOMALY_CONTRIBUTORS);
+	}
+
+	@Benchmark
+	public long hitSum() {
+		return frame.hitSum();
+	}
+
+	@Benchmark
+	public long invocationSum() {
+		return frame.invocationSum(0l);
+	}
+}
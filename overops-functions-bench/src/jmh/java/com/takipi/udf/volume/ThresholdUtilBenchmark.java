@@ -0,0 +1,68 @@
+package com.takipi.udf.volume;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.google.common.collect.Lists;
+import com.takipi.api.client.result.event.EventResult;
+import com.takipi.udf.bench.Corpus;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ThresholdUtilBenchmark {
+	@Param({ "100", "1000", "10000", "100000", "1000000" })
+	public int size;
+
+	private List<EventResult> events;
+	private PrintStream stdout;
+
+	@Setup(Level.Trial)
+	public void setupTrial() {
+		events = Corpus.of(size).events(size);
+		stdout = System.out;
+		System.setOut(Corpus.discardingStream());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDownTrial() {
+		System.setOut(stdout);
+	}
+
+	// Sorting is in place, so every invocation sorts its own copy of the unsorted corpus. The copy
+	// is measured along with the sort - copyEvents measures it alone, to subtract it.
+	//
+	@Benchmark
+	public List<EventResult> sortEventsByHitsDesc() {
+		List<EventResult> result = Lists.newArrayList(events);
+		ThresholdUtil.sortEventsByHitsDesc(result);
+		return result;
+	}
+
+	@Benchmark
+	public List<EventResult> copyEvents() {
+		return Lists.newArrayList(events);
+	}
+
+	@Benchmark
+	public long getEventsHits() {
+		return ThresholdUtil.getEventsHits(events);
+	}
+
+	@Benchmark
+	public long getEventsInvocations() {
+		return ThresholdUtil.getEventsInvocations(events, 0l);
+	}
+}
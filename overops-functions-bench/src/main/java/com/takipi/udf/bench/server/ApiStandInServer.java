@@ -0,0 +1,493 @@
+package com.takipi.udf.bench.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.joda.time.DateTime;
+import org.joda.time.Minutes;
+import org.joda.time.format.ISODateTimeFormat;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.takipi.udf.bench.server.SyntheticBackend.ServiceData;
+import com.takipi.udf.util.GsonUtil;
+
+// An embeddable stand-in for the subset of the OverOps REST API used by the functions in this
+// repo, served from a SyntheticBackend. Point ContextArgs.apiHost at getUrl() to run functions
+// end to end without a real backend. Every response goes through the configured Faults.
+//
+public class ApiStandInServer {
+	private static final String API_PREFIX = "/api/v1/";
+	private static final String SERVICE = "services/([^/]+)";
+
+	private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+	private static final String EMPTY_RESULT = "{}";
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final SyntheticBackend backend;
+	private final Faults faults;
+	private final List<Route> routes;
+
+	private final Map<String, AtomicLong> requestCounts;
+
+	private ApiStandInServer(int port, int threads, SyntheticBackend backend, Faults faults) throws IOException {
+		this.server = HttpServer.create(new InetSocketAddress(port), 0);
+		this.executor = Executors.newFixedThreadPool(threads);
+		this.backend = backend;
+		this.faults = faults;
+		this.routes = buildRoutes();
+		this.requestCounts = Maps.newConcurrentMap();
+
+		server.setExecutor(executor);
+		server.createContext("/", this::handle);
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	public String getUrl() {
+		return "http://localhost:" + server.getAddress().getPort();
+	}
+
+	public Map<String, Long> getRequestCounts() {
+		Map<String, Long> result = Maps.newTreeMap();
+
+		for (Map.Entry<String, AtomicLong> entry : requestCounts.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().get());
+		}
+
+		return result;
+	}
+
+	private List<Route> buildRoutes() {
+		List<Route> result = Lists.newArrayList();
+
+		result.add(Route.of("GET", "services", (m, r) -> servicesResult()));
+
+		result.add(Route.of("GET", SERVICE + "/views", (m, r) -> ok(service(m).views())));
+		result.add(Route.of("POST", SERVICE + "/views", (m, r) -> ok(service(m).createView(r.bodyString("name")))));
+		result.add(Route.of("GET", SERVICE + "/views/([^/]+)", (m, r) -> okOrNotFound(service(m).view(m.group(2)))));
+		result.add(Route.of("DELETE", SERVICE + "/views/([^/]+)",
+				(m, r) -> (service(m).removeView(m.group(2)) ? Reply.ok(EMPTY_RESULT) : Reply.NOT_FOUND)));
+
+		result.add(Route.of("GET", SERVICE + "/views/([^/]+)/events",
+				(m, r) -> ok(service(m).events(r.windowMinutes()))));
+		result.add(Route.of("GET", SERVICE + "/views/([^/]+)/events/graph",
+				(m, r) -> ok(service(m).eventGraphs(m.group(2), r.from(), r.to(), r.intParam("points", 10)))));
+		result.add(Route.of("GET", SERVICE + "/views/([^/]+)/transactions",
+				(m, r) -> ok(service(m).transactions(r.windowMinutes()))));
+		result.add(Route.of("GET", SERVICE + "/views/([^/]+)/transactions/graph",
+				(m, r) -> ok(service(m).transactionGraphs(r.from(), r.to(), r.intParam("points", 10)))));
+		result.add(Route.of("(POST|PUT)", SERVICE + "/views/([^/]+)/alerts.*", (m, r) -> Reply.ok(EMPTY_RESULT)));
+
+		result.add(Route.of("GET", SERVICE + "/events/([^/]+)", (m, r) -> okOrNotFound(service(m).event(m.group(2)))));
+		result.add(Route.of("GET", SERVICE + "/events/([^/]+)/actions",
+				(m, r) -> ok(service(m).eventActions(m.group(2)))));
+		result.add(Route.of("POST", SERVICE + "/events/([^/]+)/labels.*", this::modifyEventLabels));
+		result.add(Route.of("POST", SERVICE + "/(events/)?labels/batch.*", this::batchModifyLabels));
+		result.add(Route.of("POST", SERVICE + "/(events/)?snapshots.*", (m, r) -> Reply.ok(EMPTY_RESULT)));
+
+		result.add(Route.of("GET", SERVICE + "/labels", (m, r) -> ok(service(m).labels())));
+		result.add(Route.of("POST", SERVICE + "/labels", this::createLabel));
+
+		result.add(Route.of("GET", SERVICE + "/categories", (m, r) -> ok(service(m).categories())));
+		result.add(Route.of("POST", SERVICE + "/categories",
+				(m, r) -> ok(service(m).createCategory(r.bodyString("name")))));
+		result.add(Route.of("(POST|PUT|DELETE)", SERVICE + "/categories/.+", (m, r) -> Reply.ok(EMPTY_RESULT)));
+
+		result.add(Route.of("GET", SERVICE + "/timers", (m, r) -> ok(service(m).timers())));
+		result.add(Route.of("POST", SERVICE + "/timers", (m, r) -> ok(service(m).createTimer(r.bodyObject()))));
+		result.add(Route.of("(POST|PUT)", SERVICE + "/timers/([^/]+).*",
+				(m, r) -> (service(m).updateTimer(m.group(2), r.bodyObject()) ? Reply.ok(EMPTY_RESULT)
+						: Reply.NOT_FOUND)));
+
+		result.add(Route.of("GET", SERVICE + "/settings/.*", (m, r) -> settingsResult()));
+		result.add(Route.of("(POST|PUT)", SERVICE + "/settings/.*", (m, r) -> Reply.ok(EMPTY_RESULT)));
+
+		return result;
+	}
+
+	private ServiceData service(Matcher matcher) {
+		return backend.service(matcher.group(1));
+	}
+
+	private Reply createLabel(Matcher matcher, StandInRequest request) {
+		service(matcher).createLabel(request.bodyString("name"));
+		return Reply.ok(EMPTY_RESULT);
+	}
+
+	private Reply modifyEventLabels(Matcher matcher, StandInRequest request) {
+		JsonObject body = request.bodyObject();
+
+		if (body == null) {
+			return Reply.BAD_REQUEST;
+		}
+
+		service(matcher).modifyLabels(matcher.group(2), stringList(body.get("add")), stringList(body.get("remove")));
+
+		return Reply.ok(EMPTY_RESULT);
+	}
+
+	// Accepts the batch body in its "modifications" form: [{event_id, add: [], remove: []}].
+	//
+	private Reply batchModifyLabels(Matcher matcher, StandInRequest request) {
+		JsonObject body = request.bodyObject();
+
+		if ((body == null) || (!body.has("modifications"))) {
+			return Reply.BAD_REQUEST;
+		}
+
+		ServiceData service = service(matcher);
+
+		for (JsonElement element : body.getAsJsonArray("modifications")) {
+			JsonObject modification = element.getAsJsonObject();
+
+			service.modifyLabels(modification.get("event_id").getAsString(), stringList(modification.get("add")),
+					stringList(modification.get("remove")));
+		}
+
+		return Reply.ok(EMPTY_RESULT);
+	}
+
+	private static List<String> stringList(JsonElement element) {
+		List<String> result = Lists.newArrayList();
+
+		if ((element == null) || (!element.isJsonArray())) {
+			return result;
+		}
+
+		for (JsonElement item : element.getAsJsonArray()) {
+			result.add(item.getAsString());
+		}
+
+		return result;
+	}
+
+	private static Reply servicesResult() {
+		JsonObject service = new JsonObject();
+
+		service.addProperty("id", "S1");
+		service.addProperty("name", "stand-in");
+
+		JsonArray services = new JsonArray();
+		services.add(service);
+
+		JsonObject result = new JsonObject();
+		result.add("services", services);
+
+		return ok(result);
+	}
+
+	private static Reply settingsResult() {
+		JsonObject result = new JsonObject();
+
+		result.add("packages", new JsonArray());
+		result.add("classes", new JsonArray());
+
+		return ok(result);
+	}
+
+	private static Reply ok(JsonElement element) {
+		return Reply.ok(GsonUtil.gson().toJson(element));
+	}
+
+	private static Reply okOrNotFound(JsonElement element) {
+		if (element == null) {
+			return Reply.NOT_FOUND;
+		}
+
+		return ok(element);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			Reply reply;
+
+			// Bad bodies, numbers or dates in a request still get an answer, rather than a
+			// connection closed on the client without one.
+			//
+			try {
+				reply = dispatch(exchange);
+			} catch (RuntimeException e) {
+				reply = Reply.serverError(e);
+			}
+
+			if (reply.code == HTTP_TOO_MANY_REQUESTS) {
+				exchange.getResponseHeaders().set("Retry-After", String.valueOf(faults.retryAfterSeconds));
+			}
+
+			byte[] body = reply.body.getBytes(StandardCharsets.UTF_8);
+
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(reply.code, body.length);
+
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private Reply dispatch(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+
+		if (!path.startsWith(API_PREFIX)) {
+			return Reply.NOT_FOUND;
+		}
+
+		String method = exchange.getRequestMethod();
+		String apiPath = path.substring(API_PREFIX.length());
+
+		for (Route route : routes) {
+			if (!route.method.matcher(method).matches()) {
+				continue;
+			}
+
+			Matcher matcher = route.path.matcher(apiPath);
+
+			if (!matcher.matches()) {
+				continue;
+			}
+
+			requestCounts.computeIfAbsent(method + " " + route.path.pattern(), k -> new AtomicLong()).incrementAndGet();
+
+			injectLatency();
+
+			if (faults.nextThrottled()) {
+				return Reply.TOO_MANY_REQUESTS;
+			}
+
+			if (faults.nextError()) {
+				return Reply.SERVER_ERROR;
+			}
+
+			StandInRequest request = StandInRequest.of(exchange.getRequestURI().getRawQuery(),
+					readBody(exchange.getRequestBody()));
+
+			return route.handler.handle(matcher, request);
+		}
+
+		requestCounts.computeIfAbsent("unmatched " + method + " " + apiPath, k -> new AtomicLong()).incrementAndGet();
+
+		return Reply.NOT_FOUND;
+	}
+
+	private void injectLatency() {
+		long latencyMillis = faults.nextLatencyMillis();
+
+		if (latencyMillis <= 0) {
+			return;
+		}
+
+		try {
+			TimeUnit.MILLISECONDS.sleep(latencyMillis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static String readBody(InputStream is) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+
+		while ((read = is.read(buffer)) != -1) {
+			result.write(buffer, 0, read);
+		}
+
+		return new String(result.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	public static ApiStandInServer create(int port, int threads, SyntheticBackend backend, Faults faults)
+			throws IOException {
+		return new ApiStandInServer(port, threads, backend, faults);
+	}
+
+	// Usage: ApiStandInServer [port] [events] [transactions] [latencyMs] [jitterMs] [errorRate] [429Rate]
+	//
+	public static void main(String[] args) throws IOException {
+		int port = intArg(args, 0, 8080);
+		int events = intArg(args, 1, 1000);
+		int transactions = intArg(args, 2, 200);
+
+		Faults faults = Faults.newBuilder().setLatencyMillis(intArg(args, 3, 0))
+				.setLatencyJitterMillis(intArg(args, 4, 0)).setErrorRate(doubleArg(args, 5, 0.0))
+				.setThrottleRate(doubleArg(args, 6, 0.0)).build();
+
+		ApiStandInServer server = create(port, Runtime.getRuntime().availableProcessors() * 4,
+				SyntheticBackend.of(events, transactions), faults);
+
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			server.stop();
+			System.out.println(server.getRequestCounts());
+		}));
+
+		server.start();
+
+		System.out.println("Serving " + events + " events, " + transactions + " transactions per service on "
+				+ server.getUrl() + " - " + faults);
+	}
+
+	private static int intArg(String[] args, int index, int defaultValue) {
+		return ((args.length > index) ? Integer.parseInt(args[index]) : defaultValue);
+	}
+
+	private static double doubleArg(String[] args, int index, double defaultValue) {
+		return ((args.length > index) ? Double.parseDouble(args[index]) : defaultValue);
+	}
+
+	interface Handler {
+		Reply handle(Matcher matcher, StandInRequest request);
+	}
+
+	static class Route {
+		public final Pattern method;
+		public final Pattern path;
+		public final Handler handler;
+
+		private Route(Pattern method, Pattern path, Handler handler) {
+			this.method = method;
+			this.path = path;
+			this.handler = handler;
+		}
+
+		static Route of(String method, String path, Handler handler) {
+			return new Route(Pattern.compile(method), Pattern.compile(path), handler);
+		}
+	}
+
+	static class Reply {
+		static final Reply NOT_FOUND = new Reply(404, "{\"message\":\"not found\"}");
+		static final Reply BAD_REQUEST = new Reply(400, "{\"message\":\"bad request\"}");
+		static final Reply SERVER_ERROR = new Reply(500, "{\"message\":\"injected error\"}");
+		static final Reply TOO_MANY_REQUESTS = new Reply(HTTP_TOO_MANY_REQUESTS, "{\"message\":\"throttled\"}");
+
+		public final int code;
+		public final String body;
+
+		private Reply(int code, String body) {
+			this.code = code;
+			this.body = body;
+		}
+
+		static Reply ok(String body) {
+			return new Reply(200, body);
+		}
+
+		static Reply serverError(Exception e) {
+			JsonObject body = new JsonObject();
+			body.addProperty("message", String.valueOf(e));
+
+			return new Reply(500, GsonUtil.gson().toJson(body));
+		}
+	}
+
+	static class StandInRequest {
+		public final Map<String, String> query;
+		public final String body;
+
+		private StandInRequest(Map<String, String> query, String body) {
+			this.query = query;
+			this.body = body;
+		}
+
+		JsonObject bodyObject() {
+			if (Strings.isNullOrEmpty(body)) {
+				return null;
+			}
+
+			JsonElement element = new JsonParser().parse(body);
+
+			return (element.isJsonObject() ? element.getAsJsonObject() : null);
+		}
+
+		String bodyString(String name) {
+			JsonObject object = bodyObject();
+
+			if ((object == null) || (!object.has(name))) {
+				return "";
+			}
+
+			return object.get(name).getAsString();
+		}
+
+		int intParam(String name, int defaultValue) {
+			String value = query.get(name);
+
+			return (Strings.isNullOrEmpty(value) ? defaultValue : Integer.parseInt(value));
+		}
+
+		DateTime from() {
+			String value = query.get("from");
+
+			if (Strings.isNullOrEmpty(value)) {
+				return to().minusHours(1);
+			}
+
+			return ISODateTimeFormat.dateTimeParser().parseDateTime(value);
+		}
+
+		DateTime to() {
+			String value = query.get("to");
+
+			if (Strings.isNullOrEmpty(value)) {
+				return DateTime.now();
+			}
+
+			return ISODateTimeFormat.dateTimeParser().parseDateTime(value);
+		}
+
+		long windowMinutes() {
+			return Minutes.minutesBetween(from(), to()).getMinutes();
+		}
+
+		static StandInRequest of(String rawQuery, String body) throws UnsupportedEncodingException {
+			Map<String, String> query = Maps.newHashMap();
+
+			if (!Strings.isNullOrEmpty(rawQuery)) {
+				for (String pair : rawQuery.split("&")) {
+					int index = pair.indexOf('=');
+
+					if (index <= 0) {
+						continue;
+					}
+
+					query.put(URLDecoder.decode(pair.substring(0, index), "UTF-8"),
+							URLDecoder.decode(pair.substring(index + 1), "UTF-8"));
+				}
+			}
+
+			return new StandInRequest(query, body);
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.takipi.udf.bench.server;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+// Latency, error and throttling injected into every stand-in response.
+//
+public class Faults {
+	public static final Faults NONE = newBuilder().build();
+
+	public final long latencyMillis;
+	public final long latencyJitterMillis;
+	public final double errorRate;
+	public final double throttleRate;
+	public final int retryAfterSeconds;
+
+	private Faults(long latencyMillis, long latencyJitterMillis, double errorRate, double throttleRate,
+			int retryAfterSeconds) {
+		this.latencyMillis = latencyMillis;
+		this.latencyJitterMillis = latencyJitterMillis;
+		this.errorRate = errorRate;
+		this.throttleRate = throttleRate;
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+	// Latency is the base plus an exponentially distributed jitter, which gives a long tail
+	// rather than a flat spread.
+	//
+	long nextLatencyMillis() {
+		if (latencyJitterMillis <= 0) {
+			return latencyMillis;
+		}
+
+		double u = ThreadLocalRandom.current().nextDouble();
+
+		return latencyMillis + (long) (-Math.log(1.0 - u) * latencyJitterMillis);
+	}
+
+	boolean nextThrottled() {
+		return ((throttleRate > 0) && (ThreadLocalRandom.current().nextDouble() < throttleRate));
+	}
+
+	boolean nextError() {
+		return ((errorRate > 0) && (ThreadLocalRandom.current().nextDouble() < errorRate));
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Faults(latency = %d+%dms, errors = %.3f, 429s = %.3f)", latencyMillis,
+				latencyJitterMillis, errorRate, throttleRate);
+	}
+
+	public static Builder newBuilder() {
+		return new Builder();
+	}
+
+	public static class Builder {
+		private long latencyMillis;
+		private long latencyJitterMillis;
+		private double errorRate;
+		private double throttleRate;
+		private int retryAfterSeconds = 1;
+
+		Builder() {
+
+		}
+
+		public Builder setLatencyMillis(long latencyMillis) {
+			this.latencyMillis = latencyMillis;
+			return this;
+		}
+
+		public Builder setLatencyJitterMillis(long latencyJitterMillis) {
+			this.latencyJitterMillis = latencyJitterMillis;
+			return this;
+		}
+
+		public Builder setErrorRate(double errorRate) {
+			this.errorRate = errorRate;
+			return this;
+		}
+
+		public Builder setThrottleRate(double throttleRate) {
+			this.throttleRate = throttleRate;
+			return this;
+		}
+
+		public Builder setRetryAfterSeconds(int retryAfterSeconds) {
+			this.retryAfterSeconds = retryAfterSeconds;
+			return this;
+		}
+
+		public Faults build() {
+			return new Faults(latencyMillis, latencyJitterMillis, errorRate, throttleRate, retryAfterSeconds);
+		}
+	}
+}
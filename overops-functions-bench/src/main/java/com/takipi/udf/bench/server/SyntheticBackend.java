@@ -0,0 +1,441 @@
+package com.takipi.udf.bench.server;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.takipi.api.client.data.event.Location;
+import com.takipi.api.client.data.event.Stats;
+import com.takipi.api.client.result.event.EventResult;
+import com.takipi.udf.util.GsonUtil;
+
+// In memory, seeded data for every service the stand-in is asked about. Services are generated
+// on first access, so any service id works. Writes (labels, views, categories, timers) are
+// applied to the same state reads are served from, so functions see their own changes on the
+// next tick just like against the real backend.
+//
+public class SyntheticBackend {
+	private static final String[] DEFAULT_VIEWS = { "All Events", "All Exceptions", "Critical Exceptions",
+			"Resurfaced Errors", "New Today", "Logged Errors", "HTTP Errors" };
+
+	private static final String[] EXCEPTION_TYPES = { "NullPointerException", "IllegalStateException",
+			"IllegalArgumentException", "IndexOutOfBoundsException", "SocketTimeoutException", "Logged Error",
+			"Logged Warning", "Swallowed Exception", "HTTP Error", "Timer" };
+
+	private final int eventCount;
+	private final int transactionCount;
+	private final Map<String, ServiceData> services;
+
+	private SyntheticBackend(int eventCount, int transactionCount) {
+		this.eventCount = eventCount;
+		this.transactionCount = transactionCount;
+		this.services = Maps.newConcurrentMap();
+	}
+
+	public ServiceData service(String serviceId) {
+		return services.computeIfAbsent(serviceId, this::generate);
+	}
+
+	private ServiceData generate(String serviceId) {
+		Random random = new Random(serviceId.hashCode());
+		ServiceData result = new ServiceData(serviceId);
+
+		for (String viewName : DEFAULT_VIEWS) {
+			result.createView(viewName);
+		}
+
+		for (int i = 0; i < eventCount; i++) {
+			EventResult event = new EventResult();
+
+			event.id = String.valueOf(i + 1);
+			event.type = EXCEPTION_TYPES[random.nextInt(EXCEPTION_TYPES.length)];
+			event.name = event.type;
+			event.summary = event.type + " in handle" + (i % 20);
+			event.message = event.summary;
+			event.labels = Lists.newArrayList();
+			event.first_seen = ISODateTimeFormat.dateTime()
+					.print(DateTime.now().minusMinutes(random.nextInt(60 * 24 * 30)));
+			event.error_location = location(random, random.nextInt(transactionCount), random.nextInt(20));
+			event.entry_point = location(random, random.nextInt(transactionCount), random.nextInt(20));
+			event.stats = new Stats();
+
+			result.events.put(event.id, event);
+			result.eventHits.put(event.id, (long) Math.exp(random.nextDouble() * 12));
+		}
+
+		for (int i = 0; i < transactionCount; i++) {
+			JsonObject transaction = new JsonObject();
+
+			transaction.addProperty("name", "Handler" + i);
+			transaction.addProperty("class_name", className(i).replace('.', '/'));
+			transaction.addProperty("method_name", "handle" + (i % 20));
+
+			result.transactions.add(transaction);
+			result.transactionInvocations.add(1000L + random.nextInt(1000000));
+			result.transactionAvgTimes.add(5.0 + random.nextDouble() * 500.0);
+		}
+
+		return result;
+	}
+
+	private static Location location(Random random, int classIndex, int methodIndex) {
+		Location location = new Location();
+
+		location.class_name = className(classIndex);
+		location.method_name = "handle" + methodIndex;
+		location.prettified_name = "Handler" + classIndex + "." + location.method_name;
+		location.original_line_number = String.valueOf(10 + random.nextInt(500));
+
+		return location;
+	}
+
+	private static String className(int index) {
+		return "com.acme.service" + (index % 10) + ".Handler" + index;
+	}
+
+	public static SyntheticBackend of(int eventCount, int transactionCount) {
+		return new SyntheticBackend(eventCount, transactionCount);
+	}
+
+	public static class ServiceData {
+		private final String serviceId;
+		private final AtomicInteger idGenerator;
+
+		private final Map<String, JsonObject> views;
+		private final Map<String, JsonObject> categories;
+		private final Map<String, JsonObject> labels;
+		private final Map<String, JsonObject> timers;
+		private final Map<String, EventResult> events;
+		private final Map<String, Long> eventHits;
+		private final Map<String, List<JsonObject>> eventActions;
+		private final List<JsonObject> transactions;
+		private final List<Long> transactionInvocations;
+		private final List<Double> transactionAvgTimes;
+
+		ServiceData(String serviceId) {
+			this.serviceId = serviceId;
+			this.idGenerator = new AtomicInteger(1);
+			this.views = Maps.newLinkedHashMap();
+			this.categories = Maps.newLinkedHashMap();
+			this.labels = Maps.newLinkedHashMap();
+			this.timers = Maps.newLinkedHashMap();
+			this.events = Maps.newLinkedHashMap();
+			this.eventHits = Maps.newHashMap();
+			this.eventActions = Maps.newHashMap();
+			this.transactions = Lists.newArrayList();
+			this.transactionInvocations = Lists.newArrayList();
+			this.transactionAvgTimes = Lists.newArrayList();
+		}
+
+		private String nextId(String prefix) {
+			return prefix + idGenerator.getAndIncrement();
+		}
+
+		public synchronized JsonObject views() {
+			return wrap("views", views.values());
+		}
+
+		public synchronized JsonObject view(String viewId) {
+			return views.get(viewId);
+		}
+
+		public synchronized JsonObject createView(String name) {
+			for (JsonObject view : views.values()) {
+				if (name.equals(view.get("name").getAsString())) {
+					return view;
+				}
+			}
+
+			JsonObject view = new JsonObject();
+
+			view.addProperty("id", nextId("P"));
+			view.addProperty("name", name);
+
+			views.put(view.get("id").getAsString(), view);
+
+			return view;
+		}
+
+		public synchronized boolean removeView(String viewId) {
+			return (views.remove(viewId) != null);
+		}
+
+		public synchronized JsonObject categories() {
+			return wrap("categories", categories.values());
+		}
+
+		public synchronized JsonObject createCategory(String name) {
+			JsonObject category = new JsonObject();
+
+			category.addProperty("id", nextId("C"));
+			category.addProperty("name", name);
+			category.add("views", new JsonArray());
+
+			categories.put(category.get("id").getAsString(), category);
+
+			return category;
+		}
+
+		public synchronized JsonObject labels() {
+			return wrap("labels", labels.values());
+		}
+
+		public synchronized void createLabel(String name) {
+			if (labels.containsKey(name)) {
+				return;
+			}
+
+			JsonObject label = new JsonObject();
+
+			label.addProperty("name", name);
+			label.addProperty("type", "USER");
+
+			labels.put(name, label);
+		}
+
+		// Every volume request sees hits scaled to the requested window, so longer windows
+		// return proportionally larger counts.
+		//
+		public synchronized JsonObject events(long windowMinutes) {
+			JsonObject result = new JsonObject();
+			JsonArray array = new JsonArray();
+
+			for (EventResult event : events.values()) {
+				long hits = Math.max(1L, eventHits.get(event.id) * Math.max(1L, windowMinutes) / 60L);
+
+				event.stats.hits = hits;
+				event.stats.invocations = hits * 10L;
+
+				array.add(GsonUtil.gson().toJsonTree(event));
+			}
+
+			result.add("events", array);
+
+			return result;
+		}
+
+		// A single graph of the view, each point holding the view's hits in its step and the
+		// events that contributed them.
+		//
+		public synchronized JsonObject eventGraphs(String viewId, DateTime from, DateTime to, int pointsWanted) {
+			int pointCount = Math.max(1, pointsWanted);
+			long stepMillis = Math.max(60000L, (to.getMillis() - from.getMillis()) / pointCount);
+			long stepMinutes = stepMillis / 60000L;
+
+			JsonArray points = new JsonArray();
+
+			for (int p = 0; p < pointCount; p++) {
+				JsonArray contributors = new JsonArray();
+				long pointHits = 0L;
+
+				for (EventResult event : events.values()) {
+					long hits = eventHits.get(event.id) * stepMinutes / 60L;
+
+					if (hits <= 0L) {
+						continue;
+					}
+
+					JsonObject stats = new JsonObject();
+					stats.addProperty("hits", hits);
+					stats.addProperty("invocations", hits * 10L);
+
+					JsonObject contributor = new JsonObject();
+					contributor.addProperty("id", event.id);
+					contributor.add("stats", stats);
+
+					contributors.add(contributor);
+					pointHits += hits;
+				}
+
+				JsonObject stats = new JsonObject();
+				stats.addProperty("hits", pointHits);
+				stats.addProperty("invocations", pointHits * 10L);
+
+				JsonObject point = new JsonObject();
+				point.addProperty("time", ISODateTimeFormat.dateTime().print(from.plus(stepMillis * p)));
+				point.add("stats", stats);
+				point.add("contributors", contributors);
+
+				points.add(point);
+			}
+
+			JsonObject graph = new JsonObject();
+			graph.addProperty("id", viewId);
+			graph.addProperty("type", "view");
+			graph.add("points", points);
+
+			JsonArray graphs = new JsonArray();
+			graphs.add(graph);
+
+			JsonObject result = new JsonObject();
+			result.add("graphs", graphs);
+
+			return result;
+		}
+
+		public synchronized JsonElement event(String eventId) {
+			EventResult event = events.get(eventId);
+
+			if (event == null) {
+				return null;
+			}
+
+			return GsonUtil.gson().toJsonTree(event);
+		}
+
+		public synchronized JsonObject eventActions(String eventId) {
+			List<JsonObject> actions = eventActions.get(eventId);
+
+			if (actions == null) {
+				actions = Lists.newArrayList();
+			}
+
+			return wrap("event_actions", actions);
+		}
+
+		public synchronized void modifyLabels(String eventId, Collection<String> add, Collection<String> remove) {
+			EventResult event = events.get(eventId);
+
+			if (event == null) {
+				return;
+			}
+
+			String timestamp = ISODateTimeFormat.dateTime().print(DateTime.now());
+
+			for (String label : add) {
+				if (!event.labels.contains(label)) {
+					event.labels.add(label);
+					addAction(eventId, "Add_Label", label, timestamp);
+				}
+			}
+
+			for (String label : remove) {
+				if (event.labels.remove(label)) {
+					addAction(eventId, "Remove_Label", label, timestamp);
+				}
+			}
+		}
+
+		private void addAction(String eventId, String type, String data, String timestamp) {
+			JsonObject action = new JsonObject();
+
+			action.addProperty("action", type);
+			action.addProperty("data", data);
+			action.addProperty("timestamp", timestamp);
+			action.addProperty("initiator", "stand-in");
+
+			eventActions.computeIfAbsent(eventId, id -> Lists.newArrayList()).add(action);
+		}
+
+		public synchronized JsonObject transactions(long windowMinutes) {
+			JsonArray array = new JsonArray();
+
+			for (int i = 0; i < transactions.size(); i++) {
+				JsonObject transaction = transactions.get(i).deepCopy();
+
+				transaction.add("stats", transactionStats(i, windowMinutes));
+				array.add(transaction);
+			}
+
+			JsonObject result = new JsonObject();
+			result.add("transactions", array);
+
+			return result;
+		}
+
+		public synchronized JsonObject transactionGraphs(DateTime from, DateTime to, int pointsWanted) {
+			JsonArray array = new JsonArray();
+
+			int pointCount = Math.max(1, pointsWanted);
+			long stepMillis = Math.max(60000L, (to.getMillis() - from.getMillis()) / pointCount);
+
+			for (int i = 0; i < transactions.size(); i++) {
+				JsonObject graph = transactions.get(i).deepCopy();
+				JsonArray points = new JsonArray();
+
+				for (int p = 0; p < pointCount; p++) {
+					JsonObject point = new JsonObject();
+
+					point.addProperty("time", ISODateTimeFormat.dateTime().print(from.plus(stepMillis * p)));
+					point.add("stats", transactionStats(i, stepMillis / 60000L));
+					points.add(point);
+				}
+
+				graph.add("points", points);
+				array.add(graph);
+			}
+
+			JsonObject result = new JsonObject();
+			result.add("graphs", array);
+
+			return result;
+		}
+
+		private JsonObject transactionStats(int index, long windowMinutes) {
+			JsonObject stats = new JsonObject();
+			double avgTime = transactionAvgTimes.get(index);
+
+			stats.addProperty("invocations", transactionInvocations.get(index) * Math.max(1L, windowMinutes) / 60L);
+			stats.addProperty("avg_time", avgTime);
+			stats.addProperty("avg_time_std_deviation", avgTime / 4.0);
+
+			return stats;
+		}
+
+		public synchronized JsonObject timers() {
+			return wrap("transaction_timers", timers.values());
+		}
+
+		public synchronized JsonObject createTimer(JsonObject body) {
+			JsonObject timer = (body == null) ? new JsonObject() : body.deepCopy();
+
+			timer.addProperty("id", nextId("T"));
+			timers.put(timer.get("id").getAsString(), timer);
+
+			return timer;
+		}
+
+		public synchronized boolean updateTimer(String timerId, JsonObject body) {
+			JsonObject timer = timers.get(timerId);
+
+			if (timer == null) {
+				return false;
+			}
+
+			if (body != null) {
+				for (Map.Entry<String, JsonElement> entry : body.entrySet()) {
+					timer.add(entry.getKey(), entry.getValue());
+				}
+			}
+
+			return true;
+		}
+
+		public String getServiceId() {
+			return serviceId;
+		}
+
+		private static JsonObject wrap(String name, Collection<JsonObject> values) {
+			JsonArray array = new JsonArray();
+
+			for (JsonObject value : values) {
+				array.add(value);
+			}
+
+			JsonObject result = new JsonObject();
+			result.add(name, array);
+
+			return result;
+		}
+	}
+}
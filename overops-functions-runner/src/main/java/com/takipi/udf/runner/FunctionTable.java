@@ -0,0 +1,113 @@
+package com.takipi.udf.runner;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.takipi.udf.runner.UdfManifest.UdfFunction;
+
+// Resolves the static entry points of every function in the manifest once, so dispatching an
+// invocation is a map lookup and a method handle call.
+//
+public class FunctionTable {
+	private static final MethodType VALIDATE_TYPE = MethodType.methodType(String.class, String.class);
+	private static final MethodType EXECUTE_TYPE = MethodType.methodType(void.class, String.class, String.class);
+
+	private final Map<String, FunctionEntry> entries;
+
+	private FunctionTable(Map<String, FunctionEntry> entries) {
+		this.entries = entries;
+	}
+
+	public FunctionEntry get(String functionName) {
+		FunctionEntry entry = entries.get(functionName);
+
+		if (entry == null) {
+			throw new IllegalArgumentException("No function called " + functionName);
+		}
+
+		return entry;
+	}
+
+	public static FunctionTable of(UdfManifest manifest, ClassLoader classLoader) {
+		Map<String, FunctionEntry> entries = new HashMap<>();
+
+		for (UdfFunction function : manifest.functions) {
+			FunctionEntry entry = FunctionEntry.resolve(function, classLoader);
+
+			// Functions can be addressed both by their manifest name and their class.
+			//
+			entries.put(function.name, entry);
+			entries.putIfAbsent(function.classFile, entry);
+		}
+
+		return new FunctionTable(Collections.unmodifiableMap(entries));
+	}
+
+	public static class FunctionEntry {
+		public final UdfFunction function;
+
+		private final MethodHandle validateInput;
+		private final MethodHandle execute;
+		private final MethodHandle install;
+
+		private FunctionEntry(UdfFunction function, MethodHandle validateInput, MethodHandle execute,
+				MethodHandle install) {
+			this.function = function;
+			this.validateInput = validateInput;
+			this.execute = execute;
+			this.install = install;
+		}
+
+		public String validateInput(String rawInput) throws Throwable {
+			return (String) validateInput.invokeExact(rawInput);
+		}
+
+		public void execute(String rawContextArgs, String rawInput) throws Throwable {
+			execute.invokeExact(rawContextArgs, rawInput);
+		}
+
+		public boolean hasInstall() {
+			return (install != null);
+		}
+
+		public void install(String rawContextArgs, String rawInput) throws Throwable {
+			if (install == null) {
+				throw new UnsupportedOperationException(function.name + " has no install method");
+			}
+
+			install.invokeExact(rawContextArgs, rawInput);
+		}
+
+		static FunctionEntry resolve(UdfFunction function, ClassLoader classLoader) {
+			Class<?> functionClass;
+
+			try {
+				functionClass = Class.forName(function.classFile, true, classLoader);
+			} catch (ClassNotFoundException e) {
+				throw new IllegalStateException("Missing class for function " + function, e);
+			}
+
+			MethodHandle validateInput = findStatic(functionClass, "validateInput", VALIDATE_TYPE);
+			MethodHandle execute = findStatic(functionClass, "execute", EXECUTE_TYPE);
+
+			if ((validateInput == null) || (execute == null)) {
+				throw new IllegalStateException("Function " + function + " must have validateInput and execute");
+			}
+
+			return new FunctionEntry(function, validateInput, execute,
+					findStatic(functionClass, "install", EXECUTE_TYPE));
+		}
+
+		private static MethodHandle findStatic(Class<?> functionClass, String name, MethodType type) {
+			try {
+				return MethodHandles.publicLookup().findStatic(functionClass, name, type);
+			} catch (NoSuchMethodException | IllegalAccessException e) {
+				return null;
+			}
+		}
+	}
+}
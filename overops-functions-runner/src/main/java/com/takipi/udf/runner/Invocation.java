@@ -0,0 +1,34 @@
+package com.takipi.udf.runner;
+
+public class Invocation {
+	public enum Method {
+		validateInput, install, execute
+	}
+
+	public String functionName;
+	public Method method;
+	public String rawContextArgs;
+	public String rawInput;
+
+	// This is used for Gson parsing.
+	//
+	public Invocation() {
+
+	}
+
+	private Invocation(String functionName, Method method, String rawContextArgs, String rawInput) {
+		this.functionName = functionName;
+		this.method = method;
+		this.rawContextArgs = rawContextArgs;
+		this.rawInput = rawInput;
+	}
+
+	@Override
+	public String toString() {
+		return functionName + "." + method;
+	}
+
+	public static Invocation of(String functionName, Method method, String rawContextArgs, String rawInput) {
+		return new Invocation(functionName, method, rawContextArgs, rawInput);
+	}
+}
@@ -0,0 +1,88 @@
+package com.takipi.udf.runner;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+
+import com.takipi.udf.concurrent.FanOut;
+import com.takipi.udf.log.Log;
+import com.takipi.udf.log.RoutedOutputStream;
+
+// Functions write their logs to System.out and System.err, directly or through Log. When several invocations
+// run concurrently in one JVM, both streams are replaced by streams that route every write to
+// the buffer of the invocation running on the current thread, or to the original console when
+// the thread isn't running an invocation.
+//
+class InvocationOutput {
+	private static final String ENCODING = "UTF-8";
+
+	private static InvocationOutput instance;
+
+	private final PrintStream consoleOut;
+	private final RoutedOutputStream out;
+	private final RoutedOutputStream err;
+
+	private InvocationOutput(PrintStream consoleOut, PrintStream consoleErr) {
+		this.consoleOut = consoleOut;
+		this.out = RoutedOutputStream.of(consoleOut);
+		this.err = RoutedOutputStream.of(consoleErr);
+	}
+
+	PrintStream console() {
+		return consoleOut;
+	}
+
+	void route(OutputStream invocationOut, OutputStream invocationErr) {
+		out.route(invocationOut);
+		err.route(invocationErr);
+	}
+
+	void clear() {
+		Log.flush();
+		System.out.flush();
+		System.err.flush();
+
+		out.route(null);
+		err.route(null);
+	}
+
+	static synchronized InvocationOutput install() {
+		if (instance == null) {
+			instance = new InvocationOutput(System.out, System.err);
+
+			try {
+				System.setOut(new PrintStream(instance.out, true, ENCODING));
+				System.setErr(new PrintStream(instance.err, true, ENCODING));
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+
+			Log.routeThrough(instance.out, instance.err);
+			FanOut.addPropagator(instance::capture);
+		}
+
+		return instance;
+	}
+
+	// Tasks a function fans out run on other threads, and their output belongs to the
+	// invocation that started them.
+	//
+	private FanOut.Context capture() {
+		OutputStream invocationOut = out.routed();
+		OutputStream invocationErr = err.routed();
+
+		return () -> {
+			OutputStream previousOut = out.routed();
+			OutputStream previousErr = err.routed();
+
+			route(invocationOut, invocationErr);
+
+			return () -> {
+				System.out.flush();
+				System.err.flush();
+
+				route(previousOut, previousErr);
+			};
+		};
+	}
+}
@@ -0,0 +1,36 @@
+package com.takipi.udf.runner;
+
+public class InvocationResult {
+	public final String functionName;
+	public final Invocation.Method method;
+	public final boolean success;
+	public final String result;
+	public final String error;
+	public final String stdout;
+	public final String stderr;
+	public final long durationMillis;
+
+	private InvocationResult(String functionName, Invocation.Method method, boolean success, String result,
+			String error, String stdout, String stderr, long durationMillis) {
+		this.functionName = functionName;
+		this.method = method;
+		this.success = success;
+		this.result = result;
+		this.error = error;
+		this.stdout = stdout;
+		this.stderr = stderr;
+		this.durationMillis = durationMillis;
+	}
+
+	static InvocationResult success(Invocation invocation, String result, String stdout, String stderr,
+			long durationMillis) {
+		return new InvocationResult(invocation.functionName, invocation.method, true, result, null, stdout, stderr,
+				durationMillis);
+	}
+
+	static InvocationResult failure(Invocation invocation, Throwable error, String stdout, String stderr,
+			long durationMillis) {
+		return new InvocationResult(invocation.functionName, invocation.method, false, null, error.toString(), stdout,
+				stderr, durationMillis);
+	}
+}
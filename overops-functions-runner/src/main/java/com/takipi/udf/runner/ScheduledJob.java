@@ -0,0 +1,49 @@
+package com.takipi.udf.runner;
+
+// A function the scheduler executes every cadenceSeconds for a single service and view. Alert
+// jobs are latency sensitive and are picked ahead of the rest whenever both are due.
+//
+public class ScheduledJob {
+	public String serviceId;
+	public String viewId;
+	public String functionName;
+	public String rawContextArgs;
+	public String rawInput;
+	public long cadenceSeconds;
+	public boolean alert;
+
+	// This is used for Gson parsing.
+	//
+	public ScheduledJob() {
+
+	}
+
+	private ScheduledJob(String serviceId, String viewId, String functionName, String rawContextArgs,
+			String rawInput, long cadenceSeconds, boolean alert) {
+		this.serviceId = serviceId;
+		this.viewId = viewId;
+		this.functionName = functionName;
+		this.rawContextArgs = rawContextArgs;
+		this.rawInput = rawInput;
+		this.cadenceSeconds = cadenceSeconds;
+		this.alert = alert;
+	}
+
+	public String key() {
+		return serviceId + "/" + viewId + "/" + functionName;
+	}
+
+	public Invocation toInvocation() {
+		return Invocation.of(functionName, Invocation.Method.execute, rawContextArgs, rawInput);
+	}
+
+	@Override
+	public String toString() {
+		return key() + " every " + cadenceSeconds + "s" + (alert ? " (alert)" : "");
+	}
+
+	public static ScheduledJob of(String serviceId, String viewId, String functionName, String rawContextArgs,
+			String rawInput, long cadenceSeconds, boolean alert) {
+		return new ScheduledJob(serviceId, viewId, functionName, rawContextArgs, rawInput, cadenceSeconds, alert);
+	}
+}
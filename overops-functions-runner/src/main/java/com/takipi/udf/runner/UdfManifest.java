@@ -0,0 +1,98 @@
+package com.takipi.udf.runner;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+public class UdfManifest {
+	public static final String MANIFEST_RESOURCE = "META-INF/UDF_MANIFEST.MF";
+
+	public final String libraryName;
+	public final int memorySize;
+	public final List<UdfFunction> functions;
+
+	private UdfManifest(String libraryName, int memorySize, List<UdfFunction> functions) {
+		this.libraryName = libraryName;
+		this.memorySize = memorySize;
+		this.functions = functions;
+	}
+
+	public static UdfManifest load(ClassLoader classLoader) {
+		try (InputStream is = classLoader.getResourceAsStream(MANIFEST_RESOURCE)) {
+			if (is == null) {
+				throw new IllegalStateException("Missing " + MANIFEST_RESOURCE);
+			}
+
+			return parse(is);
+		} catch (IllegalStateException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException("Failed reading " + MANIFEST_RESOURCE, e);
+		}
+	}
+
+	static UdfManifest parse(InputStream is) throws Exception {
+		DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+		Document document = builder.parse(is);
+		Element root = document.getDocumentElement();
+
+		String memorySize = getChildText(root, "memory_size");
+
+		List<UdfFunction> functions = new ArrayList<>();
+		NodeList functionNodes = root.getElementsByTagName("function");
+
+		for (int i = 0; i < functionNodes.getLength(); i++) {
+			Element function = (Element) functionNodes.item(i);
+
+			functions.add(UdfFunction.of(getChildText(function, "function_type"),
+					getChildText(function, "function_name"), getChildText(function, "class_file")));
+		}
+
+		return new UdfManifest(getChildText(root, "library_name"),
+				((memorySize != null) ? Integer.parseInt(memorySize) : 0), Collections.unmodifiableList(functions));
+	}
+
+	private static String getChildText(Element element, String name) {
+		NodeList children = element.getChildNodes();
+
+		for (int i = 0; i < children.getLength(); i++) {
+			Node child = children.item(i);
+
+			if ((child.getNodeType() == Node.ELEMENT_NODE) && (name.equals(child.getNodeName()))) {
+				return child.getTextContent().trim();
+			}
+		}
+
+		return null;
+	}
+
+	public static class UdfFunction {
+		public final String type;
+		public final String name;
+		public final String classFile;
+
+		private UdfFunction(String type, String name, String classFile) {
+			this.type = type;
+			this.name = name;
+			this.classFile = classFile;
+		}
+
+		@Override
+		public String toString() {
+			return name + " (" + classFile + ")";
+		}
+
+		static UdfFunction of(String type, String name, String classFile) {
+			return new UdfFunction(type, name, classFile);
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package com.takipi.udf.runner;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Strings;
+import com.takipi.udf.runner.FunctionTable.FunctionEntry;
+import com.takipi.udf.util.GsonUtil;
+
+// Loads the function table from the UDF manifest once and executes many invocations in the same
+// JVM, so class loading and JIT warm-up are paid once instead of per invocation. Invocations are
+// queued and executed by a fixed pool of workers, each with its own captured stdout / stderr.
+// Callers with threads of their own (the UdfScheduler) create a runner without a pool, and only
+// run() invocations.
+//
+public class UdfRunner {
+	private final FunctionTable functions;
+	private final ExecutorService workers;
+	private final InvocationOutput output;
+
+	private UdfRunner(FunctionTable functions, ExecutorService workers) {
+		this.functions = functions;
+		this.workers = workers;
+		this.output = InvocationOutput.install();
+	}
+
+	public Future<InvocationResult> submit(Invocation invocation) {
+		if (workers == null) {
+			throw new IllegalStateException("Runner has no workers to submit to");
+		}
+
+		return workers.submit(() -> run(invocation));
+	}
+
+	public InvocationResult run(Invocation invocation) {
+		ByteArrayOutputStream invocationOut = new ByteArrayOutputStream();
+		ByteArrayOutputStream invocationErr = new ByteArrayOutputStream();
+
+		long start = System.nanoTime();
+
+		output.route(invocationOut, invocationErr);
+
+		try {
+			String result = invoke(functions.get(invocation.functionName), invocation);
+
+			output.clear();
+
+			return InvocationResult.success(invocation, result, toString(invocationOut), toString(invocationErr),
+					elapsedMillis(start));
+		} catch (Throwable e) {
+			output.clear();
+
+			return InvocationResult.failure(invocation, e, toString(invocationOut), toString(invocationErr),
+					elapsedMillis(start));
+		}
+	}
+
+	public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+		if (workers == null) {
+			return;
+		}
+
+		workers.shutdown();
+		workers.awaitTermination(timeout, unit);
+	}
+
+	private static String invoke(FunctionEntry entry, Invocation invocation) throws Throwable {
+		Invocation.Method method = ((invocation.method != null) ? invocation.method : Invocation.Method.execute);
+
+		switch (method) {
+		case validateInput:
+			return entry.validateInput(invocation.rawInput);
+
+		case install:
+			entry.install(invocation.rawContextArgs, invocation.rawInput);
+			return null;
+
+		case execute:
+			entry.execute(invocation.rawContextArgs, invocation.rawInput);
+			return null;
+		}
+
+		throw new UnsupportedOperationException("No support for method - " + method);
+	}
+
+	private static String toString(ByteArrayOutputStream os) {
+		return new String(os.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static long elapsedMillis(long start) {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+
+	public static UdfRunner create(int workerCount) {
+		return new UdfRunner(loadFunctions(), Executors.newFixedThreadPool(workerCount, new WorkerThreadFactory()));
+	}
+
+	public static UdfRunner create() {
+		return new UdfRunner(loadFunctions(), null);
+	}
+
+	private static FunctionTable loadFunctions() {
+		ClassLoader classLoader = UdfRunner.class.getClassLoader();
+		UdfManifest manifest = UdfManifest.load(classLoader);
+
+		return FunctionTable.of(manifest, classLoader);
+	}
+
+	static class WorkerThreadFactory implements ThreadFactory {
+		private final AtomicInteger counter = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "udf-runner-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	// Reads one JSON encoded Invocation per line from stdin and writes one JSON encoded
+	// InvocationResult per line to stdout, in the same order.
+	//
+	// java -jar overops-functions-runner.jar [WORKERS]
+	//
+	public static void main(String[] args) throws Exception {
+		int workerCount = (((args != null) && (args.length > 0)) ? Integer.parseInt(args[0])
+				: Runtime.getRuntime().availableProcessors());
+
+		UdfRunner runner = UdfRunner.create(workerCount);
+		PrintStream console = runner.output.console();
+
+		BlockingQueue<Future<InvocationResult>> pending = new LinkedBlockingQueue<>();
+		Future<InvocationResult> endOfInput = new CompletableFuture<>();
+
+		Thread printer = new Thread(() -> {
+			try {
+				for (Future<InvocationResult> future = pending.take(); future != endOfInput; future = pending.take()) {
+					console.println(GsonUtil.gson().toJson(future.get()));
+				}
+			} catch (InterruptedException | ExecutionException e) {
+				e.printStackTrace(console);
+			}
+		}, "udf-runner-printer");
+
+		printer.start();
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))) {
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				if (Strings.isNullOrEmpty(line.trim())) {
+					continue;
+				}
+
+				pending.put(runner.submit(GsonUtil.gson().fromJson(line, Invocation.class)));
+			}
+		}
+
+		pending.put(endOfInput);
+		printer.join();
+
+		runner.shutdown(1, TimeUnit.MINUTES);
+	}
+}
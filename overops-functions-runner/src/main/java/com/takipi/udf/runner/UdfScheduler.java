@@ -0,0 +1,468 @@
+package com.takipi.udf.runner;
+
+import java.io.BufferedReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import com.takipi.udf.Deadline;
+import com.takipi.udf.log.Log;
+import com.takipi.udf.util.GsonUtil;
+
+// Owns the (service, view, function, cadence) job table and executes due jobs on a work-stealing
+// pool, instead of having every (function, view) pair triggered from outside. Every tick, jobs
+// whose time has come are queued under their service, and the workers pick from the services in
+// round robin order - so a service with hundreds of views can't hold back the rest - with alert
+// jobs always picked ahead of everything else. A service never runs more than its share of the
+// workers at once, alerts get one extra slot.
+//
+// Each execution gets its cadence as its deadline budget. A job that is still running when it is
+// due again isn't queued twice, the ticks it missed are skipped and counted. The lag between a
+// job's due time and its start, and the missed ticks, are logged every report interval for
+// alerts and for the rest.
+//
+public class UdfScheduler {
+	public static final String TICK_PROPERTY = "udf.scheduler.tick";
+	public static final String SERVICE_SHARE_PROPERTY = "udf.scheduler.service.share";
+	public static final String REPORT_PROPERTY = "udf.scheduler.report";
+
+	private static final long DEFAULT_TICK_MILLIS = 1000l;
+	private static final long DEFAULT_REPORT_SECONDS = 60l;
+
+	private final UdfRunner runner;
+	private final Consumer<InvocationResult> resultConsumer;
+	private final ForkJoinPool workers;
+	private final ScheduledExecutorService ticker;
+	private final int serviceShare;
+	private final CountDownLatch terminated;
+
+	private final Map<String, JobState> jobs;
+	private final Map<String, ServiceQueue> services;
+	private final ArrayDeque<ServiceQueue> alertRing;
+	private final ArrayDeque<ServiceQueue> jobRing;
+	private int queuedCount;
+	private int drainerCount;
+	private boolean stopping;
+
+	private final TickLag alertLag;
+	private final TickLag jobLag;
+
+	private UdfScheduler(UdfRunner runner, int workerCount, Consumer<InvocationResult> resultConsumer) {
+		this.runner = runner;
+		this.resultConsumer = resultConsumer;
+		this.workers = new ForkJoinPool(workerCount, new WorkerThreadFactory(), null, true);
+		this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "udf-scheduler-ticker");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.serviceShare = Integer.getInteger(SERVICE_SHARE_PROPERTY, Math.max(1, workerCount / 4));
+		this.terminated = new CountDownLatch(1);
+
+		this.jobs = Maps.newHashMap();
+		this.services = Maps.newHashMap();
+		this.alertRing = new ArrayDeque<>();
+		this.jobRing = new ArrayDeque<>();
+
+		this.alertLag = new TickLag("alerts");
+		this.jobLag = new TickLag("jobs");
+	}
+
+	// Adds a job, or replaces the job with the same service, view and function while keeping its
+	// timing. New jobs are spread over their first cadence period, so jobs added together don't
+	// all come due on the same tick.
+	//
+	public synchronized void schedule(ScheduledJob job) {
+		if (job.cadenceSeconds <= 0) {
+			throw new IllegalArgumentException("Job " + job.key() + " has no cadence");
+		}
+
+		JobState state = jobs.get(job.key());
+
+		if (state != null) {
+			state.job = job;
+			return;
+		}
+
+		long cadenceMillis = TimeUnit.SECONDS.toMillis(job.cadenceSeconds);
+		long firstDue = System.currentTimeMillis() + Math.floorMod(job.key().hashCode(), cadenceMillis);
+
+		jobs.put(job.key(), new JobState(job, firstDue));
+	}
+
+	public synchronized void scheduleAll(Collection<ScheduledJob> jobs) {
+		for (ScheduledJob job : jobs) {
+			schedule(job);
+		}
+	}
+
+	// Removes a job. A queued execution of it is dropped, a running one finishes.
+	//
+	public synchronized boolean unschedule(String key) {
+		JobState state = jobs.remove(key);
+
+		if (state == null) {
+			return false;
+		}
+
+		if (state.queued) {
+			ServiceQueue queue = services.get(state.job.serviceId);
+
+			if ((queue.alerts.remove(state)) || (queue.jobs.remove(state))) {
+				queuedCount--;
+			}
+
+			state.queued = false;
+		}
+
+		return true;
+	}
+
+	public synchronized int getJobCount() {
+		return jobs.size();
+	}
+
+	public void start() {
+		long tickMillis = Long.getLong(TICK_PROPERTY, DEFAULT_TICK_MILLIS);
+		long reportSeconds = Long.getLong(REPORT_PROPERTY, DEFAULT_REPORT_SECONDS);
+
+		ticker.scheduleAtFixedRate(this::tick, 0, tickMillis, TimeUnit.MILLISECONDS);
+
+		if (reportSeconds > 0) {
+			ticker.scheduleAtFixedRate(this::report, reportSeconds, reportSeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	// Stops starting jobs and waits for the running ones to finish.
+	//
+	public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+		synchronized (this) {
+			stopping = true;
+		}
+
+		ticker.shutdownNow();
+		workers.shutdown();
+
+		try {
+			workers.awaitTermination(timeout, unit);
+		} finally {
+			report();
+			terminated.countDown();
+		}
+	}
+
+	public void awaitTermination() throws InterruptedException {
+		terminated.await();
+	}
+
+	void tick() {
+		int drainers = 0;
+
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+
+			for (JobState state : jobs.values()) {
+				if ((state.queued) || (state.running) || (state.nextDueMillis > now)) {
+					continue;
+				}
+
+				enqueue(state);
+			}
+
+			drainers = claimDrainers();
+		}
+
+		startDrainers(drainers);
+	}
+
+	// Enough drainers for the queued jobs, up to the pool size. Each keeps picking jobs until
+	// there's none it may run.
+	//
+	private int claimDrainers() {
+		int result = Math.max(0, Math.min(queuedCount, workers.getParallelism()) - drainerCount);
+		drainerCount += result;
+
+		return result;
+	}
+
+	private void startDrainers(int drainers) {
+		for (int i = 0; i < drainers; i++) {
+			workers.execute(this::drain);
+		}
+	}
+
+	private void enqueue(JobState state) {
+		ScheduledJob job = state.job;
+		ServiceQueue queue = services.computeIfAbsent(job.serviceId, ServiceQueue::new);
+		ArrayDeque<JobState> jobQueue = queue.of(job.alert);
+
+		if (jobQueue.isEmpty()) {
+			(job.alert ? alertRing : jobRing).addLast(queue);
+		}
+
+		jobQueue.addLast(state);
+		state.queued = true;
+		queuedCount++;
+	}
+
+	private void drain() {
+		for (JobState state = next(); state != null; state = next()) {
+			run(state);
+		}
+	}
+
+	private synchronized JobState next() {
+		JobState result = null;
+
+		if (!stopping) {
+			result = next(alertRing, true);
+
+			if (result == null) {
+				result = next(jobRing, false);
+			}
+		}
+
+		if (result == null) {
+			drainerCount--;
+			return null;
+		}
+
+		result.queued = false;
+		result.running = true;
+		queuedCount--;
+
+		return result;
+	}
+
+	// Takes the head of the first service in the ring that has a free slot, and moves that service
+	// to the back of the ring.
+	//
+	private JobState next(ArrayDeque<ServiceQueue> ring, boolean alert) {
+		int share = (alert ? serviceShare + 1 : serviceShare);
+
+		for (int i = ring.size(); i > 0; i--) {
+			ServiceQueue queue = ring.pollFirst();
+			ArrayDeque<JobState> jobQueue = queue.of(alert);
+
+			if (jobQueue.isEmpty()) {
+				continue;
+			}
+
+			if (queue.runningCount >= share) {
+				ring.addLast(queue);
+				continue;
+			}
+
+			JobState result = jobQueue.pollFirst();
+
+			if (!jobQueue.isEmpty()) {
+				ring.addLast(queue);
+			}
+
+			queue.runningCount++;
+
+			return result;
+		}
+
+		return null;
+	}
+
+	private void run(JobState state) {
+		ScheduledJob job = state.job;
+		TickLag lag = (job.alert ? alertLag : jobLag);
+
+		lag.record(System.currentTimeMillis() - state.nextDueMillis);
+
+		Deadline.setThreadBudget(job.cadenceSeconds, TimeUnit.SECONDS);
+
+		try {
+			resultConsumer.accept(runner.run(job.toInvocation()));
+		} catch (RuntimeException e) {
+			Log.error("Failed handling the result of " + job.key(), e);
+		} finally {
+			Deadline.clearThreadBudget();
+			complete(state, lag);
+		}
+	}
+
+	// Frees the job's service slot. Queued jobs held back by that slot would otherwise wait for
+	// the next tick's drainers, so drainers are started for them here too.
+	//
+	private void complete(JobState state, TickLag lag) {
+		int drainers = 0;
+
+		synchronized (this) {
+			ScheduledJob job = state.job;
+			long now = System.currentTimeMillis();
+			long cadenceMillis = TimeUnit.SECONDS.toMillis(job.cadenceSeconds);
+			long nextDue = state.nextDueMillis + cadenceMillis;
+
+			if (nextDue <= now) {
+				long missed = ((now - nextDue) / cadenceMillis) + 1;
+
+				lag.missed(missed);
+				nextDue += missed * cadenceMillis;
+			}
+
+			state.nextDueMillis = nextDue;
+			state.running = false;
+			services.get(job.serviceId).runningCount--;
+
+			if (!stopping) {
+				drainers = claimDrainers();
+			}
+		}
+
+		startDrainers(drainers);
+	}
+
+	void report() {
+		Log.info("scheduler - " + alertLag.drain() + ", " + jobLag.drain());
+	}
+
+	private static class JobState {
+		ScheduledJob job;
+		long nextDueMillis;
+		boolean queued;
+		boolean running;
+
+		JobState(ScheduledJob job, long nextDueMillis) {
+			this.job = job;
+			this.nextDueMillis = nextDueMillis;
+		}
+	}
+
+	private static class ServiceQueue {
+		final String serviceId;
+		final ArrayDeque<JobState> alerts;
+		final ArrayDeque<JobState> jobs;
+		int runningCount;
+
+		ServiceQueue(String serviceId) {
+			this.serviceId = serviceId;
+			this.alerts = new ArrayDeque<>();
+			this.jobs = new ArrayDeque<>();
+		}
+
+		ArrayDeque<JobState> of(boolean alert) {
+			return (alert ? alerts : jobs);
+		}
+
+		@Override
+		public String toString() {
+			return serviceId;
+		}
+	}
+
+	// Start lag and missed ticks since the last report.
+	//
+	static class TickLag {
+		private final String name;
+
+		private long count;
+		private long totalMillis;
+		private long maxMillis;
+		private long missed;
+
+		TickLag(String name) {
+			this.name = name;
+		}
+
+		synchronized void record(long lagMillis) {
+			long value = Math.max(0l, lagMillis);
+
+			count++;
+			totalMillis += value;
+			maxMillis = Math.max(maxMillis, value);
+		}
+
+		synchronized void missed(long ticks) {
+			missed += ticks;
+		}
+
+		synchronized String drain() {
+			String result = name + ": " + count + " started, lag avg " + ((count > 0) ? totalMillis / count : 0)
+					+ "ms, max " + maxMillis + "ms, " + missed + " ticks missed";
+
+			count = 0;
+			totalMillis = 0;
+			maxMillis = 0;
+			missed = 0;
+
+			return result;
+		}
+	}
+
+	static class WorkerThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+		private final AtomicInteger counter = new AtomicInteger();
+
+		@Override
+		public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName("udf-scheduler-" + counter.incrementAndGet());
+			return thread;
+		}
+	}
+
+	public static UdfScheduler create(int workerCount, Consumer<InvocationResult> resultConsumer) {
+		return new UdfScheduler(UdfRunner.create(), workerCount, resultConsumer);
+	}
+
+	// Reads one JSON encoded ScheduledJob per line from the jobs file, executes them on their
+	// cadence until the process is stopped and writes one JSON encoded InvocationResult per line to
+	// stdout as executions complete.
+	//
+	// java -cp overops-functions-runner.jar com.takipi.udf.runner.UdfScheduler JOBS_FILE [WORKERS]
+	//
+	public static void main(String[] args) throws Exception {
+		if ((args == null) || (args.length == 0)) {
+			throw new IllegalArgumentException("Usage: UdfScheduler JOBS_FILE [WORKERS]");
+		}
+
+		int workerCount = ((args.length > 1) ? Integer.parseInt(args[1])
+				: Runtime.getRuntime().availableProcessors());
+
+		PrintStream console = InvocationOutput.install().console();
+		UdfScheduler scheduler = UdfScheduler.create(workerCount,
+				result -> console.println(GsonUtil.gson().toJson(result)));
+
+		try (BufferedReader reader = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				if (Strings.isNullOrEmpty(line.trim())) {
+					continue;
+				}
+
+				scheduler.schedule(GsonUtil.gson().fromJson(line, ScheduledJob.class));
+			}
+		}
+
+		Log.info("scheduler - " + scheduler.getJobCount() + " jobs on " + workerCount + " workers");
+
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				scheduler.shutdown(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, "udf-scheduler-shutdown"));
+
+		scheduler.start();
+		scheduler.awaitTermination();
+	}
+}
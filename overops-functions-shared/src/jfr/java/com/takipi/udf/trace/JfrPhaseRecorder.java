@@ -0,0 +1,29 @@
+package com.takipi.udf.trace;
+
+// Only loaded by PhaseTrace once jdk.jfr is known to be available.
+//
+class JfrPhaseRecorder implements PhaseRecorder {
+	@Override
+	public PhaseTrace.Span begin(PhaseTrace.Execution execution, Phase phase, String requestType) {
+		PhaseEvent event = new PhaseEvent();
+
+		// Nothing is recording the event, which is the common case - don't pay for the fields or
+		// the timestamps.
+		//
+		if (!event.isEnabled()) {
+			return PhaseTrace.NOOP;
+		}
+
+		if (execution != null) {
+			event.function = execution.function;
+			event.serviceId = execution.serviceId;
+			event.viewId = execution.viewId;
+		}
+
+		event.phase = phase.name();
+		event.requestType = requestType;
+		event.begin();
+
+		return event;
+	}
+}
@@ -0,0 +1,35 @@
+package com.takipi.udf.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.takipi.udf.Phase")
+@Label("Function Phase")
+@Description("A phase of an OverOps function execution")
+@Category({ "OverOps", "Functions" })
+@StackTrace(false)
+class PhaseEvent extends Event implements PhaseTrace.Span {
+	@Label("Function")
+	String function;
+
+	@Label("Service")
+	String serviceId;
+
+	@Label("View")
+	String viewId;
+
+	@Label("Phase")
+	String phase;
+
+	@Label("Request Type")
+	String requestType;
+
+	@Override
+	public void close() {
+		commit();
+	}
+}
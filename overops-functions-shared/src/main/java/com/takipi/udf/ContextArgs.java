@@ -1,12 +1,31 @@
 package com.takipi.udf;
 
-import java.net.HttpURLConnection;
-
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.takipi.api.client.ApiClient;
-import com.takipi.api.client.RemoteApiClient;
-import com.takipi.api.core.url.UrlClient.LogLevel;
+import com.takipi.udf.api.ApiCallMeter;
+import com.takipi.udf.api.ApiClientRegistry;
+import com.takipi.udf.api.EventsStream;
+import com.takipi.udf.api.MemoizingApiClient;
+import com.takipi.udf.api.MetadataCache;
+import com.takipi.udf.api.MetadataCachingApiClient;
+import com.takipi.udf.api.MeteredApiClient;
+import com.takipi.udf.api.RetryingApiClient;
+import com.takipi.udf.api.TransactionsStream;
+import com.takipi.udf.api.ViewSnapshotApiClient;
+import com.takipi.udf.api.ViewSnapshots;
+import com.takipi.udf.api.fixture.ApiFixtures;
+import com.takipi.udf.log.Log;
+import com.takipi.udf.memory.MemoryBudget;
+import com.takipi.udf.trace.PhaseTrace;
+import com.takipi.udf.util.GsonUtil;
+
+public class ContextArgs implements AutoCloseable {
+	private static final int MAX_CACHED_ARGS = 1024;
+
+	private static final Cache<String, ContextArgs> parsedArgs = CacheBuilder.newBuilder()
+			.maximumSize(MAX_CACHED_ARGS).build();
 
-public class ContextArgs {
 	public String appHost;
 	public String apiHost;
 	public String grafanaHost;
@@ -18,6 +37,16 @@ public class ContextArgs {
 	public String apiKey;
 	public String resurface;
 
+	// Per execution state, never parsed from or shared through the raw context args.
+	//
+	private transient ApiCallMeter apiCallMeter;
+	private transient RetryingApiClient retryingClient;
+	private transient ViewSnapshotApiClient snapshotClient;
+	private transient MemoizingApiClient apiClient;
+	private transient Deadline deadline;
+	private transient MemoryBudget.Account memory;
+	private transient PhaseTrace.Span executionSpan;
+
 	// This is used for Gson parsing.
 	//
 	public ContextArgs() {
@@ -38,6 +67,40 @@ public class ContextArgs {
 		this.viewId = viewId;
 		this.apiKey = apiKey;
 		this.resurface = resurface;
+		this.deadline = Deadline.start();
+		this.executionSpan = PhaseTrace.execution(functionId, serviceId, viewId);
+	}
+
+	// Decodes raw context args, reusing the result of previous executions with the same raw
+	// content. Every caller gets its own copy, so the shared instance is never modified.
+	//
+	public static ContextArgs parse(String rawContextArgs) {
+		if (rawContextArgs == null) {
+			return null;
+		}
+
+		ContextArgs cached = parsedArgs.getIfPresent(rawContextArgs);
+
+		if (cached == null) {
+			cached = GsonUtil.gson().fromJson(rawContextArgs, ContextArgs.class);
+
+			if (cached == null) {
+				return null;
+			}
+
+			parsedArgs.put(rawContextArgs, cached);
+
+			Log.addSecret(cached.apiKey);
+		}
+
+		ApiFixtures.pinClock();
+
+		return cached.copy();
+	}
+
+	private ContextArgs copy() {
+		return new ContextArgs(appHost, apiHost, grafanaHost, serviceId, libraryId, functionId, eventId, viewId,
+				apiKey, resurface);
 	}
 
 	private static boolean isNullOrEmpty(String s) {
@@ -56,9 +119,119 @@ public class ContextArgs {
 		return ((validate()) && (!isNullOrEmpty(viewId)));
 	}
 
-	public ApiClient apiClient() {
-		return RemoteApiClient.newBuilder().setHostname(apiHost).setApiKey(apiKey).setDefaultLogLevel(LogLevel.WARN)
-				.setResponseLogLevel(HttpURLConnection.HTTP_CONFLICT, LogLevel.INFO).build();
+	// The pooled client for (apiHost, apiKey), wrapped for this execution in a meter, retries,
+	// the shared metadata cache, the shared view snapshots and a GET memoizer, outermost last.
+	// Only calls that reach the network are metered, every attempt separately. Calling this
+	// repeatedly is cheap and returns the same instance.
+	//
+	public synchronized ApiClient apiClient() {
+		if (apiClient == null) {
+			apiCallMeter = ApiCallMeter.create();
+
+			ApiClient meteredClient = MeteredApiClient.of(ApiClientRegistry.get(apiHost, apiKey), apiCallMeter);
+			retryingClient = RetryingApiClient.of(meteredClient, apiHost, this::deadline);
+			String scope = MetadataCache.scopeOf(apiHost, apiKey);
+
+			ApiClient cachingClient = MetadataCachingApiClient.of(retryingClient, MetadataCache.instance(), scope);
+			snapshotClient = ViewSnapshotApiClient.of(cachingClient, ViewSnapshots.instance(), scope);
+
+			apiClient = MemoizingApiClient.of(snapshotClient);
+		}
+
+		return apiClient;
+	}
+
+	// Streams large event lists one event at a time, throttled, retried and metered along with the
+	// execution's client.
+	//
+	public synchronized EventsStream eventsStream() {
+		ApiClient client = apiClient();
+		return EventsStream.of(apiHost, apiKey, client, retryingClient, apiCallMeter);
+	}
+
+	// Reduces transaction lists to their totals as they're read, throttled, retried and metered along
+	// with the execution's client.
+	//
+	public synchronized TransactionsStream transactionsStream() {
+		ApiClient client = apiClient();
+		return TransactionsStream.of(apiHost, apiKey, client, retryingClient, apiCallMeter);
+	}
+
+	public synchronized ApiCallMeter apiCallMeter() {
+		return apiCallMeter;
+	}
+
+	// Started when the args are parsed, i.e. when the execution starts.
+	//
+	public synchronized Deadline deadline() {
+		if (deadline == null) {
+			deadline = Deadline.start();
+		}
+
+		return deadline;
+	}
+
+	// Lets whoever schedules the execution set a budget other than the configured one.
+	//
+	public synchronized void setDeadline(Deadline deadline) {
+		this.deadline = deadline;
+	}
+
+	// The execution's share of the memory budget, released when the execution ends.
+	//
+	public synchronized MemoryBudget.Account memory() {
+		if (memory == null) {
+			memory = MemoryBudget.instance().account();
+		}
+
+		return memory;
+	}
+
+	// Called when the execution ends, prints the api calls it made.
+	//
+	@Override
+	public synchronized void close() {
+		if ((deadline != null) && (deadline.isExpired())) {
+			Log.warn("execution overran its budget by " + (-deadline.remainingMillis()) + "ms");
+		}
+
+		if ((apiCallMeter != null) && (apiCallMeter.getCallCount() > 0)) {
+			Log.info(apiCallMeter.summary());
+		}
+
+		if ((retryingClient != null) && (retryingClient.getRetryCount() > 0)) {
+			Log.info("api calls retried: " + retryingClient.getRetryCount());
+		}
+
+		if ((snapshotClient != null) && (snapshotClient.getHitCount() > 0)) {
+			Log.info("view snapshots shared: " + snapshotClient.getHitCount());
+		}
+
+		if ((apiClient != null) && (apiClient.getHitCount() > 0)) {
+			Log.info("api calls memoized: " + apiClient.getHitCount());
+		}
+
+		if (memory != null) {
+			if (memory.getPeakBytes() > 0) {
+				Log.debug("memory accounted: " + memory);
+			}
+
+			memory.close();
+		}
+
+		apiCallMeter = null;
+		retryingClient = null;
+		snapshotClient = null;
+		apiClient = null;
+		deadline = null;
+		memory = null;
+
+		if (executionSpan != null) {
+			executionSpan.close();
+			executionSpan = null;
+		}
+
+		Log.flush();
 	}
 
 	// This is used for testing purposes and easier context args building.
@@ -0,0 +1,80 @@
+package com.takipi.udf;
+
+import java.util.concurrent.TimeUnit;
+
+// The time an execution has before it runs into the next scheduled one. Budgets are set with
+// -Dudf.execution.budget (seconds, 4 minutes by default). Loops making api calls check it and
+// skip optional work once the budget runs low, leaving the last part of it for the writes that
+// persist what was done so far.
+//
+public class Deadline {
+	public static final String BUDGET_PROPERTY = "udf.execution.budget";
+
+	private static final long DEFAULT_BUDGET_SECONDS = TimeUnit.MINUTES.toSeconds(4);
+	private static final double RESERVE_RATIO = 0.2;
+
+	private static final ThreadLocal<Long> threadBudgetNanos = new ThreadLocal<>();
+
+	private final long startNanos;
+	private final long budgetNanos;
+
+	private Deadline(long startNanos, long budgetNanos) {
+		this.startNanos = startNanos;
+		this.budgetNanos = budgetNanos;
+	}
+
+	public long elapsedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+	}
+
+	public long remainingMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(budgetNanos - (System.nanoTime() - startNanos));
+	}
+
+	public boolean isExpired() {
+		return ((System.nanoTime() - startNanos) >= budgetNanos);
+	}
+
+	// True once only the reserve is left.
+	//
+	public boolean isRunningLow() {
+		return ((System.nanoTime() - startNanos) >= (long) (budgetNanos * (1.0 - RESERVE_RATIO)));
+	}
+
+	@Override
+	public String toString() {
+		return "Deadline(elapsed = " + elapsedMillis() + "ms, remaining = " + remainingMillis() + "ms)";
+	}
+
+	public static Deadline after(long duration, TimeUnit unit) {
+		return new Deadline(System.nanoTime(), Math.max(0, unit.toNanos(duration)));
+	}
+
+	// A deadline using the budget of the current thread if one was set, or the configured budget,
+	// starting now.
+	//
+	public static Deadline start() {
+		Long budgetNanos = threadBudgetNanos.get();
+
+		if (budgetNanos != null) {
+			return new Deadline(System.nanoTime(), budgetNanos.longValue());
+		}
+
+		return after(Long.getLong(BUDGET_PROPERTY, DEFAULT_BUDGET_SECONDS), TimeUnit.SECONDS);
+	}
+
+	// Lets a scheduler running executions of different cadences on a shared pool give each one the
+	// budget of its own cadence, rather than the process wide one.
+	//
+	public static void setThreadBudget(long duration, TimeUnit unit) {
+		threadBudgetNanos.set(Math.max(0, unit.toNanos(duration)));
+	}
+
+	public static void clearThreadBudget() {
+		threadBudgetNanos.remove();
+	}
+
+	public static Deadline none() {
+		return new Deadline(System.nanoTime(), Long.MAX_VALUE);
+	}
+}
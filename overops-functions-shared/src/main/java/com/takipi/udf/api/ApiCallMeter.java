@@ -0,0 +1,192 @@
+package com.takipi.udf.api;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+// Collects per request type api call statistics for a single function execution: call count,
+// a log2 latency histogram, status codes and bytes sent / received. The summary is compact on
+// purpose - one line per request type, slowest first, so N+1 call patterns stand out.
+//
+public class ApiCallMeter {
+	public static final int ERROR_RESPONSE_CODE = -1;
+
+	// Bucket 0 holds calls under 1ms, bucket i holds calls in [2^(i-1), 2^i) ms. The last
+	// bucket is open ended.
+	//
+	private static final int HISTOGRAM_BUCKETS = 20;
+
+	private final Map<String, RequestStats> requestStats;
+
+	private ApiCallMeter() {
+		this.requestStats = Maps.newConcurrentMap();
+	}
+
+	public void record(String requestType, String method, long nanos, int responseCode, long bytesOut,
+			long bytesIn) {
+		RequestStats stats = requestStats.computeIfAbsent(method + " " + requestType, RequestStats::new);
+		stats.record(nanos, responseCode, bytesOut, bytesIn);
+	}
+
+	public int getCallCount() {
+		int result = 0;
+
+		for (RequestStats stats : requestStats.values()) {
+			result += stats.getCount();
+		}
+
+		return result;
+	}
+
+	public String summary() {
+		List<RequestStats> sortedStats = Lists.newArrayList(requestStats.values());
+		sortedStats.sort((o1, o2) -> Long.compare(o2.getTotalNanos(), o1.getTotalNanos()));
+
+		long totalNanos = 0l;
+
+		for (RequestStats stats : sortedStats) {
+			totalNanos += stats.getTotalNanos();
+		}
+
+		StringBuilder builder = new StringBuilder();
+
+		builder.append("api calls: ");
+		builder.append(getCallCount());
+		builder.append(" in ");
+		builder.append(toMillis(totalNanos));
+		builder.append("ms");
+
+		for (RequestStats stats : sortedStats) {
+			builder.append("\n  ");
+			stats.appendTo(builder);
+		}
+
+		return builder.toString();
+	}
+
+	private static long toMillis(long nanos) {
+		return nanos / 1000000l;
+	}
+
+	private static int bucketOf(long millis) {
+		int result = 64 - Long.numberOfLeadingZeros(millis);
+		return Math.min(result, HISTOGRAM_BUCKETS - 1);
+	}
+
+	private static long bucketUpperBound(int bucket) {
+		return (1l << bucket);
+	}
+
+	private static String formatBytes(long bytes) {
+		if (bytes < 1024) {
+			return bytes + "B";
+		}
+
+		if (bytes < 1024 * 1024) {
+			return (bytes / 1024) + "KB";
+		}
+
+		return (bytes / (1024 * 1024)) + "MB";
+	}
+
+	public static ApiCallMeter create() {
+		return new ApiCallMeter();
+	}
+
+	static class RequestStats {
+		private final String name;
+		private final long[] histogram;
+		private final Map<Integer, Integer> responseCodes;
+
+		private int count;
+		private long totalNanos;
+		private long maxNanos;
+		private long bytesOut;
+		private long bytesIn;
+
+		RequestStats(String name) {
+			this.name = name;
+			this.histogram = new long[HISTOGRAM_BUCKETS];
+			this.responseCodes = Maps.newTreeMap();
+		}
+
+		synchronized void record(long nanos, int responseCode, long bytesOut, long bytesIn) {
+			count++;
+			totalNanos += nanos;
+			maxNanos = Math.max(maxNanos, nanos);
+			histogram[bucketOf(toMillis(nanos))]++;
+			responseCodes.merge(responseCode, 1, Integer::sum);
+
+			this.bytesOut += bytesOut;
+			this.bytesIn += bytesIn;
+		}
+
+		synchronized int getCount() {
+			return count;
+		}
+
+		synchronized long getTotalNanos() {
+			return totalNanos;
+		}
+
+		// Percentiles are read off the histogram, so they are reported as the upper bound of
+		// the bucket they fall in.
+		//
+		private long percentileMillis(double percentile) {
+			long target = (long) Math.ceil(count * percentile);
+			long seen = 0l;
+
+			for (int i = 0; i < histogram.length; i++) {
+				seen += histogram[i];
+
+				if (seen >= target) {
+					return bucketUpperBound(i);
+				}
+			}
+
+			return bucketUpperBound(histogram.length - 1);
+		}
+
+		synchronized void appendTo(StringBuilder builder) {
+			builder.append(name);
+			builder.append(" x");
+			builder.append(count);
+
+			builder.append(" [");
+
+			boolean first = true;
+
+			for (Map.Entry<Integer, Integer> entry : responseCodes.entrySet()) {
+				if (!first) {
+					builder.append(' ');
+				}
+
+				builder.append((entry.getKey() == ERROR_RESPONSE_CODE) ? "err" : String.valueOf(entry.getKey()));
+				builder.append(':');
+				builder.append(entry.getValue());
+
+				first = false;
+			}
+
+			builder.append("] total ");
+			builder.append(toMillis(totalNanos));
+			builder.append("ms avg ");
+			builder.append(toMillis(totalNanos / count));
+			builder.append("ms p50<=");
+			builder.append(percentileMillis(0.5));
+			builder.append("ms p99<=");
+			builder.append(percentileMillis(0.99));
+			builder.append("ms max ");
+			builder.append(toMillis(maxNanos));
+			builder.append("ms out ");
+			builder.append(formatBytes(bytesOut));
+
+			if (bytesIn > 0) {
+				builder.append(" in ~");
+				builder.append(formatBytes(bytesIn));
+			}
+		}
+	}
+}
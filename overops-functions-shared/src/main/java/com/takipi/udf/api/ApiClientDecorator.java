@@ -0,0 +1,47 @@
+package com.takipi.udf.api;
+
+import java.util.Collections;
+
+import com.takipi.api.client.ApiClient;
+import com.takipi.api.core.request.intf.ApiDeleteRequest;
+import com.takipi.api.core.request.intf.ApiGetRequest;
+import com.takipi.api.core.request.intf.ApiPostRequest;
+import com.takipi.api.core.request.intf.ApiPutRequest;
+import com.takipi.api.core.result.intf.ApiResult;
+
+// Base class for clients that wrap another api client. Every request is forwarded to the
+// delegate as is, subclasses override the verbs they are interested in.
+//
+public abstract class ApiClientDecorator extends ApiClient {
+	protected final ApiClient delegate;
+
+	protected ApiClientDecorator(ApiClient delegate) {
+		super(delegate.getHostname(), 0, 0, LogLevel.WARN, Collections.emptyMap(), delegate.getApiVersion());
+
+		this.delegate = delegate;
+	}
+
+	public ApiClient getDelegate() {
+		return delegate;
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> get(ApiGetRequest<T> request) {
+		return delegate.get(request);
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> post(ApiPostRequest<T> request) {
+		return delegate.post(request);
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> put(ApiPutRequest<T> request) {
+		return delegate.put(request);
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> delete(ApiDeleteRequest<T> request) {
+		return delegate.delete(request);
+	}
+}
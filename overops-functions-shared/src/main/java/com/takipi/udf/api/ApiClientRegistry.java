@@ -0,0 +1,107 @@
+package com.takipi.udf.api;
+
+import java.net.HttpURLConnection;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.takipi.api.client.ApiClient;
+import com.takipi.api.client.RemoteApiClient;
+import com.takipi.api.core.url.UrlClient.LogLevel;
+import com.takipi.udf.api.fixture.ApiFixtures;
+
+// A process wide registry of api clients, keyed by (apiHost, apiKey). Clients are stateless
+// and safe to share between threads, so every function running in the same JVM reuses the
+// same client (and through it the JVM's keep-alive connection cache) instead of building a
+// new one per call.
+//
+public class ApiClientRegistry {
+	private static final int MAX_CLIENTS = 256;
+	private static final long CLIENT_IDLE_MINUTES = 30;
+
+	private static final String KEEP_ALIVE_PROPERTY = "http.keepAlive";
+	private static final String MAX_CONNECTIONS_PROPERTY = "http.maxConnections";
+	private static final String MAX_CONNECTIONS = "20";
+
+	private static final Cache<ClientKey, ApiClient> clients = CacheBuilder.newBuilder().maximumSize(MAX_CLIENTS)
+			.expireAfterAccess(CLIENT_IDLE_MINUTES, TimeUnit.MINUTES).build();
+
+	static {
+		enableKeepAlive();
+	}
+
+	public static ApiClient get(String apiHost, String apiKey) {
+		ClientKey key = ClientKey.of(apiHost, apiKey);
+
+		try {
+			return clients.get(key, () -> createClient(key));
+		} catch (ExecutionException | UncheckedExecutionException e) {
+			throw new IllegalStateException("Failed creating api client for " + apiHost, e.getCause());
+		}
+	}
+
+	public static void invalidate(String apiHost, String apiKey) {
+		clients.invalidate(ClientKey.of(apiHost, apiKey));
+	}
+
+	private static ApiClient createClient(ClientKey key) {
+		return ApiFixtures.decorate(key.apiHost, () -> createRemoteClient(key));
+	}
+
+	private static ApiClient createRemoteClient(ClientKey key) {
+		return RemoteApiClient.newBuilder().setHostname(key.apiHost).setApiKey(key.apiKey)
+				.setDefaultLogLevel(LogLevel.WARN).setResponseLogLevel(HttpURLConnection.HTTP_CONFLICT, LogLevel.INFO)
+				.build();
+	}
+
+	// HttpURLConnection keeps idle connections alive per destination by default, but only a
+	// handful of them. Functions sharing a client fan out to the same host, so we raise the
+	// limit unless the host JVM was explicitly configured otherwise.
+	//
+	private static void enableKeepAlive() {
+		if (System.getProperty(KEEP_ALIVE_PROPERTY) == null) {
+			System.setProperty(KEEP_ALIVE_PROPERTY, Boolean.TRUE.toString());
+		}
+
+		if (System.getProperty(MAX_CONNECTIONS_PROPERTY) == null) {
+			System.setProperty(MAX_CONNECTIONS_PROPERTY, MAX_CONNECTIONS);
+		}
+	}
+
+	static class ClientKey {
+		public final String apiHost;
+		public final String apiKey;
+
+		private ClientKey(String apiHost, String apiKey) {
+			this.apiHost = apiHost;
+			this.apiKey = apiKey;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o == this) {
+				return true;
+			}
+
+			if ((o == null) || (!(o instanceof ClientKey))) {
+				return false;
+			}
+
+			ClientKey other = (ClientKey) o;
+
+			return ((Objects.equals(apiHost, other.apiHost)) && (Objects.equals(apiKey, other.apiKey)));
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(apiHost, apiKey);
+		}
+
+		static ClientKey of(String apiHost, String apiKey) {
+			return new ClientKey(apiHost, apiKey);
+		}
+	}
+}
@@ -0,0 +1,239 @@
+package com.takipi.udf.api;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.takipi.api.client.ApiClient;
+import com.takipi.api.client.request.event.EventsRequest;
+import com.takipi.api.client.result.event.EventResult;
+import com.takipi.api.client.result.event.EventsResult;
+import com.takipi.api.core.url.UrlClient.Response;
+import com.takipi.udf.api.fixture.ApiFixtures;
+import com.takipi.udf.log.Log;
+import com.takipi.udf.util.GsonUtil;
+
+// Decodes the events of an EventsRequest one at a time as they come off the wire, instead of
+// materializing the whole EventsResult first, so peak heap doesn't grow with the view. Fields a
+// caller doesn't project are skipped without being decoded. A visitor returning false stops the
+// stream and drops the connection rather than reading the rest of the body.
+//
+// Streaming needs the raw response, so it bypasses the execution's client, but not its throttle
+// and retries (see StreamingGet). Calls are still metered, and when fixtures are recorded or
+// replayed the response is read through the client and visited from memory instead.
+//
+// The connection has a read timeout, so visitors shouldn't make calls of their own while the stream
+// is open - they should collect what they need and make the calls once forEach returns.
+//
+// Views too large to collect at once are visited in chunks with forEachChunk - the visitor
+// processes each chunk once its stream is closed, and the request is streamed again from the
+// first event not yet visited, skipping the ones before it without decoding them.
+//
+public class EventsStream {
+	private static final String EVENTS_FIELD = "events";
+
+	public interface Visitor {
+		// Returns whether to continue with the next event.
+		//
+		boolean visit(EventResult event);
+	}
+
+	public interface ChunkVisitor {
+		// Returns whether to add the event to the current chunk. An event that isn't ends the
+		// chunk, and is the first one visited in the next.
+		//
+		boolean visit(EventResult event);
+
+		// Called with the stream closed once the chunk ends, and after the last event. Returns
+		// whether to continue with the next chunk.
+		//
+		boolean endChunk();
+	}
+
+	private final String apiHost;
+	private final String apiKey;
+	private final ApiClient apiClient;
+	private final RetryingApiClient streamClient;
+	private final ApiCallMeter meter;
+
+	private EventsStream(String apiHost, String apiKey, ApiClient apiClient, RetryingApiClient streamClient,
+			ApiCallMeter meter) {
+		this.apiHost = apiHost;
+		this.apiKey = apiKey;
+		this.apiClient = apiClient;
+		this.streamClient = streamClient;
+		this.meter = meter;
+	}
+
+	// Visits the events of the request, decoding only the given fields of each (all of them
+	// when null). Returns the number of events visited.
+	//
+	public int forEach(EventsRequest request, Set<String> fields, Visitor visitor) {
+		return stream(request, fields, 0, visitor).count;
+	}
+
+	// Visits the events of the request in chunks, all within this execution. The api returns the
+	// events of a request in the same order every time, so each one is visited once - short of
+	// events that start or stop matching the request between chunks. A chunk must take at least
+	// one event, or the visit stops there. Returns the number of events added to chunks.
+	//
+	public int forEachChunk(EventsRequest request, Set<String> fields, ChunkVisitor visitor) {
+		int offset = 0;
+
+		while (true) {
+			Result result = stream(request, fields, offset, visitor::visit);
+
+			// The event that ended the chunk isn't part of it.
+			//
+			int taken = (result.complete ? result.count : (result.count - 1));
+
+			offset += taken;
+
+			if ((!visitor.endChunk()) || (result.complete)) {
+				return offset;
+			}
+
+			if (taken == 0) {
+				Log.warn("No event taken from a chunk, stopped after " + offset + " events of "
+						+ request.urlPath());
+				return offset;
+			}
+		}
+	}
+
+	private Result stream(EventsRequest request, Set<String> fields, int offset, Visitor visitor) {
+		if (ApiFixtures.isActive()) {
+			return forEachInMemory(request, offset, visitor);
+		}
+
+		try (StreamingGet get = StreamingGet.open(apiHost, apiKey, streamClient, meter, request)) {
+			Result result = read(get.reader(), fields, offset, visitor);
+
+			if (result.complete) {
+				get.complete();
+			}
+
+			return result;
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed streaming events from " + request.urlPath(), e);
+		}
+	}
+
+	private Result forEachInMemory(EventsRequest request, int offset, Visitor visitor) {
+		Response<EventsResult> response = apiClient.get(request);
+
+		if (response.isBadResponse()) {
+			throw new IllegalStateException("Failed getting events, code: " + response.responseCode);
+		}
+
+		if ((response.data == null) || (response.data.events == null)) {
+			return Result.of(0, true);
+		}
+
+		List<EventResult> events = response.data.events;
+		int count = 0;
+
+		for (int i = offset; i < events.size(); i++) {
+			count++;
+
+			if (!visitor.visit(events.get(i))) {
+				return Result.of(count, false);
+			}
+		}
+
+		return Result.of(count, true);
+	}
+
+	// Visits the events past the first offset ones, which are skipped without being decoded.
+	//
+	static Result read(JsonReader reader, Set<String> fields, int offset, Visitor visitor) throws IOException {
+		Gson gson = GsonUtil.gson();
+		JsonParser parser = new JsonParser();
+
+		int count = 0;
+		int skipped = 0;
+
+		reader.beginObject();
+
+		while (reader.hasNext()) {
+			if ((!EVENTS_FIELD.equals(reader.nextName())) || (reader.peek() != JsonToken.BEGIN_ARRAY)) {
+				reader.skipValue();
+				continue;
+			}
+
+			reader.beginArray();
+
+			while (reader.hasNext()) {
+				if (skipped < offset) {
+					reader.skipValue();
+					skipped++;
+					continue;
+				}
+
+				EventResult event;
+
+				if (fields == null) {
+					event = gson.fromJson(reader, EventResult.class);
+				} else {
+					event = gson.fromJson(project(reader, parser, fields), EventResult.class);
+				}
+
+				count++;
+
+				if (!visitor.visit(event)) {
+					return Result.of(count, false);
+				}
+			}
+
+			reader.endArray();
+		}
+
+		reader.endObject();
+
+		return Result.of(count, true);
+	}
+
+	private static JsonObject project(JsonReader reader, JsonParser parser, Set<String> fields) throws IOException {
+		JsonObject result = new JsonObject();
+
+		reader.beginObject();
+
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+
+			if (fields.contains(name)) {
+				result.add(name, parser.parse(reader));
+			} else {
+				reader.skipValue();
+			}
+		}
+
+		reader.endObject();
+
+		return result;
+	}
+
+	public static EventsStream of(String apiHost, String apiKey, ApiClient apiClient, RetryingApiClient streamClient,
+			ApiCallMeter meter) {
+		return new EventsStream(apiHost, apiKey, apiClient, streamClient, meter);
+	}
+
+	static class Result {
+		final int count;
+		final boolean complete;
+
+		private Result(int count, boolean complete) {
+			this.count = count;
+			this.complete = complete;
+		}
+
+		static Result of(int count, boolean complete) {
+			return new Result(count, complete);
+		}
+	}
+}
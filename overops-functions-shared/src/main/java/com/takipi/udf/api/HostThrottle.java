@@ -0,0 +1,95 @@
+package com.takipi.udf.api;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+
+// Paces the requests made to a host by every execution in the process, so functions running
+// concurrently don't trip the api's rate limiting together. Each host has a token bucket holding
+// up to a second's worth of requests. Its rate is adapted the way TCP adapts its window - halved
+// whenever the host throttles us, and raised a little with every successful call, up to
+// -Dudf.api.maxRate requests per second (50 by default).
+//
+public class HostThrottle {
+	public static final String MAX_RATE_PROPERTY = "udf.api.maxRate";
+
+	private static final double DEFAULT_MAX_RATE = 50.0;
+	private static final double MIN_RATE = 1.0;
+	private static final double RATE_INCREASE = 0.1;
+
+	private static final ConcurrentMap<String, HostThrottle> throttles = Maps.newConcurrentMap();
+
+	private final double maxRate;
+
+	private double rate;
+	private double tokens;
+	private long lastRefillNanos;
+
+	private HostThrottle(double maxRate) {
+		this.maxRate = maxRate;
+		this.rate = maxRate;
+		this.tokens = maxRate;
+		this.lastRefillNanos = System.nanoTime();
+	}
+
+	public synchronized double getRate() {
+		return rate;
+	}
+
+	// Blocks until the host can take another request.
+	//
+	public void acquire() throws InterruptedException {
+		long waitNanos = reserve();
+
+		if (waitNanos > 0l) {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+	}
+
+	public synchronized void onThrottled() {
+		rate = Math.max(MIN_RATE, rate / 2.0);
+		tokens = Math.min(tokens, 0.0);
+	}
+
+	public synchronized void onSuccess() {
+		rate = Math.min(maxRate, rate + RATE_INCREASE);
+	}
+
+	// Takes a token, going into debt when there is none. Returns how long the caller has to
+	// wait for the debt to be paid.
+	//
+	private synchronized long reserve() {
+		long now = System.nanoTime();
+
+		tokens = Math.min(rate, tokens + (rate * (now - lastRefillNanos) / TimeUnit.SECONDS.toNanos(1)));
+		lastRefillNanos = now;
+
+		tokens -= 1.0;
+
+		if (tokens >= 0.0) {
+			return 0l;
+		}
+
+		return (long) (-tokens / rate * TimeUnit.SECONDS.toNanos(1));
+	}
+
+	public static HostThrottle of(String host) {
+		return throttles.computeIfAbsent(Strings.nullToEmpty(host), h -> new HostThrottle(maxRate()));
+	}
+
+	private static double maxRate() {
+		String value = System.getProperty(MAX_RATE_PROPERTY);
+
+		if (Strings.isNullOrEmpty(value)) {
+			return DEFAULT_MAX_RATE;
+		}
+
+		try {
+			return Math.max(MIN_RATE, Double.parseDouble(value));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid " + MAX_RATE_PROPERTY + " - " + value);
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package com.takipi.udf.api;
+
+import java.util.Collection;
+
+import com.takipi.api.client.ApiClient;
+import com.takipi.api.client.request.label.BatchModifyLabelsRequest;
+import com.takipi.api.client.result.EmptyResult;
+import com.takipi.api.core.url.UrlClient.Response;
+import com.takipi.udf.log.Log;
+import com.takipi.udf.memory.MemoryBudget;
+import com.takipi.udf.memory.MemoryEstimate;
+import com.takipi.udf.trace.Phase;
+import com.takipi.udf.trace.PhaseTrace;
+
+// A batch label modification request that is posted in chunks once the memory budget runs low,
+// instead of holding every modification of a large view until the end of the execution. Callers
+// add modifications as they go and flush once when done. A failed chunk doesn't stop the ones
+// after it - hasFailed() tells whether any of them failed.
+//
+// Chunks are never smaller than MIN_CHUNK_SIZE modifications, so a budget kept low by other
+// executions costs a post per few hundred events rather than one per event.
+//
+public class LabelBatch {
+	public static final int MIN_CHUNK_SIZE = 500;
+
+	private final ApiClient apiClient;
+	private final String serviceId;
+	private final boolean handleSimilarEvents;
+	private final MemoryBudget.Account account;
+
+	private BatchModifyLabelsRequest.Builder builder;
+	private int pendingCount;
+	private long pendingBytes;
+	private int modificationCount;
+	private int chunkCount;
+	private boolean failed;
+
+	private LabelBatch(ApiClient apiClient, String serviceId, boolean handleSimilarEvents,
+			MemoryBudget.Account account) {
+		this.apiClient = apiClient;
+		this.serviceId = serviceId;
+		this.handleSimilarEvents = handleSimilarEvents;
+		this.account = account;
+	}
+
+	public void add(String eventId, Collection<String> labelsToAdd, Collection<String> labelsToRemove) {
+		if (builder == null) {
+			builder = BatchModifyLabelsRequest.newBuilder().setServiceId(serviceId)
+					.setHandleSimilarEvents(handleSimilarEvents);
+		}
+
+		builder.addLabelModifications(eventId, labelsToAdd, labelsToRemove);
+
+		long bytes = MemoryEstimate.ofLabelModification(eventId, labelsToAdd, labelsToRemove);
+
+		account.reserve(bytes);
+		pendingBytes += bytes;
+		pendingCount++;
+		modificationCount++;
+
+		if ((pendingCount >= MIN_CHUNK_SIZE) && (account.isNearLimit())) {
+			Log.info("Memory budget running low, posting " + pendingCount + " label modifications early - "
+					+ account);
+			flush();
+		}
+	}
+
+	// Posts the pending modifications, if any.
+	//
+	public void flush() {
+		if (pendingCount == 0) {
+			return;
+		}
+
+		BatchModifyLabelsRequest request = builder.build();
+
+		builder = null;
+		pendingCount = 0;
+		account.release(pendingBytes);
+		pendingBytes = 0;
+		chunkCount++;
+
+		Response<EmptyResult> response;
+
+		PhaseTrace.Span labels = PhaseTrace.begin(Phase.LABELS);
+
+		try {
+			response = apiClient.post(request);
+		} finally {
+			labels.close();
+		}
+
+		if ((response == null) || (response.isBadResponse())) {
+			Log.warn("Failed posting label modifications, code: "
+					+ ((response != null) ? response.responseCode : "none"));
+			failed = true;
+		}
+	}
+
+	public boolean hasModifications() {
+		return (modificationCount > 0);
+	}
+
+	public int getModificationCount() {
+		return modificationCount;
+	}
+
+	public int getChunkCount() {
+		return chunkCount;
+	}
+
+	public boolean hasFailed() {
+		return failed;
+	}
+
+	public static LabelBatch of(ApiClient apiClient, String serviceId, boolean handleSimilarEvents,
+			MemoryBudget.Account account) {
+		return new LabelBatch(apiClient, serviceId, handleSimilarEvents, account);
+	}
+}
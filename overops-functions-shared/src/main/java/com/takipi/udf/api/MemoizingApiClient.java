@@ -0,0 +1,149 @@
+package com.takipi.udf.api;
+
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Maps;
+import com.takipi.api.client.ApiClient;
+import com.takipi.api.core.request.intf.ApiDeleteRequest;
+import com.takipi.api.core.request.intf.ApiGetRequest;
+import com.takipi.api.core.request.intf.ApiPostRequest;
+import com.takipi.api.core.request.intf.ApiPutRequest;
+import com.takipi.api.core.result.intf.ApiResult;
+
+// Deduplicates identical GET requests made during a single execution, including ones that are
+// still in flight - the first caller makes the call and concurrent callers wait for its result.
+// Any write clears everything memoized so far, since we can't tell which reads it affects.
+// Only OK responses are kept. Every caller gets its own copy of the result (see SharedResponse),
+// so callers are free to modify it.
+//
+public class MemoizingApiClient extends ApiClientDecorator {
+	private final ConcurrentMap<String, CompletableFuture<SharedResponse>> responses;
+	private final AtomicInteger hitCount;
+
+	private MemoizingApiClient(ApiClient delegate) {
+		super(delegate);
+
+		this.responses = Maps.newConcurrentMap();
+		this.hitCount = new AtomicInteger();
+	}
+
+	public int getHitCount() {
+		return hitCount.get();
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> get(ApiGetRequest<T> request) {
+		String key = keyOf(request);
+
+		if (key == null) {
+			return delegate.get(request);
+		}
+
+		CompletableFuture<SharedResponse> future = new CompletableFuture<>();
+		CompletableFuture<SharedResponse> existing = responses.putIfAbsent(key, future);
+
+		if (existing != null) {
+			hitCount.incrementAndGet();
+
+			SharedResponse shared = join(existing);
+
+			return ((shared != null) ? shared.copy(request.resultClass()) : null);
+		}
+
+		Response<T> response;
+
+		try {
+			response = delegate.get(request);
+		} catch (RuntimeException e) {
+			responses.remove(key, future);
+			future.completeExceptionally(e);
+			throw e;
+		}
+
+		if ((response == null) || (!response.isOK())) {
+			responses.remove(key, future);
+		}
+
+		future.complete(SharedResponse.of(response));
+
+		return response;
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> post(ApiPostRequest<T> request) {
+		responses.clear();
+
+		try {
+			return delegate.post(request);
+		} finally {
+			responses.clear();
+		}
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> put(ApiPutRequest<T> request) {
+		responses.clear();
+
+		try {
+			return delegate.put(request);
+		} finally {
+			responses.clear();
+		}
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> delete(ApiDeleteRequest<T> request) {
+		responses.clear();
+
+		try {
+			return delegate.delete(request);
+		} finally {
+			responses.clear();
+		}
+	}
+
+	private static SharedResponse join(CompletableFuture<SharedResponse> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+
+			throw e;
+		}
+	}
+
+	private static String keyOf(ApiGetRequest<?> request) {
+		String[] queryParams;
+
+		try {
+			queryParams = request.queryParams();
+		} catch (UnsupportedEncodingException e) {
+			return null;
+		}
+
+		StringBuilder builder = new StringBuilder();
+
+		builder.append(request.getClass().getName());
+		builder.append(' ');
+		builder.append(request.urlPath());
+
+		if (queryParams != null) {
+			for (String queryParam : queryParams) {
+				builder.append('&');
+				builder.append(queryParam);
+			}
+		}
+
+		return builder.toString();
+	}
+
+	public static MemoizingApiClient of(ApiClient delegate) {
+		return new MemoizingApiClient(delegate);
+	}
+}
@@ -0,0 +1,398 @@
+package com.takipi.udf.api;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.takipi.udf.log.Log;
+import com.takipi.udf.util.GsonUtil;
+
+// A process wide cache for service metadata that rarely changes - views, categories, labels,
+// settings, code redaction and the service (environment) itself. Entries expire after a per
+// request type TTL, and are dropped when we write to the same kind of metadata. The cache can
+// be persisted to a file so a restarted runner starts warm. Results are stored as json and
+// decoded per hit, so callers never share (and never modify) a cached object.
+//
+// Runners sharing a file merge their entries into it under a file lock. Writes are recorded as
+// invalidations that are merged too, so an entry another runner stored before our write is
+// dropped rather than written back.
+//
+public class MetadataCache {
+	// -Dudf.metadata.cache.file=<path> persists the cache to a file, by default (or when set to
+	// "none") it is kept in memory.
+	// -Dudf.metadata.ttl.<RequestType>=<seconds> overrides (or adds) a TTL, 0 disables it.
+	//
+	public static final String FILE_PROPERTY = "udf.metadata.cache.file";
+	public static final String TTL_PROPERTY_PREFIX = "udf.metadata.ttl.";
+
+	private static final String NO_FILE = "none";
+	private static final String LOCK_FILE_SUFFIX = ".lock";
+
+	private static final long FLUSH_INTERVAL_SECONDS = 10;
+
+	// A full cache drops the entries closest to expiring, down to EVICT_TO_ENTRIES so that not
+	// every put has to evict.
+	//
+	static final int MAX_ENTRIES = 4096;
+	private static final int EVICT_TO_ENTRIES = MAX_ENTRIES * 3 / 4;
+
+	private static final Map<String, Long> DEFAULT_TTL_SECONDS = ImmutableMap.<String, Long> builder()
+			.put("ViewsRequest", TimeUnit.MINUTES.toSeconds(10))
+			.put("CategoriesRequest", TimeUnit.MINUTES.toSeconds(10))
+			.put("LabelsRequest", TimeUnit.MINUTES.toSeconds(10))
+			.put("ServicesRequest", TimeUnit.MINUTES.toSeconds(60))
+			.put("ServiceSettingsRequest", TimeUnit.MINUTES.toSeconds(30))
+			.put("CodeRedactionExcludeRequest", TimeUnit.MINUTES.toSeconds(30)).build();
+
+	private static final MetadataCache instance = new MetadataCache(backingFile());
+
+	private final Path file;
+	private final ConcurrentMap<String, Entry> entries;
+	private final ConcurrentMap<String, Long> invalidations;
+	private final ConcurrentMap<String, Long> ttls;
+	private final AtomicBoolean loaded;
+	private final AtomicBoolean dirty;
+
+	private MetadataCache(Path file) {
+		this.file = file;
+		this.entries = Maps.newConcurrentMap();
+		this.invalidations = Maps.newConcurrentMap();
+		this.ttls = Maps.newConcurrentMap();
+		this.loaded = new AtomicBoolean();
+		this.dirty = new AtomicBoolean();
+	}
+
+	static MetadataCache of(Path file) {
+		return new MetadataCache(file);
+	}
+
+	public static MetadataCache instance() {
+		return instance;
+	}
+
+	// Keys are scoped by api host and a hash of the api key, so the key itself never reaches
+	// the disk.
+	//
+	public static String scopeOf(String apiHost, String apiKey) {
+		String keyHash = Hashing.sha256().hashString(Strings.nullToEmpty(apiKey), StandardCharsets.UTF_8)
+				.toString();
+
+		return Strings.nullToEmpty(apiHost) + "|" + keyHash.substring(0, 16);
+	}
+
+	public long ttlMillis(String requestType) {
+		return ttls.computeIfAbsent(requestType, MetadataCache::loadTtlMillis);
+	}
+
+	public Entry get(String key) {
+		ensureLoaded();
+
+		Entry entry = entries.get(key);
+
+		if (entry == null) {
+			return null;
+		}
+
+		if (entry.expiresAt <= System.currentTimeMillis()) {
+			entries.remove(key, entry);
+			return null;
+		}
+
+		return entry;
+	}
+
+	public void put(String key, String scope, String requestPackage, int responseCode, JsonElement data,
+			long ttlMillis) {
+		ensureLoaded();
+
+		if (entries.size() >= MAX_ENTRIES) {
+			evict();
+		}
+
+		long now = System.currentTimeMillis();
+
+		Entry entry = new Entry();
+
+		entry.scope = scope;
+		entry.requestPackage = requestPackage;
+		entry.responseCode = responseCode;
+		entry.data = data;
+		entry.storedAt = now;
+		entry.expiresAt = now + ttlMillis;
+
+		entries.put(key, entry);
+		dirty.set(true);
+	}
+
+	// Drops every entry of the scope whose request lives in the given package, i.e. the same
+	// kind of metadata a write just changed.
+	//
+	public void invalidate(String scope, String requestPackage) {
+		String invalidationKey = invalidationKeyOf(scope, requestPackage);
+		long now = System.currentTimeMillis();
+
+		invalidations.merge(invalidationKey, now, Math::max);
+		entries.values().removeIf(entry -> (invalidationKeyOf(entry).equals(invalidationKey)));
+
+		dirty.set(true);
+	}
+
+	public void clear() {
+		entries.clear();
+		dirty.set(true);
+	}
+
+	private void evict() {
+		evictExpired();
+
+		if (entries.size() < MAX_ENTRIES) {
+			return;
+		}
+
+		List<Map.Entry<String, Entry>> soonestExpiring = Lists.newArrayList(entries.entrySet());
+		soonestExpiring.sort(Comparator.comparingLong(mapEntry -> mapEntry.getValue().expiresAt));
+
+		int evictCount = soonestExpiring.size() - EVICT_TO_ENTRIES;
+
+		for (int i = 0; i < evictCount; i++) {
+			Map.Entry<String, Entry> mapEntry = soonestExpiring.get(i);
+			entries.remove(mapEntry.getKey(), mapEntry.getValue());
+		}
+	}
+
+	private void evictExpired() {
+		long now = System.currentTimeMillis();
+		entries.values().removeIf(entry -> entry.expiresAt <= now);
+
+		// An invalidation only drops entries stored before it, and those have all expired once
+		// the longest TTL has passed.
+		//
+		long invalidatedBefore = now - maxTtlMillis();
+		invalidations.values().removeIf(invalidatedAt -> invalidatedAt <= invalidatedBefore);
+	}
+
+	private long maxTtlMillis() {
+		long result = 0l;
+
+		for (String requestType : DEFAULT_TTL_SECONDS.keySet()) {
+			result = Math.max(result, ttlMillis(requestType));
+		}
+
+		for (long ttl : ttls.values()) {
+			result = Math.max(result, ttl);
+		}
+
+		return result;
+	}
+
+	private boolean isInvalidated(Entry entry) {
+		Long invalidatedAt = invalidations.get(invalidationKeyOf(entry));
+		return ((invalidatedAt != null) && (entry.storedAt <= invalidatedAt));
+	}
+
+	private static String invalidationKeyOf(Entry entry) {
+		return invalidationKeyOf(entry.scope, entry.requestPackage);
+	}
+
+	private static String invalidationKeyOf(String scope, String requestPackage) {
+		return scope + "|" + requestPackage;
+	}
+
+	private void ensureLoaded() {
+		if ((loaded.get()) || (!loaded.compareAndSet(false, true))) {
+			return;
+		}
+
+		if (file == null) {
+			return;
+		}
+
+		merge(read());
+
+		ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "udf-metadata-cache-flush");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		flusher.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_SECONDS, FLUSH_INTERVAL_SECONDS,
+				TimeUnit.SECONDS);
+
+		Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "udf-metadata-cache-shutdown"));
+	}
+
+	// The file is only ever replaced as a whole, so it can be read without the lock.
+	//
+	private Persisted read() {
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+
+		try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			return GsonUtil.gson().fromJson(reader, Persisted.class);
+		} catch (IOException | JsonParseException e) {
+			Log.warn("Failed loading metadata cache " + file + " - " + e);
+			return null;
+		}
+	}
+
+	// Takes the persisted invalidations, then every persisted entry that is neither expired nor
+	// invalidated, unless we hold a newer one under the same key.
+	//
+	private void merge(Persisted persisted) {
+		if (persisted != null) {
+			if (persisted.invalidations != null) {
+				for (Map.Entry<String, Long> invalidation : persisted.invalidations.entrySet()) {
+					if (invalidation.getValue() != null) {
+						invalidations.merge(invalidation.getKey(), invalidation.getValue(), Math::max);
+					}
+				}
+			}
+
+			if (persisted.entries != null) {
+				long now = System.currentTimeMillis();
+
+				for (Map.Entry<String, Entry> persistedEntry : persisted.entries.entrySet()) {
+					Entry entry = persistedEntry.getValue();
+
+					if ((entry != null) && (entry.scope != null) && (entry.requestPackage != null)
+							&& (entry.expiresAt > now) && (!isInvalidated(entry))) {
+						entries.merge(persistedEntry.getKey(), entry,
+								(current, other) -> ((current.storedAt >= other.storedAt) ? current : other));
+					}
+				}
+			}
+		}
+
+		entries.values().removeIf(this::isInvalidated);
+		evictExpired();
+
+		if (entries.size() > MAX_ENTRIES) {
+			evict();
+		}
+	}
+
+	// Picks up what other runners persisted, and when we have changes of our own, writes the
+	// merged cache back while holding the lock, so no runner overwrites changes it has not seen.
+	//
+	synchronized void flush() {
+		if (file == null) {
+			return;
+		}
+
+		if (!dirty.compareAndSet(true, false)) {
+			merge(read());
+			return;
+		}
+
+		try {
+			Path directory = file.toAbsolutePath().getParent();
+			Files.createDirectories(directory);
+
+			Path lockFile = directory.resolve(file.getFileName() + LOCK_FILE_SUFFIX);
+
+			// Closing the channel releases the lock.
+			//
+			try (FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE)) {
+				lockChannel.lock();
+
+				merge(read());
+				write(directory);
+			}
+		} catch (IOException e) {
+			dirty.set(true);
+			Log.warn("Failed persisting metadata cache " + file + " - " + e);
+		}
+	}
+
+	private void write(Path directory) throws IOException {
+		Persisted persisted = new Persisted();
+
+		persisted.entries = entries;
+		persisted.invalidations = invalidations;
+
+		Path tempFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+
+		try {
+			try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+				GsonUtil.gson().toJson(persisted, writer);
+			}
+
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	private static long loadTtlMillis(String requestType) {
+		String ttl = System.getProperty(TTL_PROPERTY_PREFIX + requestType);
+
+		if (!Strings.isNullOrEmpty(ttl)) {
+			try {
+				return TimeUnit.SECONDS.toMillis(Long.parseLong(ttl));
+			} catch (NumberFormatException e) {
+				Log.warn("Invalid " + TTL_PROPERTY_PREFIX + requestType + " - " + ttl);
+			}
+		}
+
+		Long defaultTtl = DEFAULT_TTL_SECONDS.get(requestType);
+
+		if (defaultTtl == null) {
+			return 0l;
+		}
+
+		return TimeUnit.SECONDS.toMillis(defaultTtl);
+	}
+
+	// Runners sharing a default location would all read and write the same file, so only a
+	// file named explicitly is used.
+	//
+	static Path backingFile() {
+		String path = System.getProperty(FILE_PROPERTY);
+
+		if ((Strings.isNullOrEmpty(path)) || (NO_FILE.equalsIgnoreCase(path))) {
+			return null;
+		}
+
+		return Paths.get(path);
+	}
+
+	public static class Entry {
+		public String scope;
+		public String requestPackage;
+		public int responseCode;
+		public long storedAt;
+		public long expiresAt;
+		public JsonElement data;
+	}
+
+	// Invalidation times are keyed by scope and request package.
+	//
+	private static class Persisted {
+		Map<String, Entry> entries;
+		Map<String, Long> invalidations;
+	}
+}
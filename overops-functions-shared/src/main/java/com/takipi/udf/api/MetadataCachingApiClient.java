@@ -0,0 +1,137 @@
+package com.takipi.udf.api;
+
+import java.io.UnsupportedEncodingException;
+
+import com.google.gson.JsonElement;
+import com.takipi.api.client.ApiClient;
+import com.takipi.api.core.request.intf.ApiDeleteRequest;
+import com.takipi.api.core.request.intf.ApiGetRequest;
+import com.takipi.api.core.request.intf.ApiPostRequest;
+import com.takipi.api.core.request.intf.ApiPutRequest;
+import com.takipi.api.core.result.intf.ApiResult;
+import com.takipi.udf.util.GsonUtil;
+
+// Serves metadata GETs from the MetadataCache, and invalidates the matching metadata on every
+// write made through it. Requests with no TTL are passed through untouched.
+//
+public class MetadataCachingApiClient extends ApiClientDecorator {
+	private final MetadataCache cache;
+	private final String scope;
+
+	private MetadataCachingApiClient(ApiClient delegate, MetadataCache cache, String scope) {
+		super(delegate);
+
+		this.cache = cache;
+		this.scope = scope;
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> get(ApiGetRequest<T> request) {
+		long ttlMillis = cache.ttlMillis(request.getClass().getSimpleName());
+
+		if (ttlMillis <= 0) {
+			return delegate.get(request);
+		}
+
+		String key = keyOf(request);
+
+		if (key == null) {
+			return delegate.get(request);
+		}
+
+		MetadataCache.Entry entry = cache.get(key);
+
+		if (entry != null) {
+			T data = (entry.data != null) ? GsonUtil.gson().fromJson(entry.data, request.resultClass()) : null;
+			return Response.of(entry.responseCode, data);
+		}
+
+		Response<T> response = delegate.get(request);
+
+		if ((response != null) && (response.isOK())) {
+			JsonElement data = (response.data != null) ? GsonUtil.gson().toJsonTree(response.data) : null;
+			cache.put(key, scope, packageOf(request), response.responseCode, data, ttlMillis);
+		}
+
+		return response;
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> post(ApiPostRequest<T> request) {
+		try {
+			return delegate.post(request);
+		} finally {
+			invalidate(request);
+		}
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> put(ApiPutRequest<T> request) {
+		try {
+			return delegate.put(request);
+		} finally {
+			invalidate(request);
+		}
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> delete(ApiDeleteRequest<T> request) {
+		try {
+			return delegate.delete(request);
+		} finally {
+			invalidate(request);
+		}
+	}
+
+	// Label modifications on events live next to the label requests, but only change events,
+	// not the labels themselves - invalidating on them would empty the cache every tick.
+	//
+	private void invalidate(Object request) {
+		if (request.getClass().getSimpleName().contains("ModifyLabels")) {
+			return;
+		}
+
+		cache.invalidate(scope, packageOf(request));
+	}
+
+	private String keyOf(ApiGetRequest<?> request) {
+		String[] queryParams;
+
+		try {
+			queryParams = request.queryParams();
+		} catch (UnsupportedEncodingException e) {
+			return null;
+		}
+
+		StringBuilder builder = new StringBuilder();
+
+		builder.append(scope);
+		builder.append(' ');
+		builder.append(request.getClass().getName());
+		builder.append(' ');
+		builder.append(request.urlPath());
+
+		if (queryParams != null) {
+			for (String queryParam : queryParams) {
+				builder.append('&');
+				builder.append(queryParam);
+			}
+		}
+
+		return builder.toString();
+	}
+
+	private static String packageOf(Object request) {
+		Package requestPackage = request.getClass().getPackage();
+
+		if (requestPackage == null) {
+			return "";
+		}
+
+		return requestPackage.getName();
+	}
+
+	public static MetadataCachingApiClient of(ApiClient delegate, MetadataCache cache, String scope) {
+		return new MetadataCachingApiClient(delegate, cache, scope);
+	}
+}
@@ -0,0 +1,143 @@
+package com.takipi.udf.api;
+
+import com.google.common.base.Utf8;
+import com.takipi.api.client.ApiClient;
+import com.takipi.api.core.request.intf.ApiDeleteRequest;
+import com.takipi.api.core.request.intf.ApiGetRequest;
+import com.takipi.api.core.request.intf.ApiPostRequest;
+import com.takipi.api.core.request.intf.ApiPutRequest;
+import com.takipi.api.core.result.intf.ApiResult;
+import com.takipi.udf.trace.Phase;
+import com.takipi.udf.trace.PhaseTrace;
+import com.takipi.udf.util.GsonUtil;
+
+// Records every call made through it into an ApiCallMeter. Response sizes are not exposed by
+// the underlying client, so bytes in are estimated by re-serializing the result, which costs
+// about as much as decoding it. That is only done when -Dudf.api.meter.bytesIn=true. Every call
+// is also recorded as an api call phase (see PhaseTrace).
+//
+public class MeteredApiClient extends ApiClientDecorator {
+	public static final String BYTES_IN_PROPERTY = "udf.api.meter.bytesIn";
+
+	private static final String GET = "GET";
+	private static final String POST = "POST";
+	private static final String PUT = "PUT";
+	private static final String DELETE = "DELETE";
+
+	private static final boolean estimateBytesIn = Boolean.getBoolean(BYTES_IN_PROPERTY);
+
+	private final ApiCallMeter meter;
+
+	private MeteredApiClient(ApiClient delegate, ApiCallMeter meter) {
+		super(delegate);
+
+		this.meter = meter;
+	}
+
+	public ApiCallMeter getMeter() {
+		return meter;
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> get(ApiGetRequest<T> request) {
+		String requestType = requestType(request);
+		long start = System.nanoTime();
+		Response<T> response = null;
+
+		PhaseTrace.Span apiCall = PhaseTrace.begin(Phase.API_CALL, requestType);
+
+		try {
+			response = delegate.get(request);
+			return response;
+		} finally {
+			apiCall.close();
+			record(requestType, GET, start, response, 0l);
+		}
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> post(ApiPostRequest<T> request) {
+		String requestType = requestType(request);
+		long start = System.nanoTime();
+		Response<T> response = null;
+
+		PhaseTrace.Span apiCall = PhaseTrace.begin(Phase.API_CALL, requestType);
+
+		try {
+			response = delegate.post(request);
+			return response;
+		} finally {
+			apiCall.close();
+			record(requestType, POST, start, response, sizeOf(request.postData()));
+		}
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> put(ApiPutRequest<T> request) {
+		String requestType = requestType(request);
+		long start = System.nanoTime();
+		Response<T> response = null;
+
+		PhaseTrace.Span apiCall = PhaseTrace.begin(Phase.API_CALL, requestType);
+
+		try {
+			response = delegate.put(request);
+			return response;
+		} finally {
+			apiCall.close();
+			record(requestType, PUT, start, response, sizeOf(request.postData()));
+		}
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> delete(ApiDeleteRequest<T> request) {
+		String requestType = requestType(request);
+		long start = System.nanoTime();
+		Response<T> response = null;
+
+		PhaseTrace.Span apiCall = PhaseTrace.begin(Phase.API_CALL, requestType);
+
+		try {
+			response = delegate.delete(request);
+			return response;
+		} finally {
+			apiCall.close();
+			record(requestType, DELETE, start, response, 0l);
+		}
+	}
+
+	private void record(String requestType, String method, long start, Response<?> response, long bytesOut) {
+		long nanos = System.nanoTime() - start;
+
+		int responseCode = (response != null) ? response.responseCode : ApiCallMeter.ERROR_RESPONSE_CODE;
+		long bytesIn = 0l;
+
+		if ((estimateBytesIn) && (response != null) && (response.data != null)) {
+			bytesIn = sizeOf(GsonUtil.gson().toJson(response.data));
+		}
+
+		meter.record(requestType, method, nanos, responseCode, bytesOut, bytesIn);
+	}
+
+	private static String requestType(Object request) {
+		String simpleName = request.getClass().getSimpleName();
+
+		if (simpleName.isEmpty()) {
+			return request.getClass().getName();
+		}
+
+		return simpleName;
+	}
+
+	private static long sizeOf(String data) {
+		if (data == null) {
+			return 0l;
+		}
+
+		return Utf8.encodedLength(data);
+	}
+
+	public static MeteredApiClient of(ApiClient delegate, ApiCallMeter meter) {
+		return new MeteredApiClient(delegate, meter);
+	}
+}
@@ -0,0 +1,217 @@
+package com.takipi.udf.api;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+import com.takipi.api.client.ApiClient;
+import com.takipi.api.core.request.intf.ApiDeleteRequest;
+import com.takipi.api.core.request.intf.ApiGetRequest;
+import com.takipi.api.core.request.intf.ApiPostRequest;
+import com.takipi.api.core.request.intf.ApiPutRequest;
+import com.takipi.api.core.result.intf.ApiResult;
+import com.takipi.udf.Deadline;
+
+// Retries calls the api rejected for being throttled (429) or failed on its side (5xx), up to
+// -Dudf.api.retry.maxAttempts attempts (4 by default), with exponential backoff and full jitter.
+// POSTs aren't idempotent, so they are only retried when they were rejected outright (429,
+// 503). Idempotent calls are also retried when they got no response at all - when the underlying
+// client returned null, or failed with an I/O error. A retry
+// never sleeps past the execution's deadline - the last response (or failure) is returned
+// instead.
+//
+// Every attempt first waits for the host's throttle (see HostThrottle), which 429s slow down.
+// The underlying client doesn't expose response headers, so Retry-After can't be honored; a
+// throttled call backs off for at least a second instead. Streaming GETs (see StreamingGet) go
+// through the same throttle and retries.
+//
+public class RetryingApiClient extends ApiClientDecorator {
+	public static final String MAX_ATTEMPTS_PROPERTY = "udf.api.retry.maxAttempts";
+
+	private static final int DEFAULT_MAX_ATTEMPTS = 4;
+	private static final int HTTP_TOO_MANY_REQUESTS = 429;
+	private static final int NO_RESPONSE_CODE = ApiCallMeter.ERROR_RESPONSE_CODE;
+
+	private static final long BASE_BACKOFF_MILLIS = 200l;
+	private static final long MAX_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(10);
+	private static final long THROTTLED_MIN_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+	private final HostThrottle throttle;
+	private final Supplier<Deadline> deadline;
+	private final int maxAttempts;
+	private final AtomicInteger retryCount;
+
+	private RetryingApiClient(ApiClient delegate, HostThrottle throttle, Supplier<Deadline> deadline) {
+		super(delegate);
+
+		this.throttle = throttle;
+		this.deadline = deadline;
+		this.maxAttempts = Math.max(1, Integer.getInteger(MAX_ATTEMPTS_PROPERTY, DEFAULT_MAX_ATTEMPTS));
+		this.retryCount = new AtomicInteger();
+	}
+
+	public int getRetryCount() {
+		return retryCount.get();
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> get(ApiGetRequest<T> request) {
+		return call(() -> delegate.get(request), true);
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> post(ApiPostRequest<T> request) {
+		return call(() -> delegate.post(request), false);
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> put(ApiPutRequest<T> request) {
+		return call(() -> delegate.put(request), true);
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> delete(ApiDeleteRequest<T> request) {
+		return call(() -> delegate.delete(request), true);
+	}
+
+	// Sends a streaming GET the same way. Responses that are retried are closed first.
+	//
+	StreamingGet stream(Supplier<StreamingGet> call) {
+		return call(call, StreamingGet::responseCode, StreamingGet::close, true);
+	}
+
+	private <T extends ApiResult> Response<T> call(Supplier<Response<T>> call, boolean idempotent) {
+		return call(call, response -> response.responseCode, response -> {}, idempotent);
+	}
+
+	// An interrupted execution fails its call rather than send it unthrottled.
+	//
+	private void acquire() {
+		try {
+			throttle.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted waiting for the api throttle", e);
+		}
+	}
+
+	private <R> R call(Supplier<R> call, ToIntFunction<R> responseCodeOf, Consumer<R> discard, boolean idempotent) {
+		for (int attempt = 1;; attempt++) {
+			acquire();
+
+			R response = null;
+			RuntimeException error = null;
+
+			try {
+				response = call.get();
+			} catch (RuntimeException e) {
+				if (!isIOFailure(e)) {
+					throw e;
+				}
+
+				error = e;
+			}
+
+			int responseCode = ((response != null) ? responseCodeOf.applyAsInt(response) : NO_RESPONSE_CODE);
+
+			if (responseCode == HTTP_TOO_MANY_REQUESTS) {
+				throttle.onThrottled();
+			} else if (response != null) {
+				throttle.onSuccess();
+			}
+
+			if (!backOff(attempt, responseCode, idempotent)) {
+				if (error != null) {
+					throw error;
+				}
+
+				return response;
+			}
+
+			if (response != null) {
+				discard.accept(response);
+			}
+		}
+	}
+
+	// Waits before the next attempt. Returns false when there shouldn't be one.
+	//
+	private boolean backOff(int attempt, int responseCode, boolean idempotent) {
+		if ((attempt >= maxAttempts) || (!isRetryable(responseCode, idempotent))) {
+			return false;
+		}
+
+		long backoffMillis = backoffMillis(attempt, responseCode);
+
+		if (backoffMillis >= deadline.get().remainingMillis()) {
+			return false;
+		}
+
+		retryCount.incrementAndGet();
+
+		return sleep(() -> TimeUnit.MILLISECONDS.sleep(backoffMillis));
+	}
+
+	private static boolean isRetryable(int responseCode, boolean idempotent) {
+		switch (responseCode) {
+		case HTTP_TOO_MANY_REQUESTS:
+		case HttpURLConnection.HTTP_UNAVAILABLE:
+			return true;
+
+		case NO_RESPONSE_CODE:
+		case HttpURLConnection.HTTP_INTERNAL_ERROR:
+		case HttpURLConnection.HTTP_BAD_GATEWAY:
+		case HttpURLConnection.HTTP_GATEWAY_TIMEOUT:
+			return idempotent;
+
+		default:
+			return false;
+		}
+	}
+
+	private static boolean isIOFailure(Throwable e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof IOException) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static long backoffMillis(int attempt, int responseCode) {
+		long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt - 1, 16));
+		long result = ThreadLocalRandom.current().nextLong(ceiling + 1);
+
+		if (responseCode == HTTP_TOO_MANY_REQUESTS) {
+			result = Math.max(result, THROTTLED_MIN_BACKOFF_MILLIS);
+		}
+
+		return result;
+	}
+
+	// Returns false when interrupted, leaving the interrupt flag set.
+	//
+	private static boolean sleep(Sleeper sleeper) {
+		try {
+			sleeper.sleep();
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	interface Sleeper {
+		void sleep() throws InterruptedException;
+	}
+
+	public static RetryingApiClient of(ApiClient delegate, String apiHost, Supplier<Deadline> deadline) {
+		return new RetryingApiClient(delegate, HostThrottle.of(apiHost), deadline);
+	}
+}
@@ -0,0 +1,37 @@
+package com.takipi.udf.api;
+
+import com.google.gson.JsonElement;
+import com.takipi.api.core.url.UrlClient.Response;
+import com.takipi.udf.util.GsonUtil;
+
+// A response handed to more than one caller. The result is kept as a json tree and every caller
+// decodes its own copy, since functions modify the results they get (sort, remove labels) and
+// must never see each other's changes.
+//
+class SharedResponse {
+	private final int responseCode;
+	private final JsonElement data;
+
+	private SharedResponse(int responseCode, JsonElement data) {
+		this.responseCode = responseCode;
+		this.data = data;
+	}
+
+	<T> Response<T> copy(Class<T> resultClass) {
+		T result = ((data != null) ? GsonUtil.gson().fromJson(data, resultClass) : null);
+
+		return Response.of(responseCode, result);
+	}
+
+	// Must be taken before the response is handed to its own caller, who may change it.
+	//
+	static SharedResponse of(Response<?> response) {
+		if (response == null) {
+			return null;
+		}
+
+		JsonElement data = ((response.data != null) ? GsonUtil.gson().toJsonTree(response.data) : null);
+
+		return new SharedResponse(response.responseCode, data);
+	}
+}
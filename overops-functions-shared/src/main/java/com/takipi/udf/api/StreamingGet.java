@@ -0,0 +1,179 @@
+package com.takipi.udf.api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import com.google.common.base.Joiner;
+import com.google.common.io.CountingInputStream;
+import com.google.gson.stream.JsonReader;
+import com.takipi.api.client.ApiClient;
+import com.takipi.api.core.consts.ApiConstants;
+import com.takipi.api.core.request.intf.ApiGetRequest;
+import com.takipi.udf.trace.Phase;
+import com.takipi.udf.trace.PhaseTrace;
+
+// A GET whose response body is read as it comes off the wire, for the streams in this package.
+// The request is sent under the throttle and retries of the execution's RetryingApiClient, and
+// every attempt is metered and traced when closed. Unless the body was read to the end, the
+// connection is dropped rather than returned to the keep-alive pool with unread data in it.
+//
+// The underlying client doesn't hand out raw response bodies, so the url and api key header are
+// set here the way the client sets them.
+//
+class StreamingGet implements Closeable {
+	private static final String GET = "GET";
+	private static final String API_KEY_HEADER = "X-API-Key";
+	private static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
+	private static final String GZIP_ENCODING = "gzip";
+
+	private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+	private static final int READ_TIMEOUT_MILLIS = 60000;
+
+	private final String requestType;
+	private final ApiCallMeter meter;
+	private final PhaseTrace.Span span;
+	private final long start;
+
+	private HttpURLConnection connection;
+	private CountingInputStream countingStream;
+	private JsonReader reader;
+	private int responseCode;
+	private boolean complete;
+
+	private StreamingGet(String requestType, ApiCallMeter meter) {
+		this.requestType = requestType;
+		this.meter = meter;
+		this.span = PhaseTrace.begin(Phase.API_CALL, requestType);
+		this.start = System.nanoTime();
+		this.responseCode = ApiCallMeter.ERROR_RESPONSE_CODE;
+	}
+
+	public JsonReader reader() {
+		return reader;
+	}
+
+	int responseCode() {
+		return responseCode;
+	}
+
+	// The body was read to the end, so the connection can be reused.
+	//
+	public void complete() {
+		complete = true;
+	}
+
+	@Override
+	public void close() {
+		try {
+			if (reader != null) {
+				reader.close();
+			}
+		} catch (IOException e) {
+			complete = false;
+		}
+
+		if ((connection != null) && (!complete)) {
+			connection.disconnect();
+		}
+
+		long bytesIn = ((countingStream != null) ? countingStream.getCount() : 0l);
+
+		if (meter != null) {
+			meter.record(requestType, GET, System.nanoTime() - start, responseCode, 0l, bytesIn);
+		}
+
+		span.close();
+	}
+
+	private void open(String targetUrl, String apiKey) throws IOException {
+		connection = (HttpURLConnection) new URL(targetUrl).openConnection();
+
+		connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+		connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+		connection.setRequestProperty(API_KEY_HEADER, apiKey);
+		connection.setRequestProperty("Accept", ApiConstants.CONTENT_TYPE_JSON);
+		connection.setRequestProperty(ACCEPT_ENCODING_HEADER, GZIP_ENCODING);
+
+		responseCode = connection.getResponseCode();
+
+		if (responseCode != HttpURLConnection.HTTP_OK) {
+			return;
+		}
+
+		countingStream = new CountingInputStream(connection.getInputStream());
+
+		InputStream inputStream = (GZIP_ENCODING.equalsIgnoreCase(connection.getContentEncoding())
+				? new GZIPInputStream(countingStream)
+				: countingStream);
+
+		reader = new JsonReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+	}
+
+	private static String targetUrl(String apiHost, ApiClient apiClient, ApiGetRequest<?> request)
+			throws UnsupportedEncodingException {
+		StringBuilder builder = new StringBuilder();
+
+		builder.append(apiHost);
+		builder.append("/api/v");
+		builder.append(apiClient.getApiVersion());
+		builder.append('/');
+		builder.append(request.urlPath());
+
+		String[] queryParams = request.queryParams();
+
+		if ((queryParams != null) && (queryParams.length > 0)) {
+			builder.append('?');
+			Joiner.on('&').appendTo(builder, queryParams);
+		}
+
+		return builder.toString();
+	}
+
+	// Sends the request, retrying it as the client would, and returns once the response headers
+	// are in. Throws if the last response isn't OK, after metering it.
+	//
+	static StreamingGet open(String apiHost, String apiKey, RetryingApiClient apiClient, ApiCallMeter meter,
+			ApiGetRequest<?> request) throws IOException {
+		String requestType = request.getClass().getSimpleName();
+		String targetUrl = targetUrl(apiHost, apiClient, request);
+
+		StreamingGet result;
+
+		try {
+			result = apiClient.stream(() -> attempt(requestType, meter, targetUrl, apiKey));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		if (result.responseCode != HttpURLConnection.HTTP_OK) {
+			result.close();
+			throw new IllegalStateException("Failed getting " + requestType + ", code: " + result.responseCode);
+		}
+
+		return result;
+	}
+
+	private static StreamingGet attempt(String requestType, ApiCallMeter meter, String targetUrl, String apiKey) {
+		StreamingGet result = new StreamingGet(requestType, meter);
+
+		try {
+			result.open(targetUrl, apiKey);
+		} catch (IOException e) {
+			result.close();
+			throw new UncheckedIOException(e);
+		} catch (RuntimeException e) {
+			result.close();
+			throw e;
+		}
+
+		return result;
+	}
+}
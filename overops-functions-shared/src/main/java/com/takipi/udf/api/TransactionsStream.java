@@ -0,0 +1,136 @@
+package com.takipi.udf.api;
+
+import java.io.IOException;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.takipi.api.client.ApiClient;
+import com.takipi.api.client.data.transaction.Transaction;
+import com.takipi.api.client.request.transaction.TransactionsVolumeRequest;
+import com.takipi.api.client.result.transaction.TransactionsVolumeResult;
+import com.takipi.api.core.url.UrlClient.Response;
+import com.takipi.udf.api.fixture.ApiFixtures;
+
+// Reduces the transactions of a TransactionsVolumeRequest to their total invocations as they come
+// off the wire. Only stats.invocations of each transaction is decoded - no Transaction is ever
+// built, so views with tens of thousands of entry points cost a read of the body and nothing more.
+//
+// Like EventsStream, it bypasses the execution's client but is throttled, retried and metered with
+// it, and reads the response through the client when fixtures are recorded or replayed.
+//
+public class TransactionsStream {
+	private static final String TRANSACTIONS_FIELD = "transactions";
+	private static final String STATS_FIELD = "stats";
+	private static final String INVOCATIONS_FIELD = "invocations";
+
+	private final String apiHost;
+	private final String apiKey;
+	private final ApiClient apiClient;
+	private final RetryingApiClient streamClient;
+	private final ApiCallMeter meter;
+
+	private TransactionsStream(String apiHost, String apiKey, ApiClient apiClient, RetryingApiClient streamClient,
+			ApiCallMeter meter) {
+		this.apiHost = apiHost;
+		this.apiKey = apiKey;
+		this.apiClient = apiClient;
+		this.streamClient = streamClient;
+		this.meter = meter;
+	}
+
+	public long invocations(TransactionsVolumeRequest request) {
+		if (ApiFixtures.isActive()) {
+			return invocationsInMemory(request);
+		}
+
+		try (StreamingGet get = StreamingGet.open(apiHost, apiKey, streamClient, meter, request)) {
+			long result = readInvocations(get.reader());
+			get.complete();
+
+			return result;
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed streaming transactions from " + request.urlPath(), e);
+		}
+	}
+
+	private long invocationsInMemory(TransactionsVolumeRequest request) {
+		Response<TransactionsVolumeResult> response = apiClient.get(request);
+
+		if (response.isBadResponse()) {
+			throw new IllegalStateException("Failed getting transactions, code: " + response.responseCode);
+		}
+
+		if ((response.data == null) || (response.data.transactions == null)) {
+			return 0l;
+		}
+
+		long result = 0l;
+
+		for (Transaction transaction : response.data.transactions) {
+			if (transaction.stats != null) {
+				result += transaction.stats.invocations;
+			}
+		}
+
+		return result;
+	}
+
+	static long readInvocations(JsonReader reader) throws IOException {
+		long result = 0l;
+
+		reader.beginObject();
+
+		while (reader.hasNext()) {
+			if ((!TRANSACTIONS_FIELD.equals(reader.nextName())) || (reader.peek() != JsonToken.BEGIN_ARRAY)) {
+				reader.skipValue();
+				continue;
+			}
+
+			reader.beginArray();
+
+			while (reader.hasNext()) {
+				result += readTransactionInvocations(reader);
+			}
+
+			reader.endArray();
+		}
+
+		reader.endObject();
+
+		return result;
+	}
+
+	private static long readTransactionInvocations(JsonReader reader) throws IOException {
+		long result = 0l;
+
+		reader.beginObject();
+
+		while (reader.hasNext()) {
+			if ((!STATS_FIELD.equals(reader.nextName())) || (reader.peek() != JsonToken.BEGIN_OBJECT)) {
+				reader.skipValue();
+				continue;
+			}
+
+			reader.beginObject();
+
+			while (reader.hasNext()) {
+				if ((INVOCATIONS_FIELD.equals(reader.nextName())) && (reader.peek() == JsonToken.NUMBER)) {
+					result = reader.nextLong();
+				} else {
+					reader.skipValue();
+				}
+			}
+
+			reader.endObject();
+		}
+
+		reader.endObject();
+
+		return result;
+	}
+
+	public static TransactionsStream of(String apiHost, String apiKey, ApiClient apiClient,
+			RetryingApiClient streamClient, ApiCallMeter meter) {
+		return new TransactionsStream(apiHost, apiKey, apiClient, streamClient, meter);
+	}
+}
@@ -0,0 +1,80 @@
+package com.takipi.udf.api;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.takipi.api.client.ApiClient;
+import com.takipi.api.core.request.intf.ApiDeleteRequest;
+import com.takipi.api.core.request.intf.ApiGetRequest;
+import com.takipi.api.core.request.intf.ApiPostRequest;
+import com.takipi.api.core.request.intf.ApiPutRequest;
+import com.takipi.api.core.result.intf.ApiResult;
+
+// Serves view volume GETs from the ViewSnapshots of the current tick. Label changes made
+// through it drop the snapshots of its scope, so a function running after another one labeled
+// events on the same tick sees those labels.
+//
+public class ViewSnapshotApiClient extends ApiClientDecorator {
+	private final ViewSnapshots snapshots;
+	private final String scope;
+	private final AtomicInteger hitCount;
+
+	private ViewSnapshotApiClient(ApiClient delegate, ViewSnapshots snapshots, String scope) {
+		super(delegate);
+
+		this.snapshots = snapshots;
+		this.scope = scope;
+		this.hitCount = new AtomicInteger();
+	}
+
+	public int getHitCount() {
+		return hitCount.get();
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> get(ApiGetRequest<T> request) {
+		if (!snapshots.isSnapshot(request)) {
+			return delegate.get(request);
+		}
+
+		return snapshots.get(scope, request, () -> delegate.get(request), hitCount::incrementAndGet);
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> post(ApiPostRequest<T> request) {
+		try {
+			return delegate.post(request);
+		} finally {
+			invalidate(request);
+		}
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> put(ApiPutRequest<T> request) {
+		try {
+			return delegate.put(request);
+		} finally {
+			invalidate(request);
+		}
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> delete(ApiDeleteRequest<T> request) {
+		try {
+			return delegate.delete(request);
+		} finally {
+			invalidate(request);
+		}
+	}
+
+	// Only the labels of events are part of a volume snapshot that a function changes.
+	//
+	private void invalidate(Object request) {
+		if (snapshots.isLabeling(request)) {
+			snapshots.invalidate(scope);
+		}
+	}
+
+	public static ViewSnapshotApiClient of(ApiClient delegate, ViewSnapshots snapshots, String scope) {
+		return new ViewSnapshotApiClient(delegate, snapshots, scope);
+	}
+}
@@ -0,0 +1,213 @@
+package com.takipi.udf.api;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.takipi.api.client.request.event.EventModifyLabelsRequest;
+import com.takipi.api.client.request.event.EventsVolumeRequest;
+import com.takipi.api.client.request.label.BatchModifyLabelsRequest;
+import com.takipi.api.core.request.intf.ApiGetRequest;
+import com.takipi.api.core.result.intf.ApiResult;
+import com.takipi.api.core.url.UrlClient.Response;
+
+// A process wide store of view volume snapshots. Functions attached to the same view tend to
+// run on the same tick and each ask for the volume of the same (service, view, window) - the
+// first one fetches it and the rest, including those still waiting on the fetch, share its
+// result until the tick ends.
+//
+// Windows are compared at tick granularity (-Dudf.snapshot.tick, seconds, 60 by default, 0
+// disables snapshots), so "the last hour" asked a few seconds apart is the same snapshot.
+// Functions sort and relabel the events they get, so a snapshot is kept as a SharedResponse and
+// every function sharing it gets its own copy.
+//
+public class ViewSnapshots {
+	public static final String TICK_PROPERTY = "udf.snapshot.tick";
+
+	private static final long DEFAULT_TICK_SECONDS = TimeUnit.MINUTES.toSeconds(1);
+
+	private static final Set<String> WINDOW_PARAMS = ImmutableSet.of("from", "to");
+	private static final Set<Class<?>> SNAPSHOT_REQUESTS = ImmutableSet.of(EventsVolumeRequest.class);
+
+	// The requests functions change the labels of events with.
+	//
+	private static final Set<Class<?>> LABELING_REQUESTS = ImmutableSet.of(BatchModifyLabelsRequest.class,
+			EventModifyLabelsRequest.class);
+
+	private static final DateTimeFormatter PARSER = ISODateTimeFormat.dateTimeParser().withOffsetParsed();
+
+	private static final ViewSnapshots instance = new ViewSnapshots(
+			TimeUnit.SECONDS.toMillis(Long.getLong(TICK_PROPERTY, DEFAULT_TICK_SECONDS)));
+
+	private final long tickMillis;
+	private final ConcurrentMap<String, Snapshot> snapshots;
+
+	private ViewSnapshots(long tickMillis) {
+		this.tickMillis = tickMillis;
+		this.snapshots = Maps.newConcurrentMap();
+	}
+
+	public static ViewSnapshots instance() {
+		return instance;
+	}
+
+	static ViewSnapshots of(long tickMillis) {
+		return new ViewSnapshots(tickMillis);
+	}
+
+	public boolean isEnabled() {
+		return (tickMillis > 0);
+	}
+
+	public boolean isSnapshot(ApiGetRequest<?> request) {
+		return ((isEnabled()) && (SNAPSHOT_REQUESTS.contains(request.getClass())));
+	}
+
+	// Whether the request changes what snapshots hold.
+	//
+	public boolean isLabeling(Object request) {
+		return LABELING_REQUESTS.contains(request.getClass());
+	}
+
+	// Returns the snapshot of the request for the current tick, loading it if this is the first
+	// time it's asked for. Responses that aren't OK are handed to the caller but not kept.
+	//
+	<T extends ApiResult> Response<T> get(String scope, ApiGetRequest<T> request, Supplier<Response<T>> loader,
+			Runnable onHit) {
+		long tick = System.currentTimeMillis() / tickMillis;
+		String key = keyOf(scope, tick, request);
+
+		if (key == null) {
+			return loader.get();
+		}
+
+		evictBefore(tick);
+
+		Snapshot snapshot = new Snapshot(scope, tick);
+		Snapshot existing = snapshots.putIfAbsent(key, snapshot);
+
+		if (existing != null) {
+			onHit.run();
+
+			SharedResponse shared = join(existing.future);
+
+			return ((shared != null) ? shared.copy(request.resultClass()) : null);
+		}
+
+		Response<T> response;
+
+		try {
+			response = loader.get();
+		} catch (RuntimeException e) {
+			snapshots.remove(key, snapshot);
+			snapshot.future.completeExceptionally(e);
+			throw e;
+		}
+
+		if ((response == null) || (!response.isOK())) {
+			snapshots.remove(key, snapshot);
+		}
+
+		snapshot.future.complete(SharedResponse.of(response));
+
+		return response;
+	}
+
+	// Drops the snapshots of a scope, once its events were changed under them.
+	//
+	void invalidate(String scope) {
+		snapshots.values().removeIf(snapshot -> snapshot.scope.equals(scope));
+	}
+
+	private void evictBefore(long tick) {
+		for (Map.Entry<String, Snapshot> entry : snapshots.entrySet()) {
+			if (entry.getValue().tick < tick) {
+				snapshots.remove(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	private String keyOf(String scope, long tick, ApiGetRequest<?> request) {
+		String[] queryParams;
+
+		try {
+			queryParams = request.queryParams();
+		} catch (UnsupportedEncodingException e) {
+			return null;
+		}
+
+		StringBuilder builder = new StringBuilder();
+
+		builder.append(scope);
+		builder.append(' ');
+		builder.append(tick);
+		builder.append(' ');
+		builder.append(request.getClass().getName());
+		builder.append(' ');
+		builder.append(request.urlPath());
+
+		if (queryParams != null) {
+			for (String queryParam : queryParams) {
+				builder.append('&');
+				builder.append(truncateWindow(queryParam));
+			}
+		}
+
+		return builder.toString();
+	}
+
+	// Rounds the from / to of a window down to its tick, anything else is returned as is.
+	//
+	private String truncateWindow(String queryParam) {
+		int index = queryParam.indexOf('=');
+
+		if ((index <= 0) || (!WINDOW_PARAMS.contains(queryParam.substring(0, index)))) {
+			return queryParam;
+		}
+
+		try {
+			String value = URLDecoder.decode(queryParam.substring(index + 1), StandardCharsets.UTF_8.name());
+			long millis = PARSER.parseMillis(value);
+
+			return queryParam.substring(0, index + 1) + Math.floorDiv(millis, tickMillis);
+		} catch (UnsupportedEncodingException | IllegalArgumentException e) {
+			return queryParam;
+		}
+	}
+
+	private static SharedResponse join(CompletableFuture<SharedResponse> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+
+			throw e;
+		}
+	}
+
+	static class Snapshot {
+		final String scope;
+		final long tick;
+		final CompletableFuture<SharedResponse> future;
+
+		Snapshot(String scope, long tick) {
+			this.scope = scope;
+			this.tick = tick;
+			this.future = new CompletableFuture<>();
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package com.takipi.udf.api.fixture;
+
+import com.google.gson.JsonElement;
+
+// A single recorded request / response pair, as stored on disk.
+//
+public class ApiFixture {
+	public String requestType;
+	public String method;
+	public String urlPath;
+	public String[] queryParams;
+	public String postData;
+	public int responseCode;
+	public long latencyMillis;
+	public JsonElement data;
+}
@@ -0,0 +1,287 @@
+package com.takipi.udf.api.fixture;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+
+import org.joda.time.DateTimeUtils;
+
+import com.google.common.base.Strings;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.takipi.api.client.ApiClient;
+import com.takipi.api.core.request.intf.ApiDeleteRequest;
+import com.takipi.api.core.request.intf.ApiGetRequest;
+import com.takipi.api.core.request.intf.ApiPostRequest;
+import com.takipi.api.core.request.intf.ApiPutRequest;
+import com.takipi.udf.codec.SnapshotCodec;
+import com.takipi.udf.log.Log;
+import com.takipi.udf.util.GsonUtil;
+
+// Fixtures are stored one per file, in the SnapshotCodec format and named after the request type
+// and a hash of everything that identifies the request (verb, url, query params and body). The
+// same request always maps to the same file, so a replay serves exactly what the recording saw.
+// Fixtures recorded as gzipped json by older versions are still replayed.
+//
+// Functions compute their time windows from the current time, which is part of the requests. So
+// the time a recording starts is stored in the fixture directory, and Joda's clock is fixed to it
+// while recording and replaying - every DateTime.now() of a replay is the one it recorded, and so
+// are the requests.
+//
+public class ApiFixtures {
+	public static final String GET = "GET";
+	public static final String POST = "POST";
+	public static final String PUT = "PUT";
+	public static final String DELETE = "DELETE";
+
+	// -Dudf.api.record=<dir> records every api call into <dir>, -Dudf.api.replay=<dir> serves
+	// them back instead of calling the api. -Dudf.api.replay.latency is either a fixed number
+	// of millis to add to each replayed call, or "recorded" to use the original latencies.
+	//
+	public static final String RECORD_PROPERTY = "udf.api.record";
+	public static final String REPLAY_PROPERTY = "udf.api.replay";
+	public static final String REPLAY_LATENCY_PROPERTY = "udf.api.replay.latency";
+
+	private static final String RECORDED_LATENCY = "recorded";
+
+	static final String CLOCK_FILE = "clock";
+
+	private static final String FILE_SUFFIX = ".udfs";
+	private static final String JSON_FILE_SUFFIX = ".json.gz";
+
+	public static ApiClient decorate(String apiHost, Supplier<ApiClient> clientSupplier) {
+		String replayDirectory = System.getProperty(REPLAY_PROPERTY);
+
+		if (!Strings.isNullOrEmpty(replayDirectory)) {
+			pinClock();
+
+			return ReplayApiClient.of(apiHost, Paths.get(replayDirectory), replayLatency());
+		}
+
+		String recordDirectory = System.getProperty(RECORD_PROPERTY);
+
+		if (!Strings.isNullOrEmpty(recordDirectory)) {
+			pinClock();
+
+			return RecordingApiClient.of(clientSupplier.get(), Paths.get(recordDirectory));
+		}
+
+		return clientSupplier.get();
+	}
+
+	// Functions read the clock before they make their first api call, so this runs as their context
+	// args are parsed, not only once a client is decorated.
+	//
+	public static void pinClock() {
+		String replayDirectory = System.getProperty(REPLAY_PROPERTY);
+
+		if (!Strings.isNullOrEmpty(replayDirectory)) {
+			pinClock(Paths.get(replayDirectory), false);
+			return;
+		}
+
+		String recordDirectory = System.getProperty(RECORD_PROPERTY);
+
+		if (!Strings.isNullOrEmpty(recordDirectory)) {
+			pinClock(Paths.get(recordDirectory), true);
+		}
+	}
+
+	// Fixes Joda's clock to the time the directory's recording started. A recording started now, or
+	// adding to an older one, stores or reuses that time. Fixtures recorded before the time was
+	// stored are replayed with the clock running, so only requests without a time window match.
+	//
+	static synchronized void pinClock(Path directory, boolean recording) {
+		Path clockFile = directory.resolve(CLOCK_FILE);
+
+		try {
+			if ((!Files.exists(clockFile)) && (recording)) {
+				Files.createDirectories(directory);
+				Files.write(clockFile, String.valueOf(DateTimeUtils.currentTimeMillis()).getBytes(
+						StandardCharsets.UTF_8));
+			}
+
+			if (!Files.exists(clockFile)) {
+				Log.warn("No recording time in " + directory + ", replaying with the clock running");
+				return;
+			}
+
+			String millis = new String(Files.readAllBytes(clockFile), StandardCharsets.UTF_8).trim();
+
+			DateTimeUtils.setCurrentMillisFixed(Long.parseLong(millis));
+		} catch (IOException | NumberFormatException e) {
+			throw new IllegalStateException("Failed pinning the clock to the recording in " + directory, e);
+		}
+	}
+
+	// True when api calls are recorded or replayed, i.e. must go through a decorated client.
+	//
+	public static boolean isActive() {
+		return ((!Strings.isNullOrEmpty(System.getProperty(REPLAY_PROPERTY)))
+				|| (!Strings.isNullOrEmpty(System.getProperty(RECORD_PROPERTY))));
+	}
+
+	private static long replayLatency() {
+		String latency = System.getProperty(REPLAY_LATENCY_PROPERTY);
+
+		if (Strings.isNullOrEmpty(latency)) {
+			return 0L;
+		}
+
+		if (RECORDED_LATENCY.equalsIgnoreCase(latency)) {
+			return ReplayApiClient.RECORDED_LATENCY;
+		}
+
+		try {
+			return Long.parseLong(latency);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid " + REPLAY_LATENCY_PROPERTY + " - " + latency);
+		}
+	}
+
+	public static String keyOf(ApiGetRequest<?> request) {
+		return keyOf(request, GET, request.urlPath(), queryParamsOf(request), null);
+	}
+
+	public static String keyOf(ApiPostRequest<?> request) {
+		return keyOf(request, POST, request.urlPath(), queryParamsOf(request), request.postData());
+	}
+
+	public static String keyOf(ApiPutRequest<?> request) {
+		return keyOf(request, PUT, request.urlPath(), queryParamsOf(request), request.postData());
+	}
+
+	public static String keyOf(ApiDeleteRequest<?> request) {
+		return keyOf(request, DELETE, request.urlPath(), queryParamsOf(request), null);
+	}
+
+	static ApiFixture fixtureOf(Object request, String method, String urlPath, String[] queryParams,
+			String postData) {
+		ApiFixture result = new ApiFixture();
+
+		result.requestType = request.getClass().getName();
+		result.method = method;
+		result.urlPath = urlPath;
+		result.queryParams = queryParams;
+		result.postData = postData;
+
+		return result;
+	}
+
+	private static String keyOf(Object request, String method, String urlPath, String[] queryParams,
+			String postData) {
+		return keyOf(request.getClass().getName(), method, urlPath, queryParams, postData);
+	}
+
+	private static String keyOf(String requestType, String method, String urlPath, String[] queryParams,
+			String postData) {
+		Hasher hasher = Hashing.sha1().newHasher();
+
+		putString(hasher, method);
+		putString(hasher, urlPath);
+
+		if (queryParams != null) {
+			for (String queryParam : queryParams) {
+				putString(hasher, queryParam);
+			}
+		}
+
+		putString(hasher, postData);
+
+		return simpleName(requestType) + "-" + hasher.hash().toString();
+	}
+
+	private static void putString(Hasher hasher, String value) {
+		if (value == null) {
+			hasher.putInt(-1);
+		} else {
+			hasher.putInt(value.length());
+			hasher.putString(value, StandardCharsets.UTF_8);
+		}
+	}
+
+	private static String simpleName(String className) {
+		int index = Math.max(className.lastIndexOf('.'), className.lastIndexOf('$'));
+
+		return className.substring(index + 1);
+	}
+
+	static String[] queryParamsOf(ApiGetRequest<?> request) {
+		try {
+			return request.queryParams();
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static String[] queryParamsOf(ApiPostRequest<?> request) {
+		try {
+			return request.queryParams();
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static String[] queryParamsOf(ApiPutRequest<?> request) {
+		try {
+			return request.queryParams();
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static String[] queryParamsOf(ApiDeleteRequest<?> request) {
+		try {
+			return request.queryParams();
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static Path pathOf(Path directory, String key) {
+		return directory.resolve(key + FILE_SUFFIX);
+	}
+
+	static ApiFixture read(Path directory, String key) throws IOException {
+		Path jsonFile = directory.resolve(key + JSON_FILE_SUFFIX);
+
+		if (isJson(directory, key)) {
+			try (Reader reader = new InputStreamReader(new GZIPInputStream(Files.newInputStream(jsonFile)),
+					StandardCharsets.UTF_8)) {
+				return GsonUtil.gson().fromJson(reader, ApiFixture.class);
+			}
+		}
+
+		return SnapshotCodec.read(pathOf(directory, key), ApiFixture.class);
+	}
+
+	// The fixture's file mapped as is, for decoding it more than once. Null when the fixture was
+	// recorded as json, which has to be read instead.
+	//
+	static ByteBuffer map(Path directory, String key) throws IOException {
+		if (isJson(directory, key)) {
+			return null;
+		}
+
+		return SnapshotCodec.map(pathOf(directory, key));
+	}
+
+	private static boolean isJson(Path directory, String key) {
+		return ((!Files.exists(pathOf(directory, key))) && (Files.exists(directory.resolve(key + JSON_FILE_SUFFIX))));
+	}
+
+	// Fixtures are written to a temp file and moved into place, so a concurrent replay never
+	// sees a partially written file.
+	//
+	static void write(Path directory, String key, ApiFixture fixture) throws IOException {
+		SnapshotCodec.write(pathOf(directory, key), fixture);
+	}
+}
@@ -0,0 +1,103 @@
+package com.takipi.udf.api.fixture;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import com.takipi.api.client.ApiClient;
+import com.takipi.api.core.request.intf.ApiDeleteRequest;
+import com.takipi.api.core.request.intf.ApiGetRequest;
+import com.takipi.api.core.request.intf.ApiPostRequest;
+import com.takipi.api.core.request.intf.ApiPutRequest;
+import com.takipi.api.core.result.intf.ApiResult;
+import com.takipi.udf.api.ApiClientDecorator;
+import com.takipi.udf.log.Log;
+import com.takipi.udf.util.GsonUtil;
+
+// Forwards every request to the wrapped client and stores the request / response pair under
+// the fixture directory, to be served later by a ReplayApiClient.
+//
+public class RecordingApiClient extends ApiClientDecorator {
+	private final Path directory;
+
+	private RecordingApiClient(ApiClient delegate, Path directory) {
+		super(delegate);
+
+		this.directory = directory;
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> get(ApiGetRequest<T> request) {
+		ApiFixture fixture = ApiFixtures.fixtureOf(request, ApiFixtures.GET, request.urlPath(),
+				ApiFixtures.queryParamsOf(request), null);
+
+		long start = System.nanoTime();
+		Response<T> response = delegate.get(request);
+
+		record(ApiFixtures.keyOf(request), fixture, response, start);
+
+		return response;
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> post(ApiPostRequest<T> request) {
+		ApiFixture fixture = ApiFixtures.fixtureOf(request, ApiFixtures.POST, request.urlPath(),
+				ApiFixtures.queryParamsOf(request), request.postData());
+
+		long start = System.nanoTime();
+		Response<T> response = delegate.post(request);
+
+		record(ApiFixtures.keyOf(request), fixture, response, start);
+
+		return response;
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> put(ApiPutRequest<T> request) {
+		ApiFixture fixture = ApiFixtures.fixtureOf(request, ApiFixtures.PUT, request.urlPath(),
+				ApiFixtures.queryParamsOf(request), request.postData());
+
+		long start = System.nanoTime();
+		Response<T> response = delegate.put(request);
+
+		record(ApiFixtures.keyOf(request), fixture, response, start);
+
+		return response;
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> delete(ApiDeleteRequest<T> request) {
+		ApiFixture fixture = ApiFixtures.fixtureOf(request, ApiFixtures.DELETE, request.urlPath(),
+				ApiFixtures.queryParamsOf(request), null);
+
+		long start = System.nanoTime();
+		Response<T> response = delegate.delete(request);
+
+		record(ApiFixtures.keyOf(request), fixture, response, start);
+
+		return response;
+	}
+
+	private void record(String key, ApiFixture fixture, Response<?> response, long start) {
+		fixture.latencyMillis = (System.nanoTime() - start) / 1000000L;
+
+		if (response != null) {
+			fixture.responseCode = response.responseCode;
+
+			if (response.data != null) {
+				fixture.data = GsonUtil.gson().toJsonTree(response.data);
+			}
+		}
+
+		// A failure to record should never fail the function itself.
+		//
+		try {
+			ApiFixtures.write(directory, key, fixture);
+		} catch (IOException e) {
+			Log.warn("Failed recording " + fixture.method + " " + fixture.urlPath + " - " + e);
+		}
+	}
+
+	public static RecordingApiClient of(ApiClient delegate, Path directory) {
+		return new RecordingApiClient(delegate, directory);
+	}
+}
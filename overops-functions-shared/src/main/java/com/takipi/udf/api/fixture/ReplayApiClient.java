@@ -0,0 +1,165 @@
+package com.takipi.udf.api.fixture;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Maps;
+import com.google.gson.JsonElement;
+import com.google.gson.reflect.TypeToken;
+import com.takipi.api.client.ApiClient;
+import com.takipi.api.core.request.intf.ApiDeleteRequest;
+import com.takipi.api.core.request.intf.ApiGetRequest;
+import com.takipi.api.core.request.intf.ApiPostRequest;
+import com.takipi.api.core.request.intf.ApiPutRequest;
+import com.takipi.api.core.result.intf.ApiResult;
+import com.takipi.udf.codec.SnapshotCodec;
+import com.takipi.udf.util.GsonUtil;
+
+// Serves requests from fixtures written by a RecordingApiClient, without any network access.
+// Fixtures are mapped once and a fresh result object is decoded straight from the mapping for
+// every call (older json fixtures are parsed once and decoded from the tree). Like every other
+// client layer (see MemoizingApiClient and ViewSnapshots), it never hands the same result object
+// to two callers, so functions are free to modify the results they get. A request with no fixture
+// is an error - silently returning nothing would make a benchmark measure a different code path
+// than production.
+//
+public class ReplayApiClient extends ApiClient {
+	// Use the latency observed while recording instead of a fixed one.
+	//
+	public static final long RECORDED_LATENCY = -1L;
+
+	private final Path directory;
+	private final long latencyMillis;
+	private final Map<String, Fixture> fixtures;
+
+	private ReplayApiClient(String hostname, Path directory, long latencyMillis) {
+		super(hostname, 0, 0, LogLevel.WARN, Maps.newHashMap(), 1);
+
+		this.directory = directory;
+		this.latencyMillis = latencyMillis;
+		this.fixtures = Maps.newConcurrentMap();
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> get(ApiGetRequest<T> request) {
+		return replay(ApiFixtures.keyOf(request), request.resultClass());
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> post(ApiPostRequest<T> request) {
+		return replay(ApiFixtures.keyOf(request), request.resultClass());
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> put(ApiPutRequest<T> request) {
+		return replay(ApiFixtures.keyOf(request), request.resultClass());
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> delete(ApiDeleteRequest<T> request) {
+		return replay(ApiFixtures.keyOf(request), request.resultClass());
+	}
+
+	private <T extends ApiResult> Response<T> replay(String key, Class<T> resultClass) {
+		Fixture fixture = fixtures.computeIfAbsent(key, this::load);
+
+		simulateLatency(fixture);
+
+		return Response.of(fixture.responseCode, fixture.data(resultClass));
+	}
+
+	private Fixture load(String key) {
+		Path file = ApiFixtures.pathOf(directory, key);
+
+		try {
+			ByteBuffer snapshot = ApiFixtures.map(directory, key);
+
+			if (snapshot != null) {
+				return Fixture.of(snapshot);
+			}
+
+			return Fixture.of(ApiFixtures.read(directory, key));
+		} catch (NoSuchFileException e) {
+			throw new IllegalStateException("No fixture recorded for " + key + " in " + directory);
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed reading fixture " + file, e);
+		}
+	}
+
+	private void simulateLatency(Fixture fixture) {
+		long sleepMillis = (latencyMillis == RECORDED_LATENCY) ? fixture.latencyMillis : latencyMillis;
+
+		if (sleepMillis <= 0) {
+			return;
+		}
+
+		try {
+			TimeUnit.MILLISECONDS.sleep(sleepMillis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// A loaded fixture - either its mapped snapshot, or the json tree of its data.
+	//
+	private static class Fixture {
+		private final int responseCode;
+		private final long latencyMillis;
+		private final ByteBuffer snapshot;
+		private final JsonElement data;
+
+		private Fixture(int responseCode, long latencyMillis, ByteBuffer snapshot, JsonElement data) {
+			this.responseCode = responseCode;
+			this.latencyMillis = latencyMillis;
+			this.snapshot = snapshot;
+			this.data = data;
+		}
+
+		<T> T data(Class<T> resultClass) {
+			if (snapshot != null) {
+				FixtureData<T> result = SnapshotCodec.decode(snapshot,
+						TypeToken.getParameterized(FixtureData.class, resultClass).getType());
+
+				return result.data;
+			}
+
+			return ((data != null) ? GsonUtil.gson().fromJson(data, resultClass) : null);
+		}
+
+		// Only the header is decoded here, the data is skipped until a call decodes it.
+		//
+		static Fixture of(ByteBuffer snapshot) {
+			FixtureHeader header = SnapshotCodec.decode(snapshot, FixtureHeader.class);
+
+			return new Fixture(header.responseCode, header.latencyMillis, snapshot, null);
+		}
+
+		static Fixture of(ApiFixture fixture) {
+			return new Fixture(fixture.responseCode, fixture.latencyMillis, null, fixture.data);
+		}
+	}
+
+	// The parts of an ApiFixture a replay reads - every other field is skipped when decoding.
+	//
+	private static class FixtureHeader {
+		int responseCode;
+		long latencyMillis;
+	}
+
+	private static class FixtureData<T> {
+		T data;
+	}
+
+	public static ReplayApiClient of(String hostname, Path directory, long latencyMillis) {
+		if (!Files.isDirectory(directory)) {
+			throw new IllegalArgumentException("Fixture directory " + directory + " does not exist");
+		}
+
+		return new ReplayApiClient(hostname, directory, latencyMillis);
+	}
+}
@@ -0,0 +1,359 @@
+package com.takipi.udf.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.takipi.udf.util.GsonUtil;
+
+// A compact binary encoding of the json we cache and replay - event volumes, transaction graphs,
+// api fixtures. It keeps everything json does, so any result that Gson maps can be stored, but:
+//
+// - Every string (field names, class, method, label and location names) is stored once, in a
+//   table at the head of the file, and referenced by a varint index.
+// - Every distinct set of fields (an event, its stats, a graph point) is stored once as a shape,
+//   objects only store their shape and values.
+// - Integers are zigzag varints. Integer fields are delta coded against the same field of the
+//   previous object of the same shape, so a run of graph points costs a byte or two per counter
+//   and timestamp.
+//
+// Values are stored in document order, so they are decoded straight into Gson while reading
+// through a read only memory mapping of the file, without building a json tree. The one exception
+// is Map fields - Gson reads map keys through a hook into JsonReader's internals that only json
+// text and trees support, so each map alone is read as a tree and decoded from it. Strings are
+// only decoded from the mapping when first referenced.
+//
+// Layout: magic, version, strings (count, then length + utf-8 each), shapes (count, then field
+// count + field name indexes each), root value.
+//
+public class SnapshotCodec {
+	public static final int VERSION = 1;
+
+	static final int MAGIC = 0x55444653; // "UDFS"
+
+	static final byte NULL = 0;
+	static final byte FALSE = 1;
+	static final byte TRUE = 2;
+	static final byte STRING = 3;
+	static final byte LONG = 4;
+	static final byte DOUBLE = 5;
+	static final byte NUMBER = 6;
+	static final byte ARRAY = 7;
+	static final byte OBJECT = 8;
+
+	private static final Gson gson = GsonUtil.gson().newBuilder().registerTypeAdapterFactory(new MapAdapterFactory())
+			.create();
+
+	public static byte[] encode(Object value) {
+		JsonElement tree = ((value instanceof JsonElement)
+				? (JsonElement) value
+				: GsonUtil.gson().toJsonTree(value));
+
+		Encoder encoder = new Encoder();
+
+		encoder.writeValue(tree);
+
+		return encoder.toByteArray();
+	}
+
+	public static JsonElement decode(ByteBuffer buffer) {
+		return decode(buffer, JsonElement.class);
+	}
+
+	public static <T> T decode(ByteBuffer buffer, Type type) {
+		try (SnapshotReader reader = SnapshotReader.of(buffer.duplicate())) {
+			return gson.fromJson(reader, type);
+		} catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+			throw new JsonParseException("Malformed snapshot", e);
+		}
+	}
+
+	// Written to a temp file and moved into place, so a concurrent reader never maps a partially
+	// written file.
+	//
+	public static void write(Path file, Object value) throws IOException {
+		byte[] bytes = encode(value);
+
+		Path directory = file.toAbsolutePath().getParent();
+		Files.createDirectories(directory);
+
+		Path tempFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+
+		try {
+			try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+				outputStream.write(bytes);
+			}
+
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	public static JsonElement read(Path file) throws IOException {
+		return read(file, JsonElement.class);
+	}
+
+	public static <T> T read(Path file, Type type) throws IOException {
+		try {
+			return decode(map(file), type);
+		} catch (JsonParseException e) {
+			throw new IOException("Failed decoding " + file, e);
+		}
+	}
+
+	// A read only mapping of the file, for callers that decode it more than once. The mapping
+	// stays valid after the file is replaced, so it keeps the content it was mapped with.
+	//
+	public static ByteBuffer map(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	// Integers and doubles are stored natively, anything that doesn't survive the trip (big or
+	// over precise numbers) is stored as its decimal string.
+	//
+	static byte numberTag(Number number) {
+		if ((number instanceof Long) || (number instanceof Integer) || (number instanceof Short)
+				|| (number instanceof Byte)) {
+			return LONG;
+		}
+
+		if ((number instanceof Double) || (number instanceof Float)) {
+			return DOUBLE;
+		}
+
+		if ((number instanceof BigDecimal) || (number instanceof BigInteger)) {
+			return NUMBER;
+		}
+
+		String text = number.toString();
+
+		try {
+			Long.parseLong(text);
+			return LONG;
+		} catch (NumberFormatException e) {
+			// Not an integer, or one that doesn't fit.
+		}
+
+		try {
+			if (Double.toString(Double.parseDouble(text)).equals(text)) {
+				return DOUBLE;
+			}
+		} catch (NumberFormatException e) {
+			// Kept as is below.
+		}
+
+		return NUMBER;
+	}
+
+	static long zigzag(long value) {
+		return ((value << 1) ^ (value >> 63));
+	}
+
+	static long unzigzag(long value) {
+		return ((value >>> 1) ^ -(value & 1));
+	}
+
+	private static class MapAdapterFactory implements TypeAdapterFactory {
+		@Override
+		public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+			if (!Map.class.isAssignableFrom(type.getRawType())) {
+				return null;
+			}
+
+			TypeAdapter<T> delegate = gson.getDelegateAdapter(this, type);
+			TypeAdapter<JsonElement> treeAdapter = gson.getAdapter(JsonElement.class);
+
+			return new TypeAdapter<T>() {
+				@Override
+				public void write(JsonWriter out, T value) throws IOException {
+					delegate.write(out, value);
+				}
+
+				@Override
+				public T read(JsonReader in) throws IOException {
+					return delegate.fromJsonTree(treeAdapter.read(in));
+				}
+			};
+		}
+	}
+
+	private static class Encoder {
+		private final Map<String, Integer> strings;
+		private final Map<List<String>, Integer> shapes;
+		private final List<long[]> previousLongs;
+		private final ByteArrayOutputStream body;
+
+		Encoder() {
+			this.strings = Maps.newLinkedHashMap();
+			this.shapes = Maps.newLinkedHashMap();
+			this.previousLongs = Lists.newArrayList();
+			this.body = new ByteArrayOutputStream();
+		}
+
+		void writeValue(JsonElement element) {
+			if ((element == null) || (element.isJsonNull())) {
+				body.write(NULL);
+			} else if (element.isJsonObject()) {
+				writeObject(element.getAsJsonObject());
+			} else if (element.isJsonArray()) {
+				body.write(ARRAY);
+				writeVarLong(body, element.getAsJsonArray().size());
+
+				for (JsonElement item : element.getAsJsonArray()) {
+					writeValue(item);
+				}
+			} else {
+				writePrimitive(element.getAsJsonPrimitive(), null, 0);
+			}
+		}
+
+		private void writeObject(JsonObject object) {
+			List<String> fields = Lists.newArrayList(object.keySet());
+			Integer shape = shapes.get(fields);
+
+			if (shape == null) {
+				shape = shapes.size();
+				shapes.put(fields, shape);
+				previousLongs.add(new long[fields.size()]);
+
+				for (String field : fields) {
+					intern(field);
+				}
+			}
+
+			long[] previous = previousLongs.get(shape);
+
+			body.write(OBJECT);
+			writeVarLong(body, shape);
+
+			for (int i = 0; i < fields.size(); i++) {
+				JsonElement value = object.get(fields.get(i));
+
+				if ((value != null) && (value.isJsonPrimitive())) {
+					writePrimitive(value.getAsJsonPrimitive(), previous, i);
+				} else {
+					writeValue(value);
+				}
+			}
+		}
+
+		// Integer fields are written as the delta from the previous value of the same field.
+		//
+		private void writePrimitive(JsonPrimitive primitive, long[] previous, int field) {
+			if (primitive.isBoolean()) {
+				body.write(primitive.getAsBoolean() ? TRUE : FALSE);
+			} else if (primitive.isString()) {
+				body.write(STRING);
+				writeVarLong(body, intern(primitive.getAsString()));
+			} else {
+				byte tag = numberTag(primitive.getAsNumber());
+				body.write(tag);
+
+				if (tag == LONG) {
+					long value = primitive.getAsLong();
+
+					if (previous != null) {
+						writeVarLong(body, zigzag(value - previous[field]));
+						previous[field] = value;
+					} else {
+						writeVarLong(body, zigzag(value));
+					}
+				} else if (tag == DOUBLE) {
+					writeDouble(primitive.getAsDouble());
+				} else {
+					writeVarLong(body, intern(primitive.getAsNumber().toString()));
+				}
+			}
+		}
+
+		private int intern(String value) {
+			Integer result = strings.get(value);
+
+			if (result == null) {
+				result = strings.size();
+				strings.put(value, result);
+			}
+
+			return result;
+		}
+
+		private void writeDouble(double value) {
+			long bits = Double.doubleToRawLongBits(value);
+
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				body.write((int) (bits >>> shift));
+			}
+		}
+
+		byte[] toByteArray() {
+			ByteArrayOutputStream result = new ByteArrayOutputStream(body.size() + (strings.size() * 16) + 16);
+
+			result.write(MAGIC >>> 24);
+			result.write(MAGIC >>> 16);
+			result.write(MAGIC >>> 8);
+			result.write(MAGIC);
+			result.write(VERSION);
+
+			writeVarLong(result, strings.size());
+
+			for (String value : strings.keySet()) {
+				byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+				writeVarLong(result, bytes.length);
+				result.write(bytes, 0, bytes.length);
+			}
+
+			writeVarLong(result, shapes.size());
+
+			for (List<String> fields : shapes.keySet()) {
+				writeVarLong(result, fields.size());
+
+				for (String field : fields) {
+					writeVarLong(result, strings.get(field));
+				}
+			}
+
+			byte[] bodyBytes = body.toByteArray();
+			result.write(bodyBytes, 0, bodyBytes.length);
+
+			return result.toByteArray();
+		}
+
+		private static void writeVarLong(ByteArrayOutputStream out, long value) {
+			while ((value & ~0x7FL) != 0) {
+				out.write((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+
+			out.write((int) value);
+		}
+	}
+}
@@ -0,0 +1,531 @@
+package com.takipi.udf.codec;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+// Reads a SnapshotCodec buffer as a json token stream, so Gson decodes it straight into objects
+// the same way it decodes json text. Skipped values are still walked, since later integer fields
+// are deltas from the ones before them.
+//
+class SnapshotReader extends JsonReader {
+	private static final int INITIAL_DEPTH = 32;
+	private static final int NO_TAG = -1;
+
+	private static final Reader UNREADABLE_READER = new Reader() {
+		@Override
+		public int read(char[] buffer, int offset, int count) throws IOException {
+			throw new AssertionError();
+		}
+
+		@Override
+		public void close() throws IOException {
+			throw new AssertionError();
+		}
+	};
+
+	private final ByteBuffer buffer;
+	private final int[] stringOffsets;
+	private final int[] stringLengths;
+	private final String[] strings;
+	private final int[][] shapes;
+	private final long[][] previousLongs;
+
+	// The open arrays and objects, innermost last. For arrays, count is the number of items left,
+	// for objects, the index of the next field in the shape.
+	//
+	private boolean[] isObject;
+	private int[] shape;
+	private int[] count;
+	private boolean[] nameRead;
+	private int depth;
+
+	private int pendingTag;
+	private boolean rootRead;
+
+	private SnapshotReader(ByteBuffer buffer, int[] stringOffsets, int[] stringLengths, int[][] shapes) {
+		super(UNREADABLE_READER);
+
+		this.buffer = buffer;
+		this.stringOffsets = stringOffsets;
+		this.stringLengths = stringLengths;
+		this.strings = new String[stringOffsets.length];
+		this.shapes = shapes;
+		this.previousLongs = new long[shapes.length][];
+
+		for (int i = 0; i < shapes.length; i++) {
+			previousLongs[i] = new long[shapes[i].length];
+		}
+
+		this.isObject = new boolean[INITIAL_DEPTH];
+		this.shape = new int[INITIAL_DEPTH];
+		this.count = new int[INITIAL_DEPTH];
+		this.nameRead = new boolean[INITIAL_DEPTH];
+		this.pendingTag = NO_TAG;
+	}
+
+	@Override
+	public JsonToken peek() throws IOException {
+		if (depth == 0) {
+			return (rootRead ? JsonToken.END_DOCUMENT : valueToken());
+		}
+
+		int top = depth - 1;
+
+		if (isObject[top]) {
+			if (nameRead[top]) {
+				return valueToken();
+			}
+
+			return ((count[top] < shapes[shape[top]].length) ? JsonToken.NAME : JsonToken.END_OBJECT);
+		}
+
+		return ((count[top] > 0) ? valueToken() : JsonToken.END_ARRAY);
+	}
+
+	@Override
+	public boolean hasNext() throws IOException {
+		JsonToken token = peek();
+
+		return ((token != JsonToken.END_OBJECT) && (token != JsonToken.END_ARRAY)
+				&& (token != JsonToken.END_DOCUMENT));
+	}
+
+	@Override
+	public void beginArray() throws IOException {
+		consumeTag(SnapshotCodec.ARRAY);
+		push(false, 0, readCount());
+	}
+
+	@Override
+	public void endArray() throws IOException {
+		expect(JsonToken.END_ARRAY);
+
+		depth--;
+		valueRead();
+	}
+
+	@Override
+	public void beginObject() throws IOException {
+		consumeTag(SnapshotCodec.OBJECT);
+
+		int objectShape = readCount();
+
+		if (objectShape >= shapes.length) {
+			throw new JsonParseException("Unknown shape " + objectShape);
+		}
+
+		push(true, objectShape, 0);
+	}
+
+	@Override
+	public void endObject() throws IOException {
+		expect(JsonToken.END_OBJECT);
+
+		depth--;
+		valueRead();
+	}
+
+	@Override
+	public String nextName() throws IOException {
+		expect(JsonToken.NAME);
+
+		int top = depth - 1;
+		nameRead[top] = true;
+
+		return string(shapes[shape[top]][count[top]]);
+	}
+
+	@Override
+	public String nextString() throws IOException {
+		int tag = consumeValueTag();
+		String result;
+
+		switch (tag) {
+		case SnapshotCodec.STRING:
+		case SnapshotCodec.NUMBER:
+			result = string(readCount());
+			break;
+
+		case SnapshotCodec.LONG:
+			result = Long.toString(readLong());
+			break;
+
+		case SnapshotCodec.DOUBLE:
+			result = Double.toString(buffer.getDouble());
+			break;
+
+		default:
+			throw unexpected("a string", tag);
+		}
+
+		valueRead();
+
+		return result;
+	}
+
+	@Override
+	public boolean nextBoolean() throws IOException {
+		int tag = consumeValueTag();
+
+		if ((tag != SnapshotCodec.TRUE) && (tag != SnapshotCodec.FALSE)) {
+			throw unexpected("a boolean", tag);
+		}
+
+		valueRead();
+
+		return (tag == SnapshotCodec.TRUE);
+	}
+
+	@Override
+	public void nextNull() throws IOException {
+		int tag = consumeValueTag();
+
+		if (tag != SnapshotCodec.NULL) {
+			throw unexpected("null", tag);
+		}
+
+		valueRead();
+	}
+
+	@Override
+	public double nextDouble() throws IOException {
+		int tag = consumeValueTag();
+		double result;
+
+		switch (tag) {
+		case SnapshotCodec.LONG:
+			result = readLong();
+			break;
+
+		case SnapshotCodec.DOUBLE:
+			result = buffer.getDouble();
+			break;
+
+		case SnapshotCodec.STRING:
+		case SnapshotCodec.NUMBER:
+			result = Double.parseDouble(string(readCount()));
+			break;
+
+		default:
+			throw unexpected("a double", tag);
+		}
+
+		valueRead();
+
+		return result;
+	}
+
+	@Override
+	public long nextLong() throws IOException {
+		int tag = consumeValueTag();
+		long result;
+
+		switch (tag) {
+		case SnapshotCodec.LONG:
+			result = readLong();
+			break;
+
+		case SnapshotCodec.DOUBLE:
+			result = toLong(new BigDecimal(buffer.getDouble()));
+			break;
+
+		case SnapshotCodec.STRING:
+		case SnapshotCodec.NUMBER:
+			result = toLong(new BigDecimal(string(readCount())));
+			break;
+
+		default:
+			throw unexpected("a long", tag);
+		}
+
+		valueRead();
+
+		return result;
+	}
+
+	@Override
+	public int nextInt() throws IOException {
+		long result = nextLong();
+
+		if ((result < Integer.MIN_VALUE) || (result > Integer.MAX_VALUE)) {
+			throw new NumberFormatException("Expected an int but was " + result);
+		}
+
+		return (int) result;
+	}
+
+	@Override
+	public void skipValue() throws IOException {
+		switch (peek()) {
+		case BEGIN_ARRAY:
+			beginArray();
+
+			while (hasNext()) {
+				skipValue();
+			}
+
+			endArray();
+			break;
+
+		case BEGIN_OBJECT:
+			beginObject();
+
+			while (hasNext()) {
+				nextName();
+				skipValue();
+			}
+
+			endObject();
+			break;
+
+		case NAME:
+			nextName();
+			break;
+
+		case BOOLEAN:
+			nextBoolean();
+			break;
+
+		case NULL:
+			nextNull();
+			break;
+
+		case STRING:
+		case NUMBER:
+			nextString();
+			break;
+
+		default:
+			throw new IllegalStateException("Nothing to skip at " + getPath());
+		}
+	}
+
+	@Override
+	public void close() {
+		depth = 0;
+		rootRead = true;
+	}
+
+	@Override
+	public String getPath() {
+		return "$ (depth " + depth + ", offset " + buffer.position() + ")";
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " at " + getPath();
+	}
+
+	private JsonToken valueToken() {
+		if (pendingTag == NO_TAG) {
+			pendingTag = buffer.get();
+		}
+
+		switch (pendingTag) {
+		case SnapshotCodec.NULL:
+			return JsonToken.NULL;
+		case SnapshotCodec.FALSE:
+		case SnapshotCodec.TRUE:
+			return JsonToken.BOOLEAN;
+		case SnapshotCodec.STRING:
+			return JsonToken.STRING;
+		case SnapshotCodec.LONG:
+		case SnapshotCodec.DOUBLE:
+		case SnapshotCodec.NUMBER:
+			return JsonToken.NUMBER;
+		case SnapshotCodec.ARRAY:
+			return JsonToken.BEGIN_ARRAY;
+		case SnapshotCodec.OBJECT:
+			return JsonToken.BEGIN_OBJECT;
+		default:
+			throw new JsonParseException("Unknown snapshot tag " + pendingTag + " at " + getPath());
+		}
+	}
+
+	private int consumeValueTag() throws IOException {
+		JsonToken token = peek();
+
+		if ((token == JsonToken.NAME) || (token == JsonToken.END_OBJECT) || (token == JsonToken.END_ARRAY)
+				|| (token == JsonToken.END_DOCUMENT)) {
+			throw new IllegalStateException("Expected a value but was " + token + " at " + getPath());
+		}
+
+		int result = pendingTag;
+		pendingTag = NO_TAG;
+
+		return result;
+	}
+
+	private void consumeTag(byte expected) throws IOException {
+		int tag = consumeValueTag();
+
+		if (tag != expected) {
+			throw unexpected((expected == SnapshotCodec.ARRAY) ? "an array" : "an object", tag);
+		}
+	}
+
+	private void expect(JsonToken expected) throws IOException {
+		JsonToken token = peek();
+
+		if (token != expected) {
+			throw new IllegalStateException("Expected " + expected + " but was " + token + " at " + getPath());
+		}
+	}
+
+	// Integer fields of an object are deltas from the previous object of the same shape.
+	//
+	private long readLong() {
+		long value = SnapshotCodec.unzigzag(readVarLong());
+
+		if ((depth == 0) || (!isObject[depth - 1])) {
+			return value;
+		}
+
+		int top = depth - 1;
+		long[] previous = previousLongs[shape[top]];
+
+		previous[count[top]] += value;
+
+		return previous[count[top]];
+	}
+
+	private void valueRead() {
+		if (depth == 0) {
+			rootRead = true;
+			return;
+		}
+
+		int top = depth - 1;
+
+		if (isObject[top]) {
+			nameRead[top] = false;
+			count[top]++;
+		} else {
+			count[top]--;
+		}
+	}
+
+	private void push(boolean object, int objectShape, int itemCount) {
+		if (depth == isObject.length) {
+			isObject = Arrays.copyOf(isObject, depth * 2);
+			shape = Arrays.copyOf(shape, depth * 2);
+			count = Arrays.copyOf(count, depth * 2);
+			nameRead = Arrays.copyOf(nameRead, depth * 2);
+		}
+
+		isObject[depth] = object;
+		shape[depth] = objectShape;
+		count[depth] = itemCount;
+		nameRead[depth] = false;
+
+		depth++;
+	}
+
+	private String string(int index) {
+		if (strings[index] == null) {
+			ByteBuffer slice = buffer.duplicate();
+
+			slice.limit(stringOffsets[index] + stringLengths[index]);
+			slice.position(stringOffsets[index]);
+
+			strings[index] = StandardCharsets.UTF_8.decode(slice).toString();
+		}
+
+		return strings[index];
+	}
+
+	private int readCount() {
+		return readCount(buffer);
+	}
+
+	private long readVarLong() {
+		return readVarLong(buffer);
+	}
+
+	private IllegalStateException unexpected(String expected, int tag) {
+		return new IllegalStateException("Expected " + expected + " but was tag " + tag + " at " + getPath());
+	}
+
+	private static long toLong(BigDecimal value) {
+		try {
+			return value.longValueExact();
+		} catch (ArithmeticException e) {
+			throw new NumberFormatException("Expected a long but was " + value);
+		}
+	}
+
+	private static int readCount(ByteBuffer buffer) {
+		long value = readVarLong(buffer);
+
+		if ((value < 0) || (value > Integer.MAX_VALUE)) {
+			throw new JsonParseException("Invalid snapshot length " + value);
+		}
+
+		return (int) value;
+	}
+
+	private static long readVarLong(ByteBuffer buffer) {
+		long result = 0;
+
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = buffer.get();
+			result |= (long) (b & 0x7F) << shift;
+
+			if ((b & 0x80) == 0) {
+				return result;
+			}
+		}
+
+		throw new JsonParseException("Malformed varint");
+	}
+
+	// Reads the header - the string table is only indexed here, strings are decoded on first use.
+	//
+	static SnapshotReader of(ByteBuffer buffer) {
+		if (buffer.getInt() != SnapshotCodec.MAGIC) {
+			throw new JsonParseException("Not a snapshot");
+		}
+
+		int version = buffer.get();
+
+		if (version != SnapshotCodec.VERSION) {
+			throw new JsonParseException("Unsupported snapshot version " + version);
+		}
+
+		int stringCount = readCount(buffer);
+
+		int[] stringOffsets = new int[stringCount];
+		int[] stringLengths = new int[stringCount];
+
+		for (int i = 0; i < stringCount; i++) {
+			stringLengths[i] = readCount(buffer);
+			stringOffsets[i] = buffer.position();
+
+			buffer.position(stringOffsets[i] + stringLengths[i]);
+		}
+
+		int[][] shapes = new int[readCount(buffer)][];
+
+		for (int i = 0; i < shapes.length; i++) {
+			shapes[i] = new int[readCount(buffer)];
+
+			for (int j = 0; j < shapes[i].length; j++) {
+				shapes[i][j] = readCount(buffer);
+
+				if (shapes[i][j] >= stringCount) {
+					throw new JsonParseException("Unknown field name " + shapes[i][j]);
+				}
+			}
+		}
+
+		return new SnapshotReader(buffer, stringOffsets, stringLengths, shapes);
+	}
+}
@@ -0,0 +1,308 @@
+package com.takipi.udf.concurrent;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+// Runs independent, I/O bound calls concurrently. Concurrency is bounded per host across the
+// whole process (-Dudf.fanout.maxPerHost, 8 by default) - a caller blocks until its host has a
+// free permit, so a large fan out never floods a single backend. Results are returned in
+// submission order. The first failure cancels whatever hasn't finished yet, and all failures
+// are reported together in a FanOutException.
+//
+// Tasks run on virtual threads when the runtime has them, and on a shared daemon pool
+// otherwise. Tasks must not fan out to the same host themselves, as a task holding a permit
+// that waits for another one can starve the host.
+//
+public class FanOut {
+	public static final String MAX_PER_HOST_PROPERTY = "udf.fanout.maxPerHost";
+
+	private static final int DEFAULT_MAX_PER_HOST = 8;
+
+	private static final ConcurrentMap<String, Semaphore> hostPermits = Maps.newConcurrentMap();
+	private static final List<ContextPropagator> propagators = new CopyOnWriteArrayList<>();
+	private static final ExecutorService executor = createExecutor();
+
+	// Carries thread bound state (e.g. where System.out is routed to) from the thread starting
+	// a fan out to the threads running its tasks.
+	//
+	public interface ContextPropagator {
+		// Called on the thread starting the fan out.
+		//
+		Context capture();
+	}
+
+	public interface Context {
+		// Called on the task thread before the task runs, returns what restores the thread
+		// once the task is done.
+		//
+		Runnable attach();
+	}
+
+	public static void addPropagator(ContextPropagator propagator) {
+		propagators.add(propagator);
+	}
+
+	// Free permits of the host, for tests to check none leaked.
+	//
+	static int availablePermits(String host) {
+		return permitsOf(host).availablePermits();
+	}
+
+	public static Group group(String host) {
+		return new Group(permitsOf(host));
+	}
+
+	public static <T, R> List<R> map(String host, Collection<? extends T> items,
+			Function<? super T, ? extends R> task) {
+		Group group = group(host);
+		List<Task<? extends R>> tasks = Lists.newArrayListWithCapacity(items.size());
+
+		for (T item : items) {
+			tasks.add(group.add(() -> task.apply(item)));
+		}
+
+		group.join();
+
+		List<R> result = Lists.newArrayListWithCapacity(tasks.size());
+
+		for (Task<? extends R> t : tasks) {
+			result.add(t.get());
+		}
+
+		return result;
+	}
+
+	private static Semaphore permitsOf(String host) {
+		return hostPermits.computeIfAbsent(Strings.nullToEmpty(host), h -> new Semaphore(maxPerHost(), true));
+	}
+
+	private static int maxPerHost() {
+		return Math.max(1, Integer.getInteger(MAX_PER_HOST_PROPERTY, DEFAULT_MAX_PER_HOST));
+	}
+
+	private static ExecutorService createExecutor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// Pre virtual threads runtime.
+		}
+
+		AtomicInteger threadCount = new AtomicInteger();
+
+		return Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "udf-fanout-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	// A set of tasks started together and joined together. Tasks start as soon as they are
+	// added, so the caller can keep adding while earlier ones are already running.
+	//
+	public static class Group {
+		private final Semaphore permits;
+		private final List<Context> contexts;
+		private final List<Task<?>> tasks;
+		private final AtomicBoolean failed;
+
+		Group(Semaphore permits) {
+			this.permits = permits;
+			this.contexts = Lists.newArrayListWithCapacity(propagators.size());
+			// Tasks cancel each other from their own threads while the caller may still be
+			// adding, so the list is iterated without holding it.
+			//
+			this.tasks = new CopyOnWriteArrayList<>();
+			this.failed = new AtomicBoolean();
+
+			for (ContextPropagator propagator : propagators) {
+				contexts.add(propagator.capture());
+			}
+		}
+
+		public <T> Task<T> add(Callable<T> callable) {
+			Task<T> task = new Task<>();
+			tasks.add(task);
+
+			if (failed.get()) {
+				return task;
+			}
+
+			try {
+				permits.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				cancel();
+				return task;
+			}
+
+			PermitTask<T> future = new PermitTask<>(() -> run(task, callable), permits);
+			task.future = future;
+
+			try {
+				executor.execute(future);
+			} catch (RuntimeException e) {
+				future.cancel(false);
+				throw e;
+			}
+
+			// A task may have failed while this one was being submitted.
+			//
+			if (failed.get()) {
+				task.future.cancel(true);
+			}
+
+			return task;
+		}
+
+		private <T> T run(Task<T> task, Callable<T> callable) throws Exception {
+			List<Runnable> detachers = Lists.newArrayListWithCapacity(contexts.size());
+
+			try {
+				for (Context context : contexts) {
+					detachers.add(context.attach());
+				}
+
+				task.result = callable.call();
+
+				return task.result;
+			} catch (Exception | Error e) {
+				// Failures of tasks interrupted by the cancellation are a result of the first
+				// failure, not failures of their own.
+				//
+				task.error = e;
+				task.reported = (!failed.get());
+
+				cancel();
+
+				throw e;
+			} finally {
+				for (int i = detachers.size() - 1; i >= 0; i--) {
+					detachers.get(i).run();
+				}
+			}
+		}
+
+		private void cancel() {
+			failed.set(true);
+
+			for (Task<?> task : tasks) {
+				if ((task.future != null) && (task.error == null)) {
+					task.future.cancel(true);
+				}
+			}
+		}
+
+		// Waits for every task, throws a FanOutException if any of them failed or the wait was
+		// interrupted.
+		//
+		public void join() {
+			List<Throwable> errors = Lists.newArrayList();
+
+			for (Task<?> task : tasks) {
+				if (task.future == null) {
+					continue;
+				}
+
+				try {
+					task.future.get();
+				} catch (CancellationException | ExecutionException e) {
+					// A task cancelled because another one failed has no error of its own.
+					//
+					if ((task.error != null) && (task.reported)) {
+						errors.add(task.error);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					cancel();
+					errors.add(e);
+					break;
+				}
+			}
+
+			if ((errors.isEmpty()) && (failed.get())) {
+				errors.add(new CancellationException("Fan out cancelled"));
+			}
+
+			if (!errors.isEmpty()) {
+				throw new FanOutException(errors.size() + " of " + tasks.size() + " tasks failed", errors);
+			}
+		}
+	}
+
+	// Holds its host permit from submission until the task is done with it - until it returns
+	// when it ran, or right away when it was cancelled before it started and so never will.
+	//
+	private static class PermitTask<T> extends FutureTask<T> {
+		private final Semaphore permits;
+		private final AtomicBoolean started;
+
+		PermitTask(Callable<T> callable, Semaphore permits) {
+			super(callable);
+
+			this.permits = permits;
+			this.started = new AtomicBoolean();
+		}
+
+		@Override
+		public void run() {
+			if (!started.compareAndSet(false, true)) {
+				return;
+			}
+
+			try {
+				super.run();
+			} finally {
+				permits.release();
+			}
+		}
+
+		@Override
+		protected void done() {
+			// Cancelled while running - run() releases once the callable returns.
+			//
+			if (started.compareAndSet(false, true)) {
+				permits.release();
+			}
+		}
+	}
+
+	public static class Task<T> {
+		private volatile Future<T> future;
+		private volatile T result;
+		private volatile Throwable error;
+		private volatile boolean reported;
+
+		Task() {
+
+		}
+
+		// Only valid once the group was joined successfully.
+		//
+		public T get() {
+			if ((future == null) || (!future.isDone()) || (error != null)) {
+				throw new IllegalStateException("Task did not complete");
+			}
+
+			return result;
+		}
+	}
+}
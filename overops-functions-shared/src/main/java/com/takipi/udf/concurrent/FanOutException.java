@@ -0,0 +1,27 @@
+package com.takipi.udf.concurrent;
+
+import java.util.Collections;
+import java.util.List;
+
+// Thrown when one or more tasks of a fan out failed. The first failure is the cause, the rest
+// are attached as suppressed exceptions.
+//
+public class FanOutException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	private final List<Throwable> errors;
+
+	FanOutException(String message, List<Throwable> errors) {
+		super(message, errors.isEmpty() ? null : errors.get(0));
+
+		this.errors = Collections.unmodifiableList(errors);
+
+		for (int i = 1; i < errors.size(); i++) {
+			addSuppressed(errors.get(i));
+		}
+	}
+
+	public List<Throwable> getErrors() {
+		return errors;
+	}
+}
@@ -0,0 +1,227 @@
+package com.takipi.udf.input;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+// Binds parsed input properties to the public fields of an Input subclass. The field lookup,
+// accessibility checks and type dispatch are resolved once per class into a table of setters,
+// so parsing an input only costs a map lookup, a conversion and a method handle call per key.
+//
+class InputBinder {
+	private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Input.class, Object.class);
+
+	private static final ClassValue<InputBinder> binders = new ClassValue<InputBinder>() {
+		@Override
+		protected InputBinder computeValue(Class<?> type) {
+			return new InputBinder(type);
+		}
+	};
+
+	private final Map<String, FieldBinder> fieldBinders;
+
+	private InputBinder(Class<?> inputClass) {
+		this.fieldBinders = compile(inputClass);
+	}
+
+	void bind(Input input, Map<String, String> properties) {
+		for (Map.Entry<String, String> entry : properties.entrySet()) {
+			String key = entry.getKey();
+			FieldBinder fieldBinder = fieldBinders.get(key);
+
+			if (fieldBinder == null) {
+				throw new IllegalArgumentException("No field called " + key);
+			}
+
+			fieldBinder.bind(input, key, entry.getValue());
+		}
+	}
+
+	static InputBinder of(Class<? extends Input> inputClass) {
+		return binders.get(inputClass);
+	}
+
+	private static Map<String, FieldBinder> compile(Class<?> inputClass) {
+		Map<String, FieldBinder> result = new HashMap<>();
+
+		for (Field fld : inputClass.getFields()) {
+			if (Modifier.isStatic(fld.getModifiers())) {
+				continue;
+			}
+
+			result.put(fld.getName(), new FieldBinder(getSetter(fld), fld, getConverter(fld)));
+		}
+
+		return Collections.unmodifiableMap(result);
+	}
+
+	private static MethodHandle getSetter(Field fld) {
+		fld.setAccessible(true);
+
+		try {
+			return MethodHandles.lookup().unreflectSetter(fld).asType(SETTER_TYPE);
+		} catch (IllegalAccessException e) {
+			// Final fields can't be unreflected on older runtimes, but are still writable
+			// reflectively once made accessible.
+			//
+			return null;
+		}
+	}
+
+	private static Converter getConverter(Field fld) {
+		final Class<?> type = fld.getType();
+
+		if (type == String.class) {
+			return (key, value) -> value;
+		} else if ((type == Boolean.class) || (type == boolean.class)) {
+			return (key, value) -> getBoolean(value);
+		} else if ((type == Integer.class) || (type == int.class)) {
+			return (key, value) -> getInt(value);
+		} else if ((type == Long.class) || (type == long.class)) {
+			return (key, value) -> getLong(value);
+		} else if ((type == Double.class) || (type == double.class)) {
+			return (key, value) -> getDouble(value);
+		} else if (type == TimeInterval.class) {
+			return (key, value) -> {
+				try {
+					return getTimeInterval(value);
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Invalid value for " + key + " - " + value);
+				}
+			};
+		} else if (type == List.class) {
+			if (getGenericType(fld) == String.class) {
+				return (key, value) -> getStringList(value);
+			}
+
+			return (key, value) -> {
+				throw new IllegalArgumentException("Invalid value for " + key + " - " + value);
+			};
+		} else if (type.isEnum()) {
+			Map<String, Object> constants = new HashMap<>();
+
+			for (Object enumeration : type.getEnumConstants()) {
+				constants.putIfAbsent(enumeration.toString(), enumeration);
+			}
+
+			return (key, value) -> {
+				Object enumeration = constants.get(value);
+
+				if (enumeration == null) {
+					throw new IllegalArgumentException("Invalid value for " + key + " - " + value);
+				}
+
+				return enumeration;
+			};
+		} else {
+			return (key, value) -> {
+				throw new UnsupportedOperationException("No support for type - " + type);
+			};
+		}
+	}
+
+	private static boolean getBoolean(String value) {
+		if (StringUtils.isEmpty(value)) {
+			return false;
+		}
+
+		return Boolean.parseBoolean(value.trim());
+	}
+
+	private static int getInt(String value) {
+		if (StringUtils.isEmpty(value)) {
+			return 0;
+		}
+
+		return Integer.parseInt(value.trim());
+	}
+
+	private static long getLong(String value) {
+		if (StringUtils.isEmpty(value)) {
+			return 0l;
+		}
+
+		return Long.parseLong(value.trim());
+	}
+
+	private static double getDouble(String value) {
+		if (StringUtils.isEmpty(value)) {
+			return 0.0;
+		}
+
+		return Double.parseDouble(value.trim());
+	}
+
+	private static TimeInterval getTimeInterval(String value) {
+		return TimeInterval.parse(value.trim());
+	}
+
+	private static List<String> getStringList(String value) {
+		if ((value == null) || (value.isEmpty())) {
+			return Collections.emptyList();
+		}
+
+		String[] split = value.split(";");
+
+		List<String> result = new ArrayList<>(split.length);
+
+		Collections.addAll(result, split);
+
+		return result;
+	}
+
+	private static Type getGenericType(Field fld) {
+		Type type = fld.getGenericType();
+
+		if (type instanceof ParameterizedType) {
+			ParameterizedType genericType = (ParameterizedType) type;
+
+			return genericType.getActualTypeArguments()[0];
+		} else {
+			return null;
+		}
+	}
+
+	interface Converter {
+		public Object convert(String key, String value);
+	}
+
+	static class FieldBinder {
+		private final MethodHandle setter;
+		private final Field field;
+		private final Converter converter;
+
+		private FieldBinder(MethodHandle setter, Field field, Converter converter) {
+			this.setter = setter;
+			this.field = field;
+			this.converter = converter;
+		}
+
+		void bind(Input input, String key, String value) {
+			Object converted = converter.convert(key, value);
+
+			try {
+				if (setter != null) {
+					setter.invokeExact(input, converted);
+				} else {
+					field.set(input, converted);
+				}
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new IllegalStateException("Failed setting field - " + key, e);
+			}
+		}
+	}
+}
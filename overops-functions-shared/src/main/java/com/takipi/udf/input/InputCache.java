@@ -0,0 +1,84 @@
+package com.takipi.udf.input;
+
+import java.util.Objects;
+import java.util.function.Function;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.takipi.udf.trace.Phase;
+import com.takipi.udf.trace.PhaseTrace;
+
+// Functions are executed with the same raw input on every tick, so validated inputs are cached
+// by (input class, raw input content). Cached inputs are shared between executions and must be
+// treated as read-only once they leave the parser.
+//
+public class InputCache {
+	private static final int MAX_ENTRIES = 1024;
+
+	private static final Cache<InputKey, Input> inputs = CacheBuilder.newBuilder().maximumSize(MAX_ENTRIES).build();
+
+	public static <T extends Input> T get(Class<T> inputClass, String rawInput, Function<String, T> parser) {
+		if (rawInput == null) {
+			return parser.apply(rawInput);
+		}
+
+		InputKey key = InputKey.of(inputClass, rawInput);
+		Input cached = inputs.getIfPresent(key);
+
+		if (cached != null) {
+			return inputClass.cast(cached);
+		}
+
+		// Parsing failures are not cached, the parser throws and the next tick tries again.
+		//
+		T result;
+
+		PhaseTrace.Span input = PhaseTrace.begin(Phase.INPUT);
+
+		try {
+			result = parser.apply(rawInput);
+		} finally {
+			input.close();
+		}
+
+		if (result != null) {
+			inputs.put(key, result);
+		}
+
+		return result;
+	}
+
+	static class InputKey {
+		public final Class<?> inputClass;
+		public final String rawInput;
+
+		private InputKey(Class<?> inputClass, String rawInput) {
+			this.inputClass = inputClass;
+			this.rawInput = rawInput;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o == this) {
+				return true;
+			}
+
+			if ((o == null) || (!(o instanceof InputKey))) {
+				return false;
+			}
+
+			InputKey other = (InputKey) o;
+
+			return ((inputClass == other.inputClass) && (rawInput.equals(other.rawInput)));
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(inputClass, rawInput);
+		}
+
+		static InputKey of(Class<?> inputClass, String rawInput) {
+			return new InputKey(inputClass, rawInput);
+		}
+	}
+}
@@ -0,0 +1,186 @@
+package com.takipi.udf.log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.Lists;
+
+// Writes log records from a background thread, so functions never block on console I/O. Records
+// wait in a bounded ring buffer (-Dudf.log.bufferSize, 8192 by default). A full buffer makes
+// the logging thread wait for room rather than drop records. -Dudf.log.async=false writes on
+// the logging thread instead, e.g. when debugging a crash.
+//
+class AsyncAppender {
+	public static final String BUFFER_SIZE_PROPERTY = "udf.log.bufferSize";
+	public static final String ASYNC_PROPERTY = "udf.log.async";
+
+	private static final int DEFAULT_BUFFER_SIZE = 8192;
+	private static final int MAX_BATCH_SIZE = 256;
+	private static final long FLUSH_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+	private final BlockingQueue<Record> buffer;
+	private final AtomicLong appendedCount;
+	private final Object writtenLock;
+	private final boolean async;
+
+	private long writtenCount;
+
+	private AsyncAppender(int bufferSize, boolean async) {
+		this.buffer = new ArrayBlockingQueue<>(bufferSize);
+		this.appendedCount = new AtomicLong();
+		this.writtenLock = new Object();
+		this.async = async;
+	}
+
+	void append(OutputStream destination, String message, Throwable throwable) {
+		Record record = new Record(destination, message, throwable);
+
+		if (!async) {
+			write(Collections.singletonList(record));
+			return;
+		}
+
+		appendedCount.incrementAndGet();
+
+		try {
+			buffer.put(record);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+
+			write(Collections.singletonList(record));
+			markWritten(1);
+		}
+	}
+
+	// Waits until everything appended so far has been written.
+	//
+	void flush() {
+		if (!async) {
+			return;
+		}
+
+		long target = appendedCount.get();
+		long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT_MILLIS;
+
+		synchronized (writtenLock) {
+			while (writtenCount < target) {
+				long remaining = deadline - System.currentTimeMillis();
+
+				if (remaining <= 0) {
+					return;
+				}
+
+				try {
+					writtenLock.wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	private void drain() {
+		List<Record> batch = Lists.newArrayListWithCapacity(MAX_BATCH_SIZE);
+
+		while (true) {
+			try {
+				batch.add(buffer.take());
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			buffer.drainTo(batch, MAX_BATCH_SIZE - 1);
+
+			write(batch);
+			markWritten(batch.size());
+
+			batch.clear();
+		}
+	}
+
+	private void markWritten(int count) {
+		synchronized (writtenLock) {
+			writtenCount += count;
+			writtenLock.notifyAll();
+		}
+	}
+
+	private static void write(List<Record> records) {
+		Set<OutputStream> destinations = Collections.newSetFromMap(new IdentityHashMap<>());
+
+		for (Record record : records) {
+			try {
+				record.destination.write(record.format());
+			} catch (IOException | RuntimeException e) {
+				// Nowhere left to report it.
+			}
+
+			destinations.add(record.destination);
+		}
+
+		for (OutputStream destination : destinations) {
+			try {
+				destination.flush();
+			} catch (IOException | RuntimeException e) {
+				// Same as above.
+			}
+		}
+	}
+
+	static AsyncAppender create() {
+		int bufferSize = Math.max(1, Integer.getInteger(BUFFER_SIZE_PROPERTY, DEFAULT_BUFFER_SIZE));
+		boolean async = Boolean.parseBoolean(System.getProperty(ASYNC_PROPERTY, Boolean.TRUE.toString()));
+
+		AsyncAppender result = new AsyncAppender(bufferSize, async);
+
+		if (async) {
+			Thread writer = new Thread(result::drain, "udf-log-writer");
+			writer.setDaemon(true);
+			writer.start();
+
+			Runtime.getRuntime().addShutdownHook(new Thread(result::flush, "udf-log-flush"));
+		}
+
+		return result;
+	}
+
+	static class Record {
+		final OutputStream destination;
+		final String message;
+		final Throwable throwable;
+
+		Record(OutputStream destination, String message, Throwable throwable) {
+			this.destination = destination;
+			this.message = message;
+			this.throwable = throwable;
+		}
+
+		// Formatting and redaction happen here, on the writer thread. The line is a single write,
+		// so it can't interleave with direct writes to the same stream.
+		//
+		byte[] format() {
+			String text = String.valueOf(message);
+
+			if (throwable != null) {
+				StringWriter stackTrace = new StringWriter();
+				throwable.printStackTrace(new PrintWriter(stackTrace));
+
+				text = text + System.lineSeparator() + stackTrace.toString().trim();
+			}
+
+			return (Redactor.redact(text) + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package com.takipi.udf.log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+import com.google.common.io.ByteStreams;
+
+// Logging for functions. Messages below -Dudf.log.level (INFO by default) cost a level check,
+// and message suppliers are only called for messages that are logged. Logged messages are
+// written by a background thread (see AsyncAppender) with secrets masked (see Redactor).
+//
+// A message goes to where System.out (DEBUG, INFO) or System.err (WARN, ERROR) of the logging
+// thread points when it is logged, which keeps per invocation output routing intact. Call
+// flush() before reading what an execution wrote.
+//
+public class Log {
+	public static final String LEVEL_PROPERTY = "udf.log.level";
+
+	public enum Level {
+		DEBUG, INFO, WARN, ERROR, OFF
+	}
+
+	private static final PrintStream NULL_STREAM = new PrintStream(ByteStreams.nullOutputStream());
+
+	private static final AsyncAppender appender = AsyncAppender.create();
+
+	private static volatile Level level = levelOf(System.getProperty(LEVEL_PROPERTY));
+
+	private static volatile RoutedOutputStream routedOut;
+	private static volatile RoutedOutputStream routedErr;
+
+	public static Level getLevel() {
+		return level;
+	}
+
+	public static void setLevel(Level level) {
+		Log.level = level;
+	}
+
+	public static boolean isEnabled(Level messageLevel) {
+		return ((messageLevel != Level.OFF) && (messageLevel.compareTo(level) >= 0));
+	}
+
+	public static boolean isDebugEnabled() {
+		return isEnabled(Level.DEBUG);
+	}
+
+	public static void debug(String message) {
+		log(Level.DEBUG, message, null);
+	}
+
+	public static void debug(Supplier<String> message) {
+		if (isEnabled(Level.DEBUG)) {
+			log(Level.DEBUG, message.get(), null);
+		}
+	}
+
+	public static void info(String message) {
+		log(Level.INFO, message, null);
+	}
+
+	public static void info(Supplier<String> message) {
+		if (isEnabled(Level.INFO)) {
+			log(Level.INFO, message.get(), null);
+		}
+	}
+
+	public static void warn(String message) {
+		log(Level.WARN, message, null);
+	}
+
+	public static void error(String message) {
+		log(Level.ERROR, message, null);
+	}
+
+	public static void error(String message, Throwable throwable) {
+		log(Level.ERROR, message, throwable);
+	}
+
+	// Waits until everything logged so far has been written.
+	//
+	public static void flush() {
+		appender.flush();
+	}
+
+	// Masks the given value wherever it shows up in a message, e.g. an api key.
+	//
+	public static void addSecret(String secret) {
+		Redactor.addSecret(secret);
+	}
+
+	// For apis that log to a PrintStream of their own - its lines are logged at DEBUG, and it
+	// discards everything when DEBUG is off.
+	//
+	public static PrintStream debugStream() {
+		if (!isDebugEnabled()) {
+			return NULL_STREAM;
+		}
+
+		try {
+			return new PrintStream(new LineOutputStream(Level.DEBUG), true, StandardCharsets.UTF_8.name());
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// Called by whoever replaces System.out / System.err with routed streams, so messages are
+	// routed to the logging thread's target rather than the writer thread's.
+	//
+	public static void routeThrough(RoutedOutputStream out, RoutedOutputStream err) {
+		routedOut = out;
+		routedErr = err;
+	}
+
+	private static void log(Level messageLevel, String message, Throwable throwable) {
+		if (!isEnabled(messageLevel)) {
+			return;
+		}
+
+		appender.append(destinationOf(messageLevel), message, throwable);
+	}
+
+	private static OutputStream destinationOf(Level messageLevel) {
+		boolean error = (messageLevel.compareTo(Level.WARN) >= 0);
+		RoutedOutputStream routed = (error ? routedErr : routedOut);
+
+		if (routed != null) {
+			return routed.current();
+		}
+
+		return (error ? System.err : System.out);
+	}
+
+	private static Level levelOf(String value) {
+		if (value == null) {
+			return Level.INFO;
+		}
+
+		try {
+			return Level.valueOf(value.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			return Level.INFO;
+		}
+	}
+
+	static class LineOutputStream extends OutputStream {
+		private final Level level;
+		private final ByteArrayOutputStream line;
+
+		LineOutputStream(Level level) {
+			this.level = level;
+			this.line = new ByteArrayOutputStream();
+		}
+
+		@Override
+		public void write(int b) {
+			if (b == '\n') {
+				flushLine();
+			} else if (b != '\r') {
+				line.write(b);
+			}
+		}
+
+		@Override
+		public void close() {
+			if (line.size() > 0) {
+				flushLine();
+			}
+		}
+
+		private void flushLine() {
+			log(level, new String(line.toByteArray(), StandardCharsets.UTF_8), null);
+			line.reset();
+		}
+	}
+}
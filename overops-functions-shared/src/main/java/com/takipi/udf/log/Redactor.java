@@ -0,0 +1,41 @@
+package com.takipi.udf.log;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+// Masks secrets in log messages - the values of api key / token / password fields, in both
+// JSON (raw context args) and key=value (raw input) form, and any secret registered explicitly.
+// Runs on the log writer thread, so it costs the logging thread nothing.
+//
+class Redactor {
+	private static final String MASK = "****";
+	private static final int MIN_SECRET_LENGTH = 4;
+
+	private static final Pattern SECRET_FIELDS = Pattern.compile(
+			"(?i)(\"?(?:x-api-key|api_?key|jira_?token|token|password)\"?\\s*[:=]\\s*\"?)([^\"\\s,}]+)");
+
+	private static final Set<String> secrets = ConcurrentHashMap.newKeySet();
+
+	static void addSecret(String secret) {
+		if ((secret != null) && (secret.length() >= MIN_SECRET_LENGTH)) {
+			secrets.add(secret);
+		}
+	}
+
+	static String redact(String message) {
+		if (message == null) {
+			return null;
+		}
+
+		String result = message;
+
+		for (String secret : secrets) {
+			if (result.contains(secret)) {
+				result = result.replace(secret, MASK);
+			}
+		}
+
+		return SECRET_FIELDS.matcher(result).replaceAll("$1" + MASK);
+	}
+}
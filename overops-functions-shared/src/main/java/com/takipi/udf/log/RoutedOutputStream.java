@@ -0,0 +1,56 @@
+package com.takipi.udf.log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// An output stream that writes to a per thread target, or to a fallback stream when the thread
+// has none. Used to give each invocation running in a shared JVM its own System.out and
+// System.err.
+//
+public class RoutedOutputStream extends OutputStream {
+	private final OutputStream fallback;
+	private final ThreadLocal<OutputStream> target;
+
+	private RoutedOutputStream(OutputStream fallback) {
+		this.fallback = fallback;
+		this.target = new ThreadLocal<>();
+	}
+
+	public void route(OutputStream os) {
+		if (os == null) {
+			target.remove();
+		} else {
+			target.set(os);
+		}
+	}
+
+	// The target of the current thread, null when it writes to the fallback.
+	//
+	public OutputStream routed() {
+		return target.get();
+	}
+
+	public OutputStream current() {
+		OutputStream result = target.get();
+		return ((result != null) ? result : fallback);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		current().write(b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		current().write(b, off, len);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		current().flush();
+	}
+
+	public static RoutedOutputStream of(OutputStream fallback) {
+		return new RoutedOutputStream(fallback);
+	}
+}
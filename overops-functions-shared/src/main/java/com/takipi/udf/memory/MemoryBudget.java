@@ -0,0 +1,184 @@
+package com.takipi.udf.memory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.io.ByteStreams;
+
+// Accounts for the data executions hold on to - fetched events, graphs and pending label
+// batches - against the library's memory_size from the UDF manifest (or -Dudf.memory.budget, in
+// MB), capped by the heap we actually have. Sizes are estimates (see MemoryEstimate), not
+// measurements. Executions that see the budget running out process what they hold so far in a
+// chunk and release it, rather than keep growing until the JVM fails mid run.
+//
+public class MemoryBudget {
+	public static final String BUDGET_PROPERTY = "udf.memory.budget";
+	public static final String MANIFEST_RESOURCE = "META-INF/UDF_MANIFEST.MF";
+
+	private static final Pattern MEMORY_SIZE_PATTERN = Pattern.compile("<memory_size>\\s*(\\d+)\\s*</memory_size>");
+
+	private static final long BYTES_PER_MB = 1024l * 1024l;
+
+	// Estimates leave out a lot (the api client's buffers, Gson, the function's own state), so
+	// executions start chunking well before the whole budget is accounted for.
+	//
+	private static final double HIGH_WATER_RATIO = 0.5;
+
+	private static final MemoryBudget instance = new MemoryBudget(loadBudgetBytes());
+
+	private final long budgetBytes;
+	private final AtomicLong reservedBytes;
+	private final AtomicInteger openAccounts;
+
+	private MemoryBudget(long budgetBytes) {
+		this.budgetBytes = budgetBytes;
+		this.reservedBytes = new AtomicLong();
+		this.openAccounts = new AtomicInteger();
+	}
+
+	public static MemoryBudget instance() {
+		return instance;
+	}
+
+	static MemoryBudget of(long budgetBytes) {
+		return new MemoryBudget(budgetBytes);
+	}
+
+	public long getBudgetBytes() {
+		return budgetBytes;
+	}
+
+	public long getReservedBytes() {
+		return reservedBytes.get();
+	}
+
+	// True once the data accounted for by all running executions reaches the high water mark.
+	//
+	public boolean isNearLimit() {
+		return (reservedBytes.get() >= highWaterBytes());
+	}
+
+	public int getOpenAccounts() {
+		return openAccounts.get();
+	}
+
+	public Account account() {
+		openAccounts.incrementAndGet();
+
+		return new Account();
+	}
+
+	private long highWaterBytes() {
+		return (long) (budgetBytes * HIGH_WATER_RATIO);
+	}
+
+	@Override
+	public String toString() {
+		return "MemoryBudget(reserved = " + megabytes(reservedBytes.get()) + ", budget = " + megabytes(budgetBytes)
+				+ ")";
+	}
+
+	private static String megabytes(long bytes) {
+		return String.format("%.1fMB", bytes / (double) BYTES_PER_MB);
+	}
+
+	private static long loadBudgetBytes() {
+		long heapBytes = Runtime.getRuntime().maxMemory();
+		long budgetMegabytes = Long.getLong(BUDGET_PROPERTY, manifestMemorySize());
+
+		if (budgetMegabytes <= 0) {
+			return heapBytes;
+		}
+
+		return Math.min(budgetMegabytes * BYTES_PER_MB, heapBytes);
+	}
+
+	private static long manifestMemorySize() {
+		try (InputStream is = MemoryBudget.class.getClassLoader().getResourceAsStream(MANIFEST_RESOURCE)) {
+			if (is == null) {
+				return 0l;
+			}
+
+			Matcher matcher = MEMORY_SIZE_PATTERN.matcher(new String(ByteStreams.toByteArray(is),
+					StandardCharsets.UTF_8));
+
+			return (matcher.find() ? Long.parseLong(matcher.group(1)) : 0l);
+		} catch (IOException | NumberFormatException e) {
+			return 0l;
+		}
+	}
+
+	// What a single execution holds. Closing the account releases whatever is still reserved.
+	//
+	public class Account implements AutoCloseable {
+		private long reserved;
+		private long peak;
+		private boolean closed;
+
+		private Account() {
+		}
+
+		public synchronized void reserve(long bytes) {
+			reserved += bytes;
+			peak = Math.max(peak, reserved);
+
+			reservedBytes.addAndGet(bytes);
+		}
+
+		public synchronized void release(long bytes) {
+			long released = Math.min(bytes, reserved);
+
+			reserved -= released;
+			reservedBytes.addAndGet(-released);
+		}
+
+		public synchronized long getReservedBytes() {
+			return reserved;
+		}
+
+		public synchronized long getPeakBytes() {
+			return peak;
+		}
+
+		// True once the budget reaches the high water mark and this account holds at least its
+		// share of it - the high water mark split evenly between the open accounts. An execution
+		// holding a few events while others hold the rest keeps going, and it's the ones holding
+		// the most that chunk. Past the whole budget every account does.
+		//
+		public synchronized boolean isNearLimit() {
+			long total = reservedBytes.get();
+
+			if (total >= budgetBytes) {
+				return true;
+			}
+
+			long highWater = highWaterBytes();
+
+			if (total < highWater) {
+				return false;
+			}
+
+			return (reserved >= (highWater / Math.max(1, openAccounts.get())));
+		}
+
+		@Override
+		public synchronized void close() {
+			release(reserved);
+
+			if (!closed) {
+				closed = true;
+				openAccounts.decrementAndGet();
+			}
+		}
+
+		@Override
+		public synchronized String toString() {
+			return "peak " + megabytes(peak) + " of " + MemoryBudget.this;
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package com.takipi.udf.memory;
+
+import java.util.Collection;
+import java.util.Map;
+
+import com.takipi.api.client.data.event.Location;
+import com.takipi.api.client.data.transaction.GraphPoint;
+import com.takipi.api.client.data.transaction.TransactionGraph;
+import com.takipi.api.client.result.event.EventResult;
+
+// Rough retained sizes of what functions hold on to, for MemoryBudget. These count headers,
+// references and string contents of the fields we know, assuming a 64 bit JVM without
+// compressed pointers - they are meant to be cheap and on the high side, not exact.
+//
+public class MemoryEstimate {
+	private static final long OBJECT_HEADER = 16;
+	private static final long REFERENCE = 8;
+	private static final long ARRAY_HEADER = 24;
+	private static final long STRING_HEADER = OBJECT_HEADER + 24;
+	private static final long LIST_ENTRY = REFERENCE * 2;
+	private static final long MAP_ENTRY = OBJECT_HEADER + (REFERENCE * 4);
+
+	private static final int EVENT_FIELD_COUNT = 40;
+	private static final int LOCATION_FIELD_COUNT = 8;
+	private static final long STATS_SIZE = OBJECT_HEADER + (8 * 4);
+
+	public static long of(String value) {
+		if (value == null) {
+			return 0l;
+		}
+
+		return STRING_HEADER + ARRAY_HEADER + (value.length() * 2l);
+	}
+
+	public static long of(Collection<String> values) {
+		if (values == null) {
+			return 0l;
+		}
+
+		long result = OBJECT_HEADER + ARRAY_HEADER;
+
+		for (String value : values) {
+			result += LIST_ENTRY + of(value);
+		}
+
+		return result;
+	}
+
+	public static long of(EventResult event) {
+		if (event == null) {
+			return 0l;
+		}
+
+		return OBJECT_HEADER + (EVENT_FIELD_COUNT * REFERENCE) + of(event.id) + of(event.summary) + of(event.name)
+				+ of(event.type) + of(event.message) + of(event.jira_issue_url) + of(event.introduced_by)
+				+ of(event.labels) + ((event.stats != null) ? STATS_SIZE : 0l) + of(event.error_location)
+				+ of(event.entry_point) + ofLocations(event.stack_frames);
+	}
+
+	public static long ofEvents(Collection<EventResult> events) {
+		if (events == null) {
+			return 0l;
+		}
+
+		long result = OBJECT_HEADER + ARRAY_HEADER;
+
+		for (EventResult event : events) {
+			result += LIST_ENTRY + of(event);
+		}
+
+		return result;
+	}
+
+	public static long of(TransactionGraph graph) {
+		if (graph == null) {
+			return 0l;
+		}
+
+		long result = OBJECT_HEADER + (REFERENCE * 4) + of(graph.name) + of(graph.class_name)
+				+ of(graph.method_name);
+
+		if (graph.points != null) {
+			result += OBJECT_HEADER + ARRAY_HEADER;
+
+			for (GraphPoint point : graph.points) {
+				result += LIST_ENTRY + OBJECT_HEADER + (REFERENCE * 2) + of(point.time)
+						+ ((point.stats != null) ? STATS_SIZE : 0l);
+			}
+		}
+
+		return result;
+	}
+
+	public static long ofGraphs(Map<String, TransactionGraph> graphs) {
+		if (graphs == null) {
+			return 0l;
+		}
+
+		long result = OBJECT_HEADER + ARRAY_HEADER;
+
+		for (Map.Entry<String, TransactionGraph> entry : graphs.entrySet()) {
+			result += MAP_ENTRY + of(entry.getKey()) + of(entry.getValue());
+		}
+
+		return result;
+	}
+
+	// A pending label modification of a batch request - the event id and the labels to add and
+	// remove, as held by the request builder until it is posted.
+	//
+	public static long ofLabelModification(String eventId, Collection<String> labelsToAdd,
+			Collection<String> labelsToRemove) {
+		return MAP_ENTRY + of(eventId) + of(labelsToAdd) + of(labelsToRemove);
+	}
+
+	private static long of(Location location) {
+		if (location == null) {
+			return 0l;
+		}
+
+		return OBJECT_HEADER + (LOCATION_FIELD_COUNT * REFERENCE) + of(location.class_name)
+				+ of(location.method_name) + of(location.prettified_name) + of(location.original_line_number);
+	}
+
+	private static long ofLocations(Collection<Location> locations) {
+		if (locations == null) {
+			return 0l;
+		}
+
+		long result = OBJECT_HEADER + ARRAY_HEADER;
+
+		for (Location location : locations) {
+			result += LIST_ENTRY + of(location);
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,7 @@
+package com.takipi.udf.trace;
+
+// The phases of a function execution recorded by PhaseTrace.
+//
+public enum Phase {
+	EXECUTION, INPUT, API_CALL, EVALUATION, LABELS, ALERT
+}
@@ -0,0 +1,5 @@
+package com.takipi.udf.trace;
+
+interface PhaseRecorder {
+	PhaseTrace.Span begin(PhaseTrace.Execution execution, Phase phase, String requestType);
+}
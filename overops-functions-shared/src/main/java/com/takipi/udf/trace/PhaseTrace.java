@@ -0,0 +1,131 @@
+package com.takipi.udf.trace;
+
+import com.takipi.udf.concurrent.FanOut;
+
+// Records the phases of function executions - input parsing, every api call, evaluation, label
+// changes and alerts - as JDK Flight Recorder events (com.takipi.udf.Phase), so GC, allocation and
+// I/O stalls in a recording can be matched to the function, view and phase they hit. Each event
+// carries the function, service and view of the execution running on the thread, and the request
+// type of api calls.
+//
+// Events cost a flag check unless a recording has them enabled. On JVMs without jdk.jfr, with
+// -Dudf.jfr=false, or when the jar was built without the jfr source set (src/jfr, which needs a
+// JDK with jdk.jfr to compile), every span is a no-op.
+//
+//   PhaseTrace.Span evaluation = PhaseTrace.begin(Phase.EVALUATION);
+//
+//   try {
+//       ...
+//   } finally {
+//       evaluation.close();
+//   }
+//
+public class PhaseTrace {
+	public static final String ENABLED_PROPERTY = "udf.jfr";
+
+	private static final String JFR_EVENT_CLASS = "jdk.jfr.Event";
+	private static final String JFR_RECORDER_CLASS = "com.takipi.udf.trace.JfrPhaseRecorder";
+
+	static final Span NOOP = () -> {
+	};
+
+	private static final ThreadLocal<Execution> currentExecution = new ThreadLocal<>();
+
+	private static final PhaseRecorder recorder = loadRecorder();
+
+	static {
+		if (recorder != null) {
+			FanOut.addPropagator(PhaseTrace::capture);
+		}
+	}
+
+	public interface Span extends AutoCloseable {
+		@Override
+		void close();
+	}
+
+	public static boolean isAvailable() {
+		return (recorder != null);
+	}
+
+	// Starts the execution phase, and makes the function, service and view the ones of every phase
+	// started on this thread until the returned span is closed.
+	//
+	public static Span execution(String function, String serviceId, String viewId) {
+		if (recorder == null) {
+			return NOOP;
+		}
+
+		Execution previous = currentExecution.get();
+		Execution execution = new Execution(function, serviceId, viewId);
+
+		currentExecution.set(execution);
+
+		Span span = recorder.begin(execution, Phase.EXECUTION, null);
+
+		return () -> {
+			span.close();
+			restore(previous);
+		};
+	}
+
+	public static Span begin(Phase phase) {
+		return begin(phase, null);
+	}
+
+	public static Span begin(Phase phase, String requestType) {
+		if (recorder == null) {
+			return NOOP;
+		}
+
+		return recorder.begin(currentExecution.get(), phase, requestType);
+	}
+
+	private static void restore(Execution execution) {
+		if (execution != null) {
+			currentExecution.set(execution);
+		} else {
+			currentExecution.remove();
+		}
+	}
+
+	// Phases of tasks a function fans out belong to the execution that started them.
+	//
+	private static FanOut.Context capture() {
+		Execution execution = currentExecution.get();
+
+		return () -> {
+			Execution previous = currentExecution.get();
+
+			restore(execution);
+
+			return () -> restore(previous);
+		};
+	}
+
+	private static PhaseRecorder loadRecorder() {
+		if (!Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"))) {
+			return null;
+		}
+
+		try {
+			Class.forName(JFR_EVENT_CLASS);
+
+			return (PhaseRecorder) Class.forName(JFR_RECORDER_CLASS).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	static class Execution {
+		final String function;
+		final String serviceId;
+		final String viewId;
+
+		Execution(String function, String serviceId, String viewId) {
+			this.function = function;
+			this.serviceId = serviceId;
+			this.viewId = viewId;
+		}
+	}
+}
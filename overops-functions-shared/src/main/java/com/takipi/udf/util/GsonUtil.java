@@ -0,0 +1,13 @@
+package com.takipi.udf.util;
+
+import com.google.gson.Gson;
+
+public class GsonUtil {
+	// Gson instances are thread safe and expensive to build, so a single one is shared.
+	//
+	private static final Gson gson = new Gson();
+
+	public static Gson gson() {
+		return gson;
+	}
+}
@@ -0,0 +1,181 @@
+package com.takipi.udf.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.takipi.api.client.request.event.EventsRequest;
+import com.takipi.api.client.result.event.EventResult;
+import com.takipi.udf.Deadline;
+
+public class EventsStreamTest {
+	private static final String EVENTS = "{\"events\":[{\"id\":\"1\",\"summary\":\"a\"},{\"id\":\"2\"}],\"other\":[1]}";
+
+	private HttpServer server;
+	private Queue<Integer> responseCodes;
+	private AtomicInteger requests;
+	private ApiCallMeter meter;
+	private EventsStream stream;
+
+	@Before
+	public void setUp() throws IOException {
+		responseCodes = new ConcurrentLinkedQueue<>();
+		requests = new AtomicInteger();
+
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", this::handle);
+		server.start();
+
+		String apiHost = "http://localhost:" + server.getAddress().getPort();
+		FakeApiClient client = new FakeApiClient();
+
+		meter = ApiCallMeter.create();
+		stream = EventsStream.of(apiHost, "key", client, RetryingApiClient.of(client, apiHost, Deadline::none), meter);
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+
+		Integer responseCode = responseCodes.poll();
+		byte[] body = ((responseCode == null) ? EVENTS : "{}").getBytes(StandardCharsets.UTF_8);
+
+		exchange.sendResponseHeaders(((responseCode == null) ? 200 : responseCode), body.length);
+
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(body);
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void streamsTheEvents() {
+		List<String> ids = Lists.newArrayList();
+
+		int count = stream.forEach(request(), null, event -> ids.add(event.id));
+
+		assertEquals(2, count);
+		assertEquals(Lists.newArrayList("1", "2"), ids);
+		assertEquals(1, meter.getCallCount());
+	}
+
+	@Test(timeout = 10000)
+	public void unavailableResponsesAreRetried() {
+		responseCodes.add(503);
+		responseCodes.add(502);
+
+		int count = stream.forEach(request(), null, event -> true);
+
+		assertEquals(2, count);
+		assertEquals(3, requests.get());
+		assertEquals(3, meter.getCallCount());
+	}
+
+	@Test(timeout = 10000)
+	public void badResponsesFailTheStream() {
+		responseCodes.add(404);
+
+		try {
+			stream.forEach(request(), null, event -> true);
+			fail("Expected the stream to fail");
+		} catch (IllegalStateException e) {
+			// Expected.
+		}
+
+		assertEquals(1, requests.get());
+		assertEquals(1, meter.getCallCount());
+	}
+
+	@Test(timeout = 10000)
+	public void chunksResumeAfterTheLastEventTaken() {
+		List<List<String>> chunks = Lists.newArrayList();
+		List<String> chunk = Lists.newArrayList();
+
+		int count = stream.forEachChunk(request(), null, new EventsStream.ChunkVisitor() {
+			@Override
+			public boolean visit(EventResult event) {
+				if (!chunk.isEmpty()) {
+					return false;
+				}
+
+				return chunk.add(event.id);
+			}
+
+			@Override
+			public boolean endChunk() {
+				chunks.add(Lists.newArrayList(chunk));
+				chunk.clear();
+
+				return true;
+			}
+		});
+
+		assertEquals(2, count);
+		assertEquals(Lists.newArrayList(Lists.newArrayList("1"), Lists.newArrayList("2")), chunks);
+		assertEquals(2, requests.get());
+	}
+
+	@Test(timeout = 10000)
+	public void chunksStopWhenTheVisitorDoes() {
+		AtomicInteger chunks = new AtomicInteger();
+
+		int count = stream.forEachChunk(request(), null, new EventsStream.ChunkVisitor() {
+			@Override
+			public boolean visit(EventResult event) {
+				return "1".equals(event.id);
+			}
+
+			@Override
+			public boolean endChunk() {
+				chunks.incrementAndGet();
+
+				return false;
+			}
+		});
+
+		assertEquals(1, count);
+		assertEquals(1, chunks.get());
+		assertEquals(1, requests.get());
+	}
+
+	@Test(timeout = 10000)
+	public void chunksTakingNothingStop() {
+		int count = stream.forEachChunk(request(), null, new EventsStream.ChunkVisitor() {
+			@Override
+			public boolean visit(EventResult event) {
+				return false;
+			}
+
+			@Override
+			public boolean endChunk() {
+				return true;
+			}
+		});
+
+		assertEquals(0, count);
+		assertEquals(1, requests.get());
+	}
+
+	private static EventsRequest request() {
+		return EventsRequest.newBuilder().setServiceId("S1").setViewId("V1").setFrom("2020-01-01T00:00:00.000Z")
+				.setTo("2020-01-01T01:00:00.000Z").build();
+	}
+}
@@ -0,0 +1,107 @@
+package com.takipi.udf.api;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.takipi.api.client.ApiClient;
+import com.takipi.api.client.data.event.Stats;
+import com.takipi.api.client.request.event.EventsVolumeRequest;
+import com.takipi.api.client.request.label.CreateLabelRequest;
+import com.takipi.api.client.result.event.EventResult;
+import com.takipi.api.client.result.event.EventsResult;
+import com.takipi.api.client.util.validation.ValidationUtil.VolumeType;
+import com.takipi.api.core.request.intf.ApiGetRequest;
+import com.takipi.api.core.request.intf.ApiPostRequest;
+import com.takipi.api.core.result.intf.ApiResult;
+
+// Answers every GET with the same events volume, freshly built per call as a remote client
+// would, and every write with an empty OK. Counts the calls it gets. Calls can be scripted to
+// get other outcomes through outcomes.
+//
+class FakeApiClient extends ApiClient {
+	static final String FROM = "2020-01-01T00:00:00.000Z";
+	static final String TO = "2020-01-01T01:00:00.000Z";
+
+	// An outcome the client returns null for, as a remote client does when a call fails.
+	//
+	static final Object NO_RESPONSE = new Object();
+
+	final AtomicInteger gets;
+	final AtomicInteger posts;
+
+	// Outcomes of the next calls, in order - a response code, NO_RESPONSE, or an exception to
+	// throw. Calls past them get responseCode (GETs) or OK (writes).
+	//
+	final Queue<Object> outcomes;
+
+	volatile int responseCode;
+
+	FakeApiClient() {
+		super("http://localhost", 0, 0, LogLevel.WARN, Maps.newHashMap(), 1);
+
+		this.gets = new AtomicInteger();
+		this.posts = new AtomicInteger();
+		this.outcomes = new ConcurrentLinkedQueue<>();
+		this.responseCode = 200;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T extends ApiResult> Response<T> get(ApiGetRequest<T> request) {
+		gets.incrementAndGet();
+
+		return respond(responseCode, (T) events());
+	}
+
+	@Override
+	public <T extends ApiResult> Response<T> post(ApiPostRequest<T> request) {
+		posts.incrementAndGet();
+
+		return respond(200, null);
+	}
+
+	private <T> Response<T> respond(int defaultCode, T data) {
+		Object outcome = outcomes.poll();
+
+		if (outcome == NO_RESPONSE) {
+			return null;
+		}
+
+		if (outcome instanceof RuntimeException) {
+			throw (RuntimeException) outcome;
+		}
+
+		return Response.of(((outcome != null) ? (Integer) outcome : defaultCode), data);
+	}
+
+	static EventsVolumeRequest volumeRequest(String viewId) {
+		return EventsVolumeRequest.newBuilder().setServiceId("S1").setViewId(viewId).setFrom(FROM).setTo(TO)
+				.setVolumeType(VolumeType.all).build();
+	}
+
+	static CreateLabelRequest createLabelRequest() {
+		return CreateLabelRequest.newBuilder().setServiceId("S1").setName("Anomaly").build();
+	}
+
+	static EventsResult events() {
+		EventsResult result = new EventsResult();
+		result.events = Lists.newArrayList();
+
+		for (int i = 0; i < 3; i++) {
+			EventResult event = new EventResult();
+
+			event.id = String.valueOf(i);
+			event.labels = Lists.newArrayList("Anomaly");
+			event.stats = new Stats();
+			event.stats.hits = i + 1;
+			event.stats.invocations = (i + 1) * 10;
+
+			result.events.add(event);
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,62 @@
+package com.takipi.udf.api;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.takipi.udf.memory.MemoryBudget;
+
+public class LabelBatchTest {
+	private FakeApiClient apiClient;
+	private MemoryBudget.Account others;
+	private MemoryBudget.Account account;
+
+	@Before
+	public void setUp() {
+		apiClient = new FakeApiClient();
+
+		// Other executions holding the whole budget, so the batch's account is near its limit
+		// from its first modification.
+		//
+		others = MemoryBudget.instance().account();
+		others.reserve(MemoryBudget.instance().getBudgetBytes());
+		account = MemoryBudget.instance().account();
+	}
+
+	@After
+	public void tearDown() {
+		account.close();
+		others.close();
+	}
+
+	@Test
+	public void chunksAreNeverSmallerThanTheMinimum() {
+		LabelBatch batch = LabelBatch.of(apiClient, "S1", false, account);
+
+		for (int i = 0; i < LabelBatch.MIN_CHUNK_SIZE - 1; i++) {
+			add(batch, i);
+		}
+
+		assertEquals(0, apiClient.posts.get());
+
+		add(batch, LabelBatch.MIN_CHUNK_SIZE);
+
+		assertEquals(1, apiClient.posts.get());
+		assertEquals(0l, account.getReservedBytes());
+
+		add(batch, LabelBatch.MIN_CHUNK_SIZE + 1);
+		batch.flush();
+
+		assertEquals(2, apiClient.posts.get());
+		assertEquals(2, batch.getChunkCount());
+		assertEquals(LabelBatch.MIN_CHUNK_SIZE + 1, batch.getModificationCount());
+	}
+
+	private static void add(LabelBatch batch, int index) {
+		batch.add("event-" + index, Collections.singletonList("label"), Collections.<String>emptyList());
+	}
+}
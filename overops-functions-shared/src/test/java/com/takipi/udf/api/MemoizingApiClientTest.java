@@ -0,0 +1,73 @@
+package com.takipi.udf.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.takipi.api.client.result.event.EventsResult;
+import com.takipi.api.core.url.UrlClient.Response;
+
+public class MemoizingApiClientTest {
+	private FakeApiClient delegate;
+	private MemoizingApiClient client;
+
+	@Before
+	public void setUp() {
+		delegate = new FakeApiClient();
+		client = MemoizingApiClient.of(delegate);
+	}
+
+	@Test
+	public void identicalGetsAreFetchedOnce() {
+		client.get(FakeApiClient.volumeRequest("V1"));
+		client.get(FakeApiClient.volumeRequest("V1"));
+		client.get(FakeApiClient.volumeRequest("V2"));
+
+		assertEquals(2, delegate.gets.get());
+		assertEquals(1, client.getHitCount());
+	}
+
+	@Test
+	public void callersGetTheirOwnResults() {
+		Response<EventsResult> first = client.get(FakeApiClient.volumeRequest("V1"));
+
+		first.data.events.get(0).labels.remove("Anomaly");
+		first.data.events.remove(2);
+
+		Response<EventsResult> second = client.get(FakeApiClient.volumeRequest("V1"));
+		Response<EventsResult> third = client.get(FakeApiClient.volumeRequest("V1"));
+
+		assertEquals(1, delegate.gets.get());
+		assertNotSame(second.data, third.data);
+		assertEquals(3, second.data.events.size());
+		assertEquals("Anomaly", second.data.events.get(0).labels.get(0));
+		assertEquals(3l, second.data.events.get(2).stats.hits);
+
+		second.data.events.clear();
+
+		assertEquals(3, third.data.events.size());
+	}
+
+	@Test
+	public void writesClearMemoizedResults() {
+		client.get(FakeApiClient.volumeRequest("V1"));
+		client.post(FakeApiClient.createLabelRequest());
+		client.get(FakeApiClient.volumeRequest("V1"));
+
+		assertEquals(2, delegate.gets.get());
+	}
+
+	@Test
+	public void badResponsesAreNotKept() {
+		delegate.responseCode = 500;
+		client.get(FakeApiClient.volumeRequest("V1"));
+
+		delegate.responseCode = 200;
+		Response<EventsResult> response = client.get(FakeApiClient.volumeRequest("V1"));
+
+		assertEquals(2, delegate.gets.get());
+		assertEquals(200, response.responseCode);
+	}
+}
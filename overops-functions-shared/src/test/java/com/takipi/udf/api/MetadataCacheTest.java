@@ -0,0 +1,112 @@
+package com.takipi.udf.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonPrimitive;
+
+public class MetadataCacheTest {
+	private static final long TTL = TimeUnit.MINUTES.toMillis(10);
+
+	private Path directory;
+	private Path file;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("metadata-cache");
+		file = directory.resolve("metadata.json");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		System.clearProperty(MetadataCache.FILE_PROPERTY);
+
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path path : (Iterable<Path>) files::iterator) {
+				Files.delete(path);
+			}
+		}
+
+		Files.delete(directory);
+	}
+
+	@Test
+	public void keptInMemoryUnlessAFileIsNamed() {
+		assertNull(MetadataCache.backingFile());
+
+		System.setProperty(MetadataCache.FILE_PROPERTY, "none");
+		assertNull(MetadataCache.backingFile());
+
+		System.setProperty(MetadataCache.FILE_PROPERTY, file.toString());
+		assertEquals(file, MetadataCache.backingFile());
+	}
+
+	@Test
+	public void runnersSharingAFileKeepEachOthersEntries() {
+		MetadataCache first = MetadataCache.of(file);
+		MetadataCache second = MetadataCache.of(file);
+
+		put(first, "views", "views");
+		first.flush();
+
+		put(second, "labels", "labels");
+		second.flush();
+
+		first.flush();
+
+		assertNotNull(first.get("labels"));
+		assertNotNull(MetadataCache.of(file).get("views"));
+		assertNotNull(MetadataCache.of(file).get("labels"));
+	}
+
+	@Test
+	public void invalidationsSurviveAnotherRunnersFlush() {
+		MetadataCache first = MetadataCache.of(file);
+
+		put(first, "views", "views");
+		first.flush();
+
+		MetadataCache second = MetadataCache.of(file);
+
+		assertNotNull(second.get("views"));
+		second.invalidate("S1", "views");
+		second.flush();
+
+		// The first runner still holds the entry, and flushes a change of its own.
+		//
+		put(first, "labels", "labels");
+		first.flush();
+
+		assertNull(first.get("views"));
+		assertNull(MetadataCache.of(file).get("views"));
+		assertNotNull(MetadataCache.of(file).get("labels"));
+	}
+
+	@Test
+	public void fullCacheEvictsTheSoonestExpiring() {
+		MetadataCache cache = MetadataCache.of(null);
+
+		for (int i = 0; i <= MetadataCache.MAX_ENTRIES; i++) {
+			cache.put("key" + i, "S1", "views", 200, new JsonPrimitive(i), TTL + i);
+		}
+
+		assertNull(cache.get("key0"));
+		assertNotNull(cache.get("key" + (MetadataCache.MAX_ENTRIES - 1)));
+		assertNotNull(cache.get("key" + MetadataCache.MAX_ENTRIES));
+	}
+
+	private static void put(MetadataCache cache, String key, String requestPackage) {
+		cache.put(key, "S1", requestPackage, 200, new JsonPrimitive(key), TTL);
+	}
+}
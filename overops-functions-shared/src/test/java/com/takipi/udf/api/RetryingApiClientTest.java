@@ -0,0 +1,130 @@
+package com.takipi.udf.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.takipi.api.client.result.EmptyResult;
+import com.takipi.api.client.result.event.EventsResult;
+import com.takipi.api.core.url.UrlClient.Response;
+import com.takipi.udf.Deadline;
+
+public class RetryingApiClientTest {
+	private FakeApiClient delegate;
+	private RetryingApiClient client;
+
+	@Before
+	public void setUp() {
+		delegate = new FakeApiClient();
+		client = RetryingApiClient.of(delegate, "retrying-test", Deadline::none);
+	}
+
+	@Test(timeout = 10000)
+	public void unavailableResponsesAreRetried() {
+		delegate.outcomes.add(503);
+
+		Response<EventsResult> response = client.get(FakeApiClient.volumeRequest("V1"));
+
+		assertEquals(200, response.responseCode);
+		assertEquals(2, delegate.gets.get());
+		assertEquals(1, client.getRetryCount());
+	}
+
+	@Test(timeout = 10000)
+	public void missingResponsesOfGetsAreRetried() {
+		delegate.outcomes.add(FakeApiClient.NO_RESPONSE);
+
+		Response<EventsResult> response = client.get(FakeApiClient.volumeRequest("V1"));
+
+		assertEquals(200, response.responseCode);
+		assertEquals(2, delegate.gets.get());
+	}
+
+	@Test(timeout = 10000)
+	public void ioFailuresOfGetsAreRetried() {
+		delegate.outcomes.add(new UncheckedIOException(new IOException("Connection reset")));
+
+		Response<EventsResult> response = client.get(FakeApiClient.volumeRequest("V1"));
+
+		assertEquals(200, response.responseCode);
+		assertEquals(2, delegate.gets.get());
+	}
+
+	@Test(timeout = 10000)
+	public void lastFailureIsThrownOnceAttemptsRunOut() {
+		for (int i = 0; i < 4; i++) {
+			delegate.outcomes.add(new UncheckedIOException(new IOException("Connection reset")));
+		}
+
+		try {
+			client.get(FakeApiClient.volumeRequest("V1"));
+			fail("Expected the call to fail");
+		} catch (UncheckedIOException e) {
+			// Expected.
+		}
+
+		assertEquals(4, delegate.gets.get());
+	}
+
+	@Test(timeout = 10000)
+	public void otherFailuresAreNotRetried() {
+		delegate.outcomes.add(new IllegalArgumentException("Bad request"));
+
+		try {
+			client.get(FakeApiClient.volumeRequest("V1"));
+			fail("Expected the call to fail");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+
+		assertEquals(1, delegate.gets.get());
+	}
+
+	@Test(timeout = 10000)
+	public void postsAreOnlyRetriedWhenRejected() {
+		delegate.outcomes.add(FakeApiClient.NO_RESPONSE);
+		assertNull(client.post(FakeApiClient.createLabelRequest()));
+
+		delegate.outcomes.add(500);
+		assertEquals(500, client.post(FakeApiClient.createLabelRequest()).responseCode);
+
+		delegate.outcomes.add(429);
+		Response<EmptyResult> response = client.post(FakeApiClient.createLabelRequest());
+
+		assertEquals(200, response.responseCode);
+		assertEquals(4, delegate.posts.get());
+	}
+
+	@Test(timeout = 10000)
+	public void interruptedCallsAreNotSent() {
+		String host = "retrying-interrupted-test";
+		HostThrottle throttle = HostThrottle.of(host);
+
+		// Down to a request a second, with no tokens left, so the next call has to wait.
+		//
+		for (int i = 0; i < 10; i++) {
+			throttle.onThrottled();
+		}
+
+		RetryingApiClient throttledClient = RetryingApiClient.of(delegate, host, Deadline::none);
+
+		Thread.currentThread().interrupt();
+
+		try {
+			throttledClient.get(FakeApiClient.volumeRequest("V1"));
+			fail("Expected the call to fail");
+		} catch (IllegalStateException e) {
+			// Expected.
+		}
+
+		assertTrue(Thread.interrupted());
+		assertEquals(0, delegate.gets.get());
+	}
+}
@@ -0,0 +1,107 @@
+package com.takipi.udf.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.util.Collections;
+import java.util.Comparator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.takipi.api.client.request.event.EventModifyLabelsRequest;
+import com.takipi.api.client.request.label.BatchModifyLabelsRequest;
+import com.takipi.api.client.result.event.EventResult;
+import com.takipi.api.client.result.event.EventsResult;
+import com.takipi.api.core.url.UrlClient.Response;
+
+public class ViewSnapshotsTest {
+	private static final String SCOPE = "scope";
+
+	private FakeApiClient delegate;
+	private ViewSnapshots snapshots;
+	private ViewSnapshotApiClient first;
+	private ViewSnapshotApiClient second;
+
+	@Before
+	public void setUp() {
+		delegate = new FakeApiClient();
+
+		// A tick that never ends, so no test crosses one.
+		//
+		snapshots = ViewSnapshots.of(Long.MAX_VALUE);
+		first = ViewSnapshotApiClient.of(delegate, snapshots, SCOPE);
+		second = ViewSnapshotApiClient.of(delegate, snapshots, SCOPE);
+	}
+
+	@Test
+	public void clientsOfAScopeShareOneFetch() {
+		first.get(FakeApiClient.volumeRequest("V1"));
+		second.get(FakeApiClient.volumeRequest("V1"));
+		second.get(FakeApiClient.volumeRequest("V2"));
+
+		ViewSnapshotApiClient.of(delegate, snapshots, "other").get(FakeApiClient.volumeRequest("V1"));
+
+		assertEquals(3, delegate.gets.get());
+		assertEquals(1, second.getHitCount());
+	}
+
+	@Test
+	public void everyClientGetsItsOwnModifiableCopy() {
+		Response<EventsResult> firstResponse = first.get(FakeApiClient.volumeRequest("V1"));
+
+		firstResponse.data.events.get(0).labels.clear();
+		firstResponse.data.events.get(0).stats.hits = 100l;
+		firstResponse.data.events.remove(2);
+
+		Response<EventsResult> secondResponse = second.get(FakeApiClient.volumeRequest("V1"));
+		Response<EventsResult> thirdResponse = second.get(FakeApiClient.volumeRequest("V1"));
+
+		assertNotSame(secondResponse.data, thirdResponse.data);
+		assertEquals(3, secondResponse.data.events.size());
+		assertEquals("Anomaly", secondResponse.data.events.get(0).labels.get(0));
+		assertEquals(1l, secondResponse.data.events.get(0).stats.hits);
+
+		// Functions sort and relabel the events they get, as RegressionUtil does.
+		//
+		Collections.sort(secondResponse.data.events, Comparator.comparing((EventResult event) -> event.stats.hits)
+				.reversed());
+		secondResponse.data.events.get(0).labels.add("Regression");
+
+		assertEquals("0", thirdResponse.data.events.get(0).id);
+		assertEquals(1, thirdResponse.data.events.get(2).labels.size());
+	}
+
+	@Test
+	public void labelChangesDropTheSnapshotsOfTheirScope() {
+		first.get(FakeApiClient.volumeRequest("V1"));
+		second.post(BatchModifyLabelsRequest.newBuilder().setServiceId("S1").build());
+		second.get(FakeApiClient.volumeRequest("V1"));
+
+		first.post(EventModifyLabelsRequest.newBuilder().setServiceId("S1").setEventId("0").build());
+		first.get(FakeApiClient.volumeRequest("V1"));
+
+		assertEquals(3, delegate.gets.get());
+	}
+
+	@Test
+	public void otherWritesKeepTheSnapshots() {
+		first.get(FakeApiClient.volumeRequest("V1"));
+		first.post(FakeApiClient.createLabelRequest());
+		second.get(FakeApiClient.volumeRequest("V1"));
+
+		assertEquals(1, delegate.gets.get());
+	}
+
+	@Test
+	public void badResponsesAreNotKept() {
+		delegate.responseCode = 500;
+		first.get(FakeApiClient.volumeRequest("V1"));
+
+		delegate.responseCode = 200;
+		Response<EventsResult> response = second.get(FakeApiClient.volumeRequest("V1"));
+
+		assertEquals(200, response.responseCode);
+		assertEquals(2, delegate.gets.get());
+	}
+}
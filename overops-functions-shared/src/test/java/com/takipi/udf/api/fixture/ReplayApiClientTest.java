@@ -0,0 +1,134 @@
+package com.takipi.udf.api.fixture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.takipi.api.client.data.event.Stats;
+import com.takipi.api.client.request.event.EventsVolumeRequest;
+import com.takipi.api.client.result.event.EventResult;
+import com.takipi.api.client.result.event.EventsResult;
+import com.takipi.api.client.util.validation.ValidationUtil.VolumeType;
+import com.takipi.api.core.url.UrlClient.Response;
+import com.takipi.udf.util.GsonUtil;
+
+public class ReplayApiClientTest {
+	private Path directory;
+	private ReplayApiClient client;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("replay-test");
+		client = ReplayApiClient.of("http://localhost", directory, 0l);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Files.delete(file);
+			}
+		}
+
+		Files.delete(directory);
+	}
+
+	@Test
+	public void snapshotFixturesAreReplayed() throws IOException {
+		EventsVolumeRequest request = request("V1");
+		ApiFixtures.write(directory, ApiFixtures.keyOf(request), fixture(request, 200, events()));
+
+		Response<EventsResult> first = client.get(request);
+		Response<EventsResult> second = client.get(request);
+
+		assertEquals(200, first.responseCode);
+		assertEquals(GsonUtil.gson().toJsonTree(events()), GsonUtil.gson().toJsonTree(first.data));
+		assertNotSame(first.data, second.data);
+
+		first.data.events.clear();
+
+		assertEquals(2, second.data.events.size());
+		assertEquals(2, client.get(request).data.events.size());
+	}
+
+	@Test
+	public void fixturesWithoutDataAreReplayed() throws IOException {
+		EventsVolumeRequest request = request("V2");
+		ApiFixtures.write(directory, ApiFixtures.keyOf(request), fixture(request, 404, null));
+
+		Response<EventsResult> response = client.get(request);
+
+		assertEquals(404, response.responseCode);
+		assertNull(response.data);
+	}
+
+	@Test
+	public void jsonFixturesAreReplayed() throws IOException {
+		EventsVolumeRequest request = request("V3");
+		Path file = directory.resolve(ApiFixtures.keyOf(request) + ".json.gz");
+
+		try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(file)),
+				StandardCharsets.UTF_8)) {
+			GsonUtil.gson().toJson(fixture(request, 200, events()), writer);
+		}
+
+		Response<EventsResult> response = client.get(request);
+
+		assertEquals(200, response.responseCode);
+		assertEquals("1", response.data.events.get(1).id);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void missingFixturesFail() {
+		client.get(request("V4"));
+	}
+
+	private static EventsVolumeRequest request(String viewId) {
+		return EventsVolumeRequest.newBuilder().setServiceId("S1").setViewId(viewId)
+				.setFrom("2020-01-01T00:00:00.000Z").setTo("2020-01-01T01:00:00.000Z").setVolumeType(VolumeType.all)
+				.build();
+	}
+
+	private static ApiFixture fixture(EventsVolumeRequest request, int responseCode, EventsResult data) {
+		ApiFixture result = ApiFixtures.fixtureOf(request, ApiFixtures.GET, request.urlPath(),
+				ApiFixtures.queryParamsOf(request), null);
+
+		result.responseCode = responseCode;
+		result.latencyMillis = 5l;
+		result.data = ((data != null) ? GsonUtil.gson().toJsonTree(data) : null);
+
+		return result;
+	}
+
+	private static EventsResult events() {
+		EventsResult result = new EventsResult();
+		result.events = Lists.newArrayList();
+
+		for (int i = 0; i < 2; i++) {
+			EventResult event = new EventResult();
+
+			event.id = String.valueOf(i);
+			event.labels = Lists.newArrayList("Anomaly");
+			event.stats = new Stats();
+			event.stats.hits = i + 1;
+
+			result.events.add(event);
+		}
+
+		return result;
+	}
+}
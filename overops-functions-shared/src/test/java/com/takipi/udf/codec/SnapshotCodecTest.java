@@ -0,0 +1,236 @@
+package com.takipi.udf.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.takipi.api.client.data.event.Stats;
+import com.takipi.api.client.result.event.EventResult;
+import com.takipi.api.client.result.event.EventsResult;
+import com.takipi.udf.util.GsonUtil;
+
+public class SnapshotCodecTest {
+	private static final long[] VARINT_EDGES = { 0l, 1l, -1l, 63l, -64l, 64l, 127l, 128l, 16383l, 16384l,
+			Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE - 1 };
+
+	static class Counters {
+		long value;
+		Long boxed;
+		int small;
+	}
+
+	static class WithMaps {
+		Map<String, Long> hitsByLabel;
+		Map<String, List<String>> labelsById;
+		Map<Integer, String> namesByIndex;
+		String after;
+	}
+
+	@Test
+	public void eventsRoundTrip() {
+		EventsResult original = events(50);
+
+		assertSameJson(original, roundTrip(original, EventsResult.class));
+	}
+
+	@Test
+	public void jsonRoundTrip() {
+		JsonElement original = new JsonParser().parse("{\"a\":[1,-2,3.5,\"x\",true,false,null,{\"b\":{}},[]],"
+				+ "\"c\":12345678901234567890,\"d\":1e400,\"e\":0.1,\"f\":\"\",\"g\":\"\\u00e9\\u6f22\\ud83d\\ude00\"}");
+
+		assertEquals(original, SnapshotCodec.decode(ByteBuffer.wrap(SnapshotCodec.encode(original))));
+	}
+
+	// Every value is written as the delta from the one before it, through every varint length
+	// and across the overflow of the delta.
+	//
+	@Test
+	public void integerFieldsRoundTrip() {
+		List<Counters> original = Lists.newArrayList();
+
+		for (long value : VARINT_EDGES) {
+			for (long previous : VARINT_EDGES) {
+				original.add(counters(previous));
+				original.add(counters(value));
+			}
+		}
+
+		Counters[] decoded = roundTrip(original, Counters[].class);
+
+		assertEquals(original.size(), decoded.length);
+
+		for (int i = 0; i < decoded.length; i++) {
+			assertEquals(original.get(i).value, decoded[i].value);
+			assertEquals(original.get(i).boxed, decoded[i].boxed);
+			assertEquals(original.get(i).small, decoded[i].small);
+		}
+	}
+
+	@Test
+	public void integersOutsideObjectsRoundTrip() {
+		long[] decoded = roundTrip(VARINT_EDGES, long[].class);
+
+		assertEquals(VARINT_EDGES.length, decoded.length);
+
+		for (int i = 0; i < VARINT_EDGES.length; i++) {
+			assertEquals(VARINT_EDGES[i], decoded[i]);
+		}
+	}
+
+	// Objects of different field sets share an array, and each keeps its own deltas.
+	//
+	@Test
+	public void mixedShapesRoundTrip() {
+		JsonElement original = new JsonParser().parse("[{\"a\":1,\"b\":2},{\"b\":5,\"a\":7},{\"a\":3},"
+				+ "{\"a\":10,\"b\":-20},{\"c\":{\"a\":100,\"b\":200}},{\"a\":null,\"b\":\"s\"},{\"a\":4,\"b\":1.5}]");
+
+		assertEquals(original, SnapshotCodec.decode(ByteBuffer.wrap(SnapshotCodec.encode(original))));
+	}
+
+	@Test
+	public void mapsRoundTrip() {
+		WithMaps original = new WithMaps();
+
+		original.hitsByLabel = Maps.newLinkedHashMap();
+		original.hitsByLabel.put("Anomaly", 10l);
+		original.hitsByLabel.put("Resolved", -3l);
+		original.labelsById = Maps.newLinkedHashMap();
+		original.labelsById.put("1", Lists.newArrayList("a", "b"));
+		original.namesByIndex = Maps.newLinkedHashMap();
+		original.namesByIndex.put(1, "one");
+		original.namesByIndex.put(2, "two");
+		original.after = "after";
+
+		WithMaps decoded = roundTrip(original, WithMaps.class);
+
+		assertEquals(original.hitsByLabel, decoded.hitsByLabel);
+		assertEquals(original.labelsById, decoded.labelsById);
+		assertEquals(original.namesByIndex, decoded.namesByIndex);
+		assertEquals("after", decoded.after);
+	}
+
+	@Test
+	public void skippedFieldsKeepTheDeltasOfTheRest() {
+		EventsResult original = events(20);
+		IdsOnly decoded = roundTrip(original, IdsOnly.class);
+
+		assertEquals(20, decoded.events.size());
+
+		for (int i = 0; i < 20; i++) {
+			assertEquals(original.events.get(i).id, decoded.events.get(i).id);
+			assertEquals(original.events.get(i).stats.hits, decoded.events.get(i).stats.hits);
+		}
+	}
+
+	@Test
+	public void filesRoundTrip() throws IOException {
+		Path directory = Files.createTempDirectory("snapshot-codec-test");
+		Path file = directory.resolve("events.udfs");
+
+		try {
+			EventsResult original = events(10);
+
+			SnapshotCodec.write(file, original);
+
+			assertSameJson(original, SnapshotCodec.read(file, EventsResult.class));
+			assertSameJson(original, SnapshotCodec.decode(SnapshotCodec.map(file), EventsResult.class));
+		} finally {
+			Files.deleteIfExists(file);
+			Files.deleteIfExists(directory);
+		}
+	}
+
+	@Test
+	public void nullsRoundTrip() {
+		assertNull(roundTrip(null, EventsResult.class));
+	}
+
+	@Test
+	public void malformedSnapshotsAreRejected() {
+		byte[] encoded = SnapshotCodec.encode(events(5));
+
+		try {
+			SnapshotCodec.decode(ByteBuffer.wrap(new byte[] { 1, 2, 3, 4, 5 }), EventsResult.class);
+			fail("Expected a bad magic to be rejected");
+		} catch (JsonParseException e) {
+			// Expected.
+		}
+
+		try {
+			SnapshotCodec.decode(ByteBuffer.wrap(encoded, 0, encoded.length / 2).slice(), EventsResult.class);
+			fail("Expected a truncated snapshot to be rejected");
+		} catch (JsonParseException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void repeatedStringsAreStoredOnce() {
+		EventsResult original = events(1000);
+		String json = GsonUtil.gson().toJson(original);
+
+		assertTrue(SnapshotCodec.encode(original).length < json.length() / 4);
+	}
+
+	static class IdsOnly {
+		List<IdOnly> events;
+	}
+
+	static class IdOnly {
+		String id;
+		Stats stats;
+	}
+
+	private static Counters counters(long value) {
+		Counters result = new Counters();
+
+		result.value = value;
+		result.boxed = (((value % 3) == 0) ? null : value);
+		result.small = (int) value;
+
+		return result;
+	}
+
+	private static EventsResult events(int count) {
+		EventsResult result = new EventsResult();
+		result.events = Lists.newArrayList();
+
+		for (int i = 0; i < count; i++) {
+			EventResult event = new EventResult();
+
+			event.id = String.valueOf(1000 + i);
+			event.name = (((i % 2) == 0) ? "NullPointerException" : "IllegalStateException");
+			event.labels = (((i % 5) == 0) ? null : Lists.newArrayList("Anomaly", "label-" + (i % 3)));
+			event.stats = new Stats();
+			event.stats.hits = ((i * 7919l) % 1000) - 300;
+			event.stats.invocations = i * 1000000007l;
+
+			result.events.add(event);
+		}
+
+		return result;
+	}
+
+	private static <T> T roundTrip(Object value, Class<T> type) {
+		return SnapshotCodec.decode(ByteBuffer.wrap(SnapshotCodec.encode(value)), type);
+	}
+
+	private static void assertSameJson(Object expected, Object actual) {
+		assertEquals(GsonUtil.gson().toJsonTree(expected), GsonUtil.gson().toJsonTree(actual));
+	}
+}
@@ -0,0 +1,168 @@
+package com.takipi.udf.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class FanOutTest {
+	private static final long PERMITS_WAIT_MILLIS = 5000l;
+
+	@Test(timeout = 10000)
+	public void mapKeepsSubmissionOrder() {
+		List<Integer> items = Lists.newArrayList();
+
+		for (int i = 0; i < 50; i++) {
+			items.add(i);
+		}
+
+		List<Integer> result = FanOut.map("fanout-order", items, item -> {
+			sleep((50 - item) % 7);
+			return item * 2;
+		});
+
+		for (int i = 0; i < items.size(); i++) {
+			assertEquals(Integer.valueOf(i * 2), result.get(i));
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void firstFailureCancelsTheRest() {
+		FanOut.Group group = FanOut.group("fanout-cancel");
+		CountDownLatch never = new CountDownLatch(1);
+		IllegalStateException failure = new IllegalStateException("failed");
+
+		group.add(() -> {
+			never.await();
+			return null;
+		});
+
+		group.add(() -> {
+			throw failure;
+		});
+
+		try {
+			group.join();
+			fail("Expected the fan out to fail");
+		} catch (FanOutException e) {
+			// The blocked task was interrupted by the cancellation and is not a failure of its own.
+			//
+			assertSame(failure, e.getCause());
+			assertEquals(1, e.getErrors().size());
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void tasksAddedAfterFailureNeverRun() {
+		FanOut.Group group = FanOut.group("fanout-after");
+		AtomicBoolean ran = new AtomicBoolean();
+
+		group.add(() -> {
+			throw new IllegalStateException("failed");
+		});
+
+		try {
+			group.join();
+			fail("Expected the fan out to fail");
+		} catch (FanOutException e) {
+			// Expected.
+		}
+
+		FanOut.Task<Boolean> task = group.add(() -> ran.getAndSet(true));
+
+		try {
+			group.join();
+			fail("Expected the fan out to fail");
+		} catch (FanOutException e) {
+			// Expected.
+		}
+
+		assertFalse(ran.get());
+
+		try {
+			task.get();
+			fail("Expected a task that never ran to have no result");
+		} catch (IllegalStateException e) {
+			// Expected.
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void permitsAreReturnedAfterCancellations() {
+		String host = "fanout-permits";
+		int permits = FanOut.availablePermits(host);
+
+		// Many of these tasks are cancelled after taking their permit but before they start.
+		//
+		for (int i = 0; i < 200; i++) {
+			FanOut.Group group = FanOut.group(host);
+
+			group.add(() -> {
+				throw new IllegalStateException("failed");
+			});
+
+			for (int j = 0; j < 20; j++) {
+				group.add(() -> {
+					sleep(1);
+					return null;
+				});
+			}
+
+			try {
+				group.join();
+			} catch (FanOutException e) {
+				// Expected.
+			}
+		}
+
+		// Cancelled tasks that were already running return their permit once they return.
+		//
+		long deadline = System.currentTimeMillis() + PERMITS_WAIT_MILLIS;
+
+		while ((FanOut.availablePermits(host) != permits) && (System.currentTimeMillis() < deadline)) {
+			sleep(10);
+		}
+
+		assertEquals(permits, FanOut.availablePermits(host));
+
+		List<Integer> items = Lists.newArrayList();
+
+		for (int i = 0; i < permits * 4; i++) {
+			items.add(i);
+		}
+
+		assertEquals(items, FanOut.map(host, items, item -> item));
+		assertEquals(permits, FanOut.availablePermits(host));
+	}
+
+	@Test
+	public void allErrorsAreReported() {
+		IllegalStateException first = new IllegalStateException("first");
+		IllegalArgumentException second = new IllegalArgumentException("second");
+
+		FanOutException e = new FanOutException("2 of 3 tasks failed", Arrays.asList(first, second));
+
+		assertSame(first, e.getCause());
+		assertEquals(Arrays.asList(first, second), e.getErrors());
+		assertEquals(1, e.getSuppressed().length);
+		assertSame(second, e.getSuppressed()[0]);
+	}
+
+	private static void sleep(long millis) {
+		try {
+			TimeUnit.MILLISECONDS.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package com.takipi.udf.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MemoryBudgetTest {
+	private static final long BUDGET = 1000l;
+
+	@Test
+	public void accountsBelowTheHighWaterMarkAreNotNearLimit() {
+		MemoryBudget budget = MemoryBudget.of(BUDGET);
+
+		try (MemoryBudget.Account account = budget.account()) {
+			account.reserve(499l);
+
+			assertFalse(budget.isNearLimit());
+			assertFalse(account.isNearLimit());
+
+			account.reserve(1l);
+
+			assertTrue(budget.isNearLimit());
+			assertTrue(account.isNearLimit());
+		}
+	}
+
+	@Test
+	public void onlyAccountsHoldingTheirShareAreNearLimit() {
+		MemoryBudget budget = MemoryBudget.of(BUDGET);
+
+		try (MemoryBudget.Account large = budget.account(); MemoryBudget.Account small = budget.account()) {
+			large.reserve(590l);
+			small.reserve(10l);
+
+			assertTrue(budget.isNearLimit());
+			assertTrue(large.isNearLimit());
+			assertFalse(small.isNearLimit());
+
+			small.reserve(240l);
+
+			assertTrue(small.isNearLimit());
+		}
+	}
+
+	@Test
+	public void everyAccountIsNearLimitPastTheWholeBudget() {
+		MemoryBudget budget = MemoryBudget.of(BUDGET);
+
+		try (MemoryBudget.Account large = budget.account(); MemoryBudget.Account small = budget.account()) {
+			large.reserve(BUDGET);
+			small.reserve(1l);
+
+			assertTrue(small.isNearLimit());
+		}
+	}
+
+	@Test
+	public void closingReleasesTheAccountOnce() {
+		MemoryBudget budget = MemoryBudget.of(BUDGET);
+		MemoryBudget.Account account = budget.account();
+
+		account.reserve(100l);
+
+		assertEquals(1, budget.getOpenAccounts());
+
+		account.close();
+		account.close();
+
+		assertEquals(0, budget.getOpenAccounts());
+		assertEquals(0l, budget.getReservedBytes());
+	}
+}
@@ -8,7 +8,6 @@ import java.util.Set;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
-import com.google.gson.Gson;
 import com.takipi.api.client.ApiClient;
 import com.takipi.api.client.data.category.Category;
 import com.takipi.api.client.data.view.SummarizedView;
@@ -20,6 +19,7 @@ import com.takipi.api.client.util.view.ViewUtil;
 import com.takipi.common.util.CollectionUtil;
 import com.takipi.udf.ContextArgs;
 import com.takipi.udf.input.Input;
+import com.takipi.udf.log.Log;
 import com.takipi.udf.util.TestUtil;
 
 public class AppRoutingFunction {
@@ -31,7 +31,7 @@ public class AppRoutingFunction {
 	}
 
 	static AppRoutingInput parseAppRoutingInput(String rawInput) {
-		System.out.println("validateInput rawInput: " + rawInput);
+		Log.debug("validateInput rawInput: " + rawInput);
 
 		if (Strings.isNullOrEmpty(rawInput)) {
 			throw new IllegalArgumentException("Input is empty");
@@ -57,17 +57,21 @@ public class AppRoutingFunction {
 	}
 
 	public static void execute(String rawContextArgs, String rawInput) {
-		System.out.println("execute: " + rawContextArgs);
+		Log.debug("execute: " + rawContextArgs);
 
-		ContextArgs args = (new Gson()).fromJson(rawContextArgs, ContextArgs.class);
+		ContextArgs args = ContextArgs.parse(rawContextArgs);
 
-		if (!args.viewValidate()) {
-			throw new IllegalArgumentException("Invalid context args - " + rawContextArgs);
-		}
+		try {
+			if (!args.viewValidate()) {
+				throw new IllegalArgumentException("Invalid context args - " + rawContextArgs);
+			}
 
-		AppRoutingInput input = parseAppRoutingInput(rawInput);
+			AppRoutingInput input = parseAppRoutingInput(rawInput);
 
-		buildAppRoutingViews(args, input);
+			buildAppRoutingViews(args, input);
+		} finally {
+			args.close();
+		}
 	}
 
 	private static void buildAppRoutingViews(ContextArgs args, AppRoutingInput input) {
@@ -78,14 +82,14 @@ public class AppRoutingFunction {
 		List<String> apps = ClientUtil.getApplications(apiClient, serviceId, true);
 
 		if (CollectionUtil.safeIsEmpty(apps)) {
-			System.out.println("Could not acquire apps for service " + serviceId);
+			Log.warn("Could not acquire apps for service " + serviceId);
 			return;
 		}
 
 		Map<String, SummarizedView> views = ViewUtil.getServiceViewsByName(apiClient, serviceId);
 
 		if (CollectionUtil.safeIsEmpty(views)) {
-			System.out.println("Could not acquire view for service " + serviceId);
+			Log.warn("Could not acquire view for service " + serviceId);
 			return;
 		}
 
@@ -103,7 +107,7 @@ public class AppRoutingFunction {
 		}
 
 		if (appsWithViewsSize >= input.max_views) {
-			System.out.println("Found " + appsWithViewsSize + " app views, exceeding max for " + serviceId);
+			Log.info("Found " + appsWithViewsSize + " app views, exceeding max for " + serviceId);
 			return;
 		}
 
@@ -132,7 +136,7 @@ public class AppRoutingFunction {
 		if (category == null) {
 			result = CategoryUtil.createCategory(input.category_name, serviceId, apiClient, SHARED);
 
-			System.out.println("Created category " + result + " for " + input.category_name);
+			Log.info("Created category " + result + " for " + input.category_name);
 		} else {
 			result = category.id;
 		}
@@ -10,7 +10,6 @@ import org.joda.time.format.ISODateTimeFormat;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
-import com.google.gson.Gson;
 import com.takipi.api.client.ApiClient;
 import com.takipi.api.client.data.category.Category;
 import com.takipi.api.client.data.deployment.SummarizedDeployment;
@@ -23,6 +22,7 @@ import com.takipi.api.client.util.view.ViewUtil;
 import com.takipi.common.util.CollectionUtil;
 import com.takipi.udf.ContextArgs;
 import com.takipi.udf.input.Input;
+import com.takipi.udf.log.Log;
 import com.takipi.udf.util.TestUtil;
 
 public class DeploymentRoutingFunction {
@@ -34,7 +34,7 @@ public class DeploymentRoutingFunction {
 	}
 
 	static DeploymentRoutingInput parseDeploymentRoutingInput(String rawInput) {
-		System.out.println("validateInput rawInput: " + rawInput);
+		Log.debug("validateInput rawInput: " + rawInput);
 
 		if (Strings.isNullOrEmpty(rawInput)) {
 			throw new IllegalArgumentException("Input is empty");
@@ -60,17 +60,21 @@ public class DeploymentRoutingFunction {
 	}
 
 	public static void execute(String rawContextArgs, String rawInput) {
-		System.out.println("execute: " + rawContextArgs);
+		Log.debug("execute: " + rawContextArgs);
 
-		ContextArgs args = (new Gson()).fromJson(rawContextArgs, ContextArgs.class);
+		ContextArgs args = ContextArgs.parse(rawContextArgs);
 
-		if (!args.viewValidate()) {
-			throw new IllegalArgumentException("Invalid context args - " + rawContextArgs);
-		}
+		try {
+			if (!args.viewValidate()) {
+				throw new IllegalArgumentException("Invalid context args - " + rawContextArgs);
+			}
 
-		DeploymentRoutingInput input = parseDeploymentRoutingInput(rawInput);
+			DeploymentRoutingInput input = parseDeploymentRoutingInput(rawInput);
 
-		buildDeploymentRoutingViews(args, input);
+			buildDeploymentRoutingViews(args, input);
+		} finally {
+			args.close();
+		}
 	}
 
 	private static String cleanPrefix(DeploymentRoutingInput input) {
@@ -85,14 +89,14 @@ public class DeploymentRoutingFunction {
 		Collection<SummarizedDeployment> deployments = ClientUtil.getSummarizedDeployments(apiClient, serviceId, false);
 
 		if (CollectionUtil.safeIsEmpty(deployments)) {
-			System.err.println("Could not acquire all deployments of service " + serviceId);
+			Log.warn("Could not acquire all deployments of service " + serviceId);
 			return;
 		}
 
 		Map<String, SummarizedView> views = ViewUtil.getServiceViewsByName(apiClient, serviceId);
 
 		if (CollectionUtil.safeIsEmpty(views)) {
-			System.err.println("Could not acquire views of service " + serviceId);
+			Log.warn("Could not acquire views of service " + serviceId);
 			return;
 		}
 
@@ -109,7 +113,7 @@ public class DeploymentRoutingFunction {
 			SummarizedView deploymentView = views.get(toViewName(input, deployment.name));
 
 			if (deploymentView != null) {
-				System.out.println("Removing view " + deploymentView.id + " for deployment " + deployment.name);
+				Log.info("Removing view " + deploymentView.id + " for deployment " + deployment.name);
 				ViewUtil.removeView(apiClient, serviceId, deploymentView.id);
 			}
 		}
@@ -122,11 +126,11 @@ public class DeploymentRoutingFunction {
 			SummarizedView deploymentView = views.get(toViewName(input, deployment.name));
 
 			if (deploymentView != null) {
-				System.out.println("View " + deploymentView.id + " already exists for deployment " + deploymentName);
+				Log.debug(() -> "View " + deploymentView.id + " already exists for deployment " + deploymentName);
 				continue;
 			}
 
-			System.out.println("Queueing view creation for deployment " + deploymentName);
+			Log.debug(() -> "Queueing view creation for deployment " + deploymentName);
 
 			ViewInfo viewInfo = new ViewInfo();
 
@@ -168,7 +172,7 @@ public class DeploymentRoutingFunction {
 		if (category == null) {
 			result = CategoryUtil.createCategory(input.category_name, serviceId, apiClient, SHARED);
 
-			System.out.println("Created category " + result + " for " + input.category_name);
+			Log.info("Created category " + result + " for " + input.category_name);
 		} else {
 			result = category.id;
 		}
@@ -14,13 +14,9 @@ import org.joda.time.format.ISODateTimeFormat;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
-import com.google.gson.Gson;
 import com.takipi.api.client.ApiClient;
 import com.takipi.api.client.request.event.EventsRequest;
-import com.takipi.api.client.request.label.BatchModifyLabelsRequest;
-import com.takipi.api.client.result.EmptyResult;
 import com.takipi.api.client.result.event.EventResult;
-import com.takipi.api.client.result.event.EventsResult;
 import com.takipi.api.client.util.category.CategoryUtil;
 import com.takipi.api.client.util.infra.Categories;
 import com.takipi.api.client.util.infra.Categories.Category;
@@ -28,15 +24,18 @@ import com.takipi.api.client.util.infra.Categories.CategoryType;
 import com.takipi.api.client.util.infra.InfraUtil;
 import com.takipi.api.client.util.settings.ServiceSettingsData;
 import com.takipi.api.client.util.settings.SettingsUtil;
-import com.takipi.api.core.url.UrlClient.Response;
 import com.takipi.common.util.CollectionUtil;
 import com.takipi.common.util.Pair;
 import com.takipi.udf.ContextArgs;
+import com.takipi.udf.api.EventsStream;
+import com.takipi.udf.api.LabelBatch;
 import com.takipi.udf.input.Input;
+import com.takipi.udf.log.Log;
+import com.takipi.udf.memory.MemoryEstimate;
 
 public class RoutingFunction {
 	static RoutingInput getRoutingInput(String rawInput) {
-		System.out.println("validateInput rawInput:" + rawInput);
+		Log.debug("validateInput rawInput:" + rawInput);
 
 		if (Strings.isNullOrEmpty(rawInput)) {
 			throw new IllegalArgumentException("Input is empty");
@@ -58,116 +57,195 @@ public class RoutingFunction {
 	}
 
 	static void install(String rawContextArgs, RoutingInput input) {
-		ContextArgs args = (new Gson()).fromJson(rawContextArgs, ContextArgs.class);
+		ContextArgs args = ContextArgs.parse(rawContextArgs);
 
-		System.out.println("install context: " + rawContextArgs);
+		try {
+			Log.debug("install context: " + rawContextArgs);
 
-		if (!args.validate()) {
-			throw new IllegalArgumentException("Bad context args - " + rawContextArgs);
-		}
+			if (!args.validate()) {
+				throw new IllegalArgumentException("Bad context args - " + rawContextArgs);
+			}
 
-		if (!args.viewValidate()) {
-			return;
-		}
+			if (!args.viewValidate()) {
+				return;
+			}
 
-		ApiClient apiClient = args.apiClient();
+			DateTime to = DateTime.now();
+			DateTime from = to.minusDays(30);
 
-		DateTime to = DateTime.now();
-		DateTime from = to.minusDays(30);
+			DateTimeFormatter fmt = ISODateTimeFormat.dateTime().withZoneUTC();
 
-		DateTimeFormatter fmt = ISODateTimeFormat.dateTime().withZoneUTC();
+			boolean includeStacktrace = (input.routing_type == CategoryType.app);
 
-		boolean includeStacktrace = (input.routing_type == CategoryType.app);
+			EventsRequest eventsRequest = EventsRequest.newBuilder().setServiceId(args.serviceId).setViewId(args.viewId)
+					.setIncludeStacktrace(includeStacktrace).setFrom(from.toString(fmt)).setTo(to.toString(fmt)).build();
 
-		EventsRequest eventsRequest = EventsRequest.newBuilder().setServiceId(args.serviceId).setViewId(args.viewId)
-				.setIncludeStacktrace(includeStacktrace).setFrom(from.toString(fmt)).setTo(to.toString(fmt)).build();
+			// A 30 day backlog (with stack traces for app routing) can be large, so events are
+			// decoded one at a time as they are streamed, and categorized in chunks of as many as
+			// the memory budget allows. Categorizing makes api calls of its own, so each chunk
+			// waits for its stream to be closed.
+			//
+			InstallRouter router = new InstallRouter(args, input);
 
-		Response<EventsResult> eventsResponse = apiClient.get(eventsRequest);
+			args.eventsStream().forEachChunk(eventsRequest, null, router);
 
-		if (eventsResponse.isBadResponse()) {
-			throw new IllegalStateException("Failed getting view events.");
+			router.finish();
+		} finally {
+			args.close();
 		}
+	}
 
-		EventsResult eventsResult = eventsResponse.data;
-
-		if (CollectionUtil.safeIsEmpty(eventsResult.events)) {
-			return;
-		}
+	static void execute(String rawContextArgs, RoutingInput input) {
+		ContextArgs args = ContextArgs.parse(rawContextArgs);
 
-		String categoryId = CategoryUtil.createCategory(input.category_name, args.serviceId, apiClient);
-		Map<CategoryType, String> categoryIds = Collections.singletonMap(input.routing_type, categoryId);
+		try {
+			Log.debug("execute context: " + rawContextArgs);
 
-		Categories categories = getCategories(apiClient, args.serviceId, input);
+			if (!args.validate()) {
+				throw new IllegalArgumentException("Bad context args - " + rawContextArgs);
+			}
 
-		Set<String> createdLabels = Sets.newHashSet();
+			if (!args.eventValidate()) {
+				return;
+			}
 
-		boolean hasModifications = false;
-		BatchModifyLabelsRequest.Builder builder = BatchModifyLabelsRequest.newBuilder().setServiceId(args.serviceId)
-				.setHandleSimilarEvents(input.handleSimilarEvents());
+			ApiClient apiClient = args.apiClient();
 
-		for (EventResult event : eventsResult.events) {
-			Pair<Collection<String>, Collection<String>> eventCategories = InfraUtil.categorizeEvent(event,
-					args.serviceId, categoryIds, categories, createdLabels, apiClient, false, false);
+			String categoryId = CategoryUtil.createCategory(input.category_name, args.serviceId, apiClient);
+			Map<CategoryType, String> categoryIds = Collections.singletonMap(input.routing_type, categoryId);
 
-			Collection<String> labelsToAdd = eventCategories.getFirst();
-			Collection<String> labelsToRemove = eventCategories.getSecond();
+			Categories categories = getCategories(apiClient, args.serviceId, input);
 
-			if ((!labelsToAdd.isEmpty()) || (!labelsToRemove.isEmpty())) {
-				builder.addLabelModifications(event.id, labelsToAdd, labelsToRemove);
-				hasModifications = true;
-			}
+			InfraUtil.categorizeEvent(args.eventId, args.serviceId, categoryIds, categories, Sets.newHashSet(),
+					apiClient, true, input.handleSimilarEvents());
+		} finally {
+			args.close();
 		}
+	}
+
+	private static Categories getCategories(ApiClient apiClient, String serviceId, RoutingInput input) {
+		Collection<Category> categories = Lists.newArrayList();
 
-		if (!hasModifications) {
-			return;
+		if (!CollectionUtil.safeIsEmpty(input.getCategories())) {
+			categories.addAll(input.getCategories());
 		}
 
-		Response<EmptyResult> response = apiClient.post(builder.build());
+		ServiceSettingsData settings = SettingsUtil.getServiceReliabilitySettings(apiClient, serviceId);
 
-		if (response.isBadResponse()) {
-			throw new IllegalStateException("Failed batch apply of labels.");
+		if ((settings != null) && (!CollectionUtil.safeIsEmpty(settings.tiers))) {
+			Categories.fillMissingCategoryNames(settings.tiers);
+			categories.addAll(settings.tiers);
 		}
+
+		return Categories.expandWithDefaultCategories(categories);
 	}
 
-	static void execute(String rawContextArgs, RoutingInput input) {
-		ContextArgs args = (new Gson()).fromJson(rawContextArgs, ContextArgs.class);
+	// Routes the streamed events on install, a chunk at a time. A chunk ends once the memory budget
+	// runs low (with at least a label chunk's worth of events kept), and is categorized once its
+	// stream is closed, releasing each event as it goes. The category and tiers are only fetched
+	// once there are events to route. Categorizing may create labels, so a 30 day backlog can take a
+	// while - once the deadline runs low what was categorized so far is applied, and the rest of the
+	// backlog is left uncategorized (execute only routes events as they occur).
+	//
+	private static class InstallRouter implements EventsStream.ChunkVisitor {
+		private final ContextArgs args;
+		private final RoutingInput input;
+		private final List<EventResult> events;
+		private final Set<String> createdLabels;
+
+		private LabelBatch labelBatch;
+		private Map<CategoryType, String> categoryIds;
+		private Categories categories;
+		private int categorizedCount;
+		private boolean stopped;
+
+		InstallRouter(ContextArgs args, RoutingInput input) {
+			this.args = args;
+			this.input = input;
+			this.events = Lists.newArrayList();
+			this.createdLabels = Sets.newHashSet();
+		}
 
-		System.out.println("execute context: " + rawContextArgs);
+		@Override
+		public boolean visit(EventResult event) {
+			if (args.deadline().isRunningLow()) {
+				stopped = true;
+				return false;
+			}
+
+			if ((events.size() >= LabelBatch.MIN_CHUNK_SIZE) && (args.memory().isNearLimit())) {
+				Log.info("Memory budget running low, categorizing a chunk of " + events.size() + " events - "
+						+ args.memory());
+				return false;
+			}
 
-		if (!args.validate()) {
-			throw new IllegalArgumentException("Bad context args - " + rawContextArgs);
+			events.add(event);
+			args.memory().reserve(MemoryEstimate.of(event));
+
+			return true;
 		}
 
-		if (!args.eventValidate()) {
-			return;
+		@Override
+		public boolean endChunk() {
+			categorize();
+
+			if (labelBatch != null) {
+				labelBatch.flush();
+			}
+
+			return (!stopped);
 		}
 
-		ApiClient apiClient = args.apiClient();
+		void finish() {
+			if (stopped) {
+				Log.info("Execution budget running low, stopped after categorizing " + categorizedCount
+						+ " events - " + args.deadline());
+			}
 
-		String categoryId = CategoryUtil.createCategory(input.category_name, args.serviceId, apiClient);
-		Map<CategoryType, String> categoryIds = Collections.singletonMap(input.routing_type, categoryId);
+			if ((labelBatch != null) && (labelBatch.hasFailed())) {
+				throw new IllegalStateException("Failed batch apply of labels.");
+			}
+		}
 
-		Categories categories = getCategories(apiClient, args.serviceId, input);
+		private void categorize() {
+			if (events.isEmpty()) {
+				return;
+			}
 
-		InfraUtil.categorizeEvent(args.eventId, args.serviceId, categoryIds, categories, Sets.newHashSet(), apiClient,
-				true, input.handleSimilarEvents());
-	}
+			ApiClient apiClient = args.apiClient();
 
-	private static Categories getCategories(ApiClient apiClient, String serviceId, RoutingInput input) {
-		Collection<Category> categories = Lists.newArrayList();
+			if (labelBatch == null) {
+				String categoryId = CategoryUtil.createCategory(input.category_name, args.serviceId, apiClient);
 
-		if (!CollectionUtil.safeIsEmpty(input.getCategories())) {
-			categories.addAll(input.getCategories());
-		}
+				categoryIds = Collections.singletonMap(input.routing_type, categoryId);
+				categories = getCategories(apiClient, args.serviceId, input);
+				labelBatch = LabelBatch.of(apiClient, args.serviceId, input.handleSimilarEvents(), args.memory());
+			}
 
-		ServiceSettingsData settings = SettingsUtil.getServiceReliabilitySettings(apiClient, serviceId);
+			for (int i = 0; i < events.size(); i++) {
+				EventResult event = events.set(i, null);
+				args.memory().release(MemoryEstimate.of(event));
 
-		if ((settings != null) && (!CollectionUtil.safeIsEmpty(settings.tiers))) {
-			Categories.fillMissingCategoryNames(settings.tiers);
-			categories.addAll(settings.tiers);
-		}
+				if ((stopped) || (args.deadline().isRunningLow())) {
+					stopped = true;
+					continue;
+				}
 
-		return Categories.expandWithDefaultCategories(categories);
+				Pair<Collection<String>, Collection<String>> eventCategories = InfraUtil.categorizeEvent(event,
+						args.serviceId, categoryIds, categories, createdLabels, apiClient, false, false);
+
+				Collection<String> labelsToAdd = eventCategories.getFirst();
+				Collection<String> labelsToRemove = eventCategories.getSecond();
+
+				if ((!labelsToAdd.isEmpty()) || (!labelsToRemove.isEmpty())) {
+					labelBatch.add(event.id, labelsToAdd, labelsToRemove);
+				}
+
+				categorizedCount++;
+			}
+
+			events.clear();
+		}
 	}
 
 	static class RoutingInput extends Input {
@@ -1,6 +1,7 @@
 package com.takipi.udf.jira;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -12,12 +13,15 @@ import org.apache.commons.lang3.StringUtils;
 import com.atlassian.jira.rest.client.api.JiraRestClient;
 import com.atlassian.jira.rest.client.api.domain.Issue;
 import com.atlassian.jira.rest.client.api.domain.SearchResult;
-import com.takipi.api.client.request.label.BatchModifyLabelsRequest;
-import com.takipi.api.client.request.label.BatchModifyLabelsRequest.Builder;
 import com.takipi.api.client.result.event.EventResult;
 import com.takipi.udf.ContextArgs;
+import com.takipi.udf.api.LabelBatch;
+import com.takipi.udf.concurrent.FanOut;
 import com.takipi.udf.jira.JiraEvent.Status;
 import com.takipi.udf.jira.JiraIntegrationFunction.JiraIntegrationInput;
+import com.takipi.udf.log.Log;
+import com.takipi.udf.trace.Phase;
+import com.takipi.udf.trace.PhaseTrace;
 
 public class JiraEventList {
 	private HashMap<String, JiraEvent> eventList;
@@ -30,13 +34,14 @@ public class JiraEventList {
 		this.args = args;
 	}
 
-	public void addEvent(String issueId, EventResult event) {
+	// returns whether the event was added
+	public boolean addEvent(String issueId, EventResult event) {
 		// JQL limit is 1000 issues per query
 		if (eventList.size() >= 1000) {
 			if (input.debug) {
-				System.out.println("reached max Jira issues (1000)");
+				Log.info("reached max Jira issues (1000)");
 			}
-			return;
+			return false;
 		}
 
 		// Jira ID maps to multiple OO event IDs
@@ -46,6 +51,8 @@ public class JiraEventList {
 			JiraEvent jiraEvent = new JiraEvent(event);
 			eventList.put(issueId, jiraEvent);
 		}
+
+		return true;
 	}
 
 	public HashMap<String, JiraEvent> getEventList() {
@@ -53,29 +60,33 @@ public class JiraEventList {
 	}
 
 	public void sync(JiraRestClient client) {
-		populate(client);
-		syncBatch();
+		PhaseTrace.Span search = PhaseTrace.begin(Phase.API_CALL, "JiraSearch");
+
+		try {
+			populate(client);
+		} finally {
+			search.close();
+		}
+
+		PhaseTrace.Span labels = PhaseTrace.begin(Phase.LABELS);
+
+		try {
+			syncBatch();
+		} finally {
+			labels.close();
+		}
 	}
 
 	// populate Jira data
 	private void populate(JiraRestClient client) {
 		if (eventList.size() < 1) {
 			if (input.debug) {
-				System.out.println("Event list is empty.");
+				Log.info("Event list is empty.");
 			}
 			return;
 		}
 
-		StringBuilder updateKeys = new StringBuilder("issuekey in (");
-
-		for (String key : eventList.keySet()) {
-			updateKeys.append(key);
-			updateKeys.append(", ");
-		}
-
-		// remove final ", " and close )
-		String updateKeysStr = updateKeys.toString();
-		updateKeysStr = updateKeys.substring(0, updateKeys.length() - 2) + ")";
+		String updateKeysStr = buildIssueKeysJql(null, null, eventList.keySet());
 
 		// queries for all Jira issue keys so we can compare for changes
 		SearchResult updateKeysResult = client.getSearchClient().searchJql(updateKeysStr, 1000, 0, null).claim();
@@ -94,13 +105,17 @@ public class JiraEventList {
 		if (!keys.isEmpty()) {
 			HashMap<String, JiraEvent> tempList = new HashMap<String, JiraEvent>(keys.size());
 
-			keys.forEach((key) -> {
-				Issue issue = client.getIssueClient().getIssue(key).claim();
-				String issueKey = issue.getKey();
+			// fetch the changed issues together rather than one round trip at a time
+			List<String> orderedKeys = new ArrayList<String>(keys);
+			List<Issue> issues = FanOut.map(input.jiraURL, orderedKeys,
+					(key) -> client.getIssueClient().getIssue(key).claim());
 
-				JiraEvent event = eventList.get(key);
+			for (int i = 0; i < orderedKeys.size(); i++) {
+				String issueKey = issues.get(i).getKey();
+
+				JiraEvent event = eventList.get(orderedKeys.get(i));
 				tempList.put(issueKey, event);
-			});
+			}
 
 			// update event list w/ new issue IDs
 			eventList.keySet().removeAll(keys);
@@ -108,8 +123,8 @@ public class JiraEventList {
 		}
 
 		if (input.debug) {
-			System.out.println(">>> eventList: ");
-			System.out.println(eventList);
+			Log.info(">>> eventList: ");
+			Log.info(eventList.toString());
 		}
 
 		// create a copy of the key set (for resolved)
@@ -120,27 +135,15 @@ public class JiraEventList {
 		if (!StringUtils.isEmpty(input.hiddenStatus)) {
 
 			if (input.debug) {
-				System.out.println(">>> Syncing Hidden / Jira " + input.resolutionOrStatus + " = " + input.hiddenStatus);
+				Log.info(">>> Syncing Hidden / Jira " + input.resolutionOrStatus + " = " + input.hiddenStatus);
 			}
 
 			// search for hidden issues
-			StringBuilder jqlHidden = new StringBuilder(input.resolutionOrStatus);
-			jqlHidden.append(" = \"");
-			jqlHidden.append(input.hiddenStatus);
-			jqlHidden.append("\" AND issuekey in (");
-
-			for (String key : eventList.keySet()) {
-				jqlHidden.append(key);
-				jqlHidden.append(", ");
-			}
-
-			// remove final ", " and close )
-			String jqlHiddenStr = jqlHidden.toString();
-			jqlHiddenStr = jqlHiddenStr.substring(0, jqlHiddenStr.length() - 2) + ")";
+			String jqlHiddenStr = buildIssueKeysJql(input.resolutionOrStatus, input.hiddenStatus, eventList.keySet());
 
 			if (input.debug) {
-				System.out.println(">>> jql hidden: ");
-				System.out.println(jqlHiddenStr);
+				Log.info(">>> jql hidden: ");
+				Log.info(jqlHiddenStr);
 			}
 
 			// get hidden Jira issues
@@ -153,13 +156,13 @@ public class JiraEventList {
 				unknownKeys.remove(key);
 			});
 		} else if (input.debug) {
-			System.out.println(">>> Skipping Hidden");
+			Log.info(">>> Skipping Hidden");
 		}
 
 		// stop here if there are no remaining issues
 		if (unknownKeys.size() < 1) {
 			if (input.debug) {
-				System.out.println(">>> No issues remain");
+				Log.info(">>> No issues remain");
 			}
 			return;
 		}
@@ -168,27 +171,15 @@ public class JiraEventList {
 		if (!StringUtils.isEmpty(input.resolvedStatus)) {
 
 			if (input.debug) {
-				System.out.println(">>> Syncing Resolved / Jira " + input.resolutionOrStatus + " = " + input.resolvedStatus);
+				Log.info(">>> Syncing Resolved / Jira " + input.resolutionOrStatus + " = " + input.resolvedStatus);
 			}
 
 			// search for resolved issues
-			StringBuilder jqlResolved = new StringBuilder(input.resolutionOrStatus);
-			jqlResolved.append(" = \"");
-			jqlResolved.append(input.resolvedStatus);
-			jqlResolved.append("\" AND issuekey in (");
-
-			for (String key : unknownKeys) {
-				jqlResolved.append(key);
-				jqlResolved.append(", ");
-			}
-
-			// remove final ", " and close )
-			String jqlResolvedStr = jqlResolved.toString();
-			jqlResolvedStr = jqlResolvedStr.substring(0, jqlResolvedStr.length() - 2) + ")";
+			String jqlResolvedStr = buildIssueKeysJql(input.resolutionOrStatus, input.resolvedStatus, unknownKeys);
 
 			if (input.debug) {
-				System.out.println(">>> jql resolved: ");
-				System.out.println(jqlResolvedStr);
+				Log.info(">>> jql resolved: ");
+				Log.info(jqlResolvedStr);
 			}
 
 			SearchResult resolved = client.getSearchClient().searchJql(jqlResolvedStr, 1000, 0, null).claim();
@@ -198,17 +189,46 @@ public class JiraEventList {
 			});
 
 		} else if (input.debug) {
-			System.out.println(">>> Skipping Resolved");
+			Log.info(">>> Skipping Resolved");
 		}
 
 	}
 
+	// builds: [field = "value" AND ]issuekey in (KEY-1, KEY-2, ...)
+	static String buildIssueKeysJql(String field, String value, Collection<String> keys) {
+		StringBuilder jql = new StringBuilder();
+
+		if (field != null) {
+			jql.append(field);
+			jql.append(" = \"");
+			jql.append(value);
+			jql.append("\" AND ");
+		}
+
+		jql.append("issuekey in (");
+
+		boolean first = true;
+
+		for (String key : keys) {
+			if (!first) {
+				jql.append(", ");
+			}
+
+			jql.append(key);
+			first = false;
+		}
+
+		jql.append(")");
+
+		return jql.toString();
+	}
+
 	private void syncBatch() {
-		Builder batchBuilder = BatchModifyLabelsRequest.newBuilder().setServiceId(args.serviceId);
+		LabelBatch labelBatch = LabelBatch.of(args.apiClient(), args.serviceId, false, args.memory());
 
 		// for each JiraEvent:
 		if (input.debug) {
-			System.out.println("syncing " + eventList.size() + " issues");
+			Log.info("syncing " + eventList.size() + " issues");
 		}
 
 		eventList.forEach((issueId, jiraEvent) -> {
@@ -217,7 +237,7 @@ public class JiraEventList {
 
 				if (jiraEvent.issueStatus != eventStatus) {
 					if (input.debug) {
-						System.out.println(">>> update event! (" + eventResult.id + ") issueStatus: " +
+						Log.info(">>> update event! (" + eventResult.id + ") issueStatus: " +
 							jiraEvent.issueStatus + " eventStatus: " + eventStatus);
 					}
 
@@ -227,19 +247,16 @@ public class JiraEventList {
 					List<String> removeLabels = new ArrayList<String>();
 					removeLabels.add(eventStatus.getLabel());
 
-					batchBuilder.addLabelModifications(eventResult.id, addLabels, removeLabels);
+					labelBatch.add(eventResult.id, addLabels, removeLabels);
 				}
 			});
 		});
 
-		try {
-			// post batch label change request
-			args.apiClient().post(batchBuilder.setHandleSimilarEvents(false).build());
-		} catch (IllegalArgumentException ex) {
-			// this is normal - it happens when there are no modifications to be made
-			if (input.debug) {
-				System.out.println(ex.getMessage());
-			}
+		// post batch label change request, nothing is posted when there are no modifications
+		labelBatch.flush();
+
+		if ((!labelBatch.hasModifications()) && (input.debug)) {
+			Log.info("no label modifications to be made");
 		}
 	}
 
@@ -1,30 +1,37 @@
 package com.takipi.udf.jira;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
-import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
+import org.joda.time.DateTimeUtils;
 
 import com.atlassian.jira.rest.client.api.JiraRestClient;
 import com.atlassian.jira.rest.client.api.JiraRestClientFactory;
 import com.atlassian.jira.rest.client.internal.async.AsynchronousJiraRestClientFactory;
 import com.google.common.base.Strings;
-import com.google.gson.Gson;
-import com.takipi.api.client.ApiClient;
+import com.google.common.collect.ImmutableSet;
 import com.takipi.api.client.request.event.EventsRequest;
 import com.takipi.api.client.result.event.EventResult;
-import com.takipi.api.client.result.event.EventsResult;
-import com.takipi.api.core.url.UrlClient.Response;
-import com.takipi.common.util.CollectionUtil;
 import com.takipi.udf.ContextArgs;
+import com.takipi.udf.api.EventsStream;
 import com.takipi.udf.input.Input;
+import com.takipi.udf.log.Log;
+import com.takipi.udf.memory.MemoryEstimate;
 import com.takipi.udf.util.TestUtil;
 
 public class JiraIntegrationFunction {
+	// the only event fields the sync reads
+	private static final Set<String> JIRA_EVENT_FIELDS = ImmutableSet.of("id", "labels", "jira_issue_url");
+
+	// never stop collecting before this many issues, so a low budget doesn't turn a sync into a
+	// JQL search per issue
+	private static final int MIN_SYNC_ISSUES = 100;
 
 	public static String validateInput(String rawInput) {
 		JiraIntegrationInput input = getJiraIntegrationInput(rawInput);
@@ -43,12 +50,13 @@ public class JiraIntegrationFunction {
 		JiraRestClientFactory factory = new AsynchronousJiraRestClientFactory();
 
 		URI uri;
+		JiraRestClient client = null;
 
 		try {
 			uri = new URI(input.jiraURL);
 
 			// Construct the JRJC client
-			JiraRestClient client = factory.createWithBasicHttpAuthentication(uri, input.jiraUsername, input.jiraToken);
+			client = factory.createWithBasicHttpAuthentication(uri, input.jiraUsername, input.jiraToken);
 
 			// Make the client log in by performing a search
 
@@ -56,7 +64,7 @@ public class JiraIntegrationFunction {
 			if (!StringUtils.isEmpty(input.resolvedStatus)) {
 				client.getSearchClient().searchJql(input.resolutionOrStatus + " = \""+ input.resolvedStatus +"\"", 1, 0, null).claim();
 				if (input.debug) {
-					System.out.println(">> verified input.resolveStatus");
+					Log.info(">> verified input.resolveStatus");
 				}
 			}
 
@@ -65,7 +73,7 @@ public class JiraIntegrationFunction {
 				client.getSearchClient().searchJql(input.resolutionOrStatus + " = \""+ input.hiddenStatus +"\"", 1, 0, null).claim();
 
 				if (input.debug) {
-					System.out.println(">> verified input.hiddenStatus");
+					Log.info(">> verified input.hiddenStatus");
 				}
 			}
 
@@ -83,13 +91,17 @@ public class JiraIntegrationFunction {
 			} else {
 				if (input.debug) {
 					// log other errors
-					System.out.println("---- JIRA UDF VALIDATION EXCEPTION: ----");
-					System.out.println(e.getMessage());
-					System.out.println("----------------------------------------");
+					Log.warn("---- JIRA UDF VALIDATION EXCEPTION: ----");
+					Log.warn(e.getMessage());
+					Log.warn("----------------------------------------");
 				}
 
 				throw new IllegalArgumentException(e.getMessage());
 			}
+		} finally {
+			if (client != null) {
+				closeClient(client, input);
+			}
 		}
 
 		return input.toString();
@@ -133,109 +145,161 @@ public class JiraIntegrationFunction {
 	public static void execute(String rawContextArgs, String rawInput) {
 		JiraIntegrationInput input = getJiraIntegrationInput(rawInput);
 
-		ContextArgs args = (new Gson()).fromJson(rawContextArgs, ContextArgs.class);
+		ContextArgs args = ContextArgs.parse(rawContextArgs);
 
-		if (!args.validate()) {
-			throw new IllegalArgumentException("Bad context args: " + rawContextArgs);
-		}
+		try {
+			if (!args.validate()) {
+				throw new IllegalArgumentException("Bad context args: " + rawContextArgs);
+			}
 
-		if (input.debug) {
-			System.out.println(String.format("Logging in to %s with username '%s'", input.jiraURL, input.jiraUsername));
-		}
+			if (input.debug) {
+				Log.info(String.format("Logging in to %s with username '%s'", input.jiraURL, input.jiraUsername));
+			}
 
-		JiraRestClientFactory factory = new AsynchronousJiraRestClientFactory();
+			JiraRestClientFactory factory = new AsynchronousJiraRestClientFactory();
 
-		URI uri;
+			URI uri;
 
-		try {
-			uri = new URI(input.jiraURL);
+			try {
+				uri = new URI(input.jiraURL);
+			} catch (URISyntaxException e) {
+				if (input.debug) {
+					Log.info("Caught URISyntaxException. Check jiraURL and try again.");
+					Log.info(e.getMessage());
+				}
+
+				throw new IllegalArgumentException("Invalid URL. Check jiraURL and try again", e);
+			}
 
 			// Construct the JRJC client
 			JiraRestClient client = factory.createWithBasicHttpAuthentication(uri, input.jiraUsername, input.jiraToken);
 
-			// fetch events with jira issue URLs
-			JiraEventList jiraEvents = fetchJiraEvents(args, input);
-
-			// sync with Jira
-			jiraEvents.sync(client);
+			// Functions may share a warm JVM, so the client threads are released explicitly rather
+			// than by exiting the process.
+			//
+			try {
+				// fetch events with jira issue URLs and sync them with Jira
+				syncJiraEvents(args, input, client);
+			} catch (Exception e) {
+				if (input.debug) {
+					Log.info("Caught Exception from Jira Client.");
+					Log.info(e.getMessage());
+				}
 
-		} catch (URISyntaxException e) {
-			if (input.debug) {
-				System.out.println("Caught URISyntaxException. Check jiraURL and try again.");
-				System.out.println(e.getMessage());
+				throw new IllegalStateException("Failed syncing with Jira", e);
+			} finally {
+				closeClient(client, input);
 			}
-			System.exit(1);
-		} catch (Exception e) {
+		} finally {
+			args.close();
+		}
+	}
+
+	private static void closeClient(JiraRestClient client, JiraIntegrationInput input) {
+		try {
+			client.close();
+		} catch (IOException e) {
 			if (input.debug) {
-				System.out.println("Caught Exception from Jira Client.");
-				System.out.println(e.getMessage());
+				Log.info("Failed closing Jira client.");
+				Log.info(e.getMessage());
 			}
-			System.exit(1);
 		}
-
-		System.exit(0);
 	}
 
-	// fetch overops events that have a jira url from the last int days
-	private static JiraEventList fetchJiraEvents(ContextArgs args, JiraIntegrationInput input) {
-		ApiClient apiClient = args.apiClient();
-
-		Instant to = Instant.now();
+	// fetch overops events that have a jira url from the last int days, and sync them with Jira
+	private static void syncJiraEvents(ContextArgs args, JiraIntegrationInput input, JiraRestClient client) {
+		// Joda's clock, which replayed api fixtures fix to the time they were recorded
+		Instant to = Instant.ofEpochMilli(DateTimeUtils.currentTimeMillis());
 		Instant from = to.minus(input.days, ChronoUnit.DAYS);
 
 		if (input.debug) {
-			System.out.println("to: " + to);
-			System.out.println("from: " + from);
-			System.out.println("view id: " + args.viewId);
+			Log.info("to: " + to);
+			Log.info("from: " + from);
+			Log.info("view id: " + args.viewId);
 		}
 
 		// get new events within the date range
 		EventsRequest eventsRequest = EventsRequest.newBuilder().setServiceId(args.serviceId).setViewId(args.viewId)
 				.setFrom(from.toString()).setTo(to.toString()).build();
 
-		// GET events
-		Response<EventsResult> eventsResponse = apiClient.get(eventsRequest);
+		// stream events, decoding only the fields the sync needs, and sync them in chunks. Jira is
+		// only queried once the stream of a chunk is closed.
+		JiraEventCollector collector = new JiraEventCollector(args, input, client);
+		int eventCount = args.eventsStream().forEachChunk(eventsRequest, JIRA_EVENT_FIELDS, collector);
 
-		// validate API response
-		if (eventsResponse.isBadResponse()) {
-			if (input.debug) {
-				System.out.println("Failed getting events");
-			}
-			throw new IllegalStateException("Failed getting events.");
+		// check for events
+		if ((eventCount == 0) && (input.debug)) {
+			Log.info("Found no events from the last " + input.days + " days.");
 		}
+	}
 
-		// get data
-		EventsResult eventsResult = eventsResponse.data;
+	// get Jira issue ID from Jira issue URL
+	private static String getJiraIssueId(String jiraURL) {
+		int index = jiraURL.lastIndexOf("/") + 1;
+		return jiraURL.substring(index);
+	}
 
-		// return JiraEventList
-		JiraEventList eventList = new JiraEventList(input, args);
+	// Collects the events to sync and syncs them a chunk at a time, all within this execution. A
+	// chunk ends once the list holds as many issues as a JQL query returns, or once the memory
+	// budget runs low (with at least MIN_SYNC_ISSUES issues collected), and is synced once its
+	// stream is closed. The next chunk starts with the event that ended it.
+	//
+	private static class JiraEventCollector implements EventsStream.ChunkVisitor {
+		private final ContextArgs args;
+		private final JiraIntegrationInput input;
+		private final JiraRestClient client;
+
+		private JiraEventList eventList;
+		private long eventListBytes;
+
+		JiraEventCollector(ContextArgs args, JiraIntegrationInput input, JiraRestClient client) {
+			this.args = args;
+			this.input = input;
+			this.client = client;
+			this.eventList = new JiraEventList(input, args);
+		}
 
-		// check for events
-		if (CollectionUtil.safeIsEmpty(eventsResult.events)) {
-			if (input.debug) {
-				System.out.println("Found no events from the last " + input.days + " days.");
+		@Override
+		public boolean visit(EventResult event) {
+			if (event.jira_issue_url == null) {
+				return true;
 			}
-			return eventList;
-		}
 
-		// get list of events
-		List<EventResult> events = eventsResult.events;
+			int issueCount = eventList.getEventList().size();
 
-		// for each event with a Jira issue URL
-		for (EventResult event : events) {
-			if (event.jira_issue_url != null) {
-				String issueId = getJiraIssueId(event.jira_issue_url);
-				eventList.addEvent(issueId, event);
+			if ((issueCount >= MIN_SYNC_ISSUES) && (args.memory().isNearLimit())) {
+				Log.info("Memory budget running low, syncing a chunk of " + issueCount + " issues - "
+						+ args.memory());
+				return false;
 			}
+
+			String issueId = getJiraIssueId(event.jira_issue_url);
+
+			// the list is full (one JQL query's worth), the event goes to the next chunk
+			if (!eventList.addEvent(issueId, event)) {
+				return false;
+			}
+
+			long bytes = MemoryEstimate.of(event);
+
+			args.memory().reserve(bytes);
+			eventListBytes += bytes;
+
+			return true;
 		}
 
-		return eventList;
-	}
+		@Override
+		public boolean endChunk() {
+			try {
+				eventList.sync(client);
+			} finally {
+				args.memory().release(eventListBytes);
+				eventListBytes = 0;
+				eventList = new JiraEventList(input, args);
+			}
 
-	// get Jira issue ID from Jira issue URL
-	private static String getJiraIssueId(String jiraURL) {
-		int index = jiraURL.lastIndexOf("/") + 1;
-		return jiraURL.substring(index);
+			return true;
+		}
 	}
 
 	static class JiraIntegrationInput extends Input {
@@ -5,7 +5,6 @@ import java.net.HttpURLConnection;
 import org.apache.commons.lang3.StringUtils;
 
 import com.google.common.base.Strings;
-import com.google.gson.Gson;
 import com.takipi.api.client.ApiClient;
 import com.takipi.api.client.request.event.EventModifyLabelsRequest;
 import com.takipi.api.client.request.label.CreateLabelRequest;
@@ -13,6 +12,7 @@ import com.takipi.api.client.result.EmptyResult;
 import com.takipi.api.core.url.UrlClient.Response;
 import com.takipi.udf.ContextArgs;
 import com.takipi.udf.input.Input;
+import com.takipi.udf.log.Log;
 
 public class ApplyLabelFunction {
 	public static String validateInput(String rawInput) {
@@ -20,7 +20,7 @@ public class ApplyLabelFunction {
 	}
 
 	private static LabelInput getLabelInput(String rawInput) {
-		System.out.println("validateInput rawInput:" + rawInput);
+		Log.debug("validateInput rawInput:" + rawInput);
 
 		if (Strings.isNullOrEmpty(rawInput)) {
 			throw new IllegalArgumentException("Input is empty");
@@ -44,36 +44,40 @@ public class ApplyLabelFunction {
 	public static void execute(String rawContextArgs, String rawInput) {
 		LabelInput input = getLabelInput(rawInput);
 
-		ContextArgs args = (new Gson()).fromJson(rawContextArgs, ContextArgs.class);
+		ContextArgs args = ContextArgs.parse(rawContextArgs);
 
-		System.out.println("execute context: " + rawContextArgs);
+		try {
+			Log.debug("execute context: " + rawContextArgs);
 
-		if (!args.validate()) {
-			throw new IllegalArgumentException("Bad context args - " + rawContextArgs);
-		}
+			if (!args.validate()) {
+				throw new IllegalArgumentException("Bad context args - " + rawContextArgs);
+			}
 
-		if (!args.eventValidate()) {
-			return;
-		}
+			if (!args.eventValidate()) {
+				return;
+			}
 
-		ApiClient apiClient = args.apiClient();
+			ApiClient apiClient = args.apiClient();
 
-		CreateLabelRequest createLabel = CreateLabelRequest.newBuilder().setServiceId(args.serviceId).setName(input.label)
-				.build();
+			CreateLabelRequest createLabel = CreateLabelRequest.newBuilder().setServiceId(args.serviceId)
+					.setName(input.label).build();
 
-		Response<EmptyResult> createResult = apiClient.post(createLabel);
+			Response<EmptyResult> createResult = apiClient.post(createLabel);
 
-		if ((createResult.isBadResponse()) && (createResult.responseCode != HttpURLConnection.HTTP_CONFLICT)) {
-			throw new IllegalStateException("Can't create label " + input);
-		}
+			if ((createResult.isBadResponse()) && (createResult.responseCode != HttpURLConnection.HTTP_CONFLICT)) {
+				throw new IllegalStateException("Can't create label " + input);
+			}
 
-		EventModifyLabelsRequest addLabel = EventModifyLabelsRequest.newBuilder().setServiceId(args.serviceId)
-				.setEventId(args.eventId).addLabel(input.label).build();
+			EventModifyLabelsRequest addLabel = EventModifyLabelsRequest.newBuilder().setServiceId(args.serviceId)
+					.setEventId(args.eventId).addLabel(input.label).build();
 
-		Response<EmptyResult> addResult = apiClient.post(addLabel);
+			Response<EmptyResult> addResult = apiClient.post(addLabel);
 
-		if (addResult.isBadResponse()) {
-			throw new IllegalStateException("Can't apply label " + input + " to event " + args.eventId);
+			if (addResult.isBadResponse()) {
+				throw new IllegalStateException("Can't apply label " + input + " to event " + args.eventId);
+			}
+		} finally {
+			args.close();
 		}
 	}
 
@@ -11,10 +11,13 @@ import com.google.gson.Gson;
 import com.takipi.api.client.ApiClient;
 import com.takipi.api.client.data.view.SummarizedView;
 import com.takipi.api.client.request.event.EventsVolumeRequest;
+import com.takipi.api.client.result.event.EventResult;
 import com.takipi.api.client.result.event.EventsResult;
 import com.takipi.api.client.util.validation.ValidationUtil;
 import com.takipi.api.core.url.UrlClient;
 import com.takipi.udf.ContextArgs;
+import com.takipi.udf.input.InputCache;
+import com.takipi.udf.log.Log;
 import com.takipi.udf.microsoftteams.MicrosoftTeamsUtil.TimeSlot;
 import com.takipi.udf.util.TestUtil;
 
@@ -36,49 +39,55 @@ public class MicrosoftTeamsAnomalyFunction {
 		MicrosoftTeamsUtil.logUDFInput(rawContextArgs, rawInput);
 		MicrosoftTeamsAnomalyInput input = getInput(rawInput);
 
-		ContextArgs args = (new Gson()).fromJson(rawContextArgs, ContextArgs.class);
+		ContextArgs args = ContextArgs.parse(rawContextArgs);
 
-		if (!args.validate()) {
-			throw new IllegalArgumentException("Bad context args: " + rawContextArgs);
-		}
+		try {
+			if (!args.validate()) {
+				throw new IllegalArgumentException("Bad context args: " + rawContextArgs);
+			}
 
-		ApiClient apiClient = args.apiClient();
-		TimeSlot timeSlot = MicrosoftTeamsUtil.getTimeSlot(input.timespan);
+			ApiClient apiClient = args.apiClient();
+			TimeSlot timeSlot = MicrosoftTeamsUtil.getTimeSlot(input.timespan);
 
-		DateTimeFormatter fmt = ISODateTimeFormat.dateTime().withZoneUTC();
+			DateTimeFormatter fmt = ISODateTimeFormat.dateTime().withZoneUTC();
 
-		SummarizedView view = MicrosoftTeamsUtil.getSummarizedView(rawContextArgs, args, apiClient);
-		System.out.println("Got viewId");
+			SummarizedView view = MicrosoftTeamsUtil.getSummarizedView(rawContextArgs, args, apiClient);
+			Log.debug("Got viewId");
 
-		EventsVolumeRequest eventsVolumeRequest = EventsVolumeRequest.newBuilder().setServiceId(args.serviceId)
-				.setViewId(view.id).setFrom(timeSlot.from.toString(fmt)).setTo(timeSlot.to.toString(fmt))
-				.setVolumeType(ValidationUtil.VolumeType.all).build();
+			EventsVolumeRequest eventsVolumeRequest = EventsVolumeRequest.newBuilder().setServiceId(args.serviceId)
+					.setViewId(view.id).setFrom(timeSlot.from.toString(fmt)).setTo(timeSlot.to.toString(fmt))
+					.setVolumeType(ValidationUtil.VolumeType.all).build();
 
-		UrlClient.Response<EventsResult> volumeResponse = apiClient.get(eventsVolumeRequest);
+			UrlClient.Response<EventsResult> volumeResponse = apiClient.get(eventsVolumeRequest);
 
-		System.out.println("Got events volume data ");
-		String viewErrorsLink = getViewLink(args, view.name);
-		System.out.println("Got View link");
+			Log.debug("Got events volume data ");
+			String viewErrorsLink = getViewLink(args, view.name);
+			Log.debug("Got View link");
 
-		long hitSum = getHitSum(volumeResponse);
+			long hitSum = getHitSum(volumeResponse);
 
-		if ((input.threshold != 0) && (input.threshold > hitSum)) {
-			return;
-		}
+			if ((input.threshold != 0) && (input.threshold > hitSum)) {
+				return;
+			}
 
-		MicrosoftTeamsAnomalyRequest microsoftTeamsAnomalyRequest = MicrosoftTeamsAnomalyRequest.newBuilder()
-				.setUrl(input.url).setEnvironmentsName(MicrosoftTeamsUtil.getEnvironmentName(apiClient, args.serviceId))
-				.setManageSettingsLink(getManageSettingsLink(args)).setViewErrorsLink(viewErrorsLink)
-				.setThresholdCount(String.valueOf(input.threshold))
-				.setEventsVolume(volumeResponse.data.events, apiClient, args, timeSlot).setTimeSlot(timeSlot.toString())
-				.setTotalEventsOccurred(String.valueOf(hitSum)).setViewName(view.name).build();
+			MicrosoftTeamsAnomalyRequest microsoftTeamsAnomalyRequest = MicrosoftTeamsAnomalyRequest.newBuilder()
+					.setUrl(input.url)
+					.setEnvironmentsName(MicrosoftTeamsUtil.getEnvironmentName(apiClient, args.serviceId))
+					.setManageSettingsLink(getManageSettingsLink(args)).setViewErrorsLink(viewErrorsLink)
+					.setThresholdCount(String.valueOf(input.threshold))
+					.setEventsVolume(volumeResponse.data.events, apiClient, args, timeSlot)
+					.setTimeSlot(timeSlot.toString())
+					.setTotalEventsOccurred(String.valueOf(hitSum)).setViewName(view.name).build();
 
-		UrlClient.Response<String> post = SimpleUrlClient.newBuilder().build().post(microsoftTeamsAnomalyRequest);
+			UrlClient.Response<String> post = SimpleUrlClient.newBuilder().build().post(microsoftTeamsAnomalyRequest);
 
-		System.out.println("Post Microsoft Teams Webhook Anomaly request");
+			Log.info("Post Microsoft Teams Webhook Anomaly request");
 
-		if (post.isBadResponse()) {
-			throw new IllegalStateException("Can't send anomaly card to " + input.url);
+			if (post.isBadResponse()) {
+				throw new IllegalStateException("Can't send anomaly card to " + input.url);
+			}
+		} finally {
+			args.close();
 		}
 	}
 
@@ -95,7 +104,7 @@ public class MicrosoftTeamsAnomalyFunction {
 		try {
 			stringBuilder.append("&view=").append(URLEncoder.encode(viewName, StandardCharsets.UTF_8.toString()));
 		} catch (Exception e) {
-			System.out.println("Couldn't encode " + viewName);
+			Log.info("Couldn't encode " + viewName);
 		}
 
 		return stringBuilder.toString();
@@ -105,14 +114,22 @@ public class MicrosoftTeamsAnomalyFunction {
 		long hitSum = 0;
 
 		if ((volumeResponse.data) != null && (volumeResponse.data.events != null)) {
-			hitSum = volumeResponse.data.events.stream().map(v -> v.stats.hits).reduce(0L, (sum, c) -> sum + c);
+			for (EventResult event : volumeResponse.data.events) {
+				if (event.stats != null) {
+					hitSum += event.stats.hits;
+				}
+			}
 		}
 
 		return hitSum;
 	}
 
 	private static MicrosoftTeamsAnomalyInput getInput(String rawInput) {
-		System.out.println("rawInput:" + rawInput);
+		return InputCache.get(MicrosoftTeamsAnomalyInput.class, rawInput, MicrosoftTeamsAnomalyFunction::parseInput);
+	}
+
+	private static MicrosoftTeamsAnomalyInput parseInput(String rawInput) {
+		Log.debug("rawInput:" + rawInput);
 
 		if (Strings.isNullOrEmpty(rawInput))
 			throw new IllegalArgumentException("Input is empty");
@@ -6,7 +6,6 @@ import java.util.List;
 
 import org.apache.commons.lang3.StringUtils;
 
-import com.google.gson.Gson;
 import com.takipi.api.client.ApiClient;
 import com.takipi.api.client.result.EmptyResult;
 import com.takipi.api.client.result.event.EventResult;
@@ -14,11 +13,14 @@ import com.takipi.api.client.util.event.EventUtil;
 import com.takipi.api.core.consts.ApiConstants;
 import com.takipi.api.core.request.intf.ApiPostRequest;
 import com.takipi.udf.ContextArgs;
+import com.takipi.udf.concurrent.FanOut;
+import com.takipi.udf.log.Log;
 import com.takipi.udf.microsoftteams.card.MicrosoftActivitySection;
 import com.takipi.udf.microsoftteams.card.MicrosoftCard;
 import com.takipi.udf.microsoftteams.card.MicrosoftFact;
 import com.takipi.udf.microsoftteams.card.MicrosoftTextBuilder;
 import com.takipi.udf.microsoftteams.card.MicrosoftTextSection;
+import com.takipi.udf.util.GsonUtil;
 
 public class MicrosoftTeamsAnomalyRequest implements ApiPostRequest<EmptyResult> {
 
@@ -70,7 +72,7 @@ public class MicrosoftTeamsAnomalyRequest implements ApiPostRequest<EmptyResult>
 		MicrosoftCard microsoftCard = MicrosoftCard.newBuilder().setThemeColor("c80000").setText(getTopText())
 				.addSections(getSummarySection()).addSections(eventSections).build();
 
-		return new Gson().toJson(microsoftCard);
+		return GsonUtil.gson().toJson(microsoftCard);
 	}
 
 	private MicrosoftActivitySection getSummarySection() {
@@ -167,20 +169,28 @@ public class MicrosoftTeamsAnomalyRequest implements ApiPostRequest<EmptyResult>
 				MicrosoftTeamsUtil.TimeSlot timeSlot) {
 			eventSections = new ArrayList<>();
 
-			events.forEach(evt -> {
-				String link = "";
+			// Each link is a separate round trip, so they are looked up together.
+			//
+			List<String> links = FanOut.map(args.apiHost, events, evt -> {
 				try {
-					link = EventUtil.getEventRecentLink(apiClient, args.serviceId, evt.id, timeSlot.from, timeSlot.to,
+					return EventUtil.getEventRecentLink(apiClient, args.serviceId, evt.id, timeSlot.from, timeSlot.to,
 							null, null, null);
 				} catch (Exception exception) {
-					System.out.println(exception.getMessage());
+					Log.warn(exception.getMessage());
+					return "";
 				}
+			});
+
+			for (int i = 0; i < events.size(); i++) {
+				EventResult evt = events.get(i);
+				String link = links.get(i);
+
 				MicrosoftTextSection microsoftTextSection = new MicrosoftTextSection(new MicrosoftTextBuilder()
 						.addBoldLink(link, evt.name).add(" at ").add(evt.error_location.prettified_name).add("| ")
 						.addBold(String.valueOf(evt.stats.hits)).addBold(evt.stats.hits > 1 ? " times" : " time")
 						.build());
 				eventSections.add(microsoftTextSection);
-			});
+			}
 
 			return this;
 		}
@@ -19,6 +19,7 @@ import com.takipi.api.client.util.view.ViewUtil;
 import com.takipi.api.core.url.UrlClient;
 import com.takipi.common.util.CollectionUtil;
 import com.takipi.udf.ContextArgs;
+import com.takipi.udf.log.Log;
 import com.takipi.udf.util.TestUtil;
 
 public class MicrosoftTeamsChannelFunction {
@@ -57,41 +58,47 @@ public class MicrosoftTeamsChannelFunction {
 	private static void executeImplementation(String rawContextArgs, String rawInput) {
 		MicrosoftTeamsUtil.logUDFInput(rawContextArgs, rawInput);
 		MicrosoftTeamsInput input = getInput(rawInput);
-		ContextArgs args = (new Gson()).fromJson(rawContextArgs, ContextArgs.class);
+		ContextArgs args = ContextArgs.parse(rawContextArgs);
 
-		if (!args.validate()) {
-			throw new IllegalArgumentException("Bad context args: " + rawContextArgs);
-		}
-		if (!args.eventValidate()) {
-			return;
-		}
+		try {
+			if (!args.validate()) {
+				throw new IllegalArgumentException("Bad context args: " + rawContextArgs);
+			}
+			if (!args.eventValidate()) {
+				return;
+			}
 
-		ApiClient apiClient = args.apiClient();
-		UrlClient.Response<EventResult> eventResultResponse = getEventResultResponse(args, apiClient);
+			ApiClient apiClient = args.apiClient();
+			UrlClient.Response<EventResult> eventResultResponse = getEventResultResponse(args, apiClient);
 
-		System.out.println("Got exceptionClassName, exception type, exceptionLocationPath, stack_frames, deployment");
+			Log.debug(
+					"Got exceptionClassName, exception type, exceptionLocationPath, stack_frames, deployment");
 
-		MicrosoftTeamsUtil.TimeSlot timeSlot = MicrosoftTeamsUtil.getTimeSlot(MINUTES_TIME_SPAN);
+			MicrosoftTeamsUtil.TimeSlot timeSlot = MicrosoftTeamsUtil.getTimeSlot(MINUTES_TIME_SPAN);
 
-		String exceptionLinkToOverOps = EventUtil.getEventRecentLink(apiClient, args.serviceId, args.eventId,
-				timeSlot.from, timeSlot.to, null, null, null);
+			String exceptionLinkToOverOps = EventUtil.getEventRecentLink(apiClient, args.serviceId, args.eventId,
+					timeSlot.from, timeSlot.to, null, null, null);
 
-		System.out.println("Got ARC link");
+			Log.debug("Got ARC link");
 
-		EventResult eventResult = eventResultResponse.data;
+			EventResult eventResult = eventResultResponse.data;
 
-		MicrosoftTeamsChannelRequest microsoftTeamsChannelRequest = MicrosoftTeamsChannelRequest.newBuilder()
-				.setUrl(input.url).setEventResult(eventResult).setExceptionLink(exceptionLinkToOverOps)
-				.setServer(eventResult.introduced_by_server).setApplication(eventResult.introduced_by_application)
-				.setEnvironmentName(MicrosoftTeamsUtil.getEnvironmentName(apiClient, args.serviceId))
-				.setDeployment(eventResult.introduced_by).setDoNotAlertLink(getDoNotAlertLink(args, eventResult.type))
-				.build();
+			MicrosoftTeamsChannelRequest microsoftTeamsChannelRequest = MicrosoftTeamsChannelRequest.newBuilder()
+					.setUrl(input.url).setEventResult(eventResult).setExceptionLink(exceptionLinkToOverOps)
+					.setServer(eventResult.introduced_by_server).setApplication(eventResult.introduced_by_application)
+					.setEnvironmentName(MicrosoftTeamsUtil.getEnvironmentName(apiClient, args.serviceId))
+					.setDeployment(eventResult.introduced_by)
+					.setDoNotAlertLink(getDoNotAlertLink(args, eventResult.type))
+					.build();
 
-		UrlClient.Response<String> post = SimpleUrlClient.newBuilder().build().post(microsoftTeamsChannelRequest);
-		System.out.println("Post Microsoft Teams Webhook Channel request");
+			UrlClient.Response<String> post = SimpleUrlClient.newBuilder().build().post(microsoftTeamsChannelRequest);
+			Log.info("Post Microsoft Teams Webhook Channel request");
 
-		if (post.isBadResponse()) {
-			throw new IllegalStateException("Can't send card to " + input.url);
+			if (post.isBadResponse()) {
+				throw new IllegalStateException("Can't send card to " + input.url);
+			}
+		} finally {
+			args.close();
 		}
 	}
 
@@ -140,7 +147,7 @@ public class MicrosoftTeamsChannelFunction {
 		EventsResult eventsResult = eventsResponse.data;
 		// exit if there are no events - increase date range if this occurs
 		if (CollectionUtil.safeIsEmpty(eventsResult.events)) {
-			System.out.println("NO EVENTS");
+			Log.info("NO EVENTS");
 			return;
 		}
 		// retrieve a list of events from the result
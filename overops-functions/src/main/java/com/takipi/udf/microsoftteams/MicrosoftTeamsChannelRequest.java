@@ -6,7 +6,6 @@ import java.util.List;
 
 import org.apache.commons.lang3.StringUtils;
 
-import com.google.gson.Gson;
 import com.takipi.api.client.data.event.Location;
 import com.takipi.api.client.result.EmptyResult;
 import com.takipi.api.client.result.event.EventResult;
@@ -19,6 +18,7 @@ import com.takipi.udf.microsoftteams.card.MicrosoftPotentialAction;
 import com.takipi.udf.microsoftteams.card.MicrosoftTarget;
 import com.takipi.udf.microsoftteams.card.MicrosoftTextBuilder;
 import com.takipi.udf.microsoftteams.card.MicrosoftTextSection;
+import com.takipi.udf.util.GsonUtil;
 
 public class MicrosoftTeamsChannelRequest implements ApiPostRequest<EmptyResult> {
 
@@ -87,7 +87,7 @@ public class MicrosoftTeamsChannelRequest implements ApiPostRequest<EmptyResult>
 								.addTargets(new MicrosoftTarget(doNotAlertLink)).build())
 				.build();
 
-		return new Gson().toJson(microsoftCard);
+		return GsonUtil.gson().toJson(microsoftCard);
 	}
 
 	@Override
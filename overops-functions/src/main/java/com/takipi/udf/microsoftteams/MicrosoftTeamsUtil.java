@@ -12,6 +12,7 @@ import com.takipi.api.client.data.view.SummarizedView;
 import com.takipi.api.client.util.client.ClientUtil;
 import com.takipi.api.client.util.view.ViewUtil;
 import com.takipi.udf.ContextArgs;
+import com.takipi.udf.log.Log;
 
 public class MicrosoftTeamsUtil {
 
@@ -31,10 +32,10 @@ public class MicrosoftTeamsUtil {
 	}
 
 	public static void logUDFInput(String rawContextArgs, String rawInput) {
-		System.out.println("rawContextArgs");
-		System.out.println(rawContextArgs);
-		System.out.println("rawInput");
-		System.out.println(rawInput);
+		Log.debug("rawContextArgs");
+		Log.debug(rawContextArgs);
+		Log.debug("rawInput");
+		Log.debug(rawInput);
 	}
 
 	public static String getEnvironmentName(ApiClient apiClient, String serviceId) {
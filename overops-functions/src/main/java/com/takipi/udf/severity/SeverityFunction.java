@@ -11,7 +11,6 @@ import org.joda.time.format.ISODateTimeFormat;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.gson.Gson;
 import com.takipi.api.client.ApiClient;
 import com.takipi.api.client.data.category.Category;
 import com.takipi.api.client.data.event.Action;
@@ -33,6 +32,8 @@ import com.takipi.api.core.url.UrlClient.Response;
 import com.takipi.common.util.Pair;
 import com.takipi.udf.ContextArgs;
 import com.takipi.udf.input.Input;
+import com.takipi.udf.input.InputCache;
+import com.takipi.udf.log.Log;
 
 public class SeverityFunction {
 	public static String validateInput(String rawInput) {
@@ -40,7 +41,11 @@ public class SeverityFunction {
 	}
 
 	static SeverityInput parseSeverityInput(String rawInput) {
-		System.out.println("validateInput rawInput:" + rawInput);
+		return InputCache.get(SeverityInput.class, rawInput, SeverityFunction::validateSeverityInput);
+	}
+
+	private static SeverityInput validateSeverityInput(String rawInput) {
+		Log.debug("validateInput rawInput:" + rawInput);
 
 		if (Strings.isNullOrEmpty(rawInput)) {
 			throw new IllegalArgumentException("Input is empty");
@@ -82,58 +87,63 @@ public class SeverityFunction {
 	}
 
 	public static void execute(String rawContextArgs, String rawInput) {
-		System.out.println("execute:" + rawContextArgs);
+		Log.debug("execute:" + rawContextArgs);
 
-		ContextArgs args = (new Gson()).fromJson(rawContextArgs, ContextArgs.class);
+		ContextArgs args = ContextArgs.parse(rawContextArgs);
 
-		if (!args.viewValidate()) {
-			throw new IllegalArgumentException("Invalid context args - " + rawContextArgs);
-		}
+		try {
+			if (!args.viewValidate()) {
+				throw new IllegalArgumentException("Invalid context args - " + rawContextArgs);
+			}
 
-		SeverityInput input = parseSeverityInput(rawInput);
+			SeverityInput input = parseSeverityInput(rawInput);
 
-		setupSeverityViews(args, input);
+			setupSeverityViews(args, input);
 
-		System.out.println("Calculating regressions\n");
+			Log.debug("Calculating regressions\n");
 
-		RegressionInput regressionInput = new RegressionInput();
+			RegressionInput regressionInput = new RegressionInput();
 
-		regressionInput.serviceId = args.serviceId;
-		regressionInput.viewId = args.viewId;
-		regressionInput.activeTimespan = input.activeTimespan;
-		regressionInput.baselineTimespan = input.baseTimespan;
-		regressionInput.minVolumeThreshold = input.minVolumeThreshold;
-		regressionInput.minErrorRateThreshold = input.minErrorRateThreshold;
-		regressionInput.regressionDelta = input.regressionDelta;
-		regressionInput.criticalRegressionDelta = input.criticalRegressionDelta;
-		regressionInput.applySeasonality = input.applySeasonality;
-		regressionInput.criticalExceptionTypes = input.criticalExceptionTypes;
+			regressionInput.serviceId = args.serviceId;
+			regressionInput.viewId = args.viewId;
+			regressionInput.activeTimespan = input.activeTimespan;
+			regressionInput.baselineTimespan = input.baseTimespan;
+			regressionInput.minVolumeThreshold = input.minVolumeThreshold;
+			regressionInput.minErrorRateThreshold = input.minErrorRateThreshold;
+			regressionInput.regressionDelta = input.regressionDelta;
+			regressionInput.criticalRegressionDelta = input.criticalRegressionDelta;
+			regressionInput.applySeasonality = input.applySeasonality;
+			regressionInput.criticalExceptionTypes = input.criticalExceptionTypes;
 
-		RateRegression rateRegression = RegressionUtil.calculateRateRegressions(args.apiClient(), regressionInput,
-				System.out, false);
+			RateRegression rateRegression = RegressionUtil.calculateRateRegressions(args.apiClient(), regressionInput,
+					Log.debugStream(), false);
 
-		Map<String, EventResult> allNewAndCritical = Maps.newHashMap();
+			Map<String, EventResult> allNewAndCritical = Maps.newHashMap();
 
-		if (input.newEventsView != null) {
+			if (input.newEventsView != null) {
 
-			allNewAndCritical.putAll(rateRegression.getExceededNewEvents());
-			allNewAndCritical.putAll(rateRegression.getCriticalNewEvents());
+				allNewAndCritical.putAll(rateRegression.getExceededNewEvents());
+				allNewAndCritical.putAll(rateRegression.getCriticalNewEvents());
 
-			applySeverityLabels(args, input.newEventslabel, input.newEventsView, input.labelRetention,
-					Lists.newArrayList(allNewAndCritical.values()));
-		}
+				applySeverityLabels(args, input.newEventslabel, input.newEventsView, input.labelRetention,
+						Lists.newArrayList(allNewAndCritical.values()));
+			}
 
-		if (input.regressedEventsView != null) {
+			if (input.regressedEventsView != null) {
 
-			Collection<RegressionResult> activeRegressions = rateRegression.getAllRegressions().values();
-			Collection<EventResult> activeRegressionEvents = Lists.newArrayListWithCapacity(activeRegressions.size());
+				Collection<RegressionResult> activeRegressions = rateRegression.getAllRegressions().values();
+				Collection<EventResult> activeRegressionEvents = Lists
+						.newArrayListWithCapacity(activeRegressions.size());
 
-			for (RegressionResult activeRegression : activeRegressions) {
-				activeRegressionEvents.add(activeRegression.getEvent());
-			}
+				for (RegressionResult activeRegression : activeRegressions) {
+					activeRegressionEvents.add(activeRegression.getEvent());
+				}
 
-			applySeverityLabels(args, input.regressedEventsLabel, input.regressedEventsView, input.labelRetention,
-					activeRegressionEvents);
+				applySeverityLabels(args, input.regressedEventsLabel, input.regressedEventsView, input.labelRetention,
+						activeRegressionEvents);
+			}
+		} finally {
+			args.close();
 		}
 	}
 
@@ -164,7 +174,7 @@ public class SeverityFunction {
 
 		if (category == null) {
 			result = CategoryUtil.createCategory(input.category, args.serviceId, args.apiClient());
-			System.out.println("Created category " + result + " for " + input.category);
+			Log.info("Created category " + result + " for " + input.category);
 		} else {
 			result = category.id;
 		}
@@ -190,9 +200,9 @@ public class SeverityFunction {
 				newlyLabeledEvents.put(event.id, event);
 
 				builder.addLabelModifications(event.id, Collections.singleton(label), Collections.emptyList());
-				System.out.println("Applying label " + label + " to " + event.id);
+				Log.debug(() -> "Applying label " + label + " to " + event.id);
 			} else {
-				System.out.println("Event " + event.id + " already has label " + label);
+				Log.debug(() -> "Event " + event.id + " already has label " + label);
 			}
 		}
 
@@ -202,7 +212,7 @@ public class SeverityFunction {
 		SummarizedView view = ViewUtil.getServiceViewByName(apiClient, args.serviceId, viewName);
 
 		if (view == null) {
-			System.out.println("Could not get view " + viewName);
+			Log.warn("Could not get view " + viewName);
 			return;
 		}
 
@@ -219,6 +229,13 @@ public class SeverityFunction {
 					continue;
 				}
 
+				// label cleanup costs an api call per event and can be finished by the next run
+				if (args.deadline().isRunningLow()) {
+					Log.info("Execution budget running low, deferring cleanup of " + label + " - "
+							+ args.deadline());
+					break;
+				}
+
 				// if this is a new severe issue, no need to cleanup its label
 				if (newlyLabeledEvents.containsKey(event.id)) {
 					continue;
@@ -235,11 +252,13 @@ public class SeverityFunction {
 
 				Response<EventActionsResult> eventsActionsResponse = apiClient.get(eventActionsRequest);
 
+				// without its actions we can't tell when the label was added, so it stays until a later run
 				if (eventsActionsResponse.isBadResponse()) {
-					System.err.println("Can't create events actions for event " + event.id);
+					Log.warn("Can't create events actions for event " + event.id);
+					continue;
 				}
 
-				if (eventsActionsResponse.data.event_actions == null) {
+				if ((eventsActionsResponse.data == null) || (eventsActionsResponse.data.event_actions == null)) {
 					continue;
 				}
 
@@ -260,14 +279,14 @@ public class SeverityFunction {
 					// lets see if the label was added after the retention window, is so - keep
 					if (labelAddTime.isAfter(retentionWindow)) {
 						keepLabel = true;
-						System.out.println("Keeping label " + label + " on " + event.id);
+						Log.debug(() -> "Keeping label " + label + " on " + event.id);
 						break;
 					}
 				}
 
 				if (!keepLabel) {
 					modified = true;
-					System.out.println("Removing label " + label + " from " + event.id);
+					Log.debug(() -> "Removing label " + label + " from " + event.id);
 					builder.addLabelModifications(event.id, Collections.emptyList(), Collections.singleton(label));
 				}
 			}
@@ -280,7 +299,7 @@ public class SeverityFunction {
 		Response<EmptyResult> response = apiClient.post(builder.build());
 
 		if (!response.isOK()) {
-			System.out.println("Error adding /  removing labels " + response.responseCode);
+			Log.warn("Error adding /  removing labels " + response.responseCode);
 		}
 
 	}
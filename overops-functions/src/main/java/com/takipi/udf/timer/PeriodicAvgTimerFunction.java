@@ -15,7 +15,6 @@ import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import com.google.gson.Gson;
 import com.takipi.api.client.ApiClient;
 import com.takipi.api.client.data.timer.Timer;
 import com.takipi.api.client.data.transaction.Stats;
@@ -23,7 +22,6 @@ import com.takipi.api.client.data.transaction.TransactionGraph;
 import com.takipi.api.client.data.view.SummarizedView;
 import com.takipi.api.client.request.event.BatchForceSnapshotsRequest;
 import com.takipi.api.client.request.event.EventsRequest;
-import com.takipi.api.client.request.label.BatchModifyLabelsRequest;
 import com.takipi.api.client.request.redaction.CodeRedactionExcludeRequest;
 import com.takipi.api.client.request.transactiontimer.CreateTransactionTimerRequest;
 import com.takipi.api.client.request.transactiontimer.EditTransactionTimerRequest;
@@ -43,8 +41,16 @@ import com.takipi.api.core.url.UrlClient.Response;
 import com.takipi.common.util.CollectionUtil;
 import com.takipi.common.util.Pair;
 import com.takipi.udf.ContextArgs;
+import com.takipi.udf.api.LabelBatch;
+import com.takipi.udf.concurrent.FanOut;
 import com.takipi.udf.input.Input;
+import com.takipi.udf.input.InputCache;
 import com.takipi.udf.input.TimeInterval;
+import com.takipi.udf.log.Log;
+import com.takipi.udf.memory.MemoryBudget;
+import com.takipi.udf.memory.MemoryEstimate;
+import com.takipi.udf.trace.Phase;
+import com.takipi.udf.trace.PhaseTrace;
 import com.takipi.udf.util.JavaUtil;
 
 public class PeriodicAvgTimerFunction {
@@ -56,7 +62,12 @@ public class PeriodicAvgTimerFunction {
 	}
 
 	static PeriodicAvgTimerInput getPeriodicAvgTimerInput(String rawInput) {
-		System.out.println("validateInput rawInput:" + rawInput);
+		return InputCache.get(PeriodicAvgTimerInput.class, rawInput,
+				PeriodicAvgTimerFunction::parsePeriodicAvgTimerInput);
+	}
+
+	private static PeriodicAvgTimerInput parsePeriodicAvgTimerInput(String rawInput) {
+		Log.debug("validateInput rawInput:" + rawInput);
 
 		if (Strings.isNullOrEmpty(rawInput)) {
 			throw new IllegalArgumentException("Input is empty");
@@ -149,212 +160,259 @@ public class PeriodicAvgTimerFunction {
 	public static void execute(String rawContextArgs, String rawInput) {
 		PeriodicAvgTimerInput input = getPeriodicAvgTimerInput(rawInput);
 
-		ContextArgs args = (new Gson()).fromJson(rawContextArgs, ContextArgs.class);
+		ContextArgs args = ContextArgs.parse(rawContextArgs);
 
-		System.out.println("execute context: " + rawContextArgs);
+		try {
+			Log.debug("execute context: " + rawContextArgs);
 
-		if (!args.validate()) {
-			throw new IllegalArgumentException("Bad context args - " + rawContextArgs);
-		}
+			if (!args.validate()) {
+				throw new IllegalArgumentException("Bad context args - " + rawContextArgs);
+			}
 
-		if (!args.viewValidate()) {
-			return;
-		}
+			if (!args.viewValidate()) {
+				return;
+			}
 
-		ApiClient apiClient = args.apiClient();
+			ApiClient apiClient = args.apiClient();
 
-		SummarizedView timersView = ViewUtil.getServiceViewByName(apiClient, args.serviceId, TIMERS_VIEW_NAME);
+			SummarizedView timersView = ViewUtil.getServiceViewByName(apiClient, args.serviceId, TIMERS_VIEW_NAME);
 
-		if (timersView == null) {
-			throw new IllegalStateException("Failed getting timers view.");
-		}
+			if (timersView == null) {
+				throw new IllegalStateException("Failed getting timers view.");
+			}
 
-		DateTime to = DateTime.now();
-		DateTime activeFrom = to.minusMinutes(input.active_timespan.asMinutes());
+			DateTime to = DateTime.now();
+			DateTime activeFrom = to.minusMinutes(input.active_timespan.asMinutes());
+			DateTime baselineFrom = to.minusMinutes(input.baseline_timespan.asMinutes());
 
-		Map<String, TransactionGraph> activeTransactions = TransactionUtil.getTransactionGraphs(apiClient,
-				args.serviceId, args.viewId, activeFrom, to, input.active_timespan_point_res);
+			DateTimeFormatter fmt = ISODateTimeFormat.dateTime().withZoneUTC();
 
-		if (CollectionUtil.safeIsEmpty(activeTransactions)) {
-			return;
-		}
+			EventsRequest eventsRequest = EventsRequest.newBuilder().setServiceId(args.serviceId)
+					.setViewId(timersView.id).setFrom(baselineFrom.toString(fmt)).setTo(to.toString(fmt)).build();
 
-		DateTime baselineFrom = to.minusMinutes(input.baseline_timespan.asMinutes());
+			TransactionTimersRequest transactionTimersRequest = TransactionTimersRequest.newBuilder()
+					.setServiceId(args.serviceId).build();
 
-		Map<String, TransactionGraph> baselineTransactions = TransactionUtil.getTransactionGraphs(apiClient,
-				args.serviceId, args.viewId, baselineFrom, to, input.baseline_timespan_point_res);
+			CodeRedactionExcludeRequest excludeRequest = CodeRedactionExcludeRequest.newBuilder()
+					.setServiceId(args.serviceId).build();
 
-		GraphPerformanceCalculator calculator = GraphPerformanceCalculator.of(input.active_invocations_threshold,
-				input.baseline_invocations_threshold, input.min_delta_threshold, input.min_delta_threshold_percentage,
-				input.over_avg_slowing_percentage, input.over_avg_critical_percentage, input.std_dev_factor,
-				DRFAULT_MAX_AVGTIME_THRESHOLD);
+			// None of these depend on each other, so they are fetched together rather than one
+			// round trip after the other.
+			//
+			FanOut.Group group = FanOut.group(args.apiHost);
 
-		Map<TransactionGraph, PerformanceScore> performance = PerformanceUtil.getPerformanceStates(activeTransactions,
-				baselineTransactions, calculator);
+			FanOut.Task<Map<String, TransactionGraph>> activeTask = group
+					.add(() -> TransactionUtil.getTransactionGraphs(apiClient, args.serviceId, args.viewId, activeFrom,
+							to, input.active_timespan_point_res));
+			FanOut.Task<Map<String, TransactionGraph>> baselineTask = group
+					.add(() -> TransactionUtil.getTransactionGraphs(apiClient, args.serviceId, args.viewId,
+							baselineFrom, to, input.baseline_timespan_point_res));
+			FanOut.Task<Response<EventsResult>> eventsTask = group.add(() -> apiClient.get(eventsRequest));
+			FanOut.Task<Response<TransactionTimersResult>> transactionTimersTask = group
+					.add(() -> apiClient.get(transactionTimersRequest));
+			FanOut.Task<Response<CodeRedactionElements>> excludeTask = group.add(() -> apiClient.get(excludeRequest));
 
-		DateTimeFormatter fmt = ISODateTimeFormat.dateTime().withZoneUTC();
+			group.join();
 
-		EventsRequest eventsRequest = EventsRequest.newBuilder().setServiceId(args.serviceId).setViewId(timersView.id)
-				.setFrom(baselineFrom.toString(fmt)).setTo(to.toString(fmt)).build();
+			Map<String, TransactionGraph> activeTransactions = activeTask.get();
 
-		Response<EventsResult> eventsResponse = apiClient.get(eventsRequest);
+			if (CollectionUtil.safeIsEmpty(activeTransactions)) {
+				return;
+			}
 
-		if (eventsResponse.isBadResponse()) {
-			throw new IllegalStateException("Failed getting view events.");
-		}
+			Map<String, TransactionGraph> baselineTransactions = baselineTask.get();
 
-		EventsResult eventsResult = eventsResponse.data;
+			// The baseline graphs are only needed to score the active ones, so they're accounted
+			// for just until then.
+			//
+			MemoryBudget.Account memory = args.memory();
 
-		TransactionTimersRequest transactionTimersRequest = TransactionTimersRequest.newBuilder()
-				.setServiceId(args.serviceId).build();
+			long activeBytes = MemoryEstimate.ofGraphs(activeTransactions);
+			long baselineBytes = MemoryEstimate.ofGraphs(baselineTransactions);
 
-		Response<TransactionTimersResult> transactionTimersResponse = apiClient.get(transactionTimersRequest);
+			memory.reserve(activeBytes + baselineBytes);
 
-		if (transactionTimersResponse.isBadResponse()) {
-			throw new IllegalStateException("Failed getting timers.");
-		}
+			GraphPerformanceCalculator calculator = GraphPerformanceCalculator.of(input.active_invocations_threshold,
+					input.baseline_invocations_threshold, input.min_delta_threshold,
+					input.min_delta_threshold_percentage, input.over_avg_slowing_percentage,
+					input.over_avg_critical_percentage, input.std_dev_factor, DRFAULT_MAX_AVGTIME_THRESHOLD);
 
-		CodeRedactionExcludeRequest excludeRequest = CodeRedactionExcludeRequest.newBuilder()
-				.setServiceId(args.serviceId).build();
+			Map<TransactionGraph, PerformanceScore> performance;
 
-		Response<CodeRedactionElements> excludeResponse = apiClient.get(excludeRequest);
+			PhaseTrace.Span evaluation = PhaseTrace.begin(Phase.EVALUATION);
 
-		if (excludeResponse.isBadResponse()) {
-			throw new IllegalStateException("Failed exclude filters.");
-		}
+			try {
+				performance = PerformanceUtil.getPerformanceStates(activeTransactions, baselineTransactions,
+						calculator);
+			} finally {
+				evaluation.close();
+			}
 
-		Map<TransactionGraph, List<EventResult>> eventsMap = buildTransactionEvents(activeTransactions.values(),
-				eventsResult.events);
+			memory.release(baselineBytes);
 
-		boolean labelsUpdateNeeded = false;
-		BatchModifyLabelsRequest.Builder labelsRequestBuilder = BatchModifyLabelsRequest.newBuilder()
-				.setServiceId(args.serviceId).setHandleSimilarEvents(false);
+			Response<EventsResult> eventsResponse = eventsTask.get();
 
-		Map<TransactionName, Long> newTimers = Maps.newHashMap();
-		Map<String, Long> updatedTimers = Maps.newHashMap();
-		List<String> removedTimers = Lists.newArrayList();
-		Set<String> existingLabels = Sets.newHashSet();
-		Set<String> eventsToForceSnapshot = Sets.newHashSet();
+			if (eventsResponse.isBadResponse()) {
+				throw new IllegalStateException("Failed getting view events.");
+			}
 
-		for (Map.Entry<TransactionGraph, PerformanceScore> entry : performance.entrySet()) {
-			TransactionGraph transaction = entry.getKey();
+			EventsResult eventsResult = eventsResponse.data;
 
-			if (Strings.isNullOrEmpty(transaction.method_name)) {
-				continue;
+			memory.reserve(MemoryEstimate.ofEvents(eventsResult.events));
+
+			if (memory.isNearLimit()) {
+				Log.warn("Memory budget running low after fetching graphs and events - " + memory);
 			}
 
-			List<EventResult> transactionEvents = eventsMap.get(transaction);
+			Response<TransactionTimersResult> transactionTimersResponse = transactionTimersTask.get();
 
-			// Can happen if the transaction didn't have any events in the timeframe.
-			//
-			if (transactionEvents == null) {
-				transactionEvents = Collections.emptyList();
+			if (transactionTimersResponse.isBadResponse()) {
+				throw new IllegalStateException("Failed getting timers.");
 			}
 
-			TransactionName transactionName = TransactionName.of(JavaUtil.toInternalName(transaction.class_name),
-					transaction.method_name);
+			Response<CodeRedactionElements> excludeResponse = excludeTask.get();
 
-			Timer timer = getExistingTransactionTimer(transactionName,
-					transactionTimersResponse.data.transaction_timers);
+			if (excludeResponse.isBadResponse()) {
+				throw new IllegalStateException("Failed exclude filters.");
+			}
 
-			boolean excludedTransaction = isExcludedTransaction(transaction, excludeResponse.data);
+			Map<TransactionGraph, List<EventResult>> eventsMap = buildTransactionEvents(activeTransactions.values(),
+					eventsResult.events);
 
-			PerformanceScore score = entry.getValue();
-			PerformanceState state = (excludedTransaction ? PerformanceState.NO_DATA : score.state);
+			LabelBatch labelBatch = LabelBatch.of(apiClient, args.serviceId, false, memory);
 
-			if (addLabelModifications(transactionEvents, state, labelsRequestBuilder, existingLabels, args.serviceId,
-					apiClient)) {
-				labelsUpdateNeeded = true;
-			}
+			Map<TransactionName, Long> newTimers = Maps.newHashMap();
+			Map<String, Long> updatedTimers = Maps.newHashMap();
+			List<String> removedTimers = Lists.newArrayList();
+			Set<String> existingLabels = Sets.newHashSet();
+			Set<String> eventsToForceSnapshot = Sets.newHashSet();
+
+			for (Map.Entry<TransactionGraph, PerformanceScore> entry : performance.entrySet()) {
+				TransactionGraph transaction = entry.getKey();
+
+				if (Strings.isNullOrEmpty(transaction.method_name)) {
+					continue;
+				}
 
-			if (state == PerformanceState.NO_DATA) {
-				if ((timer != null) && (!input.timer_always_on)) {
-					removedTimers.add(timer.id);
+				List<EventResult> transactionEvents = eventsMap.get(transaction);
+
+				// Can happen if the transaction didn't have any events in the timeframe.
+				//
+				if (transactionEvents == null) {
+					transactionEvents = Collections.emptyList();
 				}
 
-				continue;
-			}
+				TransactionName transactionName = TransactionName.of(JavaUtil.toInternalName(transaction.class_name),
+						transaction.method_name);
 
-			if (state == PerformanceState.OK) {
-				if (timer == null) {
-					if (!input.monitor_ok_transactions) {
-						// If no timer, don't create a new one for OK transaction.
+				Timer timer = getExistingTransactionTimer(transactionName,
+						transactionTimersResponse.data.transaction_timers);
+
+				boolean excludedTransaction = isExcludedTransaction(transaction, excludeResponse.data);
+
+				PerformanceScore score = entry.getValue();
+				PerformanceState state = (excludedTransaction ? PerformanceState.NO_DATA : score.state);
+
+				addLabelModifications(transactionEvents, state, labelBatch, existingLabels, args.serviceId, apiClient);
+
+				if (state == PerformanceState.NO_DATA) {
+					if ((timer != null) && (!input.timer_always_on)) {
+						removedTimers.add(timer.id);
+					}
+
+					continue;
+				}
+
+				if (state == PerformanceState.OK) {
+					if (timer == null) {
+						if (!input.monitor_ok_transactions) {
+							// If no timer, don't create a new one for OK transaction.
+							//
+							continue;
+						}
+					} else if ((!input.monitor_ok_transactions) && (!input.timer_always_on)) {
+						// If timer exist and we don't maintain, remove and move on.
+						// If we do maintain, we want to proceed and adapt the threshold.
 						//
+						removedTimers.add(timer.id);
 						continue;
 					}
-				} else if ((!input.monitor_ok_transactions) && (!input.timer_always_on)) {
-					// If timer exist and we don't maintain, remove and move on.
-					// If we do maintain, we want to proceed and adapt the threshold.
-					//
-					removedTimers.add(timer.id);
-					continue;
 				}
-			}
 
-			Stats stats = TransactionUtil.aggregateGraph(transaction);
+				Stats stats = TransactionUtil.aggregateGraph(transaction);
 
-			long timerThreshold = (long) (stats.avg_time + (stats.avg_time_std_deviation * input.timer_std_dev_factor));
+				long timerThreshold = (long) (stats.avg_time
+						+ (stats.avg_time_std_deviation * input.timer_std_dev_factor));
 
-			if (timerThreshold < input.min_timer_threshold) {
-				continue;
-			}
+				if (timerThreshold < input.min_timer_threshold) {
+					continue;
+				}
 
-			if (timer == null) {
-				newTimers.put(transactionName, timerThreshold);
-			} else {
-				updatedTimers.put(timer.id, timerThreshold);
-			}
+				if (timer == null) {
+					newTimers.put(transactionName, timerThreshold);
+				} else {
+					updatedTimers.put(timer.id, timerThreshold);
+				}
 
-			for (EventResult event : transactionEvents) {
-				eventsToForceSnapshot.add(event.id);
+				for (EventResult event : transactionEvents) {
+					eventsToForceSnapshot.add(event.id);
+				}
 			}
-		}
 
-		for (Map.Entry<TransactionName, Long> entry : newTimers.entrySet()) {
-			TransactionName transactionName = entry.getKey();
-			long threshold = entry.getValue();
+			for (Map.Entry<TransactionName, Long> entry : newTimers.entrySet()) {
+				TransactionName transactionName = entry.getKey();
+				long threshold = entry.getValue();
 
-			CreateTransactionTimerRequest createTransactionTimerRequest = CreateTransactionTimerRequest.newBuilder()
-					.setServiceId(args.serviceId).setClassName(transactionName.className)
-					.setMethodName(transactionName.methodName).setThreshold(threshold).build();
+				CreateTransactionTimerRequest createTransactionTimerRequest = CreateTransactionTimerRequest.newBuilder()
+						.setServiceId(args.serviceId).setClassName(transactionName.className)
+						.setMethodName(transactionName.methodName).setThreshold(threshold).build();
 
-			apiClient.post(createTransactionTimerRequest);
-		}
+				apiClient.post(createTransactionTimerRequest);
+			}
 
-		for (Map.Entry<String, Long> entry : updatedTimers.entrySet()) {
-			String timerId = entry.getKey();
-			long threshold = entry.getValue();
+			// Adjusting the thresholds of existing timers is the first thing to give up when the
+			// deadline runs low, the next run recalculates them anyway.
+			//
+			if ((!updatedTimers.isEmpty()) && (args.deadline().isRunningLow())) {
+				Log.info("Execution budget running low, skipping " + updatedTimers.size()
+						+ " timer updates - " + args.deadline());
+				updatedTimers.clear();
+			}
 
-			EditTransactionTimerRequest editTransactionTimerRequest = EditTransactionTimerRequest.newBuilder()
-					.setServiceId(args.serviceId).setTimerId(Integer.parseInt(timerId)).setThreshold(threshold).build();
+			for (Map.Entry<String, Long> entry : updatedTimers.entrySet()) {
+				String timerId = entry.getKey();
+				long threshold = entry.getValue();
 
-			apiClient.post(editTransactionTimerRequest);
-		}
+				EditTransactionTimerRequest editTransactionTimerRequest = EditTransactionTimerRequest.newBuilder()
+						.setServiceId(args.serviceId).setTimerId(Integer.parseInt(timerId)).setThreshold(threshold)
+						.build();
+
+				apiClient.post(editTransactionTimerRequest);
+			}
 
-		for (String timerId : removedTimers) {
-			ToggleTransactionTimerRequest toggleTransactionTimerRequest = ToggleTransactionTimerRequest.newBuilder()
-					.setServiceId(args.serviceId).setTimerId(Integer.parseInt(timerId)).setEnable(false).build();
+			for (String timerId : removedTimers) {
+				ToggleTransactionTimerRequest toggleTransactionTimerRequest = ToggleTransactionTimerRequest.newBuilder()
+						.setServiceId(args.serviceId).setTimerId(Integer.parseInt(timerId)).setEnable(false)
+						.build();
 
-			apiClient.post(toggleTransactionTimerRequest);
-		}
+				apiClient.post(toggleTransactionTimerRequest);
+			}
 
-		if (labelsUpdateNeeded) {
-			apiClient.post(labelsRequestBuilder.build());
-		}
+			labelBatch.flush();
 
-		if (!eventsToForceSnapshot.isEmpty()) {
-			BatchForceSnapshotsRequest forceSnapshotsRequest = BatchForceSnapshotsRequest.newBuilder()
-					.setServiceId(args.serviceId).addEventIds(eventsToForceSnapshot).build();
+			if (!eventsToForceSnapshot.isEmpty()) {
+				BatchForceSnapshotsRequest forceSnapshotsRequest = BatchForceSnapshotsRequest.newBuilder()
+						.setServiceId(args.serviceId).addEventIds(eventsToForceSnapshot).build();
 
-			apiClient.post(forceSnapshotsRequest);
+				apiClient.post(forceSnapshotsRequest);
+			}
+		} finally {
+			args.close();
 		}
 	}
 
-	private static boolean addLabelModifications(List<EventResult> events, PerformanceState state,
-			BatchModifyLabelsRequest.Builder labelsRequestBuilder, Set<String> existingLabels, String serviceId,
-			ApiClient apiClient) {
-
-		boolean hasModifications = false;
+	private static void addLabelModifications(List<EventResult> events, PerformanceState state,
+			LabelBatch labelBatch, Set<String> existingLabels, String serviceId, ApiClient apiClient) {
 
 		for (EventResult event : events) {
 			Pair<Collection<String>, Collection<String>> modifications = PerformanceUtil.categorizeEvent(event,
@@ -367,15 +425,11 @@ public class PeriodicAvgTimerFunction {
 				continue;
 			}
 
-			labelsRequestBuilder.addLabelModifications(event.id, labelsToAdd, labelsToRemove);
-
-			hasModifications = true;
+			labelBatch.add(event.id, labelsToAdd, labelsToRemove);
 		}
-
-		return hasModifications;
 	}
 
-	private static Map<TransactionGraph, List<EventResult>> buildTransactionEvents(
+	static Map<TransactionGraph, List<EventResult>> buildTransactionEvents(
 			Collection<TransactionGraph> transactions, List<EventResult> events) {
 
 		if (CollectionUtil.safeIsEmpty(events)) {
@@ -414,7 +468,7 @@ public class PeriodicAvgTimerFunction {
 		return result;
 	}
 
-	private static boolean isExcludedTransaction(TransactionGraph transaction,
+	static boolean isExcludedTransaction(TransactionGraph transaction,
 			CodeRedactionElements redactionElements) {
 
 		if (redactionElements == null) {
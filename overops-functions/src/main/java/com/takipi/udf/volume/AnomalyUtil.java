@@ -4,168 +4,220 @@ import java.net.HttpURLConnection;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormatter;
-import org.joda.time.format.ISODateTimeFormat;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.takipi.api.client.ApiClient;
-import com.takipi.api.client.data.event.Action;
 import com.takipi.api.client.request.event.BatchForceSnapshotsRequest;
-import com.takipi.api.client.request.event.EventActionsRequest;
 import com.takipi.api.client.request.label.BatchModifyLabelsRequest;
 import com.takipi.api.client.request.label.CreateLabelRequest;
 import com.takipi.api.client.result.EmptyResult;
-import com.takipi.api.client.result.event.EventActionsResult;
 import com.takipi.api.client.result.event.EventResult;
 import com.takipi.api.client.util.alert.AlertUtil;
 import com.takipi.api.core.url.UrlClient.Response;
 import com.takipi.common.util.CollectionUtil;
+import com.takipi.udf.Deadline;
 import com.takipi.udf.input.TimeInterval;
+import com.takipi.udf.log.Log;
+import com.takipi.udf.trace.Phase;
+import com.takipi.udf.trace.PhaseTrace;
 
 public class AnomalyUtil {
-	private static final DateTimeFormatter fmt = ISODateTimeFormat.dateTime().withZoneUTC();
-
-	private static final String LABEL_ADD = "ADD_LABEL";
-	private static final String LABEL_TYPE = "LABEL";
-
 	public static final int MAX_ANOMALY_CONTRIBUTORS = 10;
 
-	public static void removeAnomalyLabel(Collection<EventResult> events, ApiClient apiClient, String serviceId,
-			TimeInterval maxInterval, String label) {
+	// Labels the ledger knows expired are removed without looking anything up. Removing expired
+	// labels is cleanup a later run can finish, so events whose labeling time wasn't resolved
+	// before the deadline ran low are left for the next run, and the labels found expired so far
+	// are removed. Events may be kept by the caller past this run (see VolumeWindow), so they're
+	// left as is - the ids of the events whose label was removed are returned instead.
+	//
+	public static Set<String> removeAnomalyLabel(Collection<EventResult> events, ApiClient apiClient,
+			String serviceId, TimeInterval maxInterval, String label, LabelingTimeResolver labelingTimes,
+			Deadline deadline) {
 
 		if ((CollectionUtil.safeIsEmpty(events)) || (!maxInterval.isPositive()) || (Strings.isNullOrEmpty(label))) {
-			return;
+			return Collections.emptySet();
 		}
 
 		DateTime now = DateTime.now();
-		boolean labelsUpdateNeeded = false;
-		BatchModifyLabelsRequest.Builder labelsRequest = BatchModifyLabelsRequest.newBuilder().setServiceId(serviceId);
+
+		Set<String> expiredIds = labelingTimes.labeledBefore(now.minusMinutes(maxInterval.asMinutes()));
+
+		List<EventResult> labeledEvents = Lists.newArrayList();
+		List<EventResult> unresolvedEvents = Lists.newArrayList();
 
 		for (EventResult event : events) {
 			if (!CollectionUtil.safeContains(event.labels, label)) {
 				continue;
 			}
 
-			DateTime lastestLabeling = getLatestLabelingTime(apiClient, serviceId, event, label);
+			labeledEvents.add(event);
 
-			if (lastestLabeling == null) {
-				continue;
+			if (!expiredIds.contains(event.id)) {
+				unresolvedEvents.add(event);
 			}
+		}
 
-			if (lastestLabeling.plusMinutes(maxInterval.asMinutes()).isAfter(now)) {
-				continue;
+		labelingTimes.resolve(unresolvedEvents, deadline);
+
+		Set<String> result = Sets.newHashSet();
+
+		boolean labelsUpdateNeeded = false;
+		int deferredCount = 0;
+		BatchModifyLabelsRequest.Builder labelsRequest = BatchModifyLabelsRequest.newBuilder().setServiceId(serviceId);
+
+		for (EventResult event : labeledEvents) {
+			if (!expiredIds.contains(event.id)) {
+				if (!labelingTimes.isResolved(event.id)) {
+					deferredCount++;
+					continue;
+				}
+
+				DateTime lastestLabeling = labelingTimes.get(event.id);
+
+				if (lastestLabeling == null) {
+					continue;
+				}
+
+				if (lastestLabeling.plusMinutes(maxInterval.asMinutes()).isAfter(now)) {
+					continue;
+				}
 			}
 
 			labelsUpdateNeeded = true;
 
 			labelsRequest.addLabelModifications(event.id, Collections.emptyList(), Collections.singletonList(label));
 
-			// By removing the label from the event we save up on redundant querying when
-			// later checking on anomalies.
-			//
-			event.labels.remove(label);
+			result.add(event.id);
+		}
+
+		if (deferredCount > 0) {
+			Log.info("Execution budget running low, deferring label cleanup of " + deferredCount + " events - "
+					+ deadline);
 		}
 
 		if (labelsUpdateNeeded) {
-			Response<EmptyResult> response = apiClient.post(labelsRequest.build());
+			Response<EmptyResult> response;
+
+			PhaseTrace.Span labels = PhaseTrace.begin(Phase.LABELS);
+
+			try {
+				response = apiClient.post(labelsRequest.build());
+			} finally {
+				labels.close();
+			}
 
 			if (response.isBadResponse()) {
-				System.err.println("Could not remove label from events. Code: " + response.responseCode);
+				Log.warn("Could not remove label from events. Code: " + response.responseCode);
+			} else {
+				LabelingTimeResolver.unlabeled(serviceId, result, label, now);
 			}
 		}
+
+		return result;
 	}
 
+	// Checking whether a labeled event is still within its min interval takes its labeling time.
+	// Labeled events whose time wasn't resolved before the deadline ran low are treated as
+	// recently alerted on, so a late run never alerts twice on the same event. Events whose label
+	// was just removed are passed in unlabeledIds, saving up on redundant querying.
+	//
 	public static List<EventResult> filterAnomalyEvents(Collection<EventResult> events, ApiClient apiClient,
-			String serviceId, TimeInterval minInterval, String label, int maxEvents) {
+			String serviceId, TimeInterval minInterval, String label, int maxEvents, Set<String> unlabeledIds,
+			LabelingTimeResolver labelingTimes, Deadline deadline) {
 
 		if (CollectionUtil.safeIsEmpty(events)) {
 			return Collections.emptyList();
 		}
 
-		List<EventResult> result = Lists.newArrayList();
+		EventVolumeFrame frame = EventVolumeFrame.of(events);
 
-		DateTime now = DateTime.now();
+		filterAnomalyEvents(frame, minInterval, label, maxEvents, unlabeledIds, labelingTimes, deadline);
 
-		boolean labelFilteringNeeded = ((!Strings.isNullOrEmpty(label)) && (minInterval.isPositive()));
-
-		for (EventResult event : events) {
+		return frame.events();
+	}
 
-			if ((maxEvents > 0) && (result.size() >= maxEvents)) {
-				continue;
-			}
+	// Same as above, dropping the filtered out events from the frame in place.
+	//
+	public static void filterAnomalyEvents(EventVolumeFrame frame, TimeInterval minInterval, String label,
+			int maxEvents, Set<String> unlabeledIds, LabelingTimeResolver labelingTimes, Deadline deadline) {
 
-			if (ThresholdUtil.getEventHits(event) == 0) {
-				continue;
-			}
+		frame.filter(row -> frame.hits(row) > 0);
 
-			if ((labelFilteringNeeded) && (CollectionUtil.safeContains(event.labels, label))) {
+		boolean labelFilteringNeeded = ((!Strings.isNullOrEmpty(label)) && (minInterval.isPositive()));
 
-				DateTime lastestLabeling = getLatestLabelingTime(apiClient, serviceId, event, label);
+		if (labelFilteringNeeded) {
+			List<EventResult> labeledEvents = Lists.newArrayList();
 
-				if ((lastestLabeling != null) && (lastestLabeling.plusMinutes(minInterval.asMinutes()).isAfter(now))) {
-					continue;
+			for (int row = 0; row < frame.size(); row++) {
+				if (isLabeled(frame, row, label, unlabeledIds)) {
+					labeledEvents.add(frame.event(row));
 				}
 			}
 
-			result.add(event);
-		}
-
-		return result;
-	}
-
-	private static DateTime getLatestLabelingTime(ApiClient apiClient, String serviceId, EventResult event,
-			String label) {
+			labelingTimes.resolve(labeledEvents, deadline);
 
-		EventActionsRequest request = EventActionsRequest.newBuilder().setServiceId(serviceId).setEventId(event.id)
-				.build();
+			DateTime now = DateTime.now();
 
-		Response<EventActionsResult> response = apiClient.get(request);
+			frame.filter(row -> {
+				if (!isLabeled(frame, row, label, unlabeledIds)) {
+					return true;
+				}
 
-		if (response.isBadResponse()) {
-			System.err.println("Could not get event actions for " + event + " code: " + response.responseCode);
+				if (!labelingTimes.isResolved(frame.id(row))) {
+					return false;
+				}
 
-			return null;
-		}
+				DateTime lastestLabeling = labelingTimes.get(frame.id(row));
 
-		if ((response.data == null) || (CollectionUtil.safeIsEmpty(response.data.event_actions))) {
-			return null;
+				return ((lastestLabeling == null)
+						|| (!lastestLabeling.plusMinutes(minInterval.asMinutes()).isAfter(now)));
+			});
 		}
 
-		DateTime result = null;
-
-		for (Action action : response.data.event_actions) {
-
-			if (!(LABEL_ADD.equals(action.action)) || (!LABEL_TYPE.equals(action.type))
-					|| (!label.equals(action.data))) {
-				continue;
-			}
-
-			DateTime actionTime = fmt.parseDateTime(action.timestamp);
-
-			if ((result == null) || (actionTime.isAfter(result))) {
-				result = actionTime;
-			}
+		if (maxEvents > 0) {
+			frame.truncate(maxEvents);
 		}
+	}
 
-		return result;
+	private static boolean isLabeled(EventVolumeFrame frame, int row, String label, Set<String> unlabeledIds) {
+		return ((CollectionUtil.safeContains(frame.event(row).labels, label))
+				&& (!unlabeledIds.contains(frame.id(row))));
 	}
 
 	public static void reportAnomaly(ApiClient apiClient, String serviceId, String viewId,
 			Collection<EventResult> contributors, String anomalyLabel, DateTime from, DateTime to,
 			String anomalyMessage) {
 
-		System.out.println(
-				"Alerting on " + contributors.size() + " anomalies: " + StringUtils.join(contributors.toArray(), ','));
+		Log.info("Alerting on " + contributors.size() + " anomalies");
+		Log.debug(() -> "Anomalies: " + StringUtils.join(contributors.toArray(), ','));
+
+		PhaseTrace.Span labels = PhaseTrace.begin(Phase.LABELS);
+
+		try {
+			applyAnomalyLabel(apiClient, serviceId, anomalyLabel, contributors);
+		} finally {
+			labels.close();
+		}
+
+		if (!Strings.isNullOrEmpty(anomalyLabel)) {
+			LabelingTimeResolver.labeled(serviceId, contributors, anomalyLabel, DateTime.now());
+		}
 
-		applyAnomalyLabel(apiClient, serviceId, anomalyLabel, contributors);
+		PhaseTrace.Span alert = PhaseTrace.begin(Phase.ALERT);
 
-		resetContributorSnapshots(apiClient, serviceId, contributors);
+		try {
+			resetContributorSnapshots(apiClient, serviceId, contributors);
 
-		AlertUtil.reportAnomaly(apiClient, serviceId, viewId, contributors, from, to, anomalyMessage);
+			AlertUtil.reportAnomaly(apiClient, serviceId, viewId, contributors, from, to, anomalyMessage);
+		} finally {
+			alert.close();
+		}
 	}
 
 	private static void applyAnomalyLabel(ApiClient apiClient, String serviceId, String label,
@@ -213,7 +265,7 @@ public class AnomalyUtil {
 		Response<EmptyResult> reponse = apiClient.post(builder.build());
 
 		if (reponse.isBadResponse()) {
-			System.err.println("Cannot reset snapshots, code: " + reponse.responseCode);
+			Log.warn("Cannot reset snapshots, code: " + reponse.responseCode);
 		}
 	}
 }
@@ -0,0 +1,249 @@
+package com.takipi.udf.volume;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+import com.google.common.collect.Lists;
+import com.takipi.api.client.result.event.EventResult;
+
+// The ids, hits and invocations of a list of events, in parallel primitive arrays, for the
+// threshold math that walks them over and over. Rows keep the order of the source list and map
+// back to their event with event(row). Events without stats count as zero hits and invocations.
+//
+// A frame is a working copy - filter() and truncate() drop rows in place, so sums, rates and
+// top-K only ever see the rows left, without allocating per row or boxing.
+//
+public class EventVolumeFrame {
+	private final EventResult[] events;
+	private final String[] ids;
+	private final long[] hits;
+	private final long[] invocations;
+
+	private int size;
+
+	// Scratch heap of row indexes for topByHits, grown as needed.
+	//
+	private int[] heap;
+
+	private EventVolumeFrame(Collection<EventResult> source) {
+		this.events = new EventResult[source.size()];
+		this.ids = new String[events.length];
+		this.hits = new long[events.length];
+		this.invocations = new long[events.length];
+
+		for (EventResult event : source) {
+			events[size] = event;
+			ids[size] = event.id;
+
+			if (event.stats != null) {
+				hits[size] = event.stats.hits;
+				invocations[size] = event.stats.invocations;
+			}
+
+			size++;
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return (size == 0);
+	}
+
+	public EventResult event(int row) {
+		return events[row];
+	}
+
+	public String id(int row) {
+		return ids[row];
+	}
+
+	public long hits(int row) {
+		return hits[row];
+	}
+
+	public long invocations(int row) {
+		return invocations[row];
+	}
+
+	public long hitSum() {
+		long result = 0l;
+
+		for (int i = 0; i < size; i++) {
+			result += hits[i];
+		}
+
+		return result;
+	}
+
+	// Same as ThresholdUtil.getEventsInvocations - an event was invoked at least as many times as
+	// it was hit, and so was the whole frame.
+	//
+	public long invocationSum(long hitCount) {
+		long result = 0l;
+
+		for (int i = 0; i < size; i++) {
+			result += Math.max(invocations[i], hits[i]);
+		}
+
+		return Math.max(result, hitCount);
+	}
+
+	// Keeps the rows the predicate accepts, in order. The predicate is given the row before any
+	// row after it moves.
+	//
+	public void filter(IntPredicate predicate) {
+		int kept = 0;
+
+		for (int i = 0; i < size; i++) {
+			if (!predicate.test(i)) {
+				continue;
+			}
+
+			if (kept != i) {
+				events[kept] = events[i];
+				ids[kept] = ids[i];
+				hits[kept] = hits[i];
+				invocations[kept] = invocations[i];
+			}
+
+			kept++;
+		}
+
+		for (int i = kept; i < size; i++) {
+			events[i] = null;
+			ids[i] = null;
+		}
+
+		size = kept;
+	}
+
+	public void truncate(int maxSize) {
+		for (int i = maxSize; i < size; i++) {
+			events[i] = null;
+			ids[i] = null;
+		}
+
+		size = Math.min(size, maxSize);
+	}
+
+	// The events of the rows left, in order.
+	//
+	public List<EventResult> events() {
+		List<EventResult> result = Lists.newArrayListWithCapacity(size);
+
+		for (int i = 0; i < size; i++) {
+			result.add(events[i]);
+		}
+
+		return result;
+	}
+
+	// The k most hit events, most hit first. Events hit equally keep their order in the frame, as
+	// with a stable sort of the whole frame. Runs in O(size log k), leaving the frame as is.
+	//
+	public List<EventResult> topByHits(int k) {
+		int count = Math.min(k, size);
+
+		if (count <= 0) {
+			return Lists.newArrayList();
+		}
+
+		if ((heap == null) || (heap.length < count)) {
+			heap = new int[count];
+		}
+
+		// A min heap of the best rows so far, its root the worst of them.
+		//
+		for (int i = 0; i < count; i++) {
+			heap[i] = i;
+			siftUp(i);
+		}
+
+		for (int i = count; i < size; i++) {
+			if (isBefore(i, heap[0])) {
+				heap[0] = i;
+				siftDown(0, count);
+			}
+		}
+
+		EventResult[] result = new EventResult[count];
+
+		for (int end = count - 1; end >= 0; end--) {
+			result[end] = events[heap[0]];
+			heap[0] = heap[end];
+			siftDown(0, end);
+		}
+
+		return Lists.newArrayList(result);
+	}
+
+	// Whether row a ranks before row b - more hits, or as many and earlier in the frame.
+	//
+	private boolean isBefore(int a, int b) {
+		if (hits[a] != hits[b]) {
+			return (hits[a] > hits[b]);
+		}
+
+		return (a < b);
+	}
+
+	private void siftUp(int index) {
+		int child = index;
+
+		while (child > 0) {
+			int parent = (child - 1) / 2;
+
+			if (!isBefore(heap[parent], heap[child])) {
+				break;
+			}
+
+			swap(parent, child);
+			child = parent;
+		}
+	}
+
+	private void siftDown(int index, int heapSize) {
+		int parent = index;
+
+		while (true) {
+			int left = (parent * 2) + 1;
+			int right = left + 1;
+			int worst = parent;
+
+			if ((left < heapSize) && (isBefore(heap[worst], heap[left]))) {
+				worst = left;
+			}
+
+			if ((right < heapSize) && (isBefore(heap[worst], heap[right]))) {
+				worst = right;
+			}
+
+			if (worst == parent) {
+				return;
+			}
+
+			swap(parent, worst);
+			parent = worst;
+		}
+	}
+
+	private void swap(int a, int b) {
+		int temp = heap[a];
+		heap[a] = heap[b];
+		heap[b] = temp;
+	}
+
+	// The failure rate of hitCount out of invocationCount, in percent.
+	//
+	public static double rate(long hitCount, long invocationCount) {
+		return ((hitCount / (double) invocationCount) * 100.0);
+	}
+
+	public static EventVolumeFrame of(Collection<EventResult> events) {
+		return new EventVolumeFrame(events);
+	}
+}
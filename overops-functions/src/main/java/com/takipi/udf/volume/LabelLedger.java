@@ -0,0 +1,496 @@
+package com.takipi.udf.volume;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.takipi.udf.log.Log;
+
+// When labels were applied to events, by service and label, kept in memory and in an append-only
+// file under -Dudf.label.ledger (a directory). Without it, the ledger only lasts as long as the
+// process. Anomaly functions record the labels they apply and remove, and the labeling times they
+// had to look up. That way label expiry and re-alert suppression only query the api for events the
+// ledger doesn't know.
+//
+// A removed label is dropped from the ledger. If the event is labeled again later, by anyone, its
+// time is looked up again instead of trusting the old one. Labels can also be removed and added
+// again outside the functions (a user in the UI, another library), which the ledger never hears
+// of - so an entry is only trusted for -Dudf.label.ledger.ttl minutes (60 by default) after it was
+// recorded or last looked up. Older entries are reported as unknown and looked up again.
+//
+// Records: type (applied / removed), service id, event id, label, time, and the time the entry
+// was recorded. A torn record at the end of the file (the process died mid write) is truncated when
+// the file is loaded. The file is rewritten with only the live entries once it holds more than
+// twice as many records, dropping entries older than -Dudf.label.ledger.retention days (30 by
+// default). Version 1 files, without the record times, are loaded as entries to look up again and
+// rewritten in the current version.
+//
+// The directory belongs to a single process. The ledger holds a lock on a file next to it for as
+// long as it's open, and a process that finds the directory locked keeps its ledger in memory.
+//
+public class LabelLedger {
+	public static final String DIRECTORY_PROPERTY = "udf.label.ledger";
+	public static final String RETENTION_PROPERTY = "udf.label.ledger.retention";
+	public static final String TTL_PROPERTY = "udf.label.ledger.ttl";
+
+	static final String FILE_NAME = "label-ledger.udfl";
+	static final String LOCK_FILE_NAME = "label-ledger.lock";
+
+	private static final int MAGIC = 0x5544464C; // "UDFL"
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 5;
+
+	private static final byte APPLIED = 1;
+	private static final byte REMOVED = 2;
+
+	private static final int MIN_COMPACTION_RECORDS = 1000;
+	private static final long DEFAULT_RETENTION_DAYS = 30;
+	private static final long DEFAULT_TTL_MINUTES = 60;
+
+	private static final LabelLedger instance = open(System.getProperty(DIRECTORY_PROPERTY),
+			TimeUnit.MINUTES.toMillis(Long.getLong(TTL_PROPERTY, DEFAULT_TTL_MINUTES)));
+
+	private final Path file;
+	private final long ttlMillis;
+	private final Map<String, LabelIndex> indexes;
+
+	private FileChannel lockChannel;
+	private FileLock lock;
+	private FileChannel channel;
+	private int recordCount;
+	private int liveCount;
+
+	private LabelLedger(Path file, long ttlMillis) {
+		this.file = file;
+		this.ttlMillis = ttlMillis;
+		this.indexes = Maps.newHashMap();
+	}
+
+	public static LabelLedger instance() {
+		return instance;
+	}
+
+	public boolean isDurable() {
+		return (channel != null);
+	}
+
+	// The time the label was last applied to the event, or null if the ledger doesn't know or its
+	// entry is past the TTL.
+	//
+	public synchronized Long appliedAt(String serviceId, String eventId, String label) {
+		LabelIndex index = indexes.get(indexKey(serviceId, label));
+
+		if (index == null) {
+			return null;
+		}
+
+		Entry entry = index.entries.get(eventId);
+
+		if ((entry == null) || (!isFresh(entry, System.currentTimeMillis()))) {
+			return null;
+		}
+
+		return entry.timeMillis;
+	}
+
+	// The events the label was last applied to before the given time, and not removed since, of
+	// the entries within the TTL.
+	//
+	public synchronized Set<String> appliedBefore(String serviceId, String label, long timeMillis) {
+		LabelIndex index = indexes.get(indexKey(serviceId, label));
+
+		if (index == null) {
+			return Collections.emptySet();
+		}
+
+		long now = System.currentTimeMillis();
+		Set<String> result = Sets.newHashSet();
+
+		for (String eventId : index.before(timeMillis)) {
+			if (isFresh(index.entries.get(eventId), now)) {
+				result.add(eventId);
+			}
+		}
+
+		return result;
+	}
+
+	private boolean isFresh(Entry entry, long now) {
+		return ((now - entry.recordedMillis) < ttlMillis);
+	}
+
+	public synchronized void applied(String serviceId, Collection<String> eventIds, String label, long timeMillis) {
+		append(APPLIED, serviceId, label, Maps.asMap(Sets.newLinkedHashSet(eventIds), eventId -> timeMillis));
+	}
+
+	// Labeling times looked up from the api, by event id.
+	//
+	public synchronized void reconciled(String serviceId, String label, Map<String, Long> timesMillis) {
+		append(APPLIED, serviceId, label, timesMillis);
+	}
+
+	public synchronized void removed(String serviceId, Collection<String> eventIds, String label, long timeMillis) {
+		append(REMOVED, serviceId, label, Maps.asMap(Sets.newLinkedHashSet(eventIds), eventId -> timeMillis));
+	}
+
+	private void append(byte type, String serviceId, String label, Map<String, Long> timesMillis) {
+		if (timesMillis.isEmpty()) {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+
+		try (DataOutputStream out = new DataOutputStream(records)) {
+			for (Map.Entry<String, Long> entry : timesMillis.entrySet()) {
+				writeRecord(out, type, serviceId, entry.getKey(), label, entry.getValue(), now);
+				apply(type, serviceId, entry.getKey(), label, entry.getValue(), now);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+
+		if (channel == null) {
+			return;
+		}
+
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(records.toByteArray());
+
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+
+			channel.force(false);
+		} catch (IOException e) {
+			Log.warn("Failed writing to label ledger " + file + ", continuing in memory - " + e);
+			close();
+			return;
+		}
+
+		if ((recordCount > MIN_COMPACTION_RECORDS) && (recordCount > (liveCount * 2))) {
+			compact();
+		}
+	}
+
+	private void apply(byte type, String serviceId, String eventId, String label, long timeMillis,
+			long recordedMillis) {
+		String key = indexKey(serviceId, label);
+		LabelIndex index = indexes.get(key);
+
+		recordCount++;
+
+		if (index == null) {
+			if (type == REMOVED) {
+				return;
+			}
+
+			index = new LabelIndex(serviceId, label);
+			indexes.put(key, index);
+		}
+
+		boolean existed = index.remove(eventId);
+
+		if (type == APPLIED) {
+			index.put(eventId, new Entry(timeMillis, recordedMillis));
+
+			if (!existed) {
+				liveCount++;
+			}
+		} else if (existed) {
+			liveCount--;
+		}
+	}
+
+	// Rewrites the file with the live entries within the retention, and drops older ones from
+	// memory as well.
+	//
+	private void compact() {
+		long retentionMillis = TimeUnit.DAYS.toMillis(Long.getLong(RETENTION_PROPERTY, DEFAULT_RETENTION_DAYS));
+		long cutoff = System.currentTimeMillis() - retentionMillis;
+
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+		int count = 0;
+
+		try (DataOutputStream out = new DataOutputStream(records)) {
+			writeHeader(out);
+
+			for (LabelIndex index : indexes.values()) {
+				for (String eventId : index.before(cutoff)) {
+					index.remove(eventId);
+				}
+
+				for (Map.Entry<String, Entry> entry : index.entries.entrySet()) {
+					writeRecord(out, APPLIED, index.serviceId, entry.getKey(), index.label,
+							entry.getValue().timeMillis, entry.getValue().recordedMillis);
+					count++;
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+
+		try {
+			Path tempFile = Files.createTempFile(file.getParent(), FILE_NAME, ".tmp");
+
+			try {
+				try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+					outputStream.write(records.toByteArray());
+				}
+
+				channel.close();
+				Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				Files.deleteIfExists(tempFile);
+			}
+
+			channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		} catch (IOException e) {
+			Log.warn("Failed compacting label ledger " + file + ", continuing in memory - " + e);
+			close();
+		}
+
+		recordCount = count;
+		liveCount = count;
+	}
+
+	private void load() throws IOException {
+		Files.createDirectories(file.getParent());
+
+		if (!lock()) {
+			Log.warn("Label ledger " + file + " is in use by another process, keeping it in memory");
+			return;
+		}
+
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+
+		long size = channel.size();
+		int version = VERSION;
+
+		if (size == 0) {
+			ByteArrayOutputStream header = new ByteArrayOutputStream();
+
+			try (DataOutputStream out = new DataOutputStream(header)) {
+				writeHeader(out);
+			}
+
+			channel.write(ByteBuffer.wrap(header.toByteArray()));
+		} else {
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+			if ((size < HEADER_SIZE) || (buffer.getInt() != MAGIC)) {
+				throw new IOException("Not a label ledger - " + file);
+			}
+
+			version = buffer.get();
+
+			if ((version < 1) || (version > VERSION)) {
+				throw new IOException("Unknown label ledger version " + version + " - " + file);
+			}
+
+			int end = buffer.position();
+
+			try {
+				while (buffer.hasRemaining()) {
+					byte type = buffer.get();
+					String serviceId = readString(buffer);
+					String eventId = readString(buffer);
+					String label = readString(buffer);
+					long timeMillis = buffer.getLong();
+					long recordedMillis = ((version > 1) ? buffer.getLong() : 0l);
+
+					apply(type, serviceId, eventId, label, timeMillis, recordedMillis);
+					end = buffer.position();
+				}
+			} catch (BufferUnderflowException e) {
+				Log.warn("Truncating a partial record at the end of label ledger " + file);
+			}
+
+			if (end < size) {
+				channel.truncate(end);
+			}
+		}
+
+		channel.close();
+		channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+		if ((version != VERSION) || ((recordCount > MIN_COMPACTION_RECORDS) && (recordCount > (liveCount * 2)))) {
+			compact();
+		}
+	}
+
+	// Takes the directory's lock for the life of the process, or returns false if another process
+	// (or another ledger of this one) holds it.
+	//
+	private boolean lock() throws IOException {
+		lockChannel = FileChannel.open(file.resolveSibling(LOCK_FILE_NAME), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE);
+
+		try {
+			lock = lockChannel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			lock = null;
+		}
+
+		if (lock == null) {
+			lockChannel.close();
+			lockChannel = null;
+			return false;
+		}
+
+		return true;
+	}
+
+	// Continues in memory, and lets another process take the directory.
+	//
+	void close() {
+		try {
+			if (channel != null) {
+				channel.close();
+			}
+		} catch (IOException e) {
+			// Nothing more to do with it.
+		}
+
+		try {
+			if (lockChannel != null) {
+				lockChannel.close();
+			}
+		} catch (IOException e) {
+			// Closing the channel released the lock, or the process is done with it anyway.
+		}
+
+		channel = null;
+		lock = null;
+		lockChannel = null;
+	}
+
+	private static void writeHeader(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+	}
+
+	private static void writeRecord(DataOutputStream out, byte type, String serviceId, String eventId, String label,
+			long timeMillis, long recordedMillis) throws IOException {
+		out.writeByte(type);
+		out.writeUTF(serviceId);
+		out.writeUTF(eventId);
+		out.writeUTF(label);
+		out.writeLong(timeMillis);
+		out.writeLong(recordedMillis);
+	}
+
+	// Matches DataOutputStream.writeUTF for the ids and labels we store, which have no nulls or
+	// supplementary characters.
+	//
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getShort() & 0xFFFF;
+		byte[] bytes = new byte[length];
+
+		buffer.get(bytes);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static String indexKey(String serviceId, String label) {
+		return serviceId + "/" + label;
+	}
+
+	static LabelLedger open(String directory, long ttlMillis) {
+		if (Strings.isNullOrEmpty(directory)) {
+			return new LabelLedger(null, ttlMillis);
+		}
+
+		LabelLedger result = new LabelLedger(Paths.get(directory, FILE_NAME), ttlMillis);
+
+		try {
+			result.load();
+		} catch (IOException | RuntimeException e) {
+			Log.warn("Failed opening label ledger under " + directory + ", keeping it in memory - " + e);
+			result.close();
+		}
+
+		return result;
+	}
+
+	private static class Entry {
+		final long timeMillis;
+		final long recordedMillis;
+
+		Entry(long timeMillis, long recordedMillis) {
+			this.timeMillis = timeMillis;
+			this.recordedMillis = recordedMillis;
+		}
+	}
+
+	private static class LabelIndex {
+		final String serviceId;
+		final String label;
+		final Map<String, Entry> entries;
+		final NavigableMap<Long, Set<String>> byTime;
+
+		LabelIndex(String serviceId, String label) {
+			this.serviceId = serviceId;
+			this.label = label;
+			this.entries = Maps.newHashMap();
+			this.byTime = new TreeMap<>();
+		}
+
+		void put(String eventId, Entry entry) {
+			entries.put(eventId, entry);
+			byTime.computeIfAbsent(entry.timeMillis, t -> Sets.newHashSet()).add(eventId);
+		}
+
+		// The events labeled before the given time, whatever their TTL.
+		//
+		Set<String> before(long timeMillis) {
+			Set<String> result = Sets.newHashSet();
+
+			for (Set<String> eventIds : byTime.headMap(timeMillis, false).values()) {
+				result.addAll(eventIds);
+			}
+
+			return result;
+		}
+
+		boolean remove(String eventId) {
+			Entry entry = entries.remove(eventId);
+
+			if (entry == null) {
+				return false;
+			}
+
+			Set<String> eventIds = byTime.get(entry.timeMillis);
+			eventIds.remove(eventId);
+
+			if (eventIds.isEmpty()) {
+				byTime.remove(entry.timeMillis);
+			}
+
+			return true;
+		}
+	}
+}
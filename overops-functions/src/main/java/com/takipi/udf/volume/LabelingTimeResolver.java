@@ -0,0 +1,191 @@
+package com.takipi.udf.volume;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.takipi.api.client.ApiClient;
+import com.takipi.api.client.data.event.Action;
+import com.takipi.api.client.request.event.EventActionsRequest;
+import com.takipi.api.client.result.event.EventActionsResult;
+import com.takipi.api.client.result.event.EventResult;
+import com.takipi.api.core.url.UrlClient.Response;
+import com.takipi.common.util.CollectionUtil;
+import com.takipi.udf.Deadline;
+import com.takipi.udf.concurrent.FanOut;
+import com.takipi.udf.log.Log;
+
+// Resolves when a label was last added to events, from their event actions. Both removing
+// expired anomaly labels and filtering recently alerted events need it, for every labeled event
+// of the view:
+//
+// - Events are resolved together, with the event actions fetched concurrently (bounded per host
+//   by FanOut) instead of one round trip after the other.
+// - Every event is resolved at most once per execution, whichever pass asks first.
+// - Resolved times are kept across executions in the LabelLedger, along with the labels
+//   AnomalyUtil applies and removes, so the api is only queried for events the ledger doesn't
+//   know, or last heard of longer ago than its TTL.
+//
+// Events not resolved because the deadline ran low are left out, callers tell them apart with
+// isResolved().
+//
+public class LabelingTimeResolver {
+	private static final String LABEL_ADD = "ADD_LABEL";
+	private static final String LABEL_TYPE = "LABEL";
+
+	private static final DateTimeFormatter fmt = ISODateTimeFormat.dateTime().withZoneUTC();
+
+	// Absent from the map - not resolved. Mapped to an absent time - resolved, the label has no
+	// add action.
+	//
+	private final Map<String, Optional<DateTime>> resolved;
+
+	private final ApiClient apiClient;
+	private final String apiHost;
+	private final String serviceId;
+	private final String label;
+
+	private LabelingTimeResolver(ApiClient apiClient, String apiHost, String serviceId, String label) {
+		this.resolved = Maps.newConcurrentMap();
+		this.apiClient = apiClient;
+		this.apiHost = apiHost;
+		this.serviceId = serviceId;
+		this.label = label;
+	}
+
+	// Resolves the events that aren't yet, from the ledger where possible and the api otherwise.
+	// Once the deadline runs low, the remaining events are left unresolved.
+	//
+	public void resolve(Collection<EventResult> events, Deadline deadline) {
+		LabelLedger ledger = LabelLedger.instance();
+		Set<String> missingIds = Sets.newLinkedHashSet();
+
+		for (EventResult event : events) {
+			if (resolved.containsKey(event.id)) {
+				continue;
+			}
+
+			Long appliedAt = ledger.appliedAt(serviceId, event.id, label);
+
+			if (appliedAt != null) {
+				resolved.put(event.id, Optional.of(new DateTime(appliedAt.longValue())));
+			} else {
+				missingIds.add(event.id);
+			}
+		}
+
+		if ((missingIds.isEmpty()) || (deadline.isRunningLow())) {
+			return;
+		}
+
+		List<DateTime> times = FanOut.map(apiHost, missingIds,
+				eventId -> ((!deadline.isRunningLow()) ? fetch(eventId) : null));
+
+		// Only times are kept across executions - a label without an add action is unexpected,
+		// and is looked up again next time.
+		//
+		Map<String, Long> reconciled = Maps.newLinkedHashMap();
+		int i = 0;
+
+		for (String eventId : missingIds) {
+			DateTime time = times.get(i++);
+
+			if (time != null) {
+				reconciled.put(eventId, time.getMillis());
+			}
+		}
+
+		ledger.reconciled(serviceId, label, reconciled);
+	}
+
+	// The events whose label the ledger knows was applied before the given time, whether they were
+	// resolved or not.
+	//
+	public Set<String> labeledBefore(DateTime time) {
+		return LabelLedger.instance().appliedBefore(serviceId, label, time.getMillis());
+	}
+
+	public boolean isResolved(String eventId) {
+		return resolved.containsKey(eventId);
+	}
+
+	// The latest time the label was added to the event, or null if it's unresolved or never was.
+	//
+	public DateTime get(String eventId) {
+		Optional<DateTime> result = resolved.get(eventId);
+
+		return (((result != null) && (result.isPresent())) ? result.get() : null);
+	}
+
+	private DateTime fetch(String eventId) {
+		EventActionsRequest request = EventActionsRequest.newBuilder().setServiceId(serviceId).setEventId(eventId)
+				.build();
+
+		Response<EventActionsResult> response = apiClient.get(request);
+
+		// A failed lookup counts as resolved without a time for this execution, as if the label
+		// was never added.
+		//
+		if (response.isBadResponse()) {
+			Log.warn("Could not get event actions for " + eventId + " code: " + response.responseCode);
+			resolved.put(eventId, Optional.empty());
+
+			return null;
+		}
+
+		DateTime result = null;
+
+		if ((response.data != null) && (!CollectionUtil.safeIsEmpty(response.data.event_actions))) {
+			for (Action action : response.data.event_actions) {
+
+				if (!(LABEL_ADD.equals(action.action)) || (!LABEL_TYPE.equals(action.type))
+						|| (!label.equals(action.data))) {
+					continue;
+				}
+
+				DateTime actionTime = fmt.parseDateTime(action.timestamp);
+
+				if ((result == null) || (actionTime.isAfter(result))) {
+					result = actionTime;
+				}
+			}
+		}
+
+		resolved.put(eventId, Optional.ofNullable(result));
+
+		return result;
+	}
+
+	// Called once the label is added to events, so later executions don't have to look it up.
+	//
+	public static void labeled(String serviceId, Collection<EventResult> events, String label, DateTime time) {
+		LabelLedger.instance().applied(serviceId, ids(events), label, time.getMillis());
+	}
+
+	// Called once the label is removed from events. If they're labeled again, their time is looked
+	// up again.
+	//
+	public static void unlabeled(String serviceId, Collection<String> eventIds, String label, DateTime time) {
+		LabelLedger.instance().removed(serviceId, eventIds, label, time.getMillis());
+	}
+
+	private static Collection<String> ids(Collection<EventResult> events) {
+		return events.stream().map(event -> event.id).collect(Collectors.toList());
+	}
+
+	// Fetches are bounded per api host, keyed by the context args' host like every other fan out
+	// to the api, so they share one limit.
+	//
+	public static LabelingTimeResolver of(ApiClient apiClient, String apiHost, String serviceId, String label) {
+		return new LabelingTimeResolver(apiClient, apiHost, serviceId, label);
+	}
+}
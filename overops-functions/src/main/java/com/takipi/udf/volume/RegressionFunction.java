@@ -2,13 +2,13 @@ package com.takipi.udf.volume;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import org.joda.time.DateTime;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
-import com.google.gson.Gson;
 import com.takipi.api.client.ApiClient;
 import com.takipi.api.client.result.event.EventResult;
 import com.takipi.api.client.util.regression.RateRegression;
@@ -18,7 +18,11 @@ import com.takipi.api.client.util.regression.RegressionUtil;
 import com.takipi.common.util.CollectionUtil;
 import com.takipi.udf.ContextArgs;
 import com.takipi.udf.input.Input;
+import com.takipi.udf.input.InputCache;
 import com.takipi.udf.input.TimeInterval;
+import com.takipi.udf.log.Log;
+import com.takipi.udf.trace.Phase;
+import com.takipi.udf.trace.PhaseTrace;
 import com.takipi.udf.util.TestUtil;
 
 public class RegressionFunction {
@@ -27,7 +31,11 @@ public class RegressionFunction {
 	}
 
 	static RegressionFunctionInput parseRegressionInput(String rawInput) {
-		System.out.println("validateInput rawInput:" + rawInput);
+		return InputCache.get(RegressionFunctionInput.class, rawInput, RegressionFunction::validateRegressionInput);
+	}
+
+	private static RegressionFunctionInput validateRegressionInput(String rawInput) {
+		Log.debug("validateInput rawInput:" + rawInput);
 
 		if (Strings.isNullOrEmpty(rawInput)) {
 			throw new IllegalArgumentException("Input is empty");
@@ -81,63 +89,79 @@ public class RegressionFunction {
 	}
 
 	public static void execute(String rawContextArgs, String rawInput) {
-		System.out.println("execute:" + rawContextArgs);
+		Log.debug("execute:" + rawContextArgs);
 
-		ContextArgs args = (new Gson()).fromJson(rawContextArgs, ContextArgs.class);
+		ContextArgs args = ContextArgs.parse(rawContextArgs);
 
-		ApiClient apiClient = args.apiClient();
+		try {
+			ApiClient apiClient = args.apiClient();
 
-		if (!args.viewValidate()) {
-			throw new IllegalArgumentException("Invalid context args - " + rawContextArgs);
-		}
+			if (!args.viewValidate()) {
+				throw new IllegalArgumentException("Invalid context args - " + rawContextArgs);
+			}
 
-		RegressionFunctionInput input = parseRegressionInput(rawInput);
+			RegressionFunctionInput input = parseRegressionInput(rawInput);
 
-		System.out.println("Calculating regressions\n");
+			Log.debug("Calculating regressions\n");
 
-		RegressionInput regressionInput = new RegressionInput();
+			RegressionInput regressionInput = new RegressionInput();
 
-		regressionInput.serviceId = args.serviceId;
-		regressionInput.viewId = args.viewId;
-		regressionInput.activeTimespan = input.activeTimespan.asMinutes();
-		regressionInput.baselineTimespan = input.baseTimespan.asMinutes();
-		regressionInput.minVolumeThreshold = input.minVolumeThreshold;
-		regressionInput.minErrorRateThreshold = input.minErrorRateThreshold / 100;
-		regressionInput.regressionDelta = input.regressionDelta / 100;
-		regressionInput.applySeasonality = true;
+			regressionInput.serviceId = args.serviceId;
+			regressionInput.viewId = args.viewId;
+			regressionInput.activeTimespan = input.activeTimespan.asMinutes();
+			regressionInput.baselineTimespan = input.baseTimespan.asMinutes();
+			regressionInput.minVolumeThreshold = input.minVolumeThreshold;
+			regressionInput.minErrorRateThreshold = input.minErrorRateThreshold / 100;
+			regressionInput.regressionDelta = input.regressionDelta / 100;
+			regressionInput.applySeasonality = true;
 
-		if (input.appName != null) {
-			regressionInput.applictations = Arrays.asList(input.appName.split(","));
-		}
+			if (input.appName != null) {
+				regressionInput.applictations = Arrays.asList(input.appName.split(","));
+			}
 
-		RateRegression rateRegression = RegressionUtil.calculateRateRegressions(apiClient, regressionInput, System.out,
-				false);
+			RateRegression rateRegression;
 
-		AnomalyUtil.removeAnomalyLabel(rateRegression.getNonRegressions(), apiClient, args.serviceId,
-				input.max_interval, input.label);
+			PhaseTrace.Span evaluation = PhaseTrace.begin(Phase.EVALUATION);
 
-		Collection<RegressionResult> activeRegressions = rateRegression.getAllRegressions().values();
+			try {
+				rateRegression = RegressionUtil.calculateRateRegressions(apiClient, regressionInput,
+						Log.debugStream(), false);
+			} finally {
+				evaluation.close();
+			}
 
-		if (activeRegressions.size() == 0) {
-			System.out.println("No anomalies found");
-			return;
-		}
+			LabelingTimeResolver labelingTimes = LabelingTimeResolver.of(apiClient, args.apiHost, args.serviceId,
+					input.label);
 
-		List<EventResult> candidates = Lists.newArrayList();
+			AnomalyUtil.removeAnomalyLabel(rateRegression.getNonRegressions(), apiClient, args.serviceId,
+					input.max_interval, input.label, labelingTimes, args.deadline());
 
-		for (RegressionResult regressionResult : activeRegressions) {
-			candidates.add(regressionResult.getEvent());
-		}
+			Collection<RegressionResult> activeRegressions = rateRegression.getAllRegressions().values();
 
-		Collection<EventResult> contributors = AnomalyUtil.filterAnomalyEvents(candidates, apiClient, args.serviceId,
-				input.min_interval, input.label, AnomalyUtil.MAX_ANOMALY_CONTRIBUTORS);
+			if (activeRegressions.size() == 0) {
+				Log.info("No anomalies found");
+				return;
+			}
 
-		if (CollectionUtil.safeIsEmpty(contributors)) {
-			return;
-		}
+			List<EventResult> candidates = Lists.newArrayList();
+
+			for (RegressionResult regressionResult : activeRegressions) {
+				candidates.add(regressionResult.getEvent());
+			}
 
-		AnomalyUtil.reportAnomaly(apiClient, args.serviceId, args.viewId, contributors, input.label,
-				rateRegression.getActiveWndowStart(), DateTime.now(), input.toString());
+			Collection<EventResult> contributors = AnomalyUtil.filterAnomalyEvents(candidates, apiClient, args.serviceId,
+					input.min_interval, input.label, AnomalyUtil.MAX_ANOMALY_CONTRIBUTORS, Collections.emptySet(),
+					labelingTimes, args.deadline());
+
+			if (CollectionUtil.safeIsEmpty(contributors)) {
+				return;
+			}
+
+			AnomalyUtil.reportAnomaly(apiClient, args.serviceId, args.viewId, contributors, input.label,
+					rateRegression.getActiveWndowStart(), DateTime.now(), input.toString());
+		} finally {
+			args.close();
+		}
 	}
 
 	static class RegressionFunctionInput extends Input {
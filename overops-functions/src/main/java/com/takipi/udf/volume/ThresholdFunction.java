@@ -1,25 +1,27 @@
 package com.takipi.udf.volume;
 
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.ISODateTimeFormat;
 
 import com.google.common.base.Strings;
-import com.google.gson.Gson;
 import com.takipi.api.client.ApiClient;
-import com.takipi.api.client.data.transaction.Transaction;
 import com.takipi.api.client.request.event.EventsVolumeRequest;
 import com.takipi.api.client.result.event.EventResult;
 import com.takipi.api.client.result.event.EventsResult;
-import com.takipi.api.client.util.transaction.TransactionUtil;
 import com.takipi.api.client.util.validation.ValidationUtil.VolumeType;
 import com.takipi.api.core.url.UrlClient.Response;
 import com.takipi.udf.ContextArgs;
+import com.takipi.udf.concurrent.FanOut;
 import com.takipi.udf.input.Input;
+import com.takipi.udf.input.InputCache;
 import com.takipi.udf.input.TimeInterval;
+import com.takipi.udf.log.Log;
+import com.takipi.udf.trace.Phase;
+import com.takipi.udf.trace.PhaseTrace;
 
 public class ThresholdFunction {
 
@@ -28,7 +30,11 @@ public class ThresholdFunction {
 	private static final DateTimeFormatter fmt = ISODateTimeFormat.dateTime().withZoneUTC();
 
 	static ThresholdInput getThresholdInput(String rawInput) {
-		System.out.println("validateInput rawInput:" + rawInput);
+		return InputCache.get(ThresholdInput.class, rawInput, ThresholdFunction::parseThresholdInput);
+	}
+
+	private static ThresholdInput parseThresholdInput(String rawInput) {
+		Log.debug("validateInput rawInput:" + rawInput);
 
 		if (Strings.isNullOrEmpty(rawInput)) {
 			throw new IllegalArgumentException("Input is empty");
@@ -107,110 +113,153 @@ public class ThresholdFunction {
 		return eventsVolumeResult.events;
 	}
 
-	private static long getTransactionVolume(ApiClient apiClient, String serviceId, String viewId, DateTime from,
-			DateTime to) {
+	static void execute(String rawContextArgs, ThresholdInput input) {
 
-		Map<String, Transaction> transactions = TransactionUtil.getTransactions(apiClient, serviceId, viewId, from, to);
+		Log.debug("execute:" + rawContextArgs);
 
-		long result = 0;
+		ContextArgs args = ContextArgs.parse(rawContextArgs);
 
-		for (Transaction transaction : transactions.values()) {
-			if (transaction.stats != null) {
-				result += transaction.stats.invocations;
+		try {
+			if (!args.viewValidate()) {
+				throw new IllegalArgumentException("Invalid context args - " + rawContextArgs);
 			}
-		}
 
-		return result;
-	}
+			ApiClient apiClient = args.apiClient();
 
-	static void execute(String rawContextArgs, ThresholdInput input) {
+			VolumeType volumeType = ((input.relative_to == null) || (input.relative_to == Mode.Method_Calls)
+					? VolumeType.all
+					: VolumeType.hits);
 
-		System.out.println("execute:" + rawContextArgs);
+			int timespan = (input.timespan != null) ? input.timespan.asMinutes() : DEFAULT_TIME_WINDOW;
 
-		ContextArgs args = (new Gson()).fromJson(rawContextArgs, ContextArgs.class);
+			boolean withTransactions = (input.relative_to == Mode.Thread_Calls);
 
-		if (!args.viewValidate()) {
-			throw new IllegalArgumentException("Invalid context args - " + rawContextArgs);
-		}
+			DateTime to;
+			DateTime from;
+			List<EventResult> events;
+			long transactionInvocations = 0l;
 
-		ApiClient apiClient = args.apiClient();
+			VolumeWindow window = null;
 
-		VolumeType volumeType = ((input.relative_to == null) || (input.relative_to == Mode.Method_Calls)
-				? VolumeType.all
-				: VolumeType.hits);
+			if (input.incremental) {
+				window = VolumeWindow.of(apiClient, args.serviceId, args.viewId, volumeType, timespan, withTransactions);
 
-		int timespan = (input.timespan != null) ? input.timespan.asMinutes() : DEFAULT_TIME_WINDOW;
+				VolumeWindow.Snapshot snapshot = window.advance(args);
 
-		DateTime to = DateTime.now();
-		DateTime from = to.minusMinutes(timespan);
+				to = snapshot.to;
+				from = snapshot.from;
+				events = snapshot.events;
+				transactionInvocations = snapshot.transactionInvocations;
+			} else {
+				DateTime windowTo = DateTime.now();
+				DateTime windowFrom = windowTo.minusMinutes(timespan);
 
-		List<EventResult> events = getEventVolume(apiClient, args.serviceId, args.viewId, from, to, volumeType);
+				// The transaction total is fetched along with the event volume rather than after it.
+				//
+				FanOut.Group group = FanOut.group(args.apiHost);
 
-		if (events == null) {
-			return;
-		}
+				FanOut.Task<List<EventResult>> eventsTask = group.add(() -> getEventVolume(apiClient, args.serviceId,
+						args.viewId, windowFrom, windowTo, volumeType));
+				FanOut.Task<Long> transactionsTask = (withTransactions
+						? group.add(() -> TransactionVolume.get(args, windowFrom, windowTo))
+						: null);
 
-		AnomalyUtil.removeAnomalyLabel(events, apiClient, args.serviceId, input.max_interval, input.label);
+				group.join();
 
-		List<EventResult> relevantEvents = AnomalyUtil.filterAnomalyEvents(events, apiClient, args.serviceId,
-				input.min_interval, input.label, 0);
+				to = windowTo;
+				from = windowFrom;
+				events = eventsTask.get();
 
-		if (relevantEvents.isEmpty()) {
-			return;
-		}
+				if (transactionsTask != null) {
+					transactionInvocations = transactionsTask.get().longValue();
+				}
+			}
 
-		long hitCount = ThresholdUtil.getEventsHits(relevantEvents);
+			if (events == null) {
+				return;
+			}
 
-		if ((input.threshold > 0) && (hitCount <= input.threshold)) {
-			return;
-		}
+			LabelingTimeResolver labelingTimes = LabelingTimeResolver.of(apiClient, args.apiHost, args.serviceId,
+					input.label);
 
-		boolean thresholdExceeded = false;
+			Set<String> unlabeledIds = AnomalyUtil.removeAnomalyLabel(events, apiClient, args.serviceId,
+					input.max_interval, input.label, labelingTimes, args.deadline());
 
-		Mode mode = (input.relative_to != null) ? input.relative_to : Mode.Method_Calls;
+			if (window != null) {
+				window.unlabeled(unlabeledIds, input.label);
+			}
 
-		ThresholdUtil.sortEventsByHitsDesc(relevantEvents);
+			EventVolumeFrame relevantEvents = EventVolumeFrame.of(events);
 
-		switch (mode) {
+			AnomalyUtil.filterAnomalyEvents(relevantEvents, input.min_interval, input.label, 0, unlabeledIds,
+					labelingTimes, args.deadline());
 
-		case Absolute: {
-			thresholdExceeded = true;
-		}
-			break;
+			if (relevantEvents.isEmpty()) {
+				return;
+			}
 
-		case Method_Calls: {
+			long hitCount = relevantEvents.hitSum();
 
-			long invocationsCount = ThresholdUtil.getEventsInvocations(relevantEvents, hitCount);
-			double failRate = (hitCount / (double) invocationsCount) * 100.0;
+			if ((input.threshold > 0) && (hitCount <= input.threshold)) {
+				return;
+			}
 
-			thresholdExceeded = (failRate >= input.rate);
-		}
-			break;
+			boolean thresholdExceeded = false;
 
-		case Thread_Calls: {
+			Mode mode = (input.relative_to != null) ? input.relative_to : Mode.Method_Calls;
 
-			long transactionInvocationsCount = getTransactionVolume(apiClient, args.serviceId, args.viewId, from, to);
+			// Left open if evaluating fails, an uncommitted phase isn't recorded.
+			//
+			PhaseTrace.Span evaluation = PhaseTrace.begin(Phase.EVALUATION);
+
+			switch (mode) {
+
+			case Absolute: {
+				thresholdExceeded = true;
+			}
+				break;
+
+			case Method_Calls: {
+
+				long invocationsCount = relevantEvents.invocationSum(hitCount);
+				double failRate = EventVolumeFrame.rate(hitCount, invocationsCount);
+
+				Log.debug(() -> "hits: " + hitCount + " - inv: " + invocationsCount);
 
-			if (transactionInvocationsCount > 0l) {
-				double failRate = (hitCount / (double) transactionInvocationsCount) * 100.0;
 				thresholdExceeded = (failRate >= input.rate);
 			}
+				break;
 
-			break;
-		}
-		}
+			case Thread_Calls: {
 
-		System.out.println("Threshold response: " + thresholdExceeded);
+				if (transactionInvocations > 0l) {
+					double failRate = EventVolumeFrame.rate(hitCount, transactionInvocations);
+					thresholdExceeded = (failRate >= input.rate);
+				}
 
-		if (!thresholdExceeded) {
-			return;
-		}
+				break;
+			}
+			}
 
-		List<EventResult> contributors = relevantEvents.subList(0,
-				Math.min(relevantEvents.size(), AnomalyUtil.MAX_ANOMALY_CONTRIBUTORS));
+			evaluation.close();
+
+			Log.info("Threshold response: " + thresholdExceeded);
+
+			if (!thresholdExceeded) {
+				return;
+			}
 
-		AnomalyUtil.reportAnomaly(apiClient, args.serviceId, args.viewId, contributors, input.label, from, to,
-				input.toString());
+			List<EventResult> contributors = relevantEvents.topByHits(AnomalyUtil.MAX_ANOMALY_CONTRIBUTORS);
+
+			AnomalyUtil.reportAnomaly(apiClient, args.serviceId, args.viewId, contributors, input.label, from, to,
+					input.toString());
+
+			if (window != null) {
+				window.labeled(contributors, input.label);
+			}
+		} finally {
+			args.close();
+		}
 	}
 
 	static class ThresholdInput extends Input {
@@ -226,6 +275,11 @@ public class ThresholdFunction {
 		public TimeInterval min_interval;
 		public TimeInterval max_interval;
 
+		// Keep the window's volume across executions and only fetch what's new since the last one,
+		// see VolumeWindow.
+		//
+		public boolean incremental;
+
 		private ThresholdInput(String raw) {
 			super(raw);
 		}
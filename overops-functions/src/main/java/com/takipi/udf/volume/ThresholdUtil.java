@@ -6,6 +6,7 @@ import java.util.Comparator;
 import java.util.List;
 
 import com.takipi.api.client.result.event.EventResult;
+import com.takipi.udf.log.Log;
 
 public class ThresholdUtil {
 	public static void sortEventsByHitsDesc(List<EventResult> events) {
@@ -48,7 +49,7 @@ public class ThresholdUtil {
 				continue;
 			}
 
-			System.out.println(event.id + ": " + event.summary + " - hits: " + event.stats.hits + " - inv: "
+			Log.debug(() -> event.id + ": " + event.summary + " - hits: " + event.stats.hits + " - inv: "
 					+ event.stats.invocations);
 
 			invocations += Math.max(event.stats.invocations, event.stats.hits);
@@ -0,0 +1,55 @@
+package com.takipi.udf.volume;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.takipi.api.client.request.transaction.TransactionsVolumeRequest;
+import com.takipi.udf.ContextArgs;
+
+// Total transaction invocations of a view over a window, for the Thread_Calls threshold mode. The
+// total is reduced from the response as it is read, and cached by service, view and window. The
+// window is rounded down to the minute, so thresholds on the same view within a minute share one
+// fetch, at the cost of the total trailing the event volume by up to a minute.
+//
+class TransactionVolume {
+	private static final int MAX_TOTALS = 4096;
+	private static final long TOTAL_TTL_MINUTES = 2;
+
+	private static final long BUCKET_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+	private static final DateTimeFormatter fmt = ISODateTimeFormat.dateTime().withZoneUTC();
+
+	private static final Cache<String, Long> totals = CacheBuilder.newBuilder().maximumSize(MAX_TOTALS)
+			.expireAfterWrite(TOTAL_TTL_MINUTES, TimeUnit.MINUTES).build();
+
+	static long get(ContextArgs args, DateTime from, DateTime to) {
+		long fromMillis = (from.getMillis() / BUCKET_MILLIS) * BUCKET_MILLIS;
+		long toMillis = (to.getMillis() / BUCKET_MILLIS) * BUCKET_MILLIS;
+
+		String key = args.apiHost + "/" + args.serviceId + "/" + args.viewId + "/" + fromMillis + "/" + toMillis;
+
+		try {
+			return totals.get(key, () -> fetch(args, new DateTime(fromMillis), new DateTime(toMillis)));
+		} catch (ExecutionException | UncheckedExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+
+			throw new IllegalStateException("Failed getting transaction volume for " + key, e.getCause());
+		}
+	}
+
+	private static long fetch(ContextArgs args, DateTime from, DateTime to) {
+		TransactionsVolumeRequest request = TransactionsVolumeRequest.newBuilder().setServiceId(args.serviceId)
+				.setViewId(args.viewId).setFrom(from.toString(fmt)).setTo(to.toString(fmt)).build();
+
+		return args.transactionsStream().invocations(request);
+	}
+}
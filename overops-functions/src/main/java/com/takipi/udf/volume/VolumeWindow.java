@@ -0,0 +1,380 @@
+package com.takipi.udf.volume;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.takipi.api.client.ApiClient;
+import com.takipi.api.client.data.event.Stats;
+import com.takipi.api.client.request.event.EventsVolumeRequest;
+import com.takipi.api.client.result.event.EventResult;
+import com.takipi.api.client.result.event.EventsResult;
+import com.takipi.api.client.util.validation.ValidationUtil.VolumeType;
+import com.takipi.api.core.url.UrlClient.Response;
+import com.takipi.udf.ContextArgs;
+import com.takipi.udf.concurrent.FanOut;
+
+// Event volume over a sliding window of the last timespan minutes, kept across executions so every
+// tick only fetches the volume since the previous one instead of the whole window.
+//
+// The window is made of buckets, oldest first. Each tick fetches [watermark, now) into new
+// buckets, rounded down to the minute, and evicts the buckets that fell out of the window. The
+// first tick, or one after a gap longer than the window, fetches the whole window at once. Such a
+// bucket is counted in proportion to the part of it still inside the window until it is evicted,
+// so totals are approximate for up to one timespan after a full fetch.
+//
+// Volume is aggregated with a delay, so the last -Dudf.volume.settle minutes (3 by default) are
+// not final when first fetched. They're kept in an unsettled bucket of their own, which every tick
+// drops and fetches again along with the minutes since. A tick costs two small fetches - the
+// minutes that settled since the last one, and the unsettled tail.
+//
+// Event details (labels, locations) are copied from the latest fetch that returned the event, with
+// the labels the function applied or removed since laid over them.
+//
+public class VolumeWindow {
+	public static final String SETTLE_PROPERTY = "udf.volume.settle";
+
+	private static final int MAX_WINDOWS = 1024;
+	private static final long WINDOW_IDLE_MINUTES = 60;
+	private static final long DEFAULT_SETTLE_MINUTES = 3;
+
+	private static final long BUCKET_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+	private static final DateTimeFormatter fmt = ISODateTimeFormat.dateTime().withZoneUTC();
+
+	private static final Cache<String, VolumeWindow> windows = CacheBuilder.newBuilder().maximumSize(MAX_WINDOWS)
+			.expireAfterAccess(WINDOW_IDLE_MINUTES, TimeUnit.MINUTES).build();
+
+	private final String serviceId;
+	private final String viewId;
+	private final VolumeType volumeType;
+	private final long timespanMillis;
+	private final long settleMillis;
+	private final boolean withTransactions;
+
+	private final Deque<Bucket> buckets;
+	private final Map<String, EventResult> latest;
+
+	// Sums of every bucket in the window, including the part of the oldest one that may already be
+	// outside it. Event ids are counted by the number of buckets they're in, to drop them from
+	// latest once the last one is evicted.
+	//
+	private final Map<String, long[]> totals;
+	private final Map<String, int[]> references;
+	private long transactionInvocations;
+
+	private VolumeWindow(String serviceId, String viewId, VolumeType volumeType, int timespan,
+			boolean withTransactions, long settleMillis) {
+		this.serviceId = serviceId;
+		this.viewId = viewId;
+		this.volumeType = volumeType;
+		this.timespanMillis = TimeUnit.MINUTES.toMillis(timespan);
+		this.settleMillis = (settleMillis / BUCKET_MILLIS) * BUCKET_MILLIS;
+		this.withTransactions = withTransactions;
+		this.buckets = new ArrayDeque<>();
+		this.latest = Maps.newHashMap();
+		this.totals = Maps.newHashMap();
+		this.references = Maps.newHashMap();
+	}
+
+	// Brings the window up to the current minute and returns its volume. If fetching fails the
+	// window is left as is, and the next tick fetches from the same watermark.
+	//
+	public Snapshot advance(ContextArgs args) {
+		return advance(args, DateTimeUtils.currentTimeMillis());
+	}
+
+	synchronized Snapshot advance(ContextArgs args, long nowMillis) {
+		long to = (nowMillis / BUCKET_MILLIS) * BUCKET_MILLIS;
+		long windowStart = to - timespanMillis;
+
+		evict(windowStart);
+
+		if ((!buckets.isEmpty()) && (buckets.peekLast().to > to)) {
+			clear();
+		}
+
+		Bucket last = buckets.peekLast();
+		Bucket unsettled = (((last != null) && (!last.settled)) ? last : null);
+
+		long watermark;
+
+		if (unsettled != null) {
+			watermark = unsettled.from;
+		} else {
+			watermark = ((last != null) ? last.to : windowStart);
+		}
+
+		long settleStart = Math.max(watermark, to - settleMillis);
+
+		// Both fetched before the window changes, so a failed fetch leaves it as is.
+		//
+		Bucket settled = ((watermark < settleStart) ? fetch(args, watermark, settleStart, true) : null);
+		Bucket tail = ((settleStart < to) ? fetch(args, settleStart, to, false) : null);
+
+		if (unsettled != null) {
+			remove(buckets.pollLast());
+		}
+
+		if (settled != null) {
+			add(settled);
+		}
+
+		if (tail != null) {
+			add(tail);
+		}
+
+		return snapshot(windowStart, to);
+	}
+
+	// Lays the label over the events the function labeled, until a later fetch returns them.
+	//
+	public synchronized void labeled(Collection<EventResult> events, String label) {
+		for (EventResult event : events) {
+			EventResult current = latest.get(event.id);
+
+			if ((current == null) || ((current.labels != null) && (current.labels.contains(label)))) {
+				continue;
+			}
+
+			List<String> labels = ((current.labels != null) ? Lists.newArrayList(current.labels)
+					: Lists.newArrayList());
+			labels.add(label);
+
+			current.labels = labels;
+		}
+	}
+
+	// Removes the label from the events the function unlabeled, until a later fetch returns them.
+	//
+	public synchronized void unlabeled(Collection<String> eventIds, String label) {
+		for (String eventId : eventIds) {
+			EventResult current = latest.get(eventId);
+
+			if ((current == null) || (current.labels == null) || (!current.labels.contains(label))) {
+				continue;
+			}
+
+			List<String> labels = Lists.newArrayList(current.labels);
+			labels.remove(label);
+
+			current.labels = labels;
+		}
+	}
+
+	private void evict(long windowStart) {
+		while ((!buckets.isEmpty()) && (buckets.peekFirst().to <= windowStart)) {
+			remove(buckets.pollFirst());
+		}
+	}
+
+	private void remove(Bucket bucket) {
+		for (Map.Entry<String, long[]> entry : bucket.counts.entrySet()) {
+			long[] total = totals.get(entry.getKey());
+			total[0] -= entry.getValue()[0];
+			total[1] -= entry.getValue()[1];
+
+			int[] count = references.get(entry.getKey());
+
+			if (--count[0] == 0) {
+				totals.remove(entry.getKey());
+				references.remove(entry.getKey());
+				latest.remove(entry.getKey());
+			}
+		}
+
+		transactionInvocations -= bucket.transactionInvocations;
+	}
+
+	// Events are copied, since the api client may hand the same results to other callers (see
+	// ViewSnapshots) and labeled() / unlabeled() change the ones kept here. Labels are replaced,
+	// never changed in place, so sharing the list is fine.
+	//
+	private void add(Bucket bucket) {
+		for (Map.Entry<String, long[]> entry : bucket.counts.entrySet()) {
+			long[] total = totals.computeIfAbsent(entry.getKey(), id -> new long[2]);
+			total[0] += entry.getValue()[0];
+			total[1] += entry.getValue()[1];
+
+			references.computeIfAbsent(entry.getKey(), id -> new int[1])[0]++;
+		}
+
+		for (EventResult event : bucket.events) {
+			latest.put(event.id, (EventResult) event.clone());
+		}
+
+		bucket.events = null;
+		transactionInvocations += bucket.transactionInvocations;
+		buckets.addLast(bucket);
+	}
+
+	private void clear() {
+		buckets.clear();
+		latest.clear();
+		totals.clear();
+		references.clear();
+		transactionInvocations = 0l;
+	}
+
+	private Snapshot snapshot(long windowStart, long to) {
+		Bucket oldest = buckets.peekFirst();
+
+		// The share of the oldest bucket that's already outside the window.
+		//
+		double expired = 0.0;
+
+		if ((oldest != null) && (oldest.from < windowStart)) {
+			expired = (windowStart - oldest.from) / (double) (oldest.to - oldest.from);
+		}
+
+		List<EventResult> events = Lists.newArrayListWithCapacity(latest.size());
+
+		for (EventResult event : latest.values()) {
+			long[] total = totals.get(event.id);
+			long[] oldestCounts = ((expired > 0.0) ? oldest.counts.get(event.id) : null);
+
+			Stats stats = new Stats();
+			stats.hits = total[0];
+			stats.invocations = total[1];
+
+			if (oldestCounts != null) {
+				stats.hits -= Math.round(oldestCounts[0] * expired);
+				stats.invocations -= Math.round(oldestCounts[1] * expired);
+			}
+
+			EventResult result = (EventResult) event.clone();
+			result.stats = stats;
+			result.labels = ((event.labels != null) ? Lists.newArrayList(event.labels) : null);
+
+			events.add(result);
+		}
+
+		long invocations = transactionInvocations;
+
+		if (expired > 0.0) {
+			invocations -= Math.round(oldest.transactionInvocations * expired);
+		}
+
+		return new Snapshot(new DateTime(windowStart), new DateTime(to), events, invocations);
+	}
+
+	private Bucket fetch(ContextArgs args, long from, long to, boolean settled) {
+		DateTime fromTime = new DateTime(from);
+		DateTime toTime = new DateTime(to);
+
+		EventsVolumeRequest eventsVolumeRequest = EventsVolumeRequest.newBuilder().setServiceId(serviceId)
+				.setViewId(viewId).setFrom(fromTime.toString(fmt)).setTo(toTime.toString(fmt))
+				.setVolumeType(volumeType).build();
+
+		ApiClient apiClient = args.apiClient();
+		FanOut.Group group = FanOut.group(args.apiHost);
+
+		FanOut.Task<Response<EventsResult>> eventsTask = group.add(() -> apiClient.get(eventsVolumeRequest));
+		FanOut.Task<Long> transactionsTask = (withTransactions
+				? group.add(() -> TransactionVolume.get(args, fromTime, toTime))
+				: null);
+
+		group.join();
+
+		Response<EventsResult> eventsVolumeResponse = eventsTask.get();
+
+		if (eventsVolumeResponse.isBadResponse()) {
+			throw new IllegalStateException("Can't create events volume.");
+		}
+
+		EventsResult eventsVolumeResult = eventsVolumeResponse.data;
+
+		if (eventsVolumeResult == null) {
+			throw new IllegalStateException("Missing events volume result.");
+		}
+
+		long invocations = ((transactionsTask != null) ? transactionsTask.get().longValue() : 0l);
+
+		Bucket result = new Bucket(from, to, invocations, settled);
+
+		if (eventsVolumeResult.events == null) {
+			return result;
+		}
+
+		for (EventResult event : eventsVolumeResult.events) {
+			long hits = ((event.stats != null) ? event.stats.hits : 0l);
+			long eventInvocations = ((event.stats != null) ? event.stats.invocations : 0l);
+
+			result.counts.put(event.id, new long[] { hits, eventInvocations });
+			result.events.add(event);
+		}
+
+		return result;
+	}
+
+	public static VolumeWindow of(ApiClient apiClient, String serviceId, String viewId, VolumeType volumeType,
+			int timespan, boolean withTransactions) {
+		String key = apiClient.getHostname() + "/" + serviceId + "/" + viewId + "/" + volumeType + "/" + timespan
+				+ "/" + withTransactions;
+
+		long settleMillis = TimeUnit.MINUTES.toMillis(Long.getLong(SETTLE_PROPERTY, DEFAULT_SETTLE_MINUTES));
+
+		try {
+			return windows.get(key, () -> of(serviceId, viewId, volumeType, timespan, withTransactions, settleMillis));
+		} catch (ExecutionException | UncheckedExecutionException e) {
+			throw new IllegalStateException("Failed creating volume window for " + key, e.getCause());
+		}
+	}
+
+	static VolumeWindow of(String serviceId, String viewId, VolumeType volumeType, int timespan,
+			boolean withTransactions, long settleMillis) {
+		return new VolumeWindow(serviceId, viewId, volumeType, timespan, withTransactions, settleMillis);
+	}
+
+	private static class Bucket {
+		final long from;
+		final long to;
+		final long transactionInvocations;
+		final boolean settled;
+
+		// Hits and invocations by event id, for every event the fetch returned.
+		//
+		final Map<String, long[]> counts;
+
+		// The events the fetch returned, until they're added to the window.
+		//
+		List<EventResult> events;
+
+		Bucket(long from, long to, long transactionInvocations, boolean settled) {
+			this.from = from;
+			this.to = to;
+			this.transactionInvocations = transactionInvocations;
+			this.settled = settled;
+			this.counts = Maps.newHashMap();
+			this.events = Lists.newArrayList();
+		}
+	}
+
+	public static class Snapshot {
+		public final DateTime from;
+		public final DateTime to;
+		public final List<EventResult> events;
+		public final long transactionInvocations;
+
+		private Snapshot(DateTime from, DateTime to, List<EventResult> events, long transactionInvocations) {
+			this.from = from;
+			this.to = to;
+			this.events = events;
+			this.transactionInvocations = transactionInvocations;
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package com.takipi.udf.infra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.joda.time.DateTimeUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.takipi.udf.api.fixture.ApiFixtures;
+
+// Records a routing install against a local server, then replays it an hour later with the
+// server gone. The install's events request is windowed by the current time, so the replay only
+// finds its fixture if the clock is pinned to the recording.
+//
+public class RoutingFunctionReplayTest {
+	private static final String INPUT = "category_name=tiers";
+
+	private HttpServer server;
+	private AtomicInteger requests;
+	private Path directory;
+
+	@Before
+	public void setUp() throws IOException {
+		requests = new AtomicInteger();
+
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", this::handle);
+		server.start();
+
+		directory = Files.createTempDirectory("routing-fixtures");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		System.clearProperty(ApiFixtures.RECORD_PROPERTY);
+		System.clearProperty(ApiFixtures.REPLAY_PROPERTY);
+		DateTimeUtils.setCurrentMillisSystem();
+
+		server.stop(0);
+
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Files.delete(file);
+			}
+		}
+
+		Files.delete(directory);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+
+		byte[] body = "{\"events\":[]}".getBytes(StandardCharsets.UTF_8);
+
+		exchange.sendResponseHeaders(200, body.length);
+
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(body);
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void installsReplayAsRecorded() throws IOException {
+		String apiHost = "http://localhost:" + server.getAddress().getPort();
+
+		System.setProperty(ApiFixtures.RECORD_PROPERTY, directory.toString());
+		InfrastructureRoutingFunction.install(contextArgs(apiHost, "record-key"), INPUT);
+		System.clearProperty(ApiFixtures.RECORD_PROPERTY);
+
+		assertEquals(1, requests.get());
+		assertTrue(Files.exists(directory.resolve("clock")));
+
+		// A later run, without the server.
+		//
+		DateTimeUtils.setCurrentMillisOffset(TimeUnit.HOURS.toMillis(1));
+		server.stop(0);
+
+		System.setProperty(ApiFixtures.REPLAY_PROPERTY, directory.toString());
+		InfrastructureRoutingFunction.install(contextArgs(apiHost, "replay-key"), INPUT);
+
+		assertEquals(1, requests.get());
+	}
+
+	// Api clients are kept per host and key, so each run gets its own key and with it a client
+	// decorated for the run.
+	//
+	private static String contextArgs(String apiHost, String apiKey) {
+		return "{\"apiHost\":\"" + apiHost + "\",\"serviceId\":\"S1\",\"viewId\":\"P1\",\"apiKey\":\"" + apiKey
+				+ "\"}";
+	}
+}
@@ -0,0 +1,104 @@
+package com.takipi.udf.volume;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.takipi.api.client.data.event.Stats;
+import com.takipi.api.client.result.event.EventResult;
+
+public class EventVolumeFrameTest {
+	@Test
+	public void topByHitsMatchesAStableSort() {
+		Random random = new Random(7);
+
+		for (int size : new int[] { 1, 2, 10, 100, 1000 }) {
+			// Few distinct hit counts, so most events tie with others.
+			//
+			List<EventResult> events = Lists.newArrayList();
+
+			for (int i = 0; i < size; i++) {
+				events.add(event("E" + i, random.nextInt(5)));
+			}
+
+			EventVolumeFrame frame = EventVolumeFrame.of(events);
+
+			for (int k : new int[] { 1, 3, 10, size, size + 5 }) {
+				assertEquals("size " + size + ", k " + k, ids(top(events, k)), ids(frame.topByHits(k)));
+			}
+		}
+	}
+
+	@Test
+	public void topByHitsLeavesTheFrameAsIs() {
+		List<EventResult> events = Lists.newArrayList(event("A", 1), event("B", 3), event("C", 2));
+		EventVolumeFrame frame = EventVolumeFrame.of(events);
+
+		assertEquals(Lists.newArrayList("B", "C"), ids(frame.topByHits(2)));
+		assertEquals(Lists.newArrayList("B", "C", "A"), ids(frame.topByHits(3)));
+		assertEquals(Lists.newArrayList("B"), ids(frame.topByHits(1)));
+		assertEquals(ids(events), ids(frame.events()));
+	}
+
+	@Test
+	public void topOfNoneIsEmpty() {
+		EventVolumeFrame frame = EventVolumeFrame.of(Lists.newArrayList(event("A", 1)));
+
+		assertTrue(frame.topByHits(0).isEmpty());
+		assertTrue(frame.topByHits(-1).isEmpty());
+		assertTrue(EventVolumeFrame.of(Lists.newArrayList()).topByHits(5).isEmpty());
+	}
+
+	@Test
+	public void topByHitsOnlySeesTheRowsLeft() {
+		List<EventResult> events = Lists.newArrayList(event("A", 5), event("B", 1), event("C", 4), event("D", 9),
+				event("E", 4));
+		EventVolumeFrame frame = EventVolumeFrame.of(events);
+
+		frame.filter(row -> (!"D".equals(frame.id(row))));
+
+		assertEquals(Lists.newArrayList("A", "C", "E"), ids(frame.topByHits(3)));
+
+		frame.truncate(3);
+
+		assertEquals(Lists.newArrayList("A", "C", "B"), ids(frame.topByHits(5)));
+		assertEquals(10l, frame.hitSum());
+	}
+
+	@Test
+	public void eventsWithoutStatsCountAsZero() {
+		EventResult noStats = new EventResult();
+		noStats.id = "N";
+
+		EventVolumeFrame frame = EventVolumeFrame.of(Lists.newArrayList(noStats, event("A", 2)));
+
+		assertEquals(2l, frame.hitSum());
+		assertEquals(Lists.newArrayList("A", "N"), ids(frame.topByHits(2)));
+	}
+
+	private static List<EventResult> top(List<EventResult> events, int k) {
+		return events.stream().sorted(Comparator.comparingLong((EventResult event) -> event.stats.hits).reversed())
+				.limit(k).collect(Collectors.toList());
+	}
+
+	private static List<String> ids(List<EventResult> events) {
+		return events.stream().map(event -> event.id).collect(Collectors.toList());
+	}
+
+	private static EventResult event(String id, long hits) {
+		EventResult result = new EventResult();
+		result.id = id;
+		result.stats = new Stats();
+		result.stats.hits = hits;
+		result.stats.invocations = hits;
+
+		return result;
+	}
+}
@@ -0,0 +1,128 @@
+package com.takipi.udf.volume;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+public class LabelLedgerTest {
+	private static final String SERVICE_ID = "S1";
+	private static final String LABEL = "Anomaly";
+	private static final long TIME = 1000l;
+	private static final long TTL = TimeUnit.HOURS.toMillis(1);
+
+	private Path directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("label-ledger");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Files.delete(file);
+			}
+		}
+
+		Files.delete(directory);
+	}
+
+	@Test
+	public void entriesAreKeptAcrossProcesses() {
+		LabelLedger ledger = LabelLedger.open(directory.toString(), TTL);
+
+		ledger.applied(SERVICE_ID, Collections.singletonList("E1"), LABEL, TIME);
+		ledger.reconciled(SERVICE_ID, LABEL, ImmutableMap.of("E2", TIME + 1));
+		ledger.removed(SERVICE_ID, Collections.singletonList("E1"), LABEL, TIME + 2);
+		ledger.close();
+
+		LabelLedger reopened = LabelLedger.open(directory.toString(), TTL);
+
+		assertTrue(reopened.isDurable());
+		assertNull(reopened.appliedAt(SERVICE_ID, "E1", LABEL));
+		assertEquals(Long.valueOf(TIME + 1), reopened.appliedAt(SERVICE_ID, "E2", LABEL));
+		assertEquals(Collections.singleton("E2"), reopened.appliedBefore(SERVICE_ID, LABEL, TIME + 2));
+
+		reopened.close();
+	}
+
+	@Test
+	public void entriesPastTheTtlAreUnknown() {
+		LabelLedger ledger = LabelLedger.open(null, 0l);
+
+		ledger.applied(SERVICE_ID, Collections.singletonList("E1"), LABEL, TIME);
+
+		assertNull(ledger.appliedAt(SERVICE_ID, "E1", LABEL));
+		assertTrue(ledger.appliedBefore(SERVICE_ID, LABEL, TIME + 1).isEmpty());
+	}
+
+	@Test
+	public void aLockedDirectoryIsKeptInMemory() {
+		LabelLedger owner = LabelLedger.open(directory.toString(), TTL);
+		LabelLedger other = LabelLedger.open(directory.toString(), TTL);
+
+		assertTrue(owner.isDurable());
+		assertFalse(other.isDurable());
+
+		other.applied(SERVICE_ID, Collections.singletonList("E1"), LABEL, TIME);
+
+		assertEquals(Long.valueOf(TIME), other.appliedAt(SERVICE_ID, "E1", LABEL));
+
+		owner.close();
+
+		LabelLedger next = LabelLedger.open(directory.toString(), TTL);
+
+		assertTrue(next.isDurable());
+		assertNull(next.appliedAt(SERVICE_ID, "E1", LABEL));
+
+		next.close();
+	}
+
+	@Test
+	public void version1EntriesAreLookedUpAgain() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(0x5544464C);
+			out.writeByte(1);
+			out.writeByte(1);
+			out.writeUTF(SERVICE_ID);
+			out.writeUTF("E1");
+			out.writeUTF(LABEL);
+			out.writeLong(TIME);
+		}
+
+		Files.write(directory.resolve(LabelLedger.FILE_NAME), bytes.toByteArray());
+
+		LabelLedger ledger = LabelLedger.open(directory.toString(), TTL);
+
+		assertTrue(ledger.isDurable());
+		assertNull(ledger.appliedAt(SERVICE_ID, "E1", LABEL));
+
+		ledger.reconciled(SERVICE_ID, LABEL, ImmutableMap.of("E1", TIME));
+		ledger.close();
+
+		LabelLedger reopened = LabelLedger.open(directory.toString(), TTL);
+
+		assertEquals(Long.valueOf(TIME), reopened.appliedAt(SERVICE_ID, "E1", LABEL));
+
+		reopened.close();
+	}
+}
@@ -0,0 +1,168 @@
+package com.takipi.udf.volume;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.takipi.api.client.ApiClient;
+import com.takipi.api.client.data.event.Stats;
+import com.takipi.api.client.result.event.EventResult;
+import com.takipi.api.client.result.event.EventsResult;
+import com.takipi.api.client.util.validation.ValidationUtil.VolumeType;
+import com.takipi.api.core.request.intf.ApiGetRequest;
+import com.takipi.api.core.result.intf.ApiResult;
+import com.takipi.udf.ContextArgs;
+
+public class VolumeWindowTest {
+	private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+	private static final long NOW = TimeUnit.DAYS.toMillis(1);
+	private static final int TIMESPAN = 10;
+
+	private VolumeClient apiClient;
+	private ContextArgs args;
+
+	@Before
+	public void setUp() {
+		apiClient = new VolumeClient();
+
+		args = new ContextArgs() {
+			@Override
+			public synchronized ApiClient apiClient() {
+				return apiClient;
+			}
+		};
+
+		args.apiHost = "localhost";
+
+		for (long minute = NOW - (TIMESPAN * MINUTE); minute < NOW; minute += MINUTE) {
+			apiClient.hits.put(minute, 1l);
+		}
+	}
+
+	@Test
+	public void lateVolumeIsCountedOnceSettled() {
+		VolumeWindow window = window(TimeUnit.MINUTES.toMillis(3));
+
+		assertEquals(10l, hits(window.advance(args, NOW)));
+		assertEquals(2, apiClient.gets.get());
+
+		// Five hits of the last minute are only aggregated after it was first fetched.
+		//
+		apiClient.hits.put(NOW - MINUTE, 6l);
+		apiClient.hits.put(NOW, 1l);
+
+		assertEquals(15l, hits(window.advance(args, NOW + MINUTE)));
+		assertEquals(4, apiClient.gets.get());
+	}
+
+	@Test
+	public void withoutSettlingEveryMinuteIsFetchedOnce() {
+		VolumeWindow window = window(0l);
+
+		assertEquals(10l, hits(window.advance(args, NOW)));
+
+		apiClient.hits.put(NOW - MINUTE, 6l);
+		apiClient.hits.put(NOW, 1l);
+
+		assertEquals(10l, hits(window.advance(args, NOW + MINUTE)));
+		assertEquals(2, apiClient.gets.get());
+	}
+
+	@Test
+	public void keptEventsAreCopies() {
+		VolumeWindow window = window(0l);
+
+		window.advance(args, NOW);
+
+		apiClient.event.labels = Collections.singletonList("Other");
+
+		VolumeWindow.Snapshot snapshot = window.advance(args, NOW);
+
+		assertEquals(1, apiClient.gets.get());
+		assertEquals(Collections.singletonList("Anomaly"), snapshot.events.get(0).labels);
+	}
+
+	private static VolumeWindow window(long settleMillis) {
+		return VolumeWindow.of("S1", "V1", VolumeType.hits, TIMESPAN, false, settleMillis);
+	}
+
+	private static long hits(VolumeWindow.Snapshot snapshot) {
+		long result = 0l;
+
+		for (EventResult event : snapshot.events) {
+			result += event.stats.hits;
+		}
+
+		return result;
+	}
+
+	// Answers every volume request with a single event, hit as many times as hits has for the
+	// minutes in the request's range. The same event object is returned every time, as a shared
+	// result would be.
+	//
+	private static class VolumeClient extends ApiClient {
+		final Map<Long, Long> hits;
+		final AtomicInteger gets;
+		final EventResult event;
+
+		VolumeClient() {
+			super("http://localhost", 0, 0, LogLevel.WARN, Maps.newHashMap(), 1);
+
+			this.hits = Maps.newConcurrentMap();
+			this.gets = new AtomicInteger();
+			this.event = new EventResult();
+
+			event.id = "E1";
+			event.labels = Collections.singletonList("Anomaly");
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public <T extends ApiResult> Response<T> get(ApiGetRequest<T> request) {
+			gets.incrementAndGet();
+
+			long from = 0l;
+			long to = 0l;
+
+			try {
+				for (String param : request.queryParams()) {
+					String value = URLDecoder.decode(param.substring(param.indexOf('=') + 1), "UTF-8");
+
+					if (param.startsWith("from=")) {
+						from = DateTime.parse(value).getMillis();
+					} else if (param.startsWith("to=")) {
+						to = DateTime.parse(value).getMillis();
+					}
+				}
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+
+			Stats stats = new Stats();
+
+			for (Map.Entry<Long, Long> entry : hits.entrySet()) {
+				if ((entry.getKey() >= from) && (entry.getKey() < to)) {
+					stats.hits += entry.getValue();
+					stats.invocations += entry.getValue();
+				}
+			}
+
+			event.stats = stats;
+
+			EventsResult result = new EventsResult();
+			result.events = Collections.singletonList(event);
+
+			return Response.of(200, (T) result);
+		}
+	}
+}